@@ -0,0 +1,191 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.benchmark;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.ChangeLogEditor;
+import io.cloudtrust.keycloak.liquibaseAdapter.SyntheticChangeLogGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the load, the transformations and the marshalling of the {@link ChangeLogEditor}, on the bundled
+ * Keycloak-like changelog and on synthetic changelogs of increasing size. The transformations change the loaded
+ * changelog: each of their measured iterations runs a batch of {@value #BATCH} invocations on as many changelogs
+ * loaded before the iteration, so that loading them is neither measured nor interleaved with the measured calls.
+ * The largest synthetic changelogs then need a large heap ({@code -jvmArgs -Xmx8g}).
+ * <p>
+ * Run with {@code java -jar target/benchmarks.jar -prof gc} to also get the allocation rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChangeLogEditorBenchmark {
+
+    /**
+     * The number of invocations of a measured iteration of the transformations
+     */
+    static final int BATCH = 10;
+
+    private static final String BUNDLED = "bundled";
+
+    /**
+     * The changelog file, written once per trial
+     */
+    @State(Scope.Benchmark)
+    public static class ChangeLogFile {
+
+        /**
+         * "bundled" for the Keycloak-like changelog, or the number of tables of a synthetic changelog
+         */
+        @Param({BUNDLED, "10", "1000", "100000"})
+        public String changeLog;
+
+        private Path directory;
+        private Path file;
+
+        @Setup(Level.Trial)
+        public void writeChangeLog() throws IOException, JAXBException {
+            directory = Files.createTempDirectory("changelog-benchmark");
+            file = directory.resolve("changelog.xml");
+            if (BUNDLED.equals(changeLog)) {
+                try (InputStream in = getClass().getResourceAsStream("/keycloak-like-changelog.xml")) {
+                    Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } else {
+                // the proportions of the Keycloak changelog: a foreign key per table, an index every other table
+                int tables = Integer.parseInt(changeLog);
+                SyntheticChangeLogGenerator generator = new SyntheticChangeLogGenerator();
+                generator.setTables(tables);
+                generator.setForeignKeys(tables);
+                generator.setIndexes(tables / 2);
+                generator.setRenames(tables / 10);
+                generator.setDrops(tables / 10);
+                generator.setDataLoads(tables / 100, 100);
+                generator.generate(file);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void deleteChangeLog() throws IOException {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path path : (Iterable<Path>) files::iterator) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(directory);
+        }
+
+        ChangeLogEditor load() throws JAXBException {
+            ChangeLogEditor editor = new ChangeLogEditor();
+            editor.loadDatabaseChangeLog(file.toString());
+            return editor;
+        }
+    }
+
+    /**
+     * A changelog loaded once per trial, for the benchmarks that do not change it
+     */
+    @State(Scope.Thread)
+    public static class LoadedChangeLog {
+        private ChangeLogEditor editor;
+
+        @Setup(Level.Trial)
+        public void load(ChangeLogFile file) throws JAXBException {
+            editor = file.load();
+        }
+    }
+
+    /**
+     * The changelogs loaded before each iteration, one per invocation of the transformation
+     */
+    @State(Scope.Thread)
+    public static class FreshChangeLogs {
+        private final ChangeLogEditor[] editors = new ChangeLogEditor[BATCH];
+        private int next;
+
+        @Setup(Level.Iteration)
+        public void load(ChangeLogFile file) throws JAXBException {
+            for (int i = 0; i < BATCH; i++) {
+                editors[i] = file.load();
+            }
+            next = 0;
+        }
+
+        ChangeLogEditor next() {
+            ChangeLogEditor editor = editors[next];
+            // released once transformed, so that the heap holds at most a batch of changelogs
+            editors[next++] = null;
+            return editor;
+        }
+    }
+
+    @Benchmark
+    public ChangeLogEditor loadDatabaseChangeLog(ChangeLogFile file) throws JAXBException {
+        return file.load();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10, batchSize = BATCH)
+    @Measurement(iterations = 20, batchSize = BATCH)
+    public ChangeLogEditor mergeAddPrimeryKeyIntoCreateTable(FreshChangeLogs changeLogs) {
+        ChangeLogEditor editor = changeLogs.next();
+        editor.mergeAddPrimeryKeyIntoCreateTable();
+        return editor;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10, batchSize = BATCH)
+    @Measurement(iterations = 20, batchSize = BATCH)
+    public ChangeLogEditor createIndexesForForeignKeys(FreshChangeLogs changeLogs) {
+        ChangeLogEditor editor = changeLogs.next();
+        editor.createIndexesForForeignKeys();
+        return editor;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10, batchSize = BATCH)
+    @Measurement(iterations = 20, batchSize = BATCH)
+    public ChangeLogEditor changeAddUniqueConstraintToUniqueIndex(FreshChangeLogs changeLogs) {
+        ChangeLogEditor editor = changeLogs.next();
+        editor.changeAddUniqueConstraintToUniqueIndex();
+        return editor;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10, batchSize = BATCH)
+    @Measurement(iterations = 20, batchSize = BATCH)
+    public ChangeLogEditor changeDropUniqueConstraintToDropIndex(FreshChangeLogs changeLogs) {
+        ChangeLogEditor editor = changeLogs.next();
+        editor.changeDropUniqueConstraintToDropIndex();
+        return editor;
+    }
+
+    @Benchmark
+    public String marshal(LoadedChangeLog changeLog) {
+        return changeLog.editor.toString();
+    }
+}
@@ -0,0 +1,138 @@
+package io.cloudtrust.keycloak.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * The invocation handler behind the connections handed out by a {@link CockroachDataSource}. Calls are forwarded to
+ * the driver connection, except for the ones answered by the wrapper itself. When statement listeners are
+ * registered, the created statements are wrapped so that their executions, as well as the commits, are reported.
+ * With a {@link LikeRewriter}, the SQL of the prepared statements is rewritten before it reaches the driver.
+ */
+class CockroachConnectionHandler implements InvocationHandler, ProfiledConnection {
+
+    private final Connection delegate;
+    private final TuningProfile tuningProfile;
+    private final List<StatementListener> listeners;
+    private final LikeRewriter likeRewriter;
+    private Connection proxy;
+    private String restartedSql;
+
+    private CockroachConnectionHandler(Connection delegate, TuningProfile tuningProfile,
+                                       List<StatementListener> listeners, LikeRewriter likeRewriter) {
+        this.delegate = delegate;
+        this.tuningProfile = tuningProfile;
+        this.listeners = listeners;
+        this.likeRewriter = likeRewriter;
+    }
+
+    static Connection wrap(Connection delegate, TuningProfile tuningProfile, List<StatementListener> listeners,
+                           LikeRewriter likeRewriter) {
+        CockroachConnectionHandler handler = new CockroachConnectionHandler(delegate, tuningProfile, listeners,
+                likeRewriter);
+        handler.proxy = (Connection) Proxy.newProxyInstance(CockroachConnectionHandler.class.getClassLoader(),
+                new Class<?>[]{Connection.class, ProfiledConnection.class}, handler);
+        return handler.proxy;
+    }
+
+    @Override
+    public TuningProfile getTuningProfile() {
+        return tuningProfile;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (likeRewriter != null && (method.getName().equals("prepareStatement")
+                || method.getName().equals("prepareCall"))) {
+            args = args.clone();
+            args[0] = likeRewriter.rewrite((String) args[0]);
+        }
+        switch (method.getName()) {
+            case "getTuningProfile":
+                return tuningProfile;
+            case "unwrap":
+                if (args[0] == ProfiledConnection.class) {
+                    return this;
+                }
+                break;
+            case "isWrapperFor":
+                if (args[0] == ProfiledConnection.class) {
+                    return true;
+                }
+                break;
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "CockroachConnection[" + tuningProfile + "] " + delegate;
+            case "createStatement":
+                if (!listeners.isEmpty()) {
+                    return CockroachStatementHandler.wrap(Statement.class, (Statement) forward(method, args),
+                            this, this.proxy, null);
+                }
+                break;
+            case "prepareStatement":
+                if (!listeners.isEmpty()) {
+                    return CockroachStatementHandler.wrap(PreparedStatement.class, (Statement) forward(method, args),
+                            this, this.proxy, (String) args[0]);
+                }
+                break;
+            case "prepareCall":
+                if (!listeners.isEmpty()) {
+                    return CockroachStatementHandler.wrap(CallableStatement.class, (Statement) forward(method, args),
+                            this, this.proxy, (String) args[0]);
+                }
+                break;
+            case "commit":
+                if (!listeners.isEmpty()) {
+                    long start = System.nanoTime();
+                    try {
+                        Object result = forward(method, args);
+                        executed("COMMIT", System.nanoTime() - start, null);
+                        return result;
+                    } catch (SQLException e) {
+                        executed("COMMIT", System.nanoTime() - start, e);
+                        throw e;
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+        return forward(method, args);
+    }
+
+    private Object forward(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(delegate, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Reports an execution to the listeners. The SQL that failed with a restart is remembered until it is executed
+     * again or a commit succeeds. Connections are used by one thread at a time, so this needs no synchronisation.
+     */
+    void executed(String sql, long elapsedNanos, SQLException failure) {
+        boolean retry = restartedSql != null && restartedSql.equals(sql);
+        StatementExecution execution = new StatementExecution(sql, elapsedNanos, failure, retry, tuningProfile);
+        if (execution.isRestart()) {
+            restartedSql = sql;
+        } else if (retry || (failure == null && "COMMIT".equals(sql))) {
+            restartedSql = null;
+        }
+        for (StatementListener listener : listeners) {
+            listener.executed(execution);
+        }
+    }
+}
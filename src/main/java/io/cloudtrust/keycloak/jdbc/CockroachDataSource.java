@@ -0,0 +1,160 @@
+package io.cloudtrust.keycloak.jdbc;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * A DataSource wrapping the one of the PostgreSQL driver, which prepares the connections it hands out for
+ * cockroachdb.
+ * <p>
+ * Each new connection gets one of the configured {@link TuningProfile}s, whose session variables are set in a
+ * single round trip before the connection is returned. When several profiles are configured they are assigned in
+ * turn, so that they can be compared under the same load; the profile of a connection is available through
+ * {@link ProfiledConnection} and the number of connections per profile through {@link #getConnectionCounts()}.
+ * <p>
+ * The statements executed through the connections are reported to the registered {@link StatementListener}s, and the
+ * statements they prepare can be rewritten by a {@link LikeRewriter}.
+ */
+public class CockroachDataSource implements DataSource {
+
+    private final DataSource delegate;
+    private final List<TuningProfile> profiles;
+    private final AtomicLong nextProfile = new AtomicLong();
+    private final Map<String, AtomicLong> connectionCounts = new ConcurrentHashMap<>();
+    private final List<StatementListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile LikeRewriter likeRewriter;
+
+    /**
+     * Creates a DataSource applying no tuning profile
+     *
+     * @param delegate the DataSource of the driver
+     */
+    public CockroachDataSource(DataSource delegate) {
+        this(delegate, Collections.singletonList(new TuningProfile("default", 1, Collections.emptyMap())));
+    }
+
+    /**
+     * Creates a DataSource assigning the given tuning profiles in turn
+     *
+     * @param delegate the DataSource of the driver
+     * @param profiles the tuning profiles, of which there must be at least one
+     */
+    public CockroachDataSource(DataSource delegate, List<TuningProfile> profiles) {
+        if (profiles.isEmpty()) {
+            throw new IllegalArgumentException("At least one tuning profile is required");
+        }
+        this.delegate = delegate;
+        this.profiles = Collections.unmodifiableList(new ArrayList<>(profiles));
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return prepare(delegate.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return prepare(delegate.getConnection(username, password));
+    }
+
+    private Connection prepare(Connection connection) throws SQLException {
+        TuningProfile profile = profiles.get((int) (nextProfile.getAndIncrement() % profiles.size()));
+        if (!profile.getSettings().isEmpty()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(profile.getSql());
+            } catch (SQLException e) {
+                connection.close();
+                throw new SQLException("Unable to apply tuning profile " + profile + ": " + e.getMessage(),
+                        e.getSQLState(), e);
+            }
+        }
+        connectionCounts.computeIfAbsent(profile.toString(), k -> new AtomicLong()).incrementAndGet();
+        return CockroachConnectionHandler.wrap(connection, profile, listeners, likeRewriter);
+    }
+
+    /**
+     * Registers a listener notified of the statements executed through the connections of this DataSource. Only
+     * the statements created after the registration are instrumented.
+     *
+     * @param listener the listener
+     */
+    public void addStatementListener(StatementListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Sets the rewriter of the LIKE predicates of the statements prepared by the connections created afterwards
+     *
+     * @param likeRewriter the rewriter, or null to prepare the statements unchanged
+     */
+    public void setLikeRewriter(LikeRewriter likeRewriter) {
+        this.likeRewriter = likeRewriter;
+    }
+
+    /**
+     * @return the tuning profiles assigned by this DataSource
+     */
+    public List<TuningProfile> getProfiles() {
+        return profiles;
+    }
+
+    /**
+     * @return the number of connections created so far with each profile, by profile identifier (name@version)
+     */
+    public Map<String, Long> getConnectionCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        connectionCounts.forEach((profile, count) -> counts.put(profile, count.get()));
+        return counts;
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return delegate.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        delegate.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        delegate.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return delegate.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return delegate.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return delegate.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || delegate.isWrapperFor(iface);
+    }
+}
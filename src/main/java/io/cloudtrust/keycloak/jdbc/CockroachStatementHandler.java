@@ -0,0 +1,72 @@
+package io.cloudtrust.keycloak.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The invocation handler behind the statements created by the connections of a {@link CockroachDataSource}. It
+ * times the executions and reports them to the connection.
+ */
+class CockroachStatementHandler implements InvocationHandler {
+
+    private final Statement delegate;
+    private final CockroachConnectionHandler connection;
+    private final Connection connectionProxy;
+    private final String preparedSql;
+    private String batchSql;
+
+    private CockroachStatementHandler(Statement delegate, CockroachConnectionHandler connection,
+                                      Connection connectionProxy, String preparedSql) {
+        this.delegate = delegate;
+        this.connection = connection;
+        this.connectionProxy = connectionProxy;
+        this.preparedSql = preparedSql;
+    }
+
+    static Statement wrap(Class<? extends Statement> type, Statement delegate, CockroachConnectionHandler connection,
+                          Connection connectionProxy, String preparedSql) {
+        return (Statement) Proxy.newProxyInstance(CockroachStatementHandler.class.getClassLoader(),
+                new Class<?>[]{type}, new CockroachStatementHandler(delegate, connection, connectionProxy, preparedSql));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (name.equals("getConnection")) {
+            return connectionProxy;
+        }
+        if (name.equals("addBatch") && args != null && batchSql == null) {
+            batchSql = (String) args[0];
+        }
+        if (!name.startsWith("execute")) {
+            return forward(method, args);
+        }
+        String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0]
+                : preparedSql != null ? preparedSql : batchSql;
+        if (name.equals("executeBatch")) {
+            batchSql = null;
+        }
+        long start = System.nanoTime();
+        try {
+            Object result = forward(method, args);
+            connection.executed(sql, System.nanoTime() - start, null);
+            return result;
+        } catch (SQLException e) {
+            connection.executed(sql, System.nanoTime() - start, e);
+            throw e;
+        }
+    }
+
+    private Object forward(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(delegate, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package io.cloudtrust.keycloak.jdbc;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Detects the rows on which keycloak transactions contend. Register it with
+ * {@link CockroachDataSource#addStatementListener(StatementListener)}.
+ * <p>
+ * On the client side it records, per table and statement fingerprint, the transaction restarts requested by
+ * cockroachdb (SQLState 40001), the retries of the restarted statements and the time spent in both, which is the
+ * part of the lock wait time visible from the client. On the cluster side it periodically polls a
+ * {@link ContentionSource} for the contended keys. Both are correlated by table into a ranked hot row report.
+ * <p>
+ * Successful executions that are not retries cost a single branch, so the detector can stay enabled in production.
+ */
+public class ContentionDetector implements StatementListener {
+
+    private static final String UNKNOWN_TABLE = "?";
+
+    private final ContentionSource source;
+    private final Map<StatementKey, Counters> counters = new ConcurrentHashMap<>();
+    private volatile List<ContentionEvent> events = Collections.emptyList();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Standard constructor
+     *
+     * @param source the source of the contention recorded by the cluster
+     */
+    public ContentionDetector(ContentionSource source) {
+        this.source = source;
+    }
+
+    @Override
+    public void executed(StatementExecution execution) {
+        if (!execution.isRestart() && !execution.isRetry()) {
+            return;
+        }
+        SqlFingerprint fingerprint = SqlFingerprint.of(execution.getSql());
+        StatementKey key = new StatementKey(fingerprint.getTable() == null ? UNKNOWN_TABLE : fingerprint.getTable(),
+                fingerprint.getText());
+        Counters c = counters.computeIfAbsent(key, k -> new Counters());
+        if (execution.isRestart()) {
+            c.restarts.increment();
+        }
+        if (execution.isRetry()) {
+            c.retries.increment();
+        }
+        c.contendedNanos.add(execution.getElapsedNanos());
+    }
+
+    /**
+     * Starts polling the contention source in a background thread
+     *
+     * @param period the polling period
+     * @param unit   the unit of the polling period
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cockroach-contention-detector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                poll();
+            } catch (SQLException e) {
+                System.err.println("Unable to poll the contention events: " + e.getMessage());
+            }
+        }, 0, period, unit);
+    }
+
+    /**
+     * Stops polling the contention source
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Polls the contention source once
+     *
+     * @throws SQLException thrown if the source cannot be read
+     */
+    public void poll() throws SQLException {
+        events = Collections.unmodifiableList(new ArrayList<>(source.poll()));
+    }
+
+    /**
+     * Correlates the client side counters with the last polled contention events
+     *
+     * @return the contention per table, hottest first
+     */
+    public List<TableContention> getReport() {
+        Map<String, TableContention> tables = new HashMap<>();
+        for (ContentionEvent event : events) {
+            TableContention t = tables.computeIfAbsent(event.getTable(), TableContention::new);
+            t.events.add(event);
+            t.contentionNanos += event.getCumulativeNanos();
+        }
+        counters.forEach((key, c) -> {
+            TableContention t = tables.computeIfAbsent(key.table, TableContention::new);
+            StatementContention s = new StatementContention(key.fingerprint, c.restarts.sum(), c.retries.sum(),
+                    c.contendedNanos.sum());
+            t.statements.add(s);
+            t.contentionNanos += s.contendedNanos;
+        });
+        List<TableContention> report = new ArrayList<>(tables.values());
+        for (TableContention t : report) {
+            t.events.sort(Comparator.comparingLong(ContentionEvent::getCumulativeNanos).reversed());
+            t.statements.sort(Comparator.comparingLong(StatementContention::getContendedNanos).reversed());
+        }
+        report.sort(Comparator.comparingLong(TableContention::getContentionNanos).reversed());
+        return report;
+    }
+
+    /**
+     * @param limit the maximum number of tables, and of keys and statements per table, to print
+     * @return the hot row report as text
+     */
+    public String formatReport(int limit) {
+        StringBuilder sb = new StringBuilder("Hot rows, ranked by contention time\n");
+        int rank = 0;
+        for (TableContention t : getReport()) {
+            if (++rank > limit) {
+                break;
+            }
+            sb.append(String.format("%d. %s  time=%.1fms%n", rank, t.table, t.contentionNanos / 1e6));
+            t.events.stream().limit(limit).forEach(e -> sb.append(String.format(
+                    "     key %s@%s  events=%d  time=%.1fms%n",
+                    e.getIndex(), e.getKey(), e.getCount(), e.getCumulativeNanos() / 1e6)));
+            t.statements.stream().limit(limit).forEach(s -> sb.append(String.format(
+                    "     statement %s  restarts=%d  retries=%d  time=%.1fms%n",
+                    s.fingerprint, s.restarts, s.retries, s.contendedNanos / 1e6)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Clears the client side counters
+     */
+    public void reset() {
+        counters.clear();
+    }
+
+    /**
+     * The contention observed on one table
+     */
+    public static class TableContention {
+        private final String table;
+        private final List<ContentionEvent> events = new ArrayList<>();
+        private final List<StatementContention> statements = new ArrayList<>();
+        private long contentionNanos;
+
+        private TableContention(String table) {
+            this.table = table;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        /**
+         * @return the contended keys of the table, as recorded by the cluster
+         */
+        public List<ContentionEvent> getEvents() {
+            return events;
+        }
+
+        /**
+         * @return the contended statements on the table, as observed by the client
+         */
+        public List<StatementContention> getStatements() {
+            return statements;
+        }
+
+        /**
+         * @return the sum of the contention time recorded by the cluster and observed by the client
+         */
+        public long getContentionNanos() {
+            return contentionNanos;
+        }
+    }
+
+    /**
+     * The contention observed by the client for one statement fingerprint
+     */
+    public static class StatementContention {
+        private final String fingerprint;
+        private final long restarts;
+        private final long retries;
+        private final long contendedNanos;
+
+        private StatementContention(String fingerprint, long restarts, long retries, long contendedNanos) {
+            this.fingerprint = fingerprint;
+            this.restarts = restarts;
+            this.retries = retries;
+            this.contendedNanos = contendedNanos;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public long getRestarts() {
+            return restarts;
+        }
+
+        public long getRetries() {
+            return retries;
+        }
+
+        public long getContendedNanos() {
+            return contendedNanos;
+        }
+    }
+
+    private static class Counters {
+        private final LongAdder restarts = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder contendedNanos = new LongAdder();
+    }
+
+    private static class StatementKey {
+        private final String table;
+        private final String fingerprint;
+
+        private StatementKey(String table, String fingerprint) {
+            this.table = table;
+            this.fingerprint = fingerprint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof StatementKey)) {
+                return false;
+            }
+            StatementKey other = (StatementKey) o;
+            return table.equals(other.table) && fingerprint.equals(other.fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * table.hashCode() + fingerprint.hashCode();
+        }
+    }
+}
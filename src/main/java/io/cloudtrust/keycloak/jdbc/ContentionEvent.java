@@ -0,0 +1,50 @@
+package io.cloudtrust.keycloak.jdbc;
+
+/**
+ * Contention recorded by cockroachdb on one key of one index
+ */
+public class ContentionEvent {
+
+    private final String table;
+    private final String index;
+    private final String key;
+    private final long count;
+    private final long cumulativeNanos;
+
+    /**
+     * Standard constructor
+     *
+     * @param table           the name of the table
+     * @param index           the name of the index
+     * @param key             the (pretty printed) contended key
+     * @param count           the number of contention events on the key
+     * @param cumulativeNanos the cumulative time spent waiting on the key
+     */
+    public ContentionEvent(String table, String index, String key, long count, long cumulativeNanos) {
+        this.table = table;
+        this.index = index;
+        this.key = key;
+        this.count = count;
+        this.cumulativeNanos = cumulativeNanos;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getCumulativeNanos() {
+        return cumulativeNanos;
+    }
+}
@@ -0,0 +1,17 @@
+package io.cloudtrust.keycloak.jdbc;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Provides the contention recorded by the cluster. {@link CrdbContentionSource} reads it from the crdb_internal
+ * tables; a stub returning fixed events can be used where no cluster is available.
+ */
+public interface ContentionSource {
+
+    /**
+     * @return the contention events currently recorded by the cluster
+     * @throws SQLException thrown if the events cannot be read
+     */
+    List<ContentionEvent> poll() throws SQLException;
+}
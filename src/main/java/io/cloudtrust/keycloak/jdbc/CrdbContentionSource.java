@@ -0,0 +1,48 @@
+package io.cloudtrust.keycloak.jdbc;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the contention events recorded by cockroachdb in crdb_internal.cluster_contention_events, which requires
+ * the VIEWACTIVITY privilege.
+ */
+public class CrdbContentionSource implements ContentionSource {
+
+    private static final String QUERY = "SELECT t.name, i.index_name, e.key::STRING, e.count, "
+            + "(extract(epoch FROM e.cumulative_contention_time) * 1e9)::INT8 "
+            + "FROM crdb_internal.cluster_contention_events AS e "
+            + "JOIN crdb_internal.tables AS t ON t.table_id = e.table_id "
+            + "LEFT JOIN crdb_internal.table_indexes AS i ON i.descriptor_id = e.table_id AND i.index_id = e.index_id";
+
+    private final DataSource dataSource;
+
+    /**
+     * Standard constructor
+     *
+     * @param dataSource the DataSource used to read the events. It should not be an instrumented one, so that the
+     *                   polling doesn't show up in the statistics.
+     */
+    public CrdbContentionSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public List<ContentionEvent> poll() throws SQLException {
+        List<ContentionEvent> events = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(QUERY)) {
+            while (rs.next()) {
+                events.add(new ContentionEvent(rs.getString(1).toUpperCase(), rs.getString(2), rs.getString(3),
+                        rs.getLong(4), rs.getLong(5)));
+            }
+        }
+        return events;
+    }
+}
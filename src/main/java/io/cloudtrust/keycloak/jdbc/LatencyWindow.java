@@ -0,0 +1,62 @@
+package io.cloudtrust.keycloak.jdbc;
+
+/**
+ * The latency of the statements executed over a sliding window. {@link StatementStatistics} accumulates the latencies
+ * since it was last reset, which hides a recent degradation; the window instead holds the statements of the current
+ * and the previous period, so that its percentiles follow the live traffic.
+ */
+public class LatencyWindow implements StatementListener {
+
+    private final long periodNanos;
+    private volatile LatencyHistogram current = new LatencyHistogram();
+    private volatile LatencyHistogram previous = new LatencyHistogram();
+    private volatile long periodStart = System.nanoTime();
+
+    /**
+     * Standard constructor
+     *
+     * @param periodMillis the length of a period, the window covering one to two periods
+     */
+    public LatencyWindow(long periodMillis) {
+        this.periodNanos = periodMillis * 1_000_000;
+    }
+
+    @Override
+    public void executed(StatementExecution execution) {
+        rotate(System.nanoTime());
+        current.record(execution.getElapsedNanos());
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return the latency at the percentile over the window, in nanoseconds, or 0 if no statement was executed
+     */
+    public long getValueAtPercentile(double percentile) {
+        rotate(System.nanoTime());
+        return previous.copy().add(current).getValueAtPercentile(percentile);
+    }
+
+    /**
+     * @return the number of statements executed over the window
+     */
+    public long getCount() {
+        return current.getCount() + previous.getCount();
+    }
+
+    void rotate(long now) {
+        if (now - periodStart >= periodNanos) {
+            rotateLocked(now);
+        }
+    }
+
+    private synchronized void rotateLocked(long now) {
+        long elapsed = now - periodStart;
+        if (elapsed < periodNanos) {
+            return;
+        }
+        // after an idle period, the previous statements are too old to be kept
+        previous = elapsed < 2 * periodNanos ? current : new LatencyHistogram();
+        current = new LatencyHistogram();
+        periodStart = now;
+    }
+}
@@ -0,0 +1,86 @@
+package io.cloudtrust.keycloak.jdbc;
+
+import java.util.Collection;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Rewrites the case insensitive LIKE predicates on configured columns into the form served by their trigram inverted
+ * indexes on lower(column): {@code col ILIKE ?}, {@code upper(col) ILIKE ?} and {@code upper(col) LIKE upper(?)} all
+ * become {@code lower(col) LIKE lower(?)}. Without the rewrite, the user searches of the admin console scan the whole
+ * table on cockroachdb.
+ * <p>
+ * The columns may be qualified by a table alias in the SQL. The case sensitive LIKE predicates are left untouched, as
+ * the index cannot serve them, and so are the LIKE predicates on upper(col) or lower(col) whose operand is not wrapped
+ * in the same function: {@code lower(col) LIKE ?} never matches a parameter with upper case letters, and
+ * {@code upper(col) LIKE 'abc%'} never matches at all, but both would once rewritten.
+ */
+public class LikeRewriter {
+
+    private static final String OPERAND = "\\?|'(?:[^']|'')*'";
+    private static final Pattern LIKE = Pattern.compile("LIKE", Pattern.CASE_INSENSITIVE);
+
+    private final Pattern ilike;
+    private final Pattern caseFunction;
+
+    /**
+     * Standard constructor
+     *
+     * @param columns the names of the columns having a trigram index on lower(column)
+     */
+    public LikeRewriter(Collection<String> columns) {
+        if (columns.isEmpty()) {
+            throw new IllegalArgumentException("At least one column is required");
+        }
+        String column = "((?:\\w+\\.)?\"?(?:" + columns.stream().map(Pattern::quote).collect(Collectors.joining("|"))
+                + ")\"?)";
+        ilike = Pattern.compile("(?<![\\w.\"])" + column + "\\s+(NOT\\s+)?ILIKE\\s+(" + OPERAND + ")",
+                Pattern.CASE_INSENSITIVE);
+        caseFunction = Pattern.compile("\\b(UPPER|LOWER)\\s*\\(\\s*" + column + "\\s*\\)\\s+(NOT\\s+)?(I?LIKE)\\s+"
+                + "(?:(UPPER|LOWER)\\s*\\(\\s*(" + OPERAND + ")\\s*\\)|(" + OPERAND + "))", Pattern.CASE_INSENSITIVE);
+    }
+
+    /**
+     * @param sql a SQL statement
+     * @return the statement with the LIKE predicates on the configured columns rewritten, or the statement itself if
+     * it has none
+     */
+    public String rewrite(String sql) {
+        if (sql == null || !LIKE.matcher(sql).find()) {
+            return sql;
+        }
+        String rewritten = replace(ilike, sql, m -> like(m.group(1), m.group(2), m.group(3)));
+        return replace(caseFunction, rewritten, m -> {
+            boolean sameFunction = m.group(5) != null && m.group(5).equalsIgnoreCase(m.group(1));
+            if (!sameFunction && !"ILIKE".equalsIgnoreCase(m.group(4))) {
+                return null;
+            }
+            return like(m.group(2), m.group(3), m.group(6) != null ? m.group(6) : m.group(7));
+        });
+    }
+
+    private static String like(String column, String not, String operand) {
+        return "lower(" + column + ") " + (not != null ? "NOT " : "") + "LIKE lower(" + operand + ")";
+    }
+
+    /**
+     * @param replacement gives the replacement of a match, or null to keep it
+     */
+    private static String replace(Pattern pattern, String sql, Function<Matcher, String> replacement) {
+        Matcher m = pattern.matcher(sql);
+        if (!m.find()) {
+            return sql;
+        }
+        boolean replaced = false;
+        StringBuffer sb = new StringBuffer();
+        do {
+            String r = replacement.apply(m);
+            replaced |= r != null;
+            m.appendReplacement(sb, Matcher.quoteReplacement(r != null ? r : m.group()));
+        } while (m.find());
+        m.appendTail(sb);
+        return replaced ? sb.toString() : sql;
+    }
+}
@@ -0,0 +1,13 @@
+package io.cloudtrust.keycloak.jdbc;
+
+/**
+ * Implemented by the connections handed out by a {@link CockroachDataSource}. Obtain it from a connection with
+ * {@code connection.unwrap(ProfiledConnection.class)}.
+ */
+public interface ProfiledConnection {
+
+    /**
+     * @return the tuning profile applied to the connection when it was created
+     */
+    TuningProfile getTuningProfile();
+}
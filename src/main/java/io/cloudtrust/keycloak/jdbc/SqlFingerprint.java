@@ -0,0 +1,205 @@
+package io.cloudtrust.keycloak.jdbc;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The fingerprint of a SQL text, under which the executions of the same query shape are aggregated: literals and
+ * bind placeholders are replaced by "?", IN lists are collapsed to a single placeholder, comments are removed and
+ * whitespace is normalised. The first table referenced by the text is extracted at the same time.
+ * <p>
+ * The text is scanned once, without regular expressions, and the fingerprints are cached by SQL text. As keycloak
+ * (through hibernate) uses a bounded set of prepared statement texts, the fingerprint of an execution is almost
+ * always a single map lookup on a string whose hash code is already cached.
+ */
+public final class SqlFingerprint {
+
+    private static final int MAX_CACHED = 10_000;
+    private static final Map<String, SqlFingerprint> CACHE = new ConcurrentHashMap<>();
+
+    private final String text;
+    private final String table;
+
+    private SqlFingerprint(String text, String table) {
+        this.text = text;
+        this.table = table;
+    }
+
+    /**
+     * @param sql the SQL text
+     * @return the (possibly cached) fingerprint of the SQL text
+     */
+    public static SqlFingerprint of(String sql) {
+        SqlFingerprint fingerprint = CACHE.get(sql);
+        if (fingerprint == null) {
+            fingerprint = compute(sql);
+            if (CACHE.size() >= MAX_CACHED) {
+                // texts with inlined literals would otherwise grow the cache without bound
+                CACHE.clear();
+            }
+            CACHE.put(sql, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Computes the fingerprint of a SQL text, bypassing the cache
+     *
+     * @param sql the SQL text
+     * @return the fingerprint
+     */
+    static SqlFingerprint compute(String sql) {
+        StringBuilder out = new StringBuilder(sql.length());
+        int[] openParens = new int[16];
+        int depth = 0;
+        boolean pendingSpace = false;
+        boolean tableExpected = false;
+        String table = null;
+        int n = sql.length();
+        int i = 0;
+        while (i < n) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = out.length() > 0;
+                i++;
+                continue;
+            }
+            if (c == '-' && i + 1 < n && sql.charAt(i + 1) == '-') {
+                while (i < n && sql.charAt(i) != '\n') {
+                    i++;
+                }
+                pendingSpace = out.length() > 0;
+                continue;
+            }
+            if (c == '/' && i + 1 < n && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? n : end + 2;
+                pendingSpace = out.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                char last = out.charAt(out.length() - 1);
+                if (last != '(' && last != ' ' && c != ')' && c != ',') {
+                    out.append(' ');
+                }
+                pendingSpace = false;
+            }
+            if (c == '\'') {
+                i++;
+                while (i < n) {
+                    if (sql.charAt(i) == '\'') {
+                        if (i + 1 < n && sql.charAt(i + 1) == '\'') {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                i++;
+                out.append('?');
+                tableExpected = false;
+            } else if (isDigit(c) || (c == '$' && i + 1 < n && isDigit(sql.charAt(i + 1)))) {
+                i++;
+                while (i < n && (isIdentifierPart(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    i++;
+                }
+                out.append('?');
+                tableExpected = false;
+            } else if (c == '"' || Character.isLetter(c) || c == '_') {
+                int start = i;
+                if (c == '"') {
+                    int end = sql.indexOf('"', i + 1);
+                    i = end < 0 ? n : end + 1;
+                } else {
+                    while (i < n && (isIdentifierPart(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                        i++;
+                    }
+                }
+                String identifier = sql.substring(start, i);
+                out.append(identifier);
+                if (tableExpected && table == null) {
+                    table = identifier.replace("\"", "").toUpperCase();
+                }
+                tableExpected = isTableKeyword(identifier);
+            } else {
+                if (c == '(') {
+                    if (depth == openParens.length) {
+                        openParens = Arrays.copyOf(openParens, depth * 2);
+                    }
+                    openParens[depth++] = out.length();
+                    out.append(c);
+                } else if (c == ')' && depth > 0) {
+                    int open = openParens[--depth];
+                    out.append(c);
+                    collapseInList(out, open);
+                } else {
+                    out.append(c);
+                    if (c == ',') {
+                        out.append(' ');
+                    }
+                }
+                tableExpected = false;
+                i++;
+            }
+        }
+        int length = out.length();
+        while (length > 0 && out.charAt(length - 1) == ' ') {
+            length--;
+        }
+        out.setLength(length);
+        return new SqlFingerprint(out.toString(), table);
+    }
+
+    /**
+     * Replaces "IN (?, ?, ?)" by "IN (?)", the open parenthesis being at the given position
+     */
+    private static void collapseInList(StringBuilder out, int open) {
+        int k = open > 0 && out.charAt(open - 1) == ' ' ? open - 2 : open - 1;
+        if (k < 1 || Character.toUpperCase(out.charAt(k)) != 'N' || Character.toUpperCase(out.charAt(k - 1)) != 'I'
+                || (k > 1 && isIdentifierPart(out.charAt(k - 2)))) {
+            return;
+        }
+        for (int j = open + 1; j < out.length() - 1; j++) {
+            char c = out.charAt(j);
+            if (c != '?' && c != ',' && c != ' ') {
+                return;
+            }
+        }
+        out.setLength(k + 1);
+        out.append(" (?)");
+    }
+
+    private static boolean isTableKeyword(String identifier) {
+        return identifier.equalsIgnoreCase("from") || identifier.equalsIgnoreCase("update")
+                || identifier.equalsIgnoreCase("into") || identifier.equalsIgnoreCase("join");
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    /**
+     * @return the normalised SQL text
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return the first table referenced by the SQL text (in upper case), or null if none could be found
+     */
+    public String getTable() {
+        return table;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,66 @@
+package io.cloudtrust.keycloak.jdbc;
+
+import java.sql.SQLException;
+
+/**
+ * The description of one statement execution, handed to the {@link StatementListener}s of a
+ * {@link CockroachDataSource}.
+ */
+public class StatementExecution {
+
+    /**
+     * The SQLState with which cockroachdb reports a transaction that must be restarted
+     */
+    public static final String RETRY_SQL_STATE = "40001";
+
+    private final String sql;
+    private final long elapsedNanos;
+    private final SQLException failure;
+    private final boolean retry;
+    private final TuningProfile tuningProfile;
+
+    StatementExecution(String sql, long elapsedNanos, SQLException failure, boolean retry,
+                       TuningProfile tuningProfile) {
+        this.sql = sql;
+        this.elapsedNanos = elapsedNanos;
+        this.failure = failure;
+        this.retry = retry;
+        this.tuningProfile = tuningProfile;
+    }
+
+    /**
+     * @return the executed SQL, as given to the driver
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return the exception with which the execution failed, or null if it succeeded
+     */
+    public SQLException getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return true if the execution failed because cockroachdb asked for the transaction to be restarted
+     */
+    public boolean isRestart() {
+        return failure != null && RETRY_SQL_STATE.equals(failure.getSQLState());
+    }
+
+    /**
+     * @return true if the same SQL failed with a restart on the same connection just before this execution
+     */
+    public boolean isRetry() {
+        return retry;
+    }
+
+    public TuningProfile getTuningProfile() {
+        return tuningProfile;
+    }
+}
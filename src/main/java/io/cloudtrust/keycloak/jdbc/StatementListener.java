@@ -0,0 +1,15 @@
+package io.cloudtrust.keycloak.jdbc;
+
+/**
+ * Notified after each statement executed through a connection of a {@link CockroachDataSource}. Listeners are
+ * called on the executing thread and must therefore be cheap and thread-safe.
+ */
+public interface StatementListener {
+
+    /**
+     * Called after a statement has been executed, whether successfully or not
+     *
+     * @param execution the description of the execution
+     */
+    void executed(StatementExecution execution);
+}
@@ -0,0 +1,94 @@
+package io.cloudtrust.keycloak.jdbc;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maintains a {@link LatencyHistogram} per statement fingerprint. Register it with
+ * {@link CockroachDataSource#addStatementListener(StatementListener)}, and read it through JMX or
+ * {@link #dump()}.
+ * <p>
+ * Recording an execution is a cached fingerprint lookup, a map lookup and a histogram update, well under a
+ * microsecond.
+ */
+public class StatementStatistics implements StatementListener, StatementStatisticsMXBean {
+
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    @Override
+    public void executed(StatementExecution execution) {
+        String fingerprint = SqlFingerprint.of(execution.getSql()).getText();
+        LatencyHistogram histogram = histograms.get(fingerprint);
+        if (histogram == null) {
+            histogram = histograms.computeIfAbsent(fingerprint, k -> new LatencyHistogram());
+        }
+        histogram.record(execution.getElapsedNanos());
+    }
+
+    /**
+     * @param fingerprint the text of a statement fingerprint
+     * @return the histogram of the fingerprint, or null if no such statement has been executed
+     */
+    public LatencyHistogram getHistogram(String fingerprint) {
+        return histograms.get(fingerprint);
+    }
+
+    /**
+     * @return the histograms, by fingerprint text
+     */
+    public Map<String, LatencyHistogram> getHistograms() {
+        return histograms;
+    }
+
+    @Override
+    public int getFingerprintCount() {
+        return histograms.size();
+    }
+
+    @Override
+    public String dump() {
+        List<Map.Entry<String, LatencyHistogram>> entries = new ArrayList<>(histograms.entrySet());
+        entries.sort(Comparator.comparingLong((Map.Entry<String, LatencyHistogram> e) -> e.getValue().getSum())
+                .reversed());
+        StringBuilder sb = new StringBuilder(String.format("%10s %10s %10s %10s %10s %12s  %s%n",
+                "count", "mean(ms)", "p50(ms)", "p99(ms)", "max(ms)", "total(ms)", "statement"));
+        for (Map.Entry<String, LatencyHistogram> e : entries) {
+            LatencyHistogram h = e.getValue();
+            sb.append(String.format("%10d %10.3f %10.3f %10.3f %10.3f %12.1f  %s%n", h.getCount(), h.getMean() / 1e6,
+                    h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(99) / 1e6, h.getMax() / 1e6,
+                    h.getSum() / 1e6, e.getKey()));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void reset() {
+        histograms.clear();
+    }
+
+    /**
+     * Registers the statistics in the platform MBean server
+     *
+     * @param name the value of the name key of the MBean, identifying the DataSource
+     * @throws JMException thrown if the MBean cannot be registered
+     */
+    public void register(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("io.cloudtrust.keycloak:type=StatementStatistics,name="
+                + ObjectName.quote(name));
+        try {
+            server.registerMBean(this, objectName);
+        } catch (InstanceAlreadyExistsException e) {
+            server.unregisterMBean(objectName);
+            server.registerMBean(this, objectName);
+        }
+    }
+}
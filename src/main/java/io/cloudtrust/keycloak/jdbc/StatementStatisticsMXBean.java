@@ -0,0 +1,22 @@
+package io.cloudtrust.keycloak.jdbc;
+
+/**
+ * The JMX view of {@link StatementStatistics}
+ */
+public interface StatementStatisticsMXBean {
+
+    /**
+     * @return the number of distinct statement fingerprints
+     */
+    int getFingerprintCount();
+
+    /**
+     * @return the latency statistics of each fingerprint as text, most expensive first
+     */
+    String dump();
+
+    /**
+     * Clears the statistics
+     */
+    void reset();
+}
@@ -0,0 +1,126 @@
+package io.cloudtrust.keycloak.jdbc;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * A named and versioned set of cockroachdb session variables, applied to every connection handed out by a
+ * {@link CockroachDataSource}.
+ * <p>
+ * A profile is described by a properties file, for instance:
+ * <pre>
+ * name=lookup-joins
+ * version=2
+ * set.optimizer_use_histograms=on
+ * set.prefer_lookup_joins_for_fks=on
+ * set.reorder_joins_limit=6
+ * </pre>
+ */
+public class TuningProfile {
+
+    private static final String SET_PREFIX = "set.";
+    private static final Pattern NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_.]*");
+    private static final Pattern BARE_VALUE = Pattern.compile("[A-Za-z0-9_.-]+");
+
+    private final String name;
+    private final int version;
+    private final Map<String, String> settings;
+    private final String sql;
+
+    /**
+     * Standard constructor
+     *
+     * @param name     the name of the profile
+     * @param version  the version of the profile
+     * @param settings the session variables to set, in the order in which they are set
+     */
+    public TuningProfile(String name, int version, Map<String, String> settings) {
+        this.name = name;
+        this.version = version;
+        this.settings = Collections.unmodifiableMap(new LinkedHashMap<>(settings));
+        this.sql = toSql(this.settings);
+    }
+
+    /**
+     * Creates a profile from properties
+     *
+     * @param properties the properties describing the profile
+     * @return the profile
+     */
+    public static TuningProfile fromProperties(Properties properties) {
+        Map<String, String> settings = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(SET_PREFIX)) {
+                settings.put(key.substring(SET_PREFIX.length()), properties.getProperty(key).trim());
+            }
+        }
+        return new TuningProfile(properties.getProperty("name", "default"),
+                Integer.parseInt(properties.getProperty("version", "1").trim()), settings);
+    }
+
+    /**
+     * Loads a profile from a properties file
+     *
+     * @param path the properties file
+     * @return the profile
+     * @throws IOException thrown if there's a problem reading the file
+     */
+    public static TuningProfile load(Path path) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return fromProperties(properties);
+    }
+
+    private static String toSql(Map<String, String> settings) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            if (!NAME.matcher(setting.getKey()).matches()) {
+                throw new IllegalArgumentException("Invalid session variable name: " + setting.getKey());
+            }
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            String value = setting.getValue();
+            sb.append("SET ").append(setting.getKey()).append(" = ")
+                    .append(BARE_VALUE.matcher(value).matches() ? value : "'" + value.replace("'", "''") + "'");
+        }
+        return sb.toString();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public Map<String, String> getSettings() {
+        return settings;
+    }
+
+    /**
+     * @return the SET statements of the profile, separated by semicolons so that they are sent in one round trip
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return the identifier of the profile, in the form name@version
+     */
+    public String toString() {
+        return name + "@" + version;
+    }
+}
@@ -1,6 +1,11 @@
 package io.cloudtrust.keycloak.liquibaseAdapter;
 
+import io.cloudtrust.keycloak.liquibaseAdapter.data.BatchedDeleteRoutine;
+import io.cloudtrust.keycloak.liquibaseAdapter.data.UpsertStatementGenerator;
 import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.*;
+import io.cloudtrust.keycloak.liquibaseAdapter.schema.SchemaDiffReport;
+import io.cloudtrust.keycloak.liquibaseAdapter.schema.SchemaModel;
+import io.cloudtrust.keycloak.liquibaseAdapter.sql.SqlRenderer;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
@@ -8,15 +13,30 @@ import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
@@ -27,10 +47,36 @@ import java.util.stream.Collectors;
  */
 public class ChangeLogEditor {
 
-    private DatabaseChangeLog dcl;
+    public static final String OUTPUT_SUFFIX = "-cockroachdb.xml";
+    /**
+     * The version of the transformations, part of the conversion cache keys: it must be changed whenever a
+     * transformation changes its output
+     */
+    static final String TRANSFORMER_VERSION = "9";
+    private static final String PASSES = "mergeAddPrimeryKeyIntoCreateTable,createIndexesForForeignKeys," +
+            "changeAddUniqueConstraintToUniqueIndex,changeDropUniqueConstraintToDropIndex,createIndexesForCascades," +
+            "changeCreateIndexToPartialIndex,addTrigramIndexes,replaceDeleteCascades,addRowLevelTtl," +
+            "changeLoadUpdateDataToUpsert,addValidCheckSums";
+    private static final int UPSERT_BATCH_SIZE = 500;
+    private static final int DELETE_BATCH_SIZE = 1000;
+    private static final Pattern INDEX_STATEMENT = Pattern.compile(
+            "^\\s*CREATE\\s+(?:UNIQUE\\s+)?INDEX\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?(\\S+)\\s+ON\\s+([^\\s(]+)",
+            Pattern.CASE_INSENSITIVE);
+
+    private ChangeLogGraph graph;
+    private ChangeLogGraphLoader loader;
     private List<DatabaseChangeLog.ChangeSet> changeSetList;
-    private String fileName;
+    private ConversionCache cache;
+    private String configuration;
+    private final Map<ChangeLogGraph.Node, String> cacheKeys = new IdentityHashMap<>();
+    private final Set<ChangeLogGraph.Node> cachedNodes = Collections.newSetFromMap(new IdentityHashMap<>());
+    private Map<String, List<String>> uniqueIndexStoring = Collections.emptyMap();
+    private Set<String> replacedDeleteCascades = Collections.emptySet();
+    private Map<String, Map<String, String>> rowLevelTtl = Collections.emptyMap();
+    private Map<String, String> partialIndexes = Collections.emptyMap();
+    private Map<String, Set<String>> trigramColumns = Collections.emptyMap();
     private final Marshaller marshaller;
+    private final OutputWriter writer;
 
     /**
      * Standard constructor
@@ -48,6 +94,7 @@ public class ChangeLogEditor {
             //do nothing, but a nullpointer will be called later in the unlikely event of an error
         }
         marshaller = local;
+        writer = new OutputWriter(marshaller);
     }
 
     /**
@@ -58,13 +105,37 @@ public class ChangeLogEditor {
      */
     public void loadDatabaseChangeLog(String fileName) throws JAXBException {
         File file = new File(fileName);
-        this.fileName = fileName;
         JAXBContext context = JAXBContext.newInstance(DatabaseChangeLog.class);
         Unmarshaller unmarshaller = context.createUnmarshaller();
-        dcl = (DatabaseChangeLog) unmarshaller.unmarshal(file);
-        changeSetList = dcl.getChangeSetOrIncludeOrIncludeAll().stream()
-                .filter(DatabaseChangeLog.ChangeSet.class::isInstance).map(DatabaseChangeLog.ChangeSet.class::cast)
-                .collect(Collectors.toList());
+        DatabaseChangeLog dcl = (DatabaseChangeLog) unmarshaller.unmarshal(file);
+        setGraph(new ChangeLogGraph(new ChangeLogGraph.Node(file.toPath(), null, dcl)));
+    }
+
+    /**
+     * Loads a master database change log file together with all the files it includes, so that the transformations
+     * operate over all the ChangeSets of the graph, in execution order
+     *
+     * @param masterFileName the name of the XML file containing the master database changelog
+     * @param rootDirectory  the directory against which the includes that are not relative to their changelog file
+     *                       are resolved
+     * @throws JAXBException thrown if there's a problem unmashalling a file
+     * @throws IOException   thrown if there's a problem reading a file
+     */
+    public void loadChangeLogGraph(String masterFileName, String rootDirectory) throws JAXBException, IOException {
+        setGraph(loader(Paths.get(rootDirectory)).load(Paths.get(masterFileName)));
+    }
+
+    /**
+     * @param rootDirectory the directory against which the includes that are not relative to their changelog file
+     *                      are resolved
+     * @return the loader of the editor for this directory, shared by the loads so that they parse each file once
+     * @throws JAXBException thrown if the JAXB context cannot be created
+     */
+    private ChangeLogGraphLoader loader(Path rootDirectory) throws JAXBException {
+        if (loader == null || !loader.getRootDirectory().equals(rootDirectory)) {
+            loader = new ChangeLogGraphLoader(rootDirectory);
+        }
+        return loader;
     }
 
     /**
@@ -156,13 +227,14 @@ public class ChangeLogEditor {
                     .filter(AddForeignKeyConstraint.class::isInstance).map(AddForeignKeyConstraint.class::cast)
                     .collect(Collectors.toList());
             if (foreignKeyConstraints.isEmpty())
-                return;
+                continue;
             DatabaseChangeLog.ChangeSet foreignChangeSet = new DatabaseChangeLog.ChangeSet();
             foreignChangeSet.setAuthor(changeset.getAuthor());
             foreignChangeSet.setId(changeset.getId() + "_foreign");
             DatabaseChangeLog.ChangeSet indexChangeSet = new DatabaseChangeLog.ChangeSet();
             indexChangeSet.setAuthor(changeset.getAuthor());
             indexChangeSet.setId(changeset.getId() + "_index");
+            DatabaseChangeLog dcl = graph.getOwner(changeset).getChangeLog();
             dcl.getChangeSetOrIncludeOrIncludeAll().add(indexChangeSet);
             dcl.getChangeSetOrIncludeOrIncludeAll().add(foreignChangeSet);
             for (AddForeignKeyConstraint foreignKeyConstraint : foreignKeyConstraints) {
@@ -206,19 +278,694 @@ public class ChangeLogEditor {
     }
 
     /**
-     * Prints the current DatabaseChangeLog to the same path as the initially read file, but attaching the
-     * -cockroachdb suffix. If the file already exists, it will be replaced.
+     * In cockroach DB a unique constraint is a unique index, built by its own schema change job and only used to check
+     * the uniqueness. This method declares the single column unique constraints of a table in the "create table"
+     * command of the same changeset, and changes the others into "create unique index" commands, with the STORING
+     * columns configured for the constraint (see {@link #setUniqueIndexStoring(Map)}) so that the index also covers the
+     * queries looking rows up by their unique columns.
+     * A storing column that the table does not have when the index is created is reported and skipped.
+     */
+    public void changeAddUniqueConstraintToUniqueIndex() {
+        Set<DatabaseChangeLog.ChangeSet> targets = Collections.newSetFromMap(new IdentityHashMap<>());
+        targets.addAll(changeSetList);
+        Map<String, Set<String>> tableColumns = new HashMap<>();
+        for (DatabaseChangeLog.ChangeSet changeSet : graph.getChangeSets()) {
+            List<Object> children = changeSet.getChangeSetChildren();
+            for (int i = 0; i < children.size(); i++) {
+                Object change = children.get(i);
+                if (!(change instanceof AddUniqueConstraint) || !targets.contains(changeSet)) {
+                    trackColumns(change, tableColumns);
+                    continue;
+                }
+                AddUniqueConstraint unique = (AddUniqueConstraint) change;
+                List<String> storing = uniqueIndexStoring.get(unique.getConstraintName());
+                if (storing == null && inlineUniqueConstraint(changeSet, unique)) {
+                    children.remove(i--);
+                } else if (storing == null) {
+                    CreateIndex createIndex = new CreateIndex();
+                    createIndex.setIndexName(unique.getConstraintName());
+                    createIndex.setTableName(unique.getTableName());
+                    createIndex.setSchemaName(unique.getSchemaName());
+                    createIndex.setUnique("true");
+                    for (String columnName : unique.getColumnNames().split(", *")) {
+                        Column column = new Column();
+                        column.setName(columnName);
+                        createIndex.getColumn().add(column);
+                    }
+                    children.set(i, createIndex);
+                } else {
+                    children.set(i, uniqueIndexWithStoring(changeSet, unique, storing,
+                            tableColumns.get(unique.getTableName().toUpperCase())));
+                }
+            }
+        }
+    }
+
+    private boolean inlineUniqueConstraint(DatabaseChangeLog.ChangeSet changeSet, AddUniqueConstraint unique) {
+        CreateTable table = getCreateTableMap(changeSet).get(unique.getTableName());
+        if (table == null || unique.getColumnNames().contains(",") || changeSet.getChangeSetChildren().indexOf(table)
+                > changeSet.getChangeSetChildren().indexOf(unique)) {
+            return false;
+        }
+        Column column = getColumnMap(table).get(unique.getColumnNames().trim());
+        if (column == null) {
+            return false;
+        }
+        Constraints constraint = getColumnConstraints(column);
+        constraint.setUnique("true");
+        constraint.setUniqueConstraintName(unique.getConstraintName());
+        return true;
+    }
+
+    private Sql uniqueIndexWithStoring(DatabaseChangeLog.ChangeSet changeSet, AddUniqueConstraint unique,
+                                       List<String> storing, Set<String> knownColumns) {
+        List<String> columns = Arrays.asList(unique.getColumnNames().split(", *"));
+        List<String> primaryKey = getPrimaryKeyColumns(unique.getTableName());
+        List<String> stored = new ArrayList<>();
+        for (String column : storing) {
+            if (columns.contains(column) || primaryKey != null && primaryKey.contains(column)) {
+                // already part of the index
+                continue;
+            }
+            if (knownColumns != null && !knownColumns.contains(column.toUpperCase())) {
+                System.err.println("ChangeSet " + changeSet.getId() + ": Unable to store column " + column +
+                        " in unique index " + unique.getConstraintName() + " of table " + unique.getTableName() +
+                        " -> Skipping");
+                continue;
+            }
+            stored.add(column);
+        }
+        String table = (unique.getSchemaName() != null ? unique.getSchemaName() + "." : "") + unique.getTableName();
+        Sql sql = new Sql();
+        sql.getContent().add("CREATE UNIQUE INDEX " + unique.getConstraintName() + " ON " + table + " (" +
+                String.join(", ", columns) + ")" +
+                (stored.isEmpty() ? "" : " STORING (" + String.join(", ", stored) + ")"));
+        return sql;
+    }
+
+    /**
+     * A foreign key changing the referencing rows of a deleted row (ON DELETE CASCADE, SET NULL or SET DEFAULT) looks
+     * them up by its columns: without an index starting with these columns, cockroachdb scans the whole referencing
+     * table for every deleted row, and deleting a realm or a user takes a time proportional to the size of the tables
+     * rather than to the number of deleted rows. This method replays the schema and, after every changeSet leaving such
+     * a foreign key without an index, inserts a changeSet creating it.
+     * The foreign keys whose referenced columns are not indexed are reported.
+     */
+    public void createIndexesForCascades() {
+        // the graph is built again, to include the changeSets added by the previous transformations
+        ChangeLogGraph current = new ChangeLogGraph(graph.getRoot());
+        SchemaModel model = new SchemaModel();
+        for (DatabaseChangeLog.ChangeSet changeSet : current.getChangeSets()) {
+            model.apply(changeSet);
+            DatabaseChangeLog.ChangeSet indexChangeSet = new DatabaseChangeLog.ChangeSet();
+            indexChangeSet.setAuthor(changeSet.getAuthor());
+            indexChangeSet.setId(changeSet.getId() + "_cascade_index");
+            for (SchemaModel.ForeignKey fk : model.getUnindexedCascades()) {
+                CreateIndex createIndex = new CreateIndex();
+                createIndex.setIndexName("IDX_" + fk.getName());
+                createIndex.setTableName(fk.getTable());
+                for (String columnName : fk.getColumns()) {
+                    Column column = new Column();
+                    column.setName(columnName);
+                    createIndex.getColumn().add(column);
+                }
+                indexChangeSet.getChangeSetChildren().add(createIndex);
+            }
+            if (indexChangeSet.getChangeSetChildren().isEmpty()) {
+                continue;
+            }
+            model.apply(indexChangeSet);
+            // the cached conversion of a file already contains its indexes
+            if (!cachedNodes.contains(current.getOwner(changeSet))) {
+                List<Object> entries = current.getOwner(changeSet).getChangeLog().getChangeSetOrIncludeOrIncludeAll();
+                entries.add(entries.indexOf(changeSet) + 1, indexChangeSet);
+            }
+        }
+        for (SchemaModel.ForeignKey fk : model.getUnindexedReferences()) {
+            System.err.println("Foreign key " + fk.getName() + " of table " + fk.getTable() + ": no index on the " +
+                    "referenced columns " + fk.getReferencedTable() + fk.getReferencedColumns() + " -> Skipping");
+        }
+    }
+
+    /**
+     * Many lookups filter on columns that are mostly NULL or hold mostly the same value, such as FEDERATION_LINK or
+     * SERVICE_ACCOUNT_CLIENT_LINK, whose full indexes are nevertheless written for every row. After every changeSet
+     * with a "create index" command configured by {@link #setPartialIndexes(Map)}, or a unique index statement
+     * generated by {@link #changeAddUniqueConstraintToUniqueIndex()}, this method inserts a changeSet dropping the
+     * index and creating it again as a partial index only covering the rows matching its predicate, so that the
+     * existing databases get the partial index as well. The configured indexes that are never created are reported.
+     */
+    public void changeCreateIndexToPartialIndex() {
+        if (partialIndexes.isEmpty()) {
+            return;
+        }
+        Set<String> changed = new HashSet<>();
+        // the graph is built again, to include the changeSets added by the previous transformations
+        ChangeLogGraph current = new ChangeLogGraph(graph.getRoot());
+        for (DatabaseChangeLog.ChangeSet changeSet : current.getChangeSets()) {
+            DatabaseChangeLog.ChangeSet partialChangeSet = new DatabaseChangeLog.ChangeSet();
+            partialChangeSet.setAuthor(changeSet.getAuthor());
+            partialChangeSet.setId(changeSet.getId() + "_partial_index");
+            for (Object change : changeSet.getChangeSetChildren()) {
+                DropIndex dropIndex = new DropIndex();
+                Sql sql = new Sql();
+                if (change instanceof CreateIndex) {
+                    CreateIndex index = (CreateIndex) change;
+                    String predicate = partialIndexes.get(index.getIndexName().toUpperCase());
+                    if (predicate == null) {
+                        continue;
+                    }
+                    changed.add(index.getIndexName().toUpperCase());
+                    dropIndex.setSchemaName(index.getSchemaName());
+                    dropIndex.setTableName(index.getTableName());
+                    dropIndex.setIndexName(index.getIndexName());
+                    String table = (index.getSchemaName() != null ? index.getSchemaName() + "." : "") +
+                            index.getTableName();
+                    sql.getContent().add("CREATE " + ("true".equals(index.getUnique()) ? "UNIQUE " : "") + "INDEX " +
+                            index.getIndexName() + " ON " + table + " (" + index.getColumn().stream()
+                            .map(Column::getName).collect(Collectors.joining(", ")) + ") WHERE " + predicate);
+                } else if (change instanceof Sql && ((Sql) change).getContent().size() == 1) {
+                    String statement = ((Sql) change).getContent().get(0).toString().trim();
+                    Matcher m = INDEX_STATEMENT.matcher(statement);
+                    String predicate = m.find() ? partialIndexes.get(m.group(1).toUpperCase()) : null;
+                    if (predicate == null) {
+                        continue;
+                    }
+                    changed.add(m.group(1).toUpperCase());
+                    if (statement.toUpperCase().contains(" WHERE ")) {
+                        continue;
+                    }
+                    int dot = m.group(2).indexOf('.');
+                    dropIndex.setSchemaName(dot < 0 ? null : m.group(2).substring(0, dot));
+                    dropIndex.setTableName(m.group(2).substring(dot + 1));
+                    dropIndex.setIndexName(m.group(1));
+                    sql.getContent().add(statement + " WHERE " + predicate);
+                } else {
+                    continue;
+                }
+                partialChangeSet.getChangeSetChildren().add(dropIndex);
+                partialChangeSet.getChangeSetChildren().add(sql);
+            }
+            // the cached conversion of a file already contains its partial indexes
+            if (!partialChangeSet.getChangeSetChildren().isEmpty()
+                    && !cachedNodes.contains(current.getOwner(changeSet))) {
+                List<Object> entries = current.getOwner(changeSet).getChangeLog().getChangeSetOrIncludeOrIncludeAll();
+                entries.add(entries.indexOf(changeSet) + 1, partialChangeSet);
+            }
+        }
+        for (String index : partialIndexes.keySet()) {
+            if (!changed.contains(index)) {
+                System.err.println("Unable to make index " + index + " partial, as it is never created -> Skipping");
+            }
+        }
+    }
+
+    /**
+     * Sets the predicates of the partial indexes created by {@link #changeCreateIndexToPartialIndex()}
+     *
+     * @param predicates the WHERE predicates, by index name
+     */
+    public void setPartialIndexes(Map<String, String> predicates) {
+        this.partialIndexes = new TreeMap<>();
+        predicates.forEach((index, predicate) -> partialIndexes.put(index.toUpperCase(), predicate));
+    }
+
+    /**
+     * Loads the predicates of the partial indexes from a properties file, whose keys are index names and values
+     * the WHERE predicates, e.g. IDX_USER_FED_LINK=FEDERATION_LINK IS NOT NULL
+     *
+     * @param file the properties file
+     * @return the predicates, by index name, sorted
+     * @throws IOException thrown if the file cannot be read
+     */
+    public static Map<String, String> loadPartialIndexes(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        Map<String, String> predicates = new TreeMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            predicates.put(name, properties.getProperty(name).trim());
+        }
+        return predicates;
+    }
+
+    /**
+     * The user search of the admin console looks for a term anywhere in USERNAME, EMAIL, FIRST_NAME and LAST_NAME with
+     * case insensitive LIKE predicates, which no regular index serves. This method creates a trigram inverted index on
+     * lower(column) for every column configured by {@link #setTrigramColumns(Collection)}, in a new changeSet inserted
+     * after the changeSet creating the column, so that the existing databases get the index as well. The predicates are
+     * rewritten into the form served by these indexes by {@link io.cloudtrust.keycloak.jdbc.LikeRewriter}. The
+     * configured columns that are never created are reported.
+     */
+    public void addTrigramIndexes() {
+        if (trigramColumns.isEmpty()) {
+            return;
+        }
+        Set<String> indexed = new HashSet<>();
+        // the graph is built again, to include the changeSets added by the previous transformations
+        ChangeLogGraph current = new ChangeLogGraph(graph.getRoot());
+        for (DatabaseChangeLog.ChangeSet changeSet : current.getChangeSets()) {
+            DatabaseChangeLog.ChangeSet indexChangeSet = new DatabaseChangeLog.ChangeSet();
+            indexChangeSet.setAuthor(changeSet.getAuthor());
+            indexChangeSet.setId(changeSet.getId() + "_trigram_index");
+            for (Object change : changeSet.getChangeSetChildren()) {
+                String schema;
+                String table;
+                List<String> columns = new ArrayList<>();
+                if (change instanceof CreateTable) {
+                    schema = ((CreateTable) change).getSchemaName();
+                    table = ((CreateTable) change).getTableName();
+                    ((CreateTable) change).getColumn().forEach(c -> columns.add(c.getName()));
+                } else if (change instanceof AddColumn) {
+                    schema = ((AddColumn) change).getSchemaName();
+                    table = ((AddColumn) change).getTableName();
+                    ((AddColumn) change).getColumn().forEach(c -> columns.add(c.getName()));
+                } else {
+                    continue;
+                }
+                Set<String> configured = trigramColumns.getOrDefault(table.toUpperCase(), Collections.emptySet());
+                for (String column : columns) {
+                    if (!configured.contains(column.toUpperCase())) {
+                        continue;
+                    }
+                    indexed.add(table.toUpperCase() + "." + column.toUpperCase());
+                    Sql sql = new Sql();
+                    sql.getContent().add("CREATE INVERTED INDEX IDX_" + table.toUpperCase() + "_" + column.toUpperCase()
+                            + "_TRGM ON " + (schema != null ? schema + "." : "") + table + " (lower(" + column +
+                            ") gin_trgm_ops)");
+                    indexChangeSet.getChangeSetChildren().add(sql);
+                }
+            }
+            // the cached conversion of a file already contains its indexes
+            if (!indexChangeSet.getChangeSetChildren().isEmpty()
+                    && !cachedNodes.contains(current.getOwner(changeSet))) {
+                List<Object> entries = current.getOwner(changeSet).getChangeLog().getChangeSetOrIncludeOrIncludeAll();
+                entries.add(entries.indexOf(changeSet) + 1, indexChangeSet);
+            }
+        }
+        trigramColumns.forEach((table, columns) -> columns.stream().filter(c -> !indexed.contains(table + "." + c))
+                .forEach(c -> System.err.println("Unable to create the trigram index of column " + table + "." + c +
+                        ", which is never created -> Skipping")));
+    }
+
+    /**
+     * Sets the columns indexed by {@link #addTrigramIndexes()}
+     *
+     * @param columns the columns, as TABLE.COLUMN
+     */
+    public void setTrigramColumns(Collection<String> columns) {
+        this.trigramColumns = new TreeMap<>();
+        for (String column : columns) {
+            int dot = column.indexOf('.');
+            if (dot < 0) {
+                System.err.println("Trigram index column " + column + " without table -> Skipping");
+                continue;
+            }
+            trigramColumns.computeIfAbsent(column.substring(0, dot).trim().toUpperCase(), t -> new TreeSet<>())
+                    .add(column.substring(dot + 1).trim().toUpperCase());
+        }
+    }
+
+    /**
+     * Deleting a large realm cascades across dozens of tables in a single transaction, which exceeds the transaction
+     * size limits of cockroachdb. This method removes the ON DELETE CASCADE action of the foreign keys configured by
+     * {@link #setReplacedDeleteCascades(Set)}, whose referencing rows must then be deleted beforehand, by chunks, with
+     * a {@link BatchedDeleteRoutine}. It must be called after {@link #createIndexesForCascades()}, as the routine
+     * looks the referencing rows up by the foreign key columns as well.
+     */
+    public void replaceDeleteCascades() {
+        if (replacedDeleteCascades.isEmpty()) {
+            return;
+        }
+        // the graph is built again, to include the changeSets added by the previous transformations
+        ChangeLogGraph current = new ChangeLogGraph(graph.getRoot());
+        for (DatabaseChangeLog.ChangeSet changeSet : current.getChangeSets()) {
+            if (cachedNodes.contains(current.getOwner(changeSet))) {
+                continue;
+            }
+            for (Object change : changeSet.getChangeSetChildren()) {
+                if (change instanceof AddForeignKeyConstraint) {
+                    AddForeignKeyConstraint fk = (AddForeignKeyConstraint) change;
+                    if ((fk.getOnDelete() == FkCascadeActionOptions.CASCADE || "true".equals(fk.getDeleteCascade()))
+                            && isReplacedDeleteCascade(fk.getConstraintName())) {
+                        fk.setOnDelete(null);
+                        fk.setDeleteCascade(null);
+                    }
+                    continue;
+                }
+                List<List<Object>> contents = new ArrayList<>();
+                if (change instanceof CreateTable) {
+                    ((CreateTable) change).getColumn().forEach(c -> contents.add(c.getContent()));
+                } else if (change instanceof AddColumn) {
+                    ((AddColumn) change).getColumn().forEach(c -> contents.add(c.getContent()));
+                }
+                for (List<Object> content : contents) {
+                    for (Object item : content) {
+                        if (item instanceof Constraints && "true".equals(((Constraints) item).getDeleteCascade())
+                                && isReplacedDeleteCascade(((Constraints) item).getForeignKeyName())) {
+                            ((Constraints) item).setDeleteCascade(null);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isReplacedDeleteCascade(String foreignKeyName) {
+        return replacedDeleteCascades.contains("*")
+                || foreignKeyName != null && replacedDeleteCascades.contains(foreignKeyName.toUpperCase());
+    }
+
+    /**
+     * Sets the foreign keys whose ON DELETE CASCADE action is removed by {@link #replaceDeleteCascades()}
+     *
+     * @param foreignKeys the names of the foreign keys, * standing for all of them
+     */
+    public void setReplacedDeleteCascades(Set<String> foreignKeys) {
+        this.replacedDeleteCascades = foreignKeys.stream().map(String::toUpperCase)
+                .collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    /**
+     * @param original  the schema of the original changelogs
+     * @param converted the schema of the converted changelogs
+     * @return the tables whose rows are no longer deleted with the rows referencing them
+     */
+    static Set<String> replacedDeleteCascadeTables(SchemaModel original, SchemaModel converted) {
+        return BatchedDeleteRoutine.replacedCascades(original, converted).stream()
+                .map(SchemaModel.ForeignKey::getReferencedTable).collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    /**
+     * The event tables grow without bound, and the job cleaning them up deletes many rows at once. This method sets
+     * the row-level TTL storage parameters configured by {@link #setRowLevelTtl(Map)}, so that cockroachdb deletes the
+     * expired rows in the background, by small batches. Each table gets a new "&lt;id&gt;_ttl" changeSet, &lt;id&gt;
+     * being the id of the changeSet creating the table, appended to the master changelog: it runs on the existing
+     * databases as well, after the changeSets adding or renaming the columns of the expiration expression, and again
+     * when its parameters change. The configured tables that do not exist at the end of the changelogs are reported.
+     */
+    public void addRowLevelTtl() {
+        if (rowLevelTtl.isEmpty()) {
+            return;
+        }
+        // the graph is built again, to include the changeSets added by the previous transformations
+        ChangeLogGraph current = new ChangeLogGraph(graph.getRoot());
+        SchemaModel model = new SchemaModel();
+        Map<String, DatabaseChangeLog.ChangeSet> creators = new HashMap<>();
+        Map<String, CreateTable> creations = new HashMap<>();
+        for (DatabaseChangeLog.ChangeSet changeSet : current.getChangeSets()) {
+            model.apply(changeSet);
+            for (Object change : changeSet.getChangeSetChildren()) {
+                if (change instanceof CreateTable) {
+                    creators.put(((CreateTable) change).getTableName().toUpperCase(), changeSet);
+                    creations.put(((CreateTable) change).getTableName().toUpperCase(), (CreateTable) change);
+                }
+            }
+        }
+        List<Object> entries = current.getRoot().getChangeLog().getChangeSetOrIncludeOrIncludeAll();
+        rowLevelTtl.forEach((table, parameters) -> {
+            if (model.getTable(table) == null || !creators.containsKey(table)) {
+                System.err.println("Unable to set the row-level TTL of table " + table + ", which does not exist" +
+                        " -> Skipping");
+                return;
+            }
+            // the cached conversion of the master changelog already ends with the changeSets
+            if (cachedNodes.contains(current.getRoot())) {
+                return;
+            }
+            CreateTable creation = creations.get(table);
+            String name = (creation.getSchemaName() != null ? creation.getSchemaName() + "." : "") +
+                    creation.getTableName();
+            Sql sql = new Sql();
+            sql.getContent().add("ALTER TABLE " + name + " SET (" + parameters.entrySet().stream()
+                    .map(p -> p.getKey() + " = " + storageParameterValue(p.getValue()))
+                    .collect(Collectors.joining(", ")) + ")");
+            DatabaseChangeLog.ChangeSet ttlChangeSet = new DatabaseChangeLog.ChangeSet();
+            ttlChangeSet.setAuthor(creators.get(table).getAuthor());
+            ttlChangeSet.setId(creators.get(table).getId() + "_ttl");
+            ttlChangeSet.setRunOnChange("true");
+            ttlChangeSet.getChangeSetChildren().add(sql);
+            entries.add(ttlChangeSet);
+        });
+    }
+
+    private static String storageParameterValue(String value) {
+        if (value.matches("-?[0-9]+|true|false")) {
+            return value;
+        }
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    /**
+     * Sets the row-level TTL storage parameters added by {@link #addRowLevelTtl()}
+     *
+     * @param ttl the storage parameters (ttl_expiration_expression, ttl_delete_batch_size...), by table name
+     */
+    public void setRowLevelTtl(Map<String, Map<String, String>> ttl) {
+        this.rowLevelTtl = new TreeMap<>();
+        ttl.forEach((table, parameters) -> rowLevelTtl.put(table.toUpperCase(), parameters));
+    }
+
+    /**
+     * Loads the row-level TTL storage parameters from a properties file. The key of the expiration expression of a
+     * table is its name, and the keys of the other storage parameters the table name followed by a dot and the name of
+     * the parameter, e.g. EVENT_ENTITY.ttl_delete_batch_size
+     *
+     * @param file the properties file
+     * @return the storage parameters, by table name, the expiration expression first
+     * @throws IOException thrown if the file cannot be read
+     */
+    public static Map<String, Map<String, String>> loadRowLevelTtl(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        Map<String, Map<String, String>> ttl = new TreeMap<>();
+        for (String name : new TreeSet<>(properties.stringPropertyNames())) {
+            if (!name.contains(".")) {
+                Map<String, String> parameters = new LinkedHashMap<>();
+                parameters.put("ttl_expiration_expression", properties.getProperty(name).trim());
+                ttl.put(name, parameters);
+            }
+        }
+        for (String name : new TreeSet<>(properties.stringPropertyNames())) {
+            int dot = name.indexOf('.');
+            if (dot >= 0 && ttl.containsKey(name.substring(0, dot))) {
+                ttl.get(name.substring(0, dot)).put(name.substring(dot + 1), properties.getProperty(name).trim());
+            } else if (dot >= 0) {
+                System.err.println("Storage parameter " + name + " without expiration expression -> Skipping");
+            }
+        }
+        return ttl;
+    }
+
+    /**
+     * Follows the columns of the tables through the changes, the names being upper cased
+     */
+    private static void trackColumns(Object change, Map<String, Set<String>> tableColumns) {
+        if (change instanceof CreateTable) {
+            Set<String> columns = new HashSet<>();
+            ((CreateTable) change).getColumn().forEach(c -> columns.add(c.getName().toUpperCase()));
+            tableColumns.put(((CreateTable) change).getTableName().toUpperCase(), columns);
+        } else if (change instanceof AddColumn) {
+            Set<String> columns = tableColumns.get(((AddColumn) change).getTableName().toUpperCase());
+            if (columns != null) {
+                ((AddColumn) change).getColumn().forEach(c -> columns.add(c.getName().toUpperCase()));
+            }
+        } else if (change instanceof DropColumn) {
+            Set<String> columns = tableColumns.get(((DropColumn) change).getTableName().toUpperCase());
+            if (columns != null && ((DropColumn) change).getColumnName() != null) {
+                columns.remove(((DropColumn) change).getColumnName().toUpperCase());
+            }
+        } else if (change instanceof RenameColumn) {
+            Set<String> columns = tableColumns.get(((RenameColumn) change).getTableName().toUpperCase());
+            if (columns != null) {
+                columns.remove(((RenameColumn) change).getOldColumnName().toUpperCase());
+                columns.add(((RenameColumn) change).getNewColumnName().toUpperCase());
+            }
+        } else if (change instanceof RenameTable) {
+            Set<String> columns = tableColumns.remove(((RenameTable) change).getOldTableName().toUpperCase());
+            if (columns != null) {
+                tableColumns.put(((RenameTable) change).getNewTableName().toUpperCase(), columns);
+            }
+        } else if (change instanceof DropTable) {
+            tableColumns.remove(((DropTable) change).getTableName().toUpperCase());
+        }
+    }
+
+    /**
+     * Sets the STORING columns of the unique indexes created by {@link #changeAddUniqueConstraintToUniqueIndex()}
+     *
+     * @param storing the columns to store, by unique constraint name
+     */
+    public void setUniqueIndexStoring(Map<String, List<String>> storing) {
+        this.uniqueIndexStoring = storing;
+    }
+
+    /**
+     * Loads the STORING columns of the unique indexes from a properties file, whose keys are unique constraint names
+     * and values comma separated column names
+     *
+     * @param file the properties file
+     * @return the columns to store, by unique constraint name, sorted
+     * @throws IOException thrown if the file cannot be read
+     */
+    public static Map<String, List<String>> loadUniqueIndexStoring(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        Map<String, List<String>> storing = new TreeMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            storing.put(name, Arrays.asList(properties.getProperty(name).trim().split(" *, *")));
+        }
+        return storing;
+    }
+
+    /**
+     * Returns the primary key columns of a table, as declared by the "create table" commands of the current
+     * DatabaseChangeLog
+     *
+     * @param tableName the name of the table
+     * @return the primary key column names, or null if the table isn't created in the current DatabaseChangeLog
+     */
+    public List<String> getPrimaryKeyColumns(String tableName) {
+        for (DatabaseChangeLog.ChangeSet changeSet : graph.getChangeSets()) {
+            CreateTable table = getCreateTableMap(changeSet).get(tableName);
+            if (table != null) {
+                List<String> columns = table.getColumn().stream()
+                        .filter(c -> c.getContent().stream().filter(Constraints.class::isInstance)
+                                .map(Constraints.class::cast).anyMatch(k -> "true".equals(k.getPrimaryKey())))
+                        .map(Column::getName).collect(Collectors.toList());
+                if (!columns.isEmpty()) {
+                    return columns;
+                }
+            }
+            // the primary key may not have been merged, when the changeSet comes from the conversion cache
+            for (Object change : changeSet.getChangeSetChildren()) {
+                if (change instanceof AddPrimaryKey && tableName.equals(((AddPrimaryKey) change).getTableName())) {
+                    return Arrays.asList(((AddPrimaryKey) change).getColumnNames().split(", *"));
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Liquibase executes a "load update data" command as a select followed by an insert or an update for each row of
+     * the CSV file. This method replaces every "load update data" command by batched UPSERT statements generated from
+     * the CSV file, which is resolved relative to the changelog file containing the command.
+     *
+     * @throws IOException thrown if there's a problem reading a CSV file
+     */
+    public void changeLoadUpdateDataToUpsert() throws IOException {
+        for (DatabaseChangeLog.ChangeSet changeset : changeSetList) {
+            UpsertStatementGenerator generator = new UpsertStatementGenerator(
+                    graph.getOwner(changeset).getPath().toAbsolutePath().getParent(), UPSERT_BATCH_SIZE);
+            List<LoadUpdateData> loadUpdateDatas = changeset.getChangeSetChildren().stream()
+                    .filter(LoadUpdateData.class::isInstance).map(LoadUpdateData.class::cast)
+                    .collect(Collectors.toList());
+            for (LoadUpdateData loadUpdateData : loadUpdateDatas) {
+                List<Sql> upserts = new ArrayList<>();
+                generator.generate(loadUpdateData, getPrimaryKeyColumns(loadUpdateData.getTableName()), statement -> {
+                    Sql sql = new Sql();
+                    sql.getContent().add(statement);
+                    upserts.add(sql);
+                });
+                int index = changeset.getChangeSetChildren().indexOf(loadUpdateData);
+                changeset.getChangeSetChildren().remove(index);
+                changeset.getChangeSetChildren().addAll(index, upserts);
+            }
+        }
+    }
+
+    /**
+     * Prints every DatabaseChangeLog of the current graph to the same path as the initially read file, but attaching
+     * the -cockroachdb suffix. If the file already exists with the same content, it is left untouched, otherwise it is
+     * atomically replaced (see {@link OutputWriter}). The resolved includes are changed to point to the -cockroachdb files,
+     * and the resolved includeAll entries are replaced by the includes of the -cockroachdb files of their directory.
+     * <p>
+     * With a conversion cache, the files found in the cache are not marshalled again, and the others are added to
+     * the cache.
      *
      * @throws JAXBException thrown if there's an error marshalling to the file
      * @throws IOException   thrown if there's a problem writing the file
      */
     public void printToFile() throws JAXBException, IOException {
-        File input = new File(fileName);
-        String outputFileName = fileName.substring(0, fileName.lastIndexOf('.')) + "-cockroachdb.xml";
-        File output = new File(outputFileName);
-        Files.deleteIfExists(output.toPath());
-        Files.createFile(output.toPath());
-        marshaller.marshal(dcl, output);
+        for (ChangeLogGraph.Node node : graph.getNodes()) {
+            Path output = Paths.get(outputFileName(node.getPath().toString()));
+            String key = cacheKeys.get(node);
+            if (cachedNodes.contains(node)) {
+                writer.write(output, cache.get(key));
+                continue;
+            }
+            List<Object> entries = node.getChangeLog().getChangeSetOrIncludeOrIncludeAll();
+            int include = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                Object entry = entries.get(i);
+                if (entry instanceof DatabaseChangeLog.ChangeSet || include >= node.getIncludes().size()) {
+                    continue;
+                }
+                if (entry instanceof DatabaseChangeLog.Include) {
+                    DatabaseChangeLog.Include in = (DatabaseChangeLog.Include) entry;
+                    in.setFile(outputFileName(in.getFile()));
+                    include++;
+                } else {
+                    DatabaseChangeLog.IncludeAll includeAll = (DatabaseChangeLog.IncludeAll) entry;
+                    Path base = "true".equals(includeAll.getRelativeToChangelogFile()) || loader == null
+                            ? node.getPath().getParent() : loader.getRootDirectory();
+                    List<DatabaseChangeLog.Include> expanded = expandIncludeAll(includeAll,
+                            base.resolve(includeAll.getPath()).toAbsolutePath().normalize(),
+                            node.getIncludes().get(include));
+                    entries.remove(i);
+                    entries.addAll(i, expanded);
+                    List<ChangeLogGraph.Node> included = node.getIncludes().remove(include);
+                    for (ChangeLogGraph.Node child : included) {
+                        node.getIncludes().add(include++, Collections.singletonList(child));
+                    }
+                    i += expanded.size() - 1;
+                }
+            }
+            writer.write(output, node.getChangeLog());
+            if (key != null) {
+                cache.put(key, writer.getContent());
+            }
+        }
+    }
+
+    /**
+     * Replaces an includeAll by the includes of the -cockroachdb files of the changelogs it resolved to, as liquibase
+     * would otherwise run the original files of the directory next to the converted ones.
+     *
+     * @param includeAll the includeAll entry
+     * @param resolved   the directory the includeAll entry resolved to
+     * @param included   the changelogs of the directory and of its subdirectories, in execution order
+     * @return the include entries, in the same order
+     */
+    static List<DatabaseChangeLog.Include> expandIncludeAll(DatabaseChangeLog.IncludeAll includeAll, Path resolved,
+                                                            List<ChangeLogGraph.Node> included) {
+        String directory = includeAll.getPath().endsWith("/") ? includeAll.getPath() : includeAll.getPath() + "/";
+        List<DatabaseChangeLog.Include> includes = new ArrayList<>();
+        for (ChangeLogGraph.Node child : included) {
+            DatabaseChangeLog.Include include = new DatabaseChangeLog.Include();
+            include.setFile(outputFileName(directory + resolved.relativize(child.getPath()).toString()
+                    .replace(File.separatorChar, '/')));
+            include.setRelativeToChangelogFile(includeAll.getRelativeToChangelogFile());
+            includes.add(include);
+        }
+        return includes;
+    }
+
+    /**
+     * @param fileName the name of a changelog file
+     * @return the name of the file to which the transformed changelog is printed
+     */
+    static String outputFileName(String fileName) {
+        if (fileName.endsWith(OUTPUT_SUFFIX)) {
+            return fileName;
+        }
+        return fileName.substring(0, fileName.lastIndexOf('.')) + OUTPUT_SUFFIX;
     }
 
     /**
@@ -229,7 +976,7 @@ public class ChangeLogEditor {
     public String toString() {
         try {
             StringWriter sw = new StringWriter();
-            marshaller.marshal(dcl, sw);
+            marshaller.marshal(getDcl(), sw);
             return sw.toString();
         } catch (JAXBException e) {
             return "No valid content: " + e.getMessage();
@@ -237,30 +984,289 @@ public class ChangeLogEditor {
     }
 
     public DatabaseChangeLog getDcl() {
-        return dcl;
+        return graph.getRoot().getChangeLog();
     }
 
     public void setDcl(DatabaseChangeLog dcl) {
-        this.dcl = dcl;
+        Path path = graph == null ? Paths.get("changelog.xml") : graph.getRoot().getPath();
+        setGraph(new ChangeLogGraph(new ChangeLogGraph.Node(path, null, dcl)));
+    }
+
+    /**
+     * @return the changeSets the transformations apply to: the changeSets of the graph that are not in the cache
+     */
+    public List<DatabaseChangeLog.ChangeSet> getChangeSetList() {
+        return changeSetList;
+    }
+
+    public ChangeLogGraph getGraph() {
+        return graph;
+    }
+
+    public void setGraph(ChangeLogGraph graph) {
+        this.graph = graph;
+        cacheKeys.clear();
+        cachedNodes.clear();
+        if (cache != null) {
+            lookupCache();
+        }
+        this.changeSetList = graph.getChangeSets().stream().filter(c -> !cachedNodes.contains(graph.getOwner(c)))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Enables the conversion cache, for the graphs loaded afterwards
+     *
+     * @param cache         the conversion cache
+     * @param configuration a description of the transformations that are going to be applied
+     */
+    public void setConversionCache(ConversionCache cache, String configuration) {
+        this.cache = cache;
+        this.configuration = configuration;
+    }
+
+    /**
+     * Computes the cache key of every file of the graph, and finds the files whose conversion is already cached.
+     * As the transformations of a file may depend on the files executed before it, the key of a file covers its own
+     * content, the content of the CSV files it loads and the keys of the files before it. The key of the master
+     * changelog, to which changeSets depending on the whole graph are appended, covers the keys of all the files.
+     */
+    private void lookupCache() {
+        String previous = "";
+        for (ChangeLogGraph.Node node : graph.getNodes()) {
+            try {
+                String key = ConversionCache.key(previous, contentHash(node), TRANSFORMER_VERSION, configuration);
+                cacheKeys.put(node, key);
+                if (cache.get(key) != null) {
+                    cachedNodes.add(node);
+                }
+                previous = key;
+            } catch (IOException e) {
+                System.err.println("Unable to use the conversion cache for " + node.getPath() + ": " + e.getMessage());
+                previous = "";
+            }
+        }
+        // the transformations append changeSets depending on the whole graph to the master changelog
+        ChangeLogGraph.Node root = graph.getRoot();
+        if (cacheKeys.containsKey(root) && graph.getNodes().size() > 1) {
+            try {
+                String key = ConversionCache.key(previous, contentHash(root), TRANSFORMER_VERSION, configuration);
+                cacheKeys.put(root, key);
+                cachedNodes.remove(root);
+                if (cache.get(key) != null) {
+                    cachedNodes.add(root);
+                }
+            } catch (IOException e) {
+                cacheKeys.remove(root);
+                cachedNodes.remove(root);
+            }
+        }
+    }
+
+    private static String contentHash(ChangeLogGraph.Node node) throws IOException {
+        StringBuilder hashes = new StringBuilder(node.getContentHash() != null ? node.getContentHash()
+                : ChangeLogGraphLoader.hash(Files.readAllBytes(node.getPath())));
+        Path directory = node.getPath().toAbsolutePath().getParent();
+        for (Object entry : node.getChangeLog().getChangeSetOrIncludeOrIncludeAll()) {
+            if (!(entry instanceof DatabaseChangeLog.ChangeSet)) {
+                continue;
+            }
+            for (Object change : ((DatabaseChangeLog.ChangeSet) entry).getChangeSetChildren()) {
+                String file = change instanceof LoadData ? ((LoadData) change).getFile()
+                        : change instanceof LoadUpdateData ? ((LoadUpdateData) change).getFile() : null;
+                if (file != null && Files.exists(directory.resolve(file))) {
+                    hashes.append(',').append(ChangeLogGraphLoader.hash(Files.readAllBytes(directory.resolve(file))));
+                }
+            }
+        }
+        return hashes.toString();
+    }
+
+    /**
+     * Applies all the transformations to the current graph, and prints the result
+     *
+     * @throws JAXBException thrown if there's an error marshalling a file
+     * @throws IOException   thrown if there's a problem reading the data files or writing a file
+     */
+    public void convert() throws JAXBException, IOException {
+        Map<DatabaseChangeLog.ChangeSet, String> checkSums = computeCheckSums();
+        mergeAddPrimeryKeyIntoCreateTable();
+        createIndexesForForeignKeys();
+        changeAddUniqueConstraintToUniqueIndex();
+        changeDropUniqueConstraintToDropIndex();
+        createIndexesForCascades();
+        changeCreateIndexToPartialIndex();
+        addTrigramIndexes();
+        replaceDeleteCascades();
+        addRowLevelTtl();
+        changeLoadUpdateDataToUpsert();
+        addValidCheckSums(checkSums);
+        printToFile();
+        if (loader != null) {
+            // the trees of the converted files are no longer the content of the files
+            for (ChangeLogGraph.Node node : graph.getNodes()) {
+                if (!cachedNodes.contains(node)) {
+                    loader.evict(node);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the liquibase checksums of the changeSets to transform
+     *
+     * @return the checksum of each changeSet
+     * @throws IOException thrown if the CSV file of a loadData change cannot be read
+     */
+    public Map<DatabaseChangeLog.ChangeSet, String> computeCheckSums() throws IOException {
+        Map<DatabaseChangeLog.ChangeSet, String> checkSums = new IdentityHashMap<>();
+        Map<Path, CheckSumCalculator> calculators = new HashMap<>();
+        for (DatabaseChangeLog.ChangeSet changeSet : changeSetList) {
+            Path directory = graph.getOwner(changeSet).getPath().toAbsolutePath().getParent();
+            checkSums.put(changeSet, calculators.computeIfAbsent(directory, CheckSumCalculator::new).compute(changeSet));
+        }
+        return checkSums;
+    }
+
+    /**
+     * Adds their former checksum to the valid checksums of the changeSets changed by the transformations, so that
+     * liquibase accepts the transformed changeSets on databases where the former ones have been applied
+     *
+     * @param formerCheckSums the checksums computed by {@link #computeCheckSums()} before the transformations
+     * @throws IOException thrown if the CSV file of a loadData change cannot be read
+     */
+    public void addValidCheckSums(Map<DatabaseChangeLog.ChangeSet, String> formerCheckSums) throws IOException {
+        Map<DatabaseChangeLog.ChangeSet, String> checkSums = computeCheckSums();
+        for (Map.Entry<DatabaseChangeLog.ChangeSet, String> former : formerCheckSums.entrySet()) {
+            String checkSum = checkSums.get(former.getKey());
+            if (checkSum != null && !checkSum.equals(former.getValue())) {
+                CheckSumCalculator.addValidCheckSum(former.getKey(), former.getValue());
+            }
+        }
+    }
+
+    /**
+     * @param outputFileName the name of a converted master changelog
+     * @return the name of the file holding its expected {@link ChangeLogState}
+     */
+    static String stateFileName(String outputFileName) {
+        return outputFileName.substring(0, outputFileName.length() - ".xml".length()) + ".state";
+    }
+
+    /**
+     * @param outputFileName the name of a converted master changelog
+     * @return the name of the file holding the SQL rendering of its changeSets
+     */
+    static String scriptFileName(String outputFileName) {
+        return outputFileName.substring(0, outputFileName.length() - ".xml".length()) + ".sql";
+    }
+
+    /**
+     * @param outputFileName the name of a converted master changelog
+     * @return the name of the file holding the comparison of the original and converted schemas
+     */
+    static String schemaReportFileName(String outputFileName) {
+        return outputFileName.substring(0, outputFileName.length() - ".xml".length()) + ".schema.txt";
+    }
+
+    /**
+     * @param outputFileName the name of a converted master changelog
+     * @return the name of the file holding the batched deletes replacing the removed ON DELETE CASCADE actions
+     */
+    static String deleteScriptFileName(String outputFileName) {
+        return outputFileName.substring(0, outputFileName.length() - ".xml".length()) + ".delete.sql";
     }
 
     public static void main(String[] in) {
         Path changeLogsLocation = Paths.get("/home/add/CloudTrust/keycloak-stable/model/jpa/src/main/resources/META-INF/");
         Path current = null;
         ChangeLogEditor cle = new ChangeLogEditor();
+        String storing = System.getProperty("cockroachdb.unique.storing");
+        if (storing != null) {
+            try {
+                cle.setUniqueIndexStoring(loadUniqueIndexStoring(Paths.get(storing)));
+            } catch (IOException e) {
+                System.err.println("Unique indexes created without STORING columns: " + e.getMessage());
+            }
+        }
+        String cascades = System.getProperty("cockroachdb.cascade.replace");
+        if (cascades != null) {
+            cle.setReplacedDeleteCascades(new HashSet<>(Arrays.asList(cascades.trim().split(" *, *"))));
+        }
+        String partial = System.getProperty("cockroachdb.partial.indexes");
+        if (partial != null) {
+            try {
+                cle.setPartialIndexes(loadPartialIndexes(Paths.get(partial)));
+            } catch (IOException e) {
+                System.err.println("Indexes created without predicates: " + e.getMessage());
+            }
+        }
+        String trigram = System.getProperty("cockroachdb.trigram.columns");
+        if (trigram != null) {
+            cle.setTrigramColumns(Arrays.asList(trigram.trim().split(" *, *")));
+        }
+        String ttl = System.getProperty("cockroachdb.ttl");
+        if (ttl != null) {
+            try {
+                cle.setRowLevelTtl(loadRowLevelTtl(Paths.get(ttl)));
+            } catch (IOException e) {
+                System.err.println("Tables created without row-level TTL: " + e.getMessage());
+            }
+        }
+        try {
+            Path cacheDirectory = Paths.get(System.getProperty("cockroachdb.cache.dir",
+                    Paths.get(System.getProperty("java.io.tmpdir"), "keycloak-cockroachdb-cache").toString()));
+            cle.setConversionCache(new ConversionCache(cacheDirectory), PASSES + ";" + cle.uniqueIndexStoring + ";" +
+                    cle.replacedDeleteCascades + ";" + cle.rowLevelTtl + ";" +
+                    cle.partialIndexes + ";" + cle.trigramColumns);
+        } catch (IOException e) {
+            System.err.println("Conversion cache disabled: " + e.getMessage());
+        }
+        Path master = changeLogsLocation.resolve("jpa-changelog-master.xml");
+        if (Files.exists(master)) {
+            try {
+                cle.loadChangeLogGraph(master.toString(), changeLogsLocation.getParent().toString());
+                // the original schema is modelled before the conversion changes the trees of the graph
+                SchemaModel originalSchema = SchemaModel.of(cle.graph.getChangeSets());
+                cle.convert();
+                Path output = Paths.get(outputFileName(master.toString()));
+                ChangeLogGraph converted = cle.loader(changeLogsLocation.getParent()).load(output);
+                ChangeLogState.of(converted, changeLogsLocation.getParent(), ChangeLogState.DEFAULT_DBMS)
+                        .write(Paths.get(stateFileName(output.toString())));
+                StringWriter script = new StringWriter();
+                SqlRenderer.writeScript(new SqlRenderer().render(converted, changeLogsLocation.getParent()), script);
+                byte[] content = script.toString().getBytes(StandardCharsets.UTF_8);
+                OutputWriter.replace(Paths.get(scriptFileName(output.toString())), content, content.length);
+                SchemaModel convertedSchema = SchemaModel.of(converted.getChangeSets());
+                content = new SchemaDiffReport(originalSchema, convertedSchema).toString()
+                        .getBytes(StandardCharsets.UTF_8);
+                OutputWriter.replace(Paths.get(schemaReportFileName(output.toString())), content, content.length);
+                Set<String> deleted = replacedDeleteCascadeTables(originalSchema, convertedSchema);
+                if (!deleted.isEmpty()) {
+                    Set<String> replaced = BatchedDeleteRoutine.replacedCascades(originalSchema, convertedSchema)
+                            .stream().map(SchemaModel.ForeignKey::getName).collect(Collectors.toSet());
+                    StringWriter deletes = new StringWriter();
+                    new BatchedDeleteRoutine(convertedSchema, DELETE_BATCH_SIZE, replaced).writeScript(deleted,
+                            deletes);
+                    content = deletes.toString().getBytes(StandardCharsets.UTF_8);
+                    OutputWriter.replace(Paths.get(deleteScriptFileName(output.toString())), content, content.length);
+                }
+            } catch (Exception e) {
+                System.err.println("Path: " + master);
+                e.printStackTrace();
+            }
+            return;
+        }
         try (DirectoryStream<Path> stream = Files.newDirectoryStream(changeLogsLocation, "jpa-changelog*.xml")) {
             List<Path> list = new ArrayList<>();
             stream.forEach(list::add);
             list.sort(Comparator.comparing(Path::toString));
             list.removeIf(path -> path.toString().contains("-db2"));
-            list.removeIf(path -> path.toString().contains("-cockroachdb"));
+            list.removeIf(path -> path.toString().endsWith(OUTPUT_SUFFIX));
             for (Path entry : list) {
                 current = entry;
                 cle.loadDatabaseChangeLog(entry.toString());
-                cle.mergeAddPrimeryKeyIntoCreateTable();
-                cle.createIndexesForForeignKeys();
-                cle.changeDropUniqueConstraintToDropIndex();
-                cle.printToFile();
+                cle.convert();
             }
         } catch (Exception e) {
             System.err.println("Path: " + current);
@@ -0,0 +1,127 @@
+package io.cloudtrust.keycloak.liquibaseAdapter;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DatabaseChangeLog;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The graph of database changelog files reachable from a master changelog through its include and includeAll
+ * entries. A file included several times is a single node, so the graph is a DAG.
+ * <p>
+ * The nodes and the changeSets are exposed in liquibase execution order: the entries of a file are visited in
+ * document order, an include being replaced by the entries of the included file the first time it is met. The
+ * includes of a node that have not been resolved (for a changelog loaded on its own) are ignored.
+ */
+public class ChangeLogGraph {
+
+    private final Node root;
+    private final List<Node> nodes = new ArrayList<>();
+    private final List<DatabaseChangeLog.ChangeSet> changeSets = new ArrayList<>();
+    private final Map<DatabaseChangeLog.ChangeSet, Node> owners = new IdentityHashMap<>();
+
+    /**
+     * Creates the graph rooted at the given node, whose includes must already be resolved
+     *
+     * @param root the node of the master changelog
+     */
+    public ChangeLogGraph(Node root) {
+        this.root = root;
+        visit(root, new LinkedHashSet<>(), Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    private void visit(Node node, Set<Path> path, Set<Node> visited) {
+        if (!path.add(node.getPath())) {
+            throw new IllegalStateException("Include cycle: " + path + " -> " + node.getPath());
+        }
+        if (visited.add(node)) {
+            nodes.add(node);
+            int include = 0;
+            for (Object entry : node.getChangeLog().getChangeSetOrIncludeOrIncludeAll()) {
+                if (entry instanceof DatabaseChangeLog.ChangeSet) {
+                    changeSets.add((DatabaseChangeLog.ChangeSet) entry);
+                    owners.put((DatabaseChangeLog.ChangeSet) entry, node);
+                } else if (include < node.getIncludes().size()) {
+                    for (Node child : node.getIncludes().get(include++)) {
+                        visit(child, path, visited);
+                    }
+                }
+            }
+        }
+        path.remove(node.getPath());
+    }
+
+    public Node getRoot() {
+        return root;
+    }
+
+    /**
+     * @return the files of the graph, in execution order
+     */
+    public List<Node> getNodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    /**
+     * @return the changeSets of all the files of the graph, in execution order
+     */
+    public List<DatabaseChangeLog.ChangeSet> getChangeSets() {
+        return Collections.unmodifiableList(changeSets);
+    }
+
+    /**
+     * @param changeSet a changeSet of the graph
+     * @return the file containing the changeSet
+     */
+    public Node getOwner(DatabaseChangeLog.ChangeSet changeSet) {
+        return owners.get(changeSet);
+    }
+
+    /**
+     * One changelog file of the graph
+     */
+    public static class Node {
+        private final Path path;
+        private final String contentHash;
+        private final DatabaseChangeLog changeLog;
+        private final List<List<Node>> includes = new ArrayList<>();
+
+        /**
+         * Standard constructor
+         *
+         * @param path        the path of the file
+         * @param contentHash the hash of the content of the file
+         * @param changeLog   the parsed content of the file
+         */
+        public Node(Path path, String contentHash, DatabaseChangeLog changeLog) {
+            this.path = path;
+            this.contentHash = contentHash;
+            this.changeLog = changeLog;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        public DatabaseChangeLog getChangeLog() {
+            return changeLog;
+        }
+
+        /**
+         * @return for each include or includeAll entry of the file, in document order, the included files
+         */
+        public List<List<Node>> getIncludes() {
+            return includes;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package io.cloudtrust.keycloak.liquibaseAdapter;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DatabaseChangeLog;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Loads a master database changelog together with all the files it includes, recursively, into a
+ * {@link ChangeLogGraph}.
+ * <p>
+ * The distinct files are parsed concurrently: each file is submitted for parsing as soon as the file including it
+ * has been parsed. Within a load, a file included several times is parsed once. Across loads, parsed files are
+ * memoised by path and content hash, so that reloading a graph only parses the files that changed. The memoised
+ * trees are shared with the previously loaded graphs: call {@link #evict(ChangeLogGraph.Node)} for the files whose
+ * tree has been modified, or {@link #clearCache()}, before reloading them.
+ */
+public class ChangeLogGraphLoader {
+
+    private static final String XML_SUFFIX = ".xml";
+
+    private final Path rootDirectory;
+    private final ExecutorService executor;
+    private final JAXBContext context;
+    private final Map<String, DatabaseChangeLog> parsed = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a loader parsing in the common fork join pool
+     *
+     * @param rootDirectory the directory against which the includes that are not relative to their changelog file
+     *                      are resolved, i.e. the root of the classpath from which liquibase would load them
+     * @throws JAXBException thrown if the JAXB context cannot be created
+     */
+    public ChangeLogGraphLoader(Path rootDirectory) throws JAXBException {
+        this(rootDirectory, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Standard constructor
+     *
+     * @param rootDirectory the directory against which the includes that are not relative to their changelog file
+     *                      are resolved, i.e. the root of the classpath from which liquibase would load them
+     * @param executor      the executor in which the files are parsed
+     * @throws JAXBException thrown if the JAXB context cannot be created
+     */
+    public ChangeLogGraphLoader(Path rootDirectory, ExecutorService executor) throws JAXBException {
+        this.rootDirectory = rootDirectory;
+        this.executor = executor;
+        this.context = JAXBContext.newInstance(DatabaseChangeLog.class);
+    }
+
+    /**
+     * Loads the graph of changelogs reachable from a master changelog
+     *
+     * @param masterFile the master changelog file
+     * @return the graph
+     * @throws JAXBException thrown if there's a problem unmarshalling a file
+     * @throws IOException   thrown if there's a problem reading a file
+     */
+    public ChangeLogGraph load(Path masterFile) throws JAXBException, IOException {
+        Map<Path, CompletableFuture<ChangeLogGraph.Node>> nodes = new ConcurrentHashMap<>();
+        Map<ChangeLogGraph.Node, List<List<Path>>> includes = new ConcurrentHashMap<>();
+        CompletableFuture<ChangeLogGraph.Node> root = submit(masterFile.toAbsolutePath().normalize(), nodes, includes);
+        try {
+            // files are submitted while others complete: wait until no new file shows up
+            int submitted;
+            do {
+                submitted = nodes.size();
+                CompletableFuture.allOf(nodes.values().toArray(new CompletableFuture<?>[0])).join();
+            } while (nodes.size() != submitted);
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException && cause.getCause() instanceof JAXBException) {
+                throw (JAXBException) cause.getCause();
+            }
+            throw e;
+        }
+        for (Map.Entry<ChangeLogGraph.Node, List<List<Path>>> entry : includes.entrySet()) {
+            for (List<Path> paths : entry.getValue()) {
+                List<ChangeLogGraph.Node> included = new ArrayList<>();
+                for (Path path : paths) {
+                    included.add(nodes.get(path).join());
+                }
+                entry.getKey().getIncludes().add(included);
+            }
+        }
+        return new ChangeLogGraph(root.join());
+    }
+
+    private CompletableFuture<ChangeLogGraph.Node> submit(Path file,
+                                                          Map<Path, CompletableFuture<ChangeLogGraph.Node>> nodes,
+                                                          Map<ChangeLogGraph.Node, List<List<Path>>> includes) {
+        return nodes.computeIfAbsent(file, f -> CompletableFuture.supplyAsync(() -> {
+            ChangeLogGraph.Node node = parse(f);
+            List<List<Path>> included = resolveIncludes(node);
+            includes.put(node, included);
+            for (List<Path> paths : included) {
+                for (Path path : paths) {
+                    submit(path, nodes, includes);
+                }
+            }
+            return node;
+        }, executor));
+    }
+
+    private ChangeLogGraph.Node parse(Path file) {
+        try {
+            byte[] content = Files.readAllBytes(file);
+            String hash = hash(content);
+            DatabaseChangeLog dcl = parsed.get(file + "#" + hash);
+            if (dcl == null) {
+                dcl = (DatabaseChangeLog) context.createUnmarshaller().unmarshal(new ByteArrayInputStream(content));
+                parsed.put(file + "#" + hash, dcl);
+            }
+            return new ChangeLogGraph.Node(file, hash, dcl);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (JAXBException e) {
+            throw new IllegalStateException("Unable to unmarshal " + file, e);
+        }
+    }
+
+    private List<List<Path>> resolveIncludes(ChangeLogGraph.Node node) {
+        List<List<Path>> result = new ArrayList<>();
+        Path directory = node.getPath().getParent();
+        for (Object entry : node.getChangeLog().getChangeSetOrIncludeOrIncludeAll()) {
+            if (entry instanceof DatabaseChangeLog.Include) {
+                DatabaseChangeLog.Include include = (DatabaseChangeLog.Include) entry;
+                Path base = "true".equals(include.getRelativeToChangelogFile()) ? directory : rootDirectory;
+                result.add(Collections.singletonList(base.resolve(include.getFile()).toAbsolutePath().normalize()));
+            } else if (entry instanceof DatabaseChangeLog.IncludeAll) {
+                DatabaseChangeLog.IncludeAll includeAll = (DatabaseChangeLog.IncludeAll) entry;
+                Path base = "true".equals(includeAll.getRelativeToChangelogFile()) ? directory : rootDirectory;
+                result.add(listChangeLogs(base.resolve(includeAll.getPath()).toAbsolutePath().normalize()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Lists the changelog files of a directory and of its subdirectories, as liquibase does for includeAll: sorted
+     * alphabetically on their path, so that the files of a subdirectory come between the files whose names surround
+     * it. The files produced by the {@link ChangeLogEditor} are ignored.
+     */
+    private static List<Path> listChangeLogs(Path directory) {
+        try (Stream<Path> stream = Files.walk(directory)) {
+            return stream.filter(path -> path.toString().endsWith(XML_SUFFIX)
+                    && !path.toString().endsWith(ChangeLogEditor.OUTPUT_SUFFIX) && Files.isRegularFile(path))
+                    .sorted(Comparator.comparing(path -> directory.relativize(path).toString()
+                            .replace(File.separatorChar, '/')))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static String hash(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the directory against which the includes that are not relative to their changelog file are resolved
+     */
+    public Path getRootDirectory() {
+        return rootDirectory;
+    }
+
+    /**
+     * Forgets the memoised tree of a file, which has been modified since it was loaded
+     *
+     * @param node the node of the file
+     */
+    public void evict(ChangeLogGraph.Node node) {
+        parsed.remove(node.getPath() + "#" + node.getContentHash());
+    }
+
+    /**
+     * Forgets the memoised files
+     */
+    public void clearCache() {
+        parsed.clear();
+    }
+}
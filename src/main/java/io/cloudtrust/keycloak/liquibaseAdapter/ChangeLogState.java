@@ -0,0 +1,276 @@
+package io.cloudtrust.keycloak.liquibaseAdapter;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DatabaseChangeLog;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The DATABASECHANGELOG content expected once a changelog graph has been applied: the id, author, file name and
+ * accepted checksums of every changeSet liquibase would run on the database.
+ * <p>
+ * The state is computed once, when the changelogs are converted, and written next to them in a tab separated text
+ * file, so that it can be compared with the database at startup without parsing the changelogs.
+ */
+public class ChangeLogState {
+
+    /**
+     * The liquibase name of the database, as cockroachdb is accessed through the PostgreSQL driver
+     */
+    public static final String DEFAULT_DBMS = "postgresql";
+
+    private static final String HEADER = "# id\tauthor\tfilename\trunAlways\trunOnChange\tchecksums";
+
+    private final List<ExpectedChangeSet> changeSets;
+
+    /**
+     * Standard constructor
+     *
+     * @param changeSets the expected changeSets, in execution order
+     */
+    public ChangeLogState(List<ExpectedChangeSet> changeSets) {
+        this.changeSets = Collections.unmodifiableList(new ArrayList<>(changeSets));
+    }
+
+    /**
+     * Computes the expected state of a changelog graph
+     *
+     * @param graph         the graph of the changelogs, as they will be given to liquibase
+     * @param rootDirectory the root of the classpath from which liquibase loads the changelogs, against which the
+     *                      file names are computed
+     * @param dbms          the liquibase name of the database, used to skip the changeSets restricted to others
+     * @return the expected state
+     * @throws IOException thrown if the CSV file of a loadData change cannot be read
+     */
+    public static ChangeLogState of(ChangeLogGraph graph, Path rootDirectory, String dbms) throws IOException {
+        List<ExpectedChangeSet> changeSets = new ArrayList<>();
+        Map<Path, CheckSumCalculator> calculators = new HashMap<>();
+        for (DatabaseChangeLog.ChangeSet changeSet : graph.getChangeSets()) {
+            if (!appliesTo(changeSet.getDbms(), dbms)) {
+                continue;
+            }
+            Set<String> checkSums = new LinkedHashSet<>();
+            Path directory = graph.getOwner(changeSet).getPath().toAbsolutePath().getParent();
+            checkSums.add(calculators.computeIfAbsent(directory, CheckSumCalculator::new).compute(changeSet));
+            for (DatabaseChangeLog.ChangeSet.ValidCheckSum valid : changeSet.getValidCheckSum()) {
+                valid.getContent().stream().filter(String.class::isInstance).map(c -> ((String) c).trim())
+                        .filter(c -> !c.isEmpty()).forEach(checkSums::add);
+            }
+            changeSets.add(new ExpectedChangeSet(changeSet.getId(), changeSet.getAuthor(),
+                    fileName(graph, changeSet, rootDirectory),
+                    "true".equals(changeSet.getRunAlways()), "true".equals(changeSet.getRunOnChange()), checkSums));
+        }
+        return new ChangeLogState(changeSets);
+    }
+
+    /**
+     * @param graph         a changelog graph
+     * @param changeSet     a changeSet of the graph
+     * @param rootDirectory the root of the classpath from which liquibase loads the changelogs
+     * @return the file name liquibase records for the changeSet in the DATABASECHANGELOG table
+     */
+    public static String fileName(ChangeLogGraph graph, DatabaseChangeLog.ChangeSet changeSet, Path rootDirectory) {
+        ChangeLogGraph.Node owner = graph.getOwner(changeSet);
+        if (changeSet.getLogicalFilePath() != null) {
+            return changeSet.getLogicalFilePath();
+        }
+        if (owner.getChangeLog().getLogicalFilePath() != null) {
+            return owner.getChangeLog().getLogicalFilePath();
+        }
+        return rootDirectory.toAbsolutePath().normalize().relativize(owner.getPath().toAbsolutePath().normalize())
+                .toString().replace('\\', '/');
+    }
+
+    /**
+     * Liquibase runs a changeSet if its dbms attribute is empty, lists the database or "all", or only excludes other
+     * databases
+     *
+     * @param changeSetDbms the dbms attribute of the changeSet
+     * @param dbms          the liquibase name of the database
+     * @return true if liquibase runs the changeSet on the database
+     */
+    public static boolean appliesTo(String changeSetDbms, String dbms) {
+        if (changeSetDbms == null || changeSetDbms.trim().isEmpty()) {
+            return true;
+        }
+        boolean positive = false;
+        for (String entry : changeSetDbms.split(",")) {
+            entry = entry.trim();
+            if (entry.equals("!" + dbms) || entry.equals("none")) {
+                return false;
+            }
+            if (entry.equals(dbms) || entry.equals("all")) {
+                return true;
+            }
+            positive |= !entry.startsWith("!");
+        }
+        return !positive;
+    }
+
+    /**
+     * @return the expected changeSets, in execution order
+     */
+    public List<ExpectedChangeSet> getChangeSets() {
+        return changeSets;
+    }
+
+    /**
+     * Writes the state to a file
+     *
+     * @param file the file to write
+     * @throws IOException thrown if the file cannot be written
+     */
+    public void write(Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (ExpectedChangeSet c : changeSets) {
+                writer.write(escape(c.id) + "\t" + escape(c.author) + "\t" + escape(c.fileName) + "\t" + c.runAlways
+                        + "\t" + c.runOnChange + "\t" + String.join(",", c.checkSums));
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Reads a state written by {@link #write(Path)}
+     *
+     * @param file the file to read
+     * @return the state
+     * @throws IOException thrown if the file cannot be read or is malformed
+     */
+    public static ChangeLogState read(Path file) throws IOException {
+        List<ExpectedChangeSet> changeSets = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 5 && fields.length != 6) {
+                    throw new IOException(file + ": malformed line " + line);
+                }
+                // the states written before runOnChange was recorded have 5 fields
+                boolean runOnChange = fields.length == 6 && Boolean.parseBoolean(fields[4]);
+                changeSets.add(new ExpectedChangeSet(unescape(fields[0]), unescape(fields[1]), unescape(fields[2]),
+                        Boolean.parseBoolean(fields[3]), runOnChange,
+                        new LinkedHashSet<>(Arrays.asList(fields[fields.length - 1].split(",")))));
+            }
+        }
+        return new ChangeLogState(changeSets);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    private static String unescape(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * One changeSet expected in the DATABASECHANGELOG table
+     */
+    public static class ExpectedChangeSet {
+        private final String id;
+        private final String author;
+        private final String fileName;
+        private final boolean runAlways;
+        private final boolean runOnChange;
+        private final Set<String> checkSums;
+
+        /**
+         * Creates an expected changeSet that is not run again when it changes
+         *
+         * @param id        the id of the changeSet
+         * @param author    the author of the changeSet
+         * @param fileName  the file name liquibase records for the changeSet
+         * @param runAlways true if liquibase runs the changeSet at every update
+         * @param checkSums the checksums liquibase accepts for the changeSet, the computed one first
+         */
+        public ExpectedChangeSet(String id, String author, String fileName, boolean runAlways, Set<String> checkSums) {
+            this(id, author, fileName, runAlways, false, checkSums);
+        }
+
+        /**
+         * Standard constructor
+         *
+         * @param id          the id of the changeSet
+         * @param author      the author of the changeSet
+         * @param fileName    the file name liquibase records for the changeSet
+         * @param runAlways   true if liquibase runs the changeSet at every update
+         * @param runOnChange true if liquibase runs the changeSet again when its checksum changes, instead of failing
+         *                    the validation
+         * @param checkSums   the checksums liquibase accepts for the changeSet, the computed one first
+         */
+        public ExpectedChangeSet(String id, String author, String fileName, boolean runAlways, boolean runOnChange,
+                                 Set<String> checkSums) {
+            this.id = id;
+            this.author = author;
+            this.fileName = fileName;
+            this.runAlways = runAlways;
+            this.runOnChange = runOnChange;
+            this.checkSums = Collections.unmodifiableSet(new LinkedHashSet<>(checkSums));
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getAuthor() {
+            return author;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public boolean isRunAlways() {
+            return runAlways;
+        }
+
+        public boolean isRunOnChange() {
+            return runOnChange;
+        }
+
+        public Set<String> getCheckSums() {
+            return checkSums;
+        }
+
+        /**
+         * @param checkSum a checksum of the changelog table
+         * @return true if liquibase accepts the checksum for the changeSet, a valid checksum ANY accepting them all
+         */
+        public boolean accepts(String checkSum) {
+            return checkSums.contains(checkSum) || checkSums.stream().anyMatch("ANY"::equalsIgnoreCase);
+        }
+
+        @Override
+        public String toString() {
+            return fileName + "::" + id + "::" + author;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package io.cloudtrust.keycloak.liquibaseAdapter;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Decides at startup whether the schema is already current, without taking the liquibase lock.
+ * <p>
+ * Liquibase takes the DATABASECHANGELOGLOCK lock and reads the whole DATABASECHANGELOG table on every boot, which
+ * serialises the boots of the nodes of a cluster. The checker instead compares the table with the expected
+ * {@link ChangeLogState} in a single query, run as a follower read so that it is served by the nearest replica
+ * without contending with writers. Liquibase only needs to run when a changeSet is pending: missing, with a checksum
+ * liquibase would not accept, or to be run at every update.
+ * <p>
+ * The query only reads the rows of the expected changeSets, by their (ID, AUTHOR, FILENAME) key, so that with the
+ * index of {@link #indexStatement(String)} it costs one lookup per expected changeSet instead of a scan of the whole
+ * table, which also holds the changeSets of the former versions.
+ * <p>
+ * A follower read may miss the changeSets applied in the last seconds, in which case the schema is reported as not
+ * current and liquibase runs as usual: the check can only err on the safe side.
+ */
+public class ChangeLogStateChecker {
+
+    /**
+     * The default name of the liquibase changelog table
+     */
+    public static final String DEFAULT_TABLE = "DATABASECHANGELOG";
+
+    private static final String UNDEFINED_TABLE_SQL_STATE = "42P01";
+
+    private final ChangeLogState expected;
+    private final String query;
+
+    /**
+     * Creates a checker reading the default changelog table
+     *
+     * @param expected the expected state
+     */
+    public ChangeLogStateChecker(ChangeLogState expected) {
+        this(expected, DEFAULT_TABLE);
+    }
+
+    /**
+     * Standard constructor
+     *
+     * @param expected the expected state
+     * @param table    the (possibly schema qualified) name of the changelog table
+     */
+    public ChangeLogStateChecker(ChangeLogState expected, String table) {
+        this.expected = expected;
+        this.query = "SELECT ID, AUTHOR, FILENAME, MD5SUM FROM " + table
+                + " AS OF SYSTEM TIME follower_read_timestamp() WHERE " + (expected.getChangeSets().isEmpty() ? "false"
+                : "(ID, AUTHOR, FILENAME) IN (" + expected.getChangeSets().stream().map(c -> "(" + literal(c.getId())
+                + ", " + literal(c.getAuthor()) + ", " + literal(c.getFileName()) + ")")
+                .collect(Collectors.joining(", ")) + ")");
+    }
+
+    /**
+     * Creates the statement creating the index serving the lookups of the checker, which liquibase does not create
+     *
+     * @param table the (possibly schema qualified) name of the changelog table
+     * @return the statement, which does nothing if the index exists
+     */
+    public static String indexStatement(String table) {
+        return "CREATE INDEX IF NOT EXISTS " + table.substring(table.lastIndexOf('.') + 1) + "_KEY ON " + table
+                + " (ID, AUTHOR, FILENAME) STORING (MD5SUM)";
+    }
+
+    /**
+     * @return the query reading the changelog table
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * Compares the changelog table with the expected state
+     *
+     * @param connection the connection to the database
+     * @return the pending changeSets, in execution order, empty if the schema is current
+     * @throws SQLException thrown if the changelog table cannot be read
+     */
+    public List<ChangeLogState.ExpectedChangeSet> getPendingChangeSets(Connection connection) throws SQLException {
+        Map<String, String> applied = new HashMap<>();
+        try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery(query)) {
+            while (rs.next()) {
+                applied.put(key(rs.getString(1), rs.getString(2), rs.getString(3)), rs.getString(4));
+            }
+        } catch (SQLException e) {
+            if (!UNDEFINED_TABLE_SQL_STATE.equals(e.getSQLState())) {
+                throw e;
+            }
+            // a new database
+        }
+        List<ChangeLogState.ExpectedChangeSet> pending = new ArrayList<>();
+        for (ChangeLogState.ExpectedChangeSet changeSet : expected.getChangeSets()) {
+            String checkSum = applied.get(key(changeSet.getId(), changeSet.getAuthor(), changeSet.getFileName()));
+            if (changeSet.isRunAlways() || checkSum == null || !changeSet.accepts(checkSum)) {
+                pending.add(changeSet);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * @param connection the connection to the database
+     * @return true if no changeSet is pending
+     * @throws SQLException thrown if the changelog table cannot be read
+     */
+    public boolean isSchemaCurrent(Connection connection) throws SQLException {
+        return getPendingChangeSets(connection).isEmpty();
+    }
+
+    /**
+     * Runs a migration, usually liquibase, unless the schema is current
+     *
+     * @param dataSource the DataSource of the database
+     * @param migration  the migration to run when changeSets are pending
+     * @return true if the migration has been run
+     * @throws Exception thrown if the changelog table cannot be read, or by the migration
+     */
+    public boolean migrateIfPending(DataSource dataSource, Migration migration) throws Exception {
+        List<ChangeLogState.ExpectedChangeSet> pending;
+        try (Connection connection = dataSource.getConnection()) {
+            pending = getPendingChangeSets(connection);
+        }
+        if (pending.isEmpty()) {
+            return false;
+        }
+        migration.run(pending);
+        return true;
+    }
+
+    private static String literal(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    private static String key(String id, String author, String fileName) {
+        return id + '\u0000' + author + '\u0000' + fileName;
+    }
+
+    /**
+     * A migration of the database
+     */
+    @FunctionalInterface
+    public interface Migration {
+        /**
+         * @param pending the pending changeSets, as found by the checker
+         * @throws Exception thrown if the migration fails
+         */
+        void run(List<ChangeLogState.ExpectedChangeSet> pending) throws Exception;
+    }
+}
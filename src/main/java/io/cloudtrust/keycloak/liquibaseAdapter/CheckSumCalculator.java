@@ -0,0 +1,533 @@
+package io.cloudtrust.keycloak.liquibaseAdapter;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.CreateIndex;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DatabaseChangeLog;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.LoadData;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.LoadUpdateData;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.Rollback;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.Sql;
+import org.w3c.dom.Node;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.annotation.XmlAnyAttribute;
+import javax.xml.bind.annotation.XmlAnyElement;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementRef;
+import javax.xml.bind.annotation.XmlElementRefs;
+import javax.xml.bind.annotation.XmlMixed;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Computes the liquibase checksums (version 7, liquibase 3.x) of changeSets and changes, without liquibase.
+ * <p>
+ * As liquibase does, the checksum of a change is the MD5 of its serialisation by the StringChangeLogSerializer:
+ * the name of the change followed by its non null fields sorted by name, one per line, nested objects and
+ * collections being indented by 4 spaces. The sql changes are checksummed on their normalised text, and the loadData
+ * changes on the content of their CSV file. The checksum of a changeSet is the MD5 of the checksums of its changes,
+ * each followed by ":".
+ * <p>
+ * The fields are read from the JAXB model: the attributes under their XML name (with the schema defaults), the
+ * column elements as "columns", and the constraints element as a nested object. The serialisation is streamed into
+ * the digest, without building the serialised text. The modifySql elements of a changeSet are not supported.
+ * <p>
+ * An instance is not thread safe.
+ */
+public class CheckSumCalculator {
+
+    /**
+     * The checksum version of liquibase 3.x
+     */
+    public static final String VERSION = "7";
+
+    private static final int INDENT_LENGTH = 4;
+    private static final Set<String> INDEX_COLUMN_FIELDS = new HashSet<>(Arrays.asList("name=", "descending=",
+            "computed="));
+    private static final Map<Class<?>, List<FieldAccess>> FIELDS = new ConcurrentHashMap<>();
+
+    private final Path changeLogDirectory;
+    private final DigestOutput out;
+    private final MessageDigest changeSetDigest;
+
+    /**
+     * Creates a calculator for changelogs without loadData changes
+     */
+    public CheckSumCalculator() {
+        this(null);
+    }
+
+    /**
+     * Standard constructor
+     *
+     * @param changeLogDirectory the directory against which the CSV files of the loadData changes are resolved, the
+     *                           changes whose file does not exist being checksummed on their serialisation
+     */
+    public CheckSumCalculator(Path changeLogDirectory) {
+        this.changeLogDirectory = changeLogDirectory;
+        this.out = new DigestOutput(md5());
+        this.changeSetDigest = md5();
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param changeSet a changeSet
+     * @return the liquibase checksum of the changeSet, e.g. "7:0123456789abcdef0123456789abcdef"
+     * @throws IOException thrown if the CSV file of a loadData change cannot be read
+     */
+    public String compute(DatabaseChangeLog.ChangeSet changeSet) throws IOException {
+        changeSetDigest.reset();
+        for (Object change : getChanges(changeSet)) {
+            String checkSum = compute(change);
+            for (int i = 0; i < checkSum.length(); i++) {
+                changeSetDigest.update((byte) checkSum.charAt(i));
+            }
+            changeSetDigest.update((byte) ':');
+        }
+        return format(changeSetDigest.digest());
+    }
+
+    /**
+     * @param change a change, i.e. one of the JAXB objects of a changeSet
+     * @return the liquibase checksum of the change
+     * @throws IOException thrown if the CSV file of a loadData change cannot be read
+     */
+    public String compute(Object change) throws IOException {
+        out.reset();
+        if (change instanceof Sql) {
+            writeSql((Sql) change);
+        } else if (getCsvFile(change) != null) {
+            String tableName = change instanceof LoadData ? ((LoadData) change).getTableName()
+                    : ((LoadUpdateData) change).getTableName();
+            String fileCheckSum = computeCsv(getCsvFile(change));
+            out.reset();
+            out.append(tableName).append(':').append(fileCheckSum);
+        } else {
+            out.append(elementName(change)).append(':');
+            writeObject(change, 1, null);
+        }
+        return format(out.digest());
+    }
+
+    /**
+     * Adds a checksum to the valid checksums of a changeSet, unless it is already there
+     *
+     * @param changeSet the changeSet
+     * @param checkSum  the checksum that liquibase must accept for the changeSet
+     */
+    public static void addValidCheckSum(DatabaseChangeLog.ChangeSet changeSet, String checkSum) {
+        for (DatabaseChangeLog.ChangeSet.ValidCheckSum valid : changeSet.getValidCheckSum()) {
+            if (valid.getContent().stream().anyMatch(c -> c instanceof String && checkSum.equals(((String) c).trim()))) {
+                return;
+            }
+        }
+        DatabaseChangeLog.ChangeSet.ValidCheckSum valid = new DatabaseChangeLog.ChangeSet.ValidCheckSum();
+        valid.getContent().add(checkSum);
+        changeSet.getValidCheckSum().add(valid);
+    }
+
+    /**
+     * @return the CSV file of a loadData change, or null if it cannot be found, in which case the change is
+     * checksummed on its serialisation
+     */
+    private Path getCsvFile(Object change) {
+        String file = change instanceof LoadData ? ((LoadData) change).getFile()
+                : change instanceof LoadUpdateData ? ((LoadUpdateData) change).getFile() : null;
+        if (file == null || changeLogDirectory == null || !Files.isRegularFile(changeLogDirectory.resolve(file))) {
+            return null;
+        }
+        return changeLogDirectory.resolve(file);
+    }
+
+    private static List<Object> getChanges(DatabaseChangeLog.ChangeSet changeSet) {
+        List<Object> changes = new ArrayList<>();
+        if (changeSet.getTagDatabase() != null) {
+            changes.add(changeSet.getTagDatabase());
+        }
+        for (Object child : changeSet.getChangeSetChildren()) {
+            // comments are JAXBElements, unknown elements are DOM elements
+            if (!(child instanceof Rollback) && child.getClass().isAnnotationPresent(XmlRootElement.class)) {
+                changes.add(child);
+            }
+        }
+        return changes;
+    }
+
+    private static String format(byte[] digest) {
+        char[] chars = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            chars[2 * i] = Character.forDigit((digest[i] >> 4) & 0xf, 16);
+            chars[2 * i + 1] = Character.forDigit(digest[i] & 0xf, 16);
+        }
+        return VERSION + ":" + new String(chars);
+    }
+
+    /**
+     * Liquibase checksums the sql text on a header giving the parsing options, followed by the trimmed text where
+     * every run of whitespace is replaced by a single space
+     */
+    private void writeSql(Sql sql) {
+        out.append(String.valueOf(sql.getEndDelimiter())).append(':')
+                .append(sql.getSplitStatements() == null ? "true" : sql.getSplitStatements()).append(':')
+                .append(sql.getStripComments() == null ? "false" : sql.getStripComments()).append(':');
+        boolean whitespace = false;
+        boolean seenNonSpace = false;
+        for (Serializable content : sql.getContent()) {
+            if (!(content instanceof String)) {
+                continue;
+            }
+            String text = (String) content;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                    whitespace = true;
+                    continue;
+                }
+                if (whitespace && seenNonSpace) {
+                    out.appendRaw(' ');
+                }
+                whitespace = false;
+                seenNonSpace = true;
+                out.appendRaw(c);
+            }
+        }
+    }
+
+    /**
+     * Liquibase checksums the CSV file without its carriage returns, its empty lines, its final line feed and its
+     * comments, a comment starting at any "#" and ending at the end of the line
+     */
+    private String computeCsv(Path file) throws IOException {
+        byte[] buffer = new byte[8192];
+        boolean comment = false;
+        boolean pendingLineFeed = false;
+        int last = -1;
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    byte b = buffer[i];
+                    if (comment) {
+                        comment = b != '\n' && b != '\r';
+                    } else if (b == '#') {
+                        comment = true;
+                    } else if (b == '\n') {
+                        // the line feed is only written once a character follows it
+                        pendingLineFeed = last != -1;
+                        last = last == -1 ? -1 : '\n';
+                    } else if (b != '\r') {
+                        if (pendingLineFeed) {
+                            out.updateByte((byte) '\n');
+                            pendingLineFeed = false;
+                        }
+                        out.updateByte(b);
+                        last = b;
+                    }
+                }
+            }
+        }
+        return format(out.digest());
+    }
+
+    private void writeObject(Object object, int indent, Set<String> only) {
+        TreeMap<String, Object> fields = getSerializableFields(object);
+        if (only != null) {
+            fields.keySet().retainAll(only);
+        }
+        out.append('[');
+        if (!fields.isEmpty()) {
+            out.append('\n');
+            boolean first = true;
+            for (Map.Entry<String, Object> field : fields.entrySet()) {
+                if (!first) {
+                    out.append('\n');
+                }
+                first = false;
+                writeIndent(indent);
+                if (field.getKey().charAt(0) == '[') {
+                    writeObject(field.getValue(), indent + 1, null);
+                    continue;
+                }
+                out.append(field.getKey());
+                if (field.getValue() instanceof List) {
+                    // liquibase only keeps the name and the order of the columns of an index
+                    writeCollection((List<?>) field.getValue(), indent + 1,
+                            object instanceof CreateIndex ? INDEX_COLUMN_FIELDS : null);
+                } else {
+                    out.append('"').append(field.getValue().toString()).append('"');
+                }
+            }
+            out.append('\n');
+        }
+        writeIndent(indent - 1);
+        out.append(']');
+    }
+
+    private void writeCollection(List<?> collection, int indent, Set<String> only) {
+        out.append('[').append('\n');
+        for (int i = 0; i < collection.size(); i++) {
+            writeIndent(indent);
+            Object item = collection.get(i);
+            if (item instanceof String) {
+                out.append((String) item);
+            } else {
+                writeObject(item, indent + 1, only);
+            }
+            if (i < collection.size() - 1) {
+                out.append(',');
+            }
+            out.append('\n');
+        }
+        writeIndent(indent - 1);
+        out.append(']');
+    }
+
+    private void writeIndent(int indent) {
+        for (int i = 0; i < indent * INDENT_LENGTH; i++) {
+            out.append(' ');
+        }
+    }
+
+    /**
+     * Collects the non null fields of a JAXB object, sorted as liquibase sorts the lines of their serialisation. The
+     * keys are the field names followed by "=", or "[" followed by a number for the nested objects, whose line do
+     * not start with a field name.
+     */
+    private static TreeMap<String, Object> getSerializableFields(Object object) {
+        TreeMap<String, Object> fields = new TreeMap<>();
+        for (FieldAccess field : FIELDS.computeIfAbsent(object.getClass(), CheckSumCalculator::findFields)) {
+            Object value = field.get(object);
+            if (value == null) {
+                continue;
+            }
+            if (!field.content) {
+                fields.put(field.name + "=", value);
+                continue;
+            }
+            for (Object item : (List<?>) value) {
+                String name;
+                if (item instanceof JAXBElement) {
+                    name = ((JAXBElement<?>) item).getName().getLocalPart();
+                    item = ((JAXBElement<?>) item).getValue();
+                    if (item instanceof Node) {
+                        // elements of type anyType, such as where, are unmarshalled as DOM nodes
+                        item = ((Node) item).getTextContent().trim();
+                    }
+                } else if (item instanceof String) {
+                    if (((String) item).trim().isEmpty()) {
+                        continue;
+                    }
+                    name = "value";
+                    item = ((String) item).trim();
+                } else if (item.getClass().isAnnotationPresent(XmlRootElement.class)) {
+                    name = item.getClass().getAnnotation(XmlRootElement.class).name();
+                } else {
+                    name = field.name;
+                }
+                if ("comment".equals(name) || item == null) {
+                    continue;
+                }
+                addContent(fields, name, item);
+            }
+        }
+        return fields;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void addContent(TreeMap<String, Object> fields, String name, Object item) {
+        if (item instanceof String) {
+            fields.put(name + "=", item);
+        } else if ("constraints".equals(name)) {
+            fields.put("[" + fields.size(), item);
+        } else {
+            String key = ("column".equals(name) ? "columns" : name) + "=";
+            ((List<Object>) fields.computeIfAbsent(key, k -> new ArrayList<>())).add(item);
+        }
+    }
+
+    private static List<FieldAccess> findFields(Class<?> type) {
+        List<FieldAccess> fields = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()
+                        || field.isAnnotationPresent(XmlAnyAttribute.class)
+                        || field.isAnnotationPresent(XmlAnyElement.class) && !field.isAnnotationPresent(XmlElementRef.class)
+                        && !field.isAnnotationPresent(XmlElementRefs.class)) {
+                    continue;
+                }
+                XmlAttribute attribute = field.getAnnotation(XmlAttribute.class);
+                XmlElement element = field.getAnnotation(XmlElement.class);
+                String name = field.getName();
+                if (attribute != null && !"##default".equals(attribute.name())) {
+                    name = attribute.name();
+                } else if (element != null && !"##default".equals(element.name())) {
+                    name = element.name();
+                }
+                boolean content = List.class.isAssignableFrom(field.getType())
+                        || field.isAnnotationPresent(XmlMixed.class);
+                fields.add(new FieldAccess(field, getter(c, field), name, content));
+            }
+        }
+        return Collections.unmodifiableList(fields);
+    }
+
+    /**
+     * The getters of the generated classes apply the schema defaults, so they are preferred over the fields
+     */
+    private static Method getter(Class<?> type, Field field) {
+        String suffix = Character.toUpperCase(field.getName().charAt(0)) + field.getName().substring(1);
+        for (String prefix : new String[]{"get", "is"}) {
+            try {
+                return type.getMethod(prefix + suffix);
+            } catch (NoSuchMethodException e) {
+                // try the next prefix
+            }
+        }
+        field.setAccessible(true);
+        return null;
+    }
+
+    private static String elementName(Object change) {
+        XmlRootElement root = change.getClass().getAnnotation(XmlRootElement.class);
+        return root != null ? root.name() : change.getClass().getSimpleName();
+    }
+
+    private static class FieldAccess {
+        private final Field field;
+        private final Method getter;
+        private final String name;
+        private final boolean content;
+
+        private FieldAccess(Field field, Method getter, String name, boolean content) {
+            this.field = field;
+            this.getter = getter;
+            this.name = name;
+            this.content = content;
+        }
+
+        private Object get(Object object) {
+            try {
+                Object value = getter != null ? getter.invoke(object) : field.get(object);
+                if (value instanceof List && ((List<?>) value).isEmpty()) {
+                    return null;
+                }
+                if (value instanceof Enum) {
+                    try {
+                        return value.getClass().getMethod("value").invoke(value);
+                    } catch (NoSuchMethodException e) {
+                        return ((Enum<?>) value).name();
+                    }
+                }
+                return value;
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Unable to read " + field, e);
+            }
+        }
+    }
+
+    /**
+     * Encodes characters in UTF-8 straight into a message digest, turning the "\r\n" and "\r" line endings into
+     * "\n" as liquibase does before checksumming a serialised change
+     */
+    private static class DigestOutput {
+        private final MessageDigest digest;
+        private final byte[] buffer = new byte[4096];
+        private int position;
+        private boolean previousCr;
+        private char highSurrogate;
+
+        private DigestOutput(MessageDigest digest) {
+            this.digest = digest;
+        }
+
+        private void reset() {
+            position = 0;
+            previousCr = false;
+            highSurrogate = 0;
+            digest.reset();
+        }
+
+        private byte[] digest() {
+            flush();
+            return digest.digest();
+        }
+
+        private DigestOutput append(String s) {
+            for (int i = 0; i < s.length(); i++) {
+                append(s.charAt(i));
+            }
+            return this;
+        }
+
+        private DigestOutput append(char c) {
+            if (c == '\n' && previousCr) {
+                previousCr = false;
+                return this;
+            }
+            previousCr = c == '\r';
+            appendRaw(c == '\r' ? '\n' : c);
+            return this;
+        }
+
+        private void appendRaw(char c) {
+            if (Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+                return;
+            }
+            if (Character.isLowSurrogate(c) && highSurrogate != 0) {
+                int codePoint = Character.toCodePoint(highSurrogate, c);
+                highSurrogate = 0;
+                updateByte((byte) (0xf0 | (codePoint >> 18)));
+                updateByte((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                updateByte((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                updateByte((byte) (0x80 | (codePoint & 0x3f)));
+            } else if (c < 0x80) {
+                updateByte((byte) c);
+            } else if (c < 0x800) {
+                updateByte((byte) (0xc0 | (c >> 6)));
+                updateByte((byte) (0x80 | (c & 0x3f)));
+            } else {
+                updateByte((byte) (0xe0 | (c >> 12)));
+                updateByte((byte) (0x80 | ((c >> 6) & 0x3f)));
+                updateByte((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+
+        private void updateByte(byte b) {
+            if (position == buffer.length) {
+                flush();
+            }
+            buffer[position++] = b;
+        }
+
+        private void flush() {
+            digest.update(buffer, 0, position);
+            position = 0;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package io.cloudtrust.keycloak.liquibaseAdapter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * An on-disk cache of converted changelogs. Each entry holds the bytes of a converted file under a key derived from
+ * everything the conversion depends on: the content of the input (and of the files it depends on), the version of
+ * the transformations and their configuration. A cache hit means the file does not need to be converted again.
+ */
+public class ConversionCache {
+
+    private static final String ENTRY_SUFFIX = ".xml";
+
+    private final Path directory;
+
+    /**
+     * Standard constructor
+     *
+     * @param directory the directory holding the cache entries, created if needed
+     * @throws IOException thrown if the directory cannot be created
+     */
+    public ConversionCache(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    /**
+     * Derives a cache key from its parts
+     *
+     * @param parts the parts of the key, for instance content hashes, a version and a configuration
+     * @return the key
+     */
+    public static String key(String... parts) {
+        return ChangeLogGraphLoader.hash(String.join("\n", parts).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param key the key of the entry
+     * @return the cached output, or null if there is no such entry
+     * @throws IOException thrown if the entry cannot be read
+     */
+    public byte[] get(String key) throws IOException {
+        try {
+            return Files.readAllBytes(directory.resolve(key + ENTRY_SUFFIX));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores an entry. The entry is written to a temporary file first, so that concurrent builds never see a partial
+     * entry (see {@link OutputWriter#replace(Path, byte[], int)}).
+     *
+     * @param key    the key of the entry
+     * @param output the converted output
+     * @throws IOException thrown if the entry cannot be written
+     */
+    public void put(String key, byte[] output) throws IOException {
+        OutputWriter.replace(directory.resolve(key + ENTRY_SUFFIX), output, output.length);
+    }
+}
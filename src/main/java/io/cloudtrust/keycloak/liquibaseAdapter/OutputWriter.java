@@ -0,0 +1,192 @@
+package io.cloudtrust.keycloak.liquibaseAdapter;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+/**
+ * Writes the output files so that a reader never sees a missing or truncated file.
+ * <p>
+ * A changelog is marshalled into an in-memory buffer that is reused from one file to the next. If the target already
+ * holds the same bytes, nothing is written. Otherwise the bytes are written to a temporary file in the directory of
+ * the target, forced to the disk, and the temporary file is renamed over the target.
+ * <p>
+ * An instance is not thread safe.
+ */
+public class OutputWriter {
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    private static final Set<PosixFilePermission> DEFAULT_PERMISSIONS = PosixFilePermissions.fromString("rw-r--r--");
+
+    private final Marshaller marshaller;
+    private final Buffer buffer = new Buffer();
+    private final ByteBuffer compareBuffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+    /**
+     * Standard constructor
+     *
+     * @param marshaller the marshaller used to write the changelogs
+     */
+    public OutputWriter(Marshaller marshaller) {
+        this.marshaller = marshaller;
+    }
+
+    /**
+     * Marshals an object to a file, unless the file already holds the same content
+     *
+     * @param target     the file to write
+     * @param jaxbObject the object to marshal
+     * @return true if the file has been written, false if it was already up to date
+     * @throws JAXBException thrown if the object cannot be marshalled
+     * @throws IOException   thrown if the file cannot be written
+     */
+    public boolean write(Path target, Object jaxbObject) throws JAXBException, IOException {
+        buffer.reset();
+        marshaller.marshal(jaxbObject, buffer);
+        return write(target, buffer.array(), buffer.size());
+    }
+
+    /**
+     * @return a copy of the content marshalled by the last call to {@link #write(Path, Object)}
+     */
+    public byte[] getContent() {
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Writes bytes to a file, unless the file already holds the same content
+     *
+     * @param target  the file to write
+     * @param content the content to write
+     * @return true if the file has been written, false if it was already up to date
+     * @throws IOException thrown if the file cannot be written
+     */
+    public boolean write(Path target, byte[] content) throws IOException {
+        return write(target, content, content.length);
+    }
+
+    private boolean write(Path target, byte[] content, int length) throws IOException {
+        if (hasContent(target, content, length)) {
+            return false;
+        }
+        replace(target, content, length);
+        return true;
+    }
+
+    private boolean hasContent(Path target, byte[] content, int length) throws IOException {
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.READ)) {
+            if (channel.size() != length) {
+                return false;
+            }
+            int position = 0;
+            while (position < length) {
+                compareBuffer.clear();
+                int read = channel.read(compareBuffer);
+                if (read < 0) {
+                    return false;
+                }
+                compareBuffer.flip();
+                if (!compareBuffer.equals(ByteBuffer.wrap(content, position, read))) {
+                    return false;
+                }
+                position += read;
+            }
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes bytes to a temporary file next to the target, forces them to the disk, and renames the temporary file
+     * over the target. On a POSIX file system, the file keeps the permissions of the target, or gets rw-r--r-- if
+     * there is no target, rather than the owner-only permissions of a temporary file.
+     *
+     * @param target  the file to replace
+     * @param content the content of the file
+     * @param length  the number of bytes of the content to write
+     * @throws IOException thrown if the file cannot be written
+     */
+    static void replace(Path target, byte[] content, int length) throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        Set<PosixFilePermission> permissions = permissions(target);
+        Path temp = permissions == null
+                ? Files.createTempFile(directory, "." + target.getFileName() + ".", ".tmp")
+                : Files.createTempFile(directory, "." + target.getFileName() + ".", ".tmp",
+                PosixFilePermissions.asFileAttribute(permissions));
+        try {
+            if (permissions != null) {
+                // the permissions given at creation are restricted by the umask
+                Files.setPosixFilePermissions(temp, permissions);
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer bytes = ByteBuffer.wrap(content, 0, length);
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        forceDirectory(directory);
+    }
+
+    /**
+     * @return the permissions of the target, the default permissions if there is no target, or null if the file
+     * system does not support POSIX permissions
+     */
+    private static Set<PosixFilePermission> permissions(Path target) throws IOException {
+        if (!target.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            return null;
+        }
+        try {
+            return Files.getFileAttributeView(target, PosixFileAttributeView.class).readAttributes().permissions();
+        } catch (NoSuchFileException e) {
+            return DEFAULT_PERMISSIONS;
+        }
+    }
+
+    /**
+     * Forces the rename to the disk. Not all platforms allow opening a directory, in which case the rename is left to
+     * the file system.
+     */
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not supported on this platform
+        }
+    }
+
+    /**
+     * A byte array output stream giving access to its array, so that the marshalled bytes are not copied
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+        private Buffer() {
+            super(INITIAL_CAPACITY);
+        }
+
+        private byte[] array() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,433 @@
+package io.cloudtrust.keycloak.liquibaseAdapter;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.AddColumn;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.AddForeignKeyConstraint;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.AddPrimaryKey;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.AddUniqueConstraint;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.Column;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.Constraints;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.CreateIndex;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.CreateTable;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DatabaseChangeLog;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DropColumn;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DropUniqueConstraint;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.LoadData;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.ObjectFactory;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.RenameColumn;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates large changelogs shaped like the ones of Keycloak, to benchmark and test the transformations at scale.
+ * <p>
+ * Every table is created by its own changeSet, with an "add primary key" command as Keycloak does, and a unique
+ * constraint for a third of them. The foreign keys, indexes, renames, drops and data loads are then spread over
+ * "release" changeSets, each one referring to the tables created before it. The changeSets are built with the
+ * {@link ObjectFactory} and marshalled one at a time to an XML stream, so that only the names of the tables and
+ * columns are kept in memory, and the output only depends on the seed and the counts.
+ */
+public class SyntheticChangeLogGenerator {
+
+    private static final String NAMESPACE = "http://www.liquibase.org/xml/ns/dbchangelog";
+    private static final QName CHANGE_SET = new QName(NAMESPACE, "changeSet");
+    private static final String[][] COLUMNS = {{"NAME", "VARCHAR(255)"}, {"VALUE", "VARCHAR(4000)"},
+            {"REALM_ID", "VARCHAR(36)"}, {"CLIENT_ID", "VARCHAR(36)"}, {"USER_ID", "VARCHAR(36)"},
+            {"ENABLED", "BOOLEAN"}, {"DESCRIPTION", "VARCHAR(255)"}, {"CREATED_TIMESTAMP", "BIGINT"},
+            {"TYPE", "VARCHAR(255)"}, {"PROVIDER_ID", "VARCHAR(36)"}, {"PRIORITY", "INT"}, {"EMAIL", "VARCHAR(255)"},
+            {"SECRET", "VARCHAR(255)"}, {"EXPIRATION", "INT"}, {"PARENT_ID", "VARCHAR(36)"},
+            {"PROTOCOL", "VARCHAR(255)"}, {"BASE_URL", "VARCHAR(255)"}, {"NOT_BEFORE", "INT"}};
+    private static final int CHANGES_PER_RELEASE = 8;
+
+    private final ObjectFactory factory = new ObjectFactory();
+    private final Marshaller marshaller;
+    private long seed = 1;
+    private int tables = 100;
+    private int maxColumns = 12;
+    private int foreignKeys = 100;
+    private int indexes = 50;
+    private int renames = 10;
+    private int drops = 10;
+    private int dataLoads = 5;
+    private int rowsPerLoad = 100;
+
+    /**
+     * Standard constructor
+     *
+     * @throws JAXBException thrown if the JAXB context cannot be created
+     */
+    public SyntheticChangeLogGenerator() throws JAXBException {
+        marshaller = JAXBContext.newInstance(DatabaseChangeLog.class).createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setTables(int tables) {
+        this.tables = tables;
+    }
+
+    /**
+     * @param maxColumns the largest number of columns of a table, the primary key included
+     */
+    public void setMaxColumns(int maxColumns) {
+        this.maxColumns = maxColumns;
+    }
+
+    public void setForeignKeys(int foreignKeys) {
+        this.foreignKeys = foreignKeys;
+    }
+
+    public void setIndexes(int indexes) {
+        this.indexes = indexes;
+    }
+
+    public void setRenames(int renames) {
+        this.renames = renames;
+    }
+
+    /**
+     * @param drops the number of dropped columns and unique constraints
+     */
+    public void setDrops(int drops) {
+        this.drops = drops;
+    }
+
+    /**
+     * @param dataLoads   the number of "load data" commands, each one with its own CSV file
+     * @param rowsPerLoad the number of rows of each CSV file
+     */
+    public void setDataLoads(int dataLoads, int rowsPerLoad) {
+        this.dataLoads = dataLoads;
+        this.rowsPerLoad = rowsPerLoad;
+    }
+
+    /**
+     * Writes a changelog, and the CSV files of its data loads in the same directory
+     *
+     * @param file the changelog file
+     * @return the number of written changeSets
+     * @throws IOException   thrown if a file cannot be written
+     * @throws JAXBException thrown if a changeSet cannot be marshalled
+     */
+    public int generate(Path file) throws IOException, JAXBException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            try {
+                xml.writeStartDocument("UTF-8", "1.0");
+                xml.writeCharacters("\n");
+                xml.setDefaultNamespace(NAMESPACE);
+                xml.writeStartElement(NAMESPACE, "databaseChangeLog");
+                xml.writeDefaultNamespace(NAMESPACE);
+                int count = new Generation(file.toAbsolutePath().getParent(), xml).run();
+                xml.writeCharacters("\n");
+                xml.writeEndElement();
+                xml.writeEndDocument();
+                return count;
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * The state of one generation: the tables created so far and the changes left to spread
+     */
+    private class Generation {
+        private final Path directory;
+        private final XMLStreamWriter xml;
+        private final Random random = new Random(seed);
+        private final List<Table> created = new ArrayList<>();
+        private int changeSets;
+        private int foreignKeysLeft = foreignKeys;
+        private int indexesLeft = indexes;
+        private int renamesLeft = renames;
+        private int dropsLeft = drops;
+        private int dataLoadsLeft = dataLoads;
+
+        Generation(Path directory, XMLStreamWriter xml) {
+            this.directory = directory;
+            this.xml = xml;
+        }
+
+        int run() throws IOException, JAXBException, XMLStreamException {
+            int others = foreignKeys + indexes + renames + drops + dataLoads;
+            int releases = (others + CHANGES_PER_RELEASE - 1) / CHANGES_PER_RELEASE;
+            int tablesPerRelease = releases == 0 ? tables : Math.max(1, tables / releases);
+            for (int i = 0; i < tables; i++) {
+                write(createTable(i));
+                if ((i + 1) % tablesPerRelease == 0 && changesLeft() > 0) {
+                    write(release());
+                }
+            }
+            while (changesLeft() > 0 && !created.isEmpty()) {
+                write(release());
+            }
+            return changeSets;
+        }
+
+        private int changesLeft() {
+            return foreignKeysLeft + indexesLeft + renamesLeft + dropsLeft + dataLoadsLeft;
+        }
+
+        private void write(DatabaseChangeLog.ChangeSet changeSet) throws JAXBException, XMLStreamException {
+            xml.writeCharacters("\n");
+            marshaller.marshal(new JAXBElement<>(CHANGE_SET, DatabaseChangeLog.ChangeSet.class, changeSet), xml);
+            changeSets++;
+        }
+
+        private DatabaseChangeLog.ChangeSet changeSet(String id) {
+            DatabaseChangeLog.ChangeSet changeSet = factory.createDatabaseChangeLogChangeSet();
+            changeSet.setAuthor("synthetic");
+            changeSet.setId(id);
+            return changeSet;
+        }
+
+        private DatabaseChangeLog.ChangeSet createTable(int index) {
+            Table table = new Table("TABLE_" + index);
+            CreateTable createTable = factory.createCreateTable();
+            createTable.setTableName(table.name);
+            // a fifth of the tables are mapping tables, whose primary key is made of two columns
+            boolean mapping = index > 0 && random.nextInt(5) == 0;
+            List<String> primaryKey = mapping ? Arrays.asList("LEFT_ID", "RIGHT_ID") : Arrays.asList("ID");
+            for (String name : primaryKey) {
+                createTable.getColumn().add(column(table, name, "VARCHAR(36)", true));
+            }
+            table.keySize = primaryKey.size();
+            int columns = primaryKey.size() + random.nextInt(Math.max(1, maxColumns - primaryKey.size()));
+            while (table.columns.size() < columns) {
+                String[] column = COLUMNS[random.nextInt(COLUMNS.length)];
+                String name = table.columns.contains(column[0]) ? column[0] + "_" + table.columns.size() : column[0];
+                createTable.getColumn().add(column(table, name, column[1], random.nextInt(4) == 0));
+            }
+            table.fixed.addAll(primaryKey);
+            DatabaseChangeLog.ChangeSet changeSet = changeSet(index + "-" + table.name);
+            changeSet.getChangeSetChildren().add(createTable);
+            AddPrimaryKey addPrimaryKey = factory.createAddPrimaryKey();
+            addPrimaryKey.setTableName(table.name);
+            addPrimaryKey.setConstraintName("PK_" + index);
+            addPrimaryKey.setColumnNames(String.join(", ", primaryKey));
+            changeSet.getChangeSetChildren().add(addPrimaryKey);
+            if (!mapping && table.columns.size() > 2 && random.nextInt(3) == 0) {
+                String column = table.columns.get(1 + random.nextInt(table.columns.size() - 1));
+                AddUniqueConstraint unique = factory.createAddUniqueConstraint();
+                unique.setTableName(table.name);
+                unique.setConstraintName("UK_" + index);
+                unique.setColumnNames(column);
+                changeSet.getChangeSetChildren().add(unique);
+                table.fixed.add(column);
+                table.unique = unique.getConstraintName();
+            }
+            created.add(table);
+            return changeSet;
+        }
+
+        private Column column(Table table, String name, String type, boolean notNull) {
+            Column column = factory.createColumn();
+            column.setName(name);
+            column.setType(type);
+            if (notNull) {
+                Constraints constraints = factory.createConstraints();
+                constraints.setNullable("false");
+                column.getContent().add(constraints);
+            }
+            table.columns.add(name);
+            table.types.add(type);
+            return column;
+        }
+
+        private DatabaseChangeLog.ChangeSet release() throws IOException {
+            DatabaseChangeLog.ChangeSet changeSet = changeSet("release-" + changeSets);
+            List<Object> changes = changeSet.getChangeSetChildren();
+            for (int i = 0; i < CHANGES_PER_RELEASE && changesLeft() > 0; i++) {
+                // the changes are drawn in proportion to the counts left
+                int pick = random.nextInt(changesLeft());
+                if ((pick -= foreignKeysLeft) < 0) {
+                    foreignKeysLeft--;
+                    foreignKey(changes);
+                } else if ((pick -= indexesLeft) < 0) {
+                    indexesLeft--;
+                    index(changes);
+                } else if ((pick -= renamesLeft) < 0) {
+                    renamesLeft--;
+                    rename(changes);
+                } else if ((pick -= dropsLeft) < 0) {
+                    dropsLeft--;
+                    drop(changes);
+                } else {
+                    dataLoadsLeft--;
+                    dataLoad(changes);
+                }
+            }
+            return changeSet;
+        }
+
+        private Table anyTable() {
+            return created.get(random.nextInt(created.size()));
+        }
+
+        private void foreignKey(List<Object> changes) {
+            // most foreign keys point to the first tables, as Keycloak's point to REALM, CLIENT and USER_ENTITY
+            Table referenced = created.get((int) (created.size() * Math.pow(random.nextDouble(), 3)));
+            Table table = anyTable();
+            String column = referenced.name + "_ID_" + foreignKeysLeft;
+            AddColumn addColumn = factory.createAddColumn();
+            addColumn.setTableName(table.name);
+            AddColumn.Column added = factory.createAddColumnColumn();
+            added.setName(column);
+            added.setType("VARCHAR(36)");
+            addColumn.getColumn().add(added);
+            changes.add(addColumn);
+            table.columns.add(column);
+            table.types.add("VARCHAR(36)");
+            table.fixed.add(column);
+            table.foreignKeys.add(column);
+            if (!referenced.columns.get(0).equals("ID")) {
+                // the mapping tables, whose primary key has two columns, are not referenced
+                return;
+            }
+            AddForeignKeyConstraint foreignKey = factory.createAddForeignKeyConstraint();
+            foreignKey.setConstraintName("FK_" + changeSets + "_" + foreignKeysLeft);
+            foreignKey.setBaseTableName(table.name);
+            foreignKey.setBaseColumnNames(column);
+            foreignKey.setReferencedTableName(referenced.name);
+            foreignKey.setReferencedColumnNames("ID");
+            changes.add(foreignKey);
+        }
+
+        private void index(List<Object> changes) {
+            Table table = anyTable();
+            CreateIndex createIndex = factory.createCreateIndex();
+            createIndex.setIndexName("IDX_" + changeSets + "_" + indexesLeft);
+            createIndex.setTableName(table.name);
+            Column column = factory.createColumn();
+            int first = table.columns.size() > table.keySize ? table.keySize : 0;
+            column.setName(table.columns.get(first + random.nextInt(table.columns.size() - first)));
+            createIndex.getColumn().add(column);
+            table.fixed.add(column.getName());
+            changes.add(createIndex);
+        }
+
+        private void rename(List<Object> changes) {
+            Table table = anyTable();
+            String column = table.free(random);
+            if (column == null) {
+                return;
+            }
+            RenameColumn renameColumn = factory.createRenameColumn();
+            renameColumn.setTableName(table.name);
+            renameColumn.setOldColumnName(column);
+            renameColumn.setNewColumnName(column + "_R");
+            renameColumn.setColumnDataType(table.types.get(table.columns.indexOf(column)));
+            table.columns.set(table.columns.indexOf(column), column + "_R");
+            changes.add(renameColumn);
+        }
+
+        private void drop(List<Object> changes) {
+            Table table = anyTable();
+            if (table.unique != null && random.nextBoolean()) {
+                DropUniqueConstraint dropUnique = factory.createDropUniqueConstraint();
+                dropUnique.setTableName(table.name);
+                dropUnique.setConstraintName(table.unique);
+                table.unique = null;
+                changes.add(dropUnique);
+                return;
+            }
+            String column = table.free(random);
+            if (column == null) {
+                return;
+            }
+            DropColumn dropColumn = factory.createDropColumn();
+            dropColumn.setTableName(table.name);
+            dropColumn.setColumnName(column);
+            table.types.remove(table.columns.indexOf(column));
+            table.columns.remove(column);
+            changes.add(dropColumn);
+        }
+
+        private void dataLoad(List<Object> changes) throws IOException {
+            Table table = anyTable();
+            String file = table.name + "-" + changeSets + ".csv";
+            LoadData loadData = factory.createLoadData();
+            loadData.setTableName(table.name);
+            loadData.setFile(file);
+            try (BufferedWriter writer = Files.newBufferedWriter(directory.resolve(file), StandardCharsets.UTF_8)) {
+                writer.write(String.join(",", table.columns));
+                writer.newLine();
+                for (int row = 0; row < rowsPerLoad; row++) {
+                    List<String> values = new ArrayList<>();
+                    for (int c = 0; c < table.columns.size(); c++) {
+                        // the foreign keys are left empty, that is null
+                        values.add(table.foreignKeys.contains(table.columns.get(c)) ? ""
+                                : value(table.types.get(c), row));
+                    }
+                    writer.write(String.join(",", values));
+                    writer.newLine();
+                }
+            }
+            for (int c = 0; c < table.columns.size(); c++) {
+                LoadData.Column column = factory.createLoadDataColumn();
+                column.setName(table.columns.get(c));
+                column.setType(table.types.get(c).startsWith("VARCHAR") ? "STRING"
+                        : table.types.get(c).equals("BOOLEAN") ? "BOOLEAN" : "NUMERIC");
+                loadData.getContent().add(factory.createLoadDataColumn(column));
+            }
+            changes.add(loadData);
+        }
+
+        private String value(String type, int row) {
+            switch (type) {
+                case "BOOLEAN":
+                    return Boolean.toString(random.nextBoolean());
+                case "BIGINT":
+                case "INT":
+                    return Integer.toString(random.nextInt(1_000_000));
+                default:
+                    return Long.toHexString(random.nextLong()) + "-" + row;
+            }
+        }
+    }
+
+    /**
+     * The columns of a generated table, and those that are part of a key or an index and cannot be renamed or dropped
+     */
+    private static class Table {
+        private final String name;
+        private final List<String> columns = new ArrayList<>();
+        private final List<String> types = new ArrayList<>();
+        private final List<String> fixed = new ArrayList<>();
+        private final List<String> foreignKeys = new ArrayList<>();
+        private int keySize;
+        private String unique;
+
+        Table(String name) {
+            this.name = name;
+        }
+
+        String free(Random random) {
+            List<String> free = new ArrayList<>(columns);
+            free.removeAll(fixed);
+            return free.isEmpty() ? null : free.get(random.nextInt(free.size()));
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.data;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.ChangeLogEditor;
+import io.cloudtrust.keycloak.liquibaseAdapter.ChangeLogGraphLoader;
+import io.cloudtrust.keycloak.liquibaseAdapter.schema.SchemaModel;
+import org.postgresql.ds.PGSimpleDataSource;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Deletes a row together with the rows referencing it, directly or not, in many small transactions instead of the
+ * single transaction of the ON DELETE CASCADE foreign keys, which exceeds the transaction size limits of cockroachdb
+ * when a large realm is deleted.
+ * <p>
+ * The routine walks the foreign key graph from the table of the row, and deletes the referencing rows of the deepest
+ * tables first, the tables being ordered so that a table referencing another one through any foreign key, cascading
+ * or not, is emptied before it. The rows are deleted by chunks of at most {@code batchSize} rows: each statement is a
+ * DELETE ... LIMIT selecting the rows through nested IN subqueries up to the primary key of the row, repeated in
+ * auto-commit mode until it deletes less than a chunk. The row itself is deleted last. As every statement only selects the rows that are left, an interrupted
+ * routine is resumed by running it again.
+ * <p>
+ * Only the foreign keys deleting the referencing rows are followed: the ON DELETE CASCADE ones, and the ones whose
+ * cascade was removed by the conversion. The other foreign keys are left to the database, which rejects the delete if
+ * a row still references it, and the self referencing foreign keys and the cycles of the graph are reported and
+ * skipped.
+ */
+public class BatchedDeleteRoutine {
+
+    private final SchemaModel model;
+    private final int batchSize;
+    private final Set<String> replacedCascades;
+
+    /**
+     * Standard constructor
+     *
+     * @param model     the schema of the database
+     * @param batchSize the maximum number of rows deleted by a transaction
+     */
+    public BatchedDeleteRoutine(SchemaModel model, int batchSize) {
+        this(model, batchSize, Collections.emptySet());
+    }
+
+    /**
+     * Standard constructor
+     *
+     * @param model            the schema of the database
+     * @param batchSize        the maximum number of rows deleted by a transaction
+     * @param replacedCascades the names of the foreign keys whose ON DELETE CASCADE action was removed
+     */
+    public BatchedDeleteRoutine(SchemaModel model, int batchSize, Set<String> replacedCascades) {
+        this.model = model;
+        this.batchSize = batchSize;
+        this.replacedCascades = replacedCascades.stream().map(n -> n.toUpperCase(Locale.ROOT))
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * @param original  the schema of the original changelogs
+     * @param converted the schema of the converted changelogs
+     * @return the foreign keys of the original schema whose ON DELETE CASCADE action was removed by the conversion
+     */
+    public static List<SchemaModel.ForeignKey> replacedCascades(SchemaModel original, SchemaModel converted) {
+        List<SchemaModel.ForeignKey> result = new ArrayList<>();
+        for (SchemaModel.Table table : original.getTables().values()) {
+            SchemaModel.Table convertedTable = converted.getTable(table.getName());
+            for (SchemaModel.ForeignKey fk : table.getForeignKeys().values()) {
+                SchemaModel.ForeignKey convertedFk = convertedTable != null
+                        ? convertedTable.getForeignKeys().get(fk.getName()) : null;
+                if ("CASCADE".equals(fk.getOnDelete()) && convertedFk != null
+                        && !"CASCADE".equals(convertedFk.getOnDelete())) {
+                    result.add(fk);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Generates the statements deleting a row of a table with the rows referencing it, in execution order. The
+     * parameters of every statement are the values of the primary key of the row.
+     *
+     * @param table the name of the table
+     * @return the statements, the last one deleting the row
+     * @throws IllegalArgumentException thrown if the table does not exist or has no primary key
+     */
+    public List<String> statements(String table) {
+        SchemaModel.Table t = model.getTable(table);
+        if (t == null || t.getPrimaryKey().isEmpty()) {
+            throw new IllegalArgumentException("Table " + table + " does not exist or has no primary key");
+        }
+        List<String> key = t.getPrimaryKey();
+        String predicate = tuple(key) + " = " + tuple(Collections.nCopies(key.size(), "?"));
+        Map<String, List<String>> statements = new LinkedHashMap<>();
+        Set<String> path = new LinkedHashSet<>();
+        path.add(t.getName());
+        collect(t.getName(), predicate, key, path, statements);
+        statements.computeIfAbsent(t.getName(), n -> new ArrayList<>())
+                .add("DELETE FROM " + t.getName() + " WHERE " + predicate);
+        List<String> result = new ArrayList<>();
+        for (String name : order(statements.keySet())) {
+            result.addAll(statements.get(name));
+        }
+        return result;
+    }
+
+    /**
+     * Sorts the tables so that the tables referencing another one come before it, the tables being otherwise kept in
+     * the order of the walk
+     *
+     * @param tables the tables in the order of the walk
+     * @return the tables in deletion order
+     */
+    private List<String> order(Set<String> tables) {
+        Map<String, Set<String>> referencing = new LinkedHashMap<>();
+        for (String table : tables) {
+            referencing.put(table, new HashSet<>());
+        }
+        for (String table : tables) {
+            for (SchemaModel.ForeignKey fk : model.getTable(table).getForeignKeys().values()) {
+                if (!fk.getReferencedTable().equals(table) && tables.contains(fk.getReferencedTable())) {
+                    referencing.get(fk.getReferencedTable()).add(table);
+                }
+            }
+        }
+        List<String> result = new ArrayList<>();
+        while (!referencing.isEmpty()) {
+            String next = referencing.entrySet().stream().filter(e -> e.getValue().isEmpty()).map(Map.Entry::getKey)
+                    .findFirst().orElse(null);
+            if (next == null) {
+                System.err.println("The foreign keys between the tables " + referencing.keySet() + " form a cycle "
+                        + "-> Deleting them in the order of the walk");
+                result.addAll(referencing.keySet());
+                break;
+            }
+            referencing.remove(next);
+            referencing.values().forEach(r -> r.remove(next));
+            result.add(next);
+        }
+        return result;
+    }
+
+    /**
+     * Adds the statements deleting the rows referencing the rows of a table selected by a predicate
+     *
+     * @param keyColumns the columns compared to the parameters by the predicate, or null if it is a subquery
+     */
+    private void collect(String table, String predicate, List<String> keyColumns, Set<String> path,
+                         Map<String, List<String>> statements) {
+        for (SchemaModel.ForeignKey fk : model.getReferencingForeignKeys(table)) {
+            if (!"CASCADE".equals(fk.getOnDelete()) && !replacedCascades.contains(fk.getName())) {
+                continue;
+            }
+            if (path.contains(fk.getTable())) {
+                System.err.println("Foreign key " + fk.getName() + " of table " + fk.getTable() + " closes the cycle " +
+                        path + " -> Skipping");
+                continue;
+            }
+            String childPredicate = fk.getReferencedColumns().equals(keyColumns)
+                    ? tuple(fk.getColumns()) + predicate.substring(predicate.indexOf(" = "))
+                    : tuple(fk.getColumns()) + " IN (SELECT " + String.join(", ", fk.getReferencedColumns()) +
+                    " FROM " + table + " WHERE " + predicate + ")";
+            path.add(fk.getTable());
+            collect(fk.getTable(), childPredicate, null, path, statements);
+            path.remove(fk.getTable());
+            statements.computeIfAbsent(fk.getTable(), n -> new ArrayList<>())
+                    .add("DELETE FROM " + fk.getTable() + " WHERE " + childPredicate + " LIMIT " + batchSize);
+        }
+    }
+
+    private static String tuple(List<String> items) {
+        return items.size() == 1 ? items.get(0) : "(" + String.join(", ", items) + ")";
+    }
+
+    /**
+     * Deletes a row of a table with the rows referencing it, committing every chunk
+     *
+     * @param connection the connection to the database, whose auto-commit mode is restored on return
+     * @param table      the name of the table
+     * @param key        the values of the primary key of the row
+     * @return the number of deleted rows
+     * @throws SQLException thrown if a statement fails, the routine can then be run again
+     */
+    public long delete(Connection connection, String table, Object... key) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(true);
+        long total = 0;
+        try {
+            for (String sql : statements(table)) {
+                try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                    for (int i = 0; i < key.length; i++) {
+                        statement.setObject(i + 1, key[i]);
+                    }
+                    int deleted;
+                    do {
+                        deleted = statement.executeUpdate();
+                        total += deleted;
+                    } while (deleted >= batchSize);
+                }
+            }
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        return total;
+    }
+
+    /**
+     * Writes the statements deleting a row of each table, for the operators running them without this class
+     *
+     * @param tables the names of the tables
+     * @param writer receives the script
+     * @throws IOException thrown if there's a problem writing the script
+     */
+    public void writeScript(Collection<String> tables, Writer writer) throws IOException {
+        for (String table : tables) {
+            SchemaModel.Table t = model.getTable(table);
+            writer.write("-- Deletes a row of " + t.getName() + ", the parameters being its primary key " +
+                    t.getPrimaryKey() + ".\n-- Repeat each statement until it deletes less than " + batchSize +
+                    " rows.\n");
+            for (String statement : statements(table)) {
+                writer.write(statement + ";\n");
+            }
+            writer.write("\n");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 5) {
+            System.err.println("Usage: BatchedDeleteRoutine <jdbc url> <changelog root directory> " +
+                    "<converted master changelog> <table> <primary key value>...");
+            System.exit(2);
+        }
+        if (!args[2].endsWith(ChangeLogEditor.OUTPUT_SUFFIX)) {
+            System.err.println(args[2] + " is not a converted changelog");
+            System.exit(2);
+        }
+        ChangeLogGraphLoader loader = new ChangeLogGraphLoader(Paths.get(args[1]));
+        SchemaModel model = SchemaModel.of(loader.load(Paths.get(args[2])).getChangeSets());
+        SchemaModel original = SchemaModel.of(loader.load(Paths.get(args[2].substring(0, args[2].length()
+                - ChangeLogEditor.OUTPUT_SUFFIX.length()) + ".xml")).getChangeSets());
+        Set<String> replaced = replacedCascades(original, model).stream().map(SchemaModel.ForeignKey::getName)
+                .collect(Collectors.toSet());
+        int batchSize = Integer.parseInt(System.getProperty("cockroachdb.delete.batch", "1000"));
+        PGSimpleDataSource dataSource = new PGSimpleDataSource();
+        dataSource.setUrl(args[0]);
+        try (Connection connection = dataSource.getConnection()) {
+            long deleted = new BatchedDeleteRoutine(model, batchSize, replaced).delete(connection, args[3],
+                    (Object[]) Arrays.copyOfRange(args, 4, args.length));
+            System.out.println(deleted + " rows deleted");
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.data;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DatabaseChangeLog;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.LoadData;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Loads the CSV seeds of liquibase "load data" changes in bulk, instead of the row by row inserts that liquibase
+ * generates for them.
+ * <p>
+ * The rows are streamed through the COPY protocol of the PostgreSQL driver, which cockroachdb accepts, in the COPY
+ * text format so that the separator and quote character of the CSV file do not matter. Alternatively, when the
+ * file can be made available to the cluster, an IMPORT INTO statement can be generated for it.
+ */
+public class BulkDataLoader {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final Path changeLogDirectory;
+
+    /**
+     * Standard constructor
+     *
+     * @param changeLogDirectory the directory against which the file names of the load data changes are resolved
+     */
+    public BulkDataLoader(Path changeLogDirectory) {
+        this.changeLogDirectory = changeLogDirectory;
+    }
+
+    /**
+     * Loads the CSV files of all the load data changes of a database change log
+     *
+     * @param connection the connection to the database, which must be a PostgreSQL driver connection
+     * @param dcl        the database change log
+     * @return the number of loaded rows
+     * @throws SQLException thrown if there's a problem copying the rows
+     * @throws IOException  thrown if there's a problem reading a CSV file
+     */
+    public long loadAll(Connection connection, DatabaseChangeLog dcl) throws SQLException, IOException {
+        long rows = 0;
+        for (Object o : dcl.getChangeSetOrIncludeOrIncludeAll()) {
+            if (!(o instanceof DatabaseChangeLog.ChangeSet)) {
+                continue;
+            }
+            for (Object change : ((DatabaseChangeLog.ChangeSet) o).getChangeSetChildren()) {
+                if (change instanceof LoadData) {
+                    rows += copy(connection, (LoadData) change);
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Streams the CSV file of a load data change into its table with COPY FROM STDIN
+     *
+     * @param connection the connection to the database, which must be a PostgreSQL driver connection
+     * @param loadData   the load data change
+     * @return the number of loaded rows
+     * @throws SQLException thrown if there's a problem copying the rows
+     * @throws IOException  thrown if there's a problem reading the CSV file
+     */
+    public long copy(Connection connection, LoadData loadData) throws SQLException, IOException {
+        CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+        ColumnMapping mapping = ColumnMapping.of(loadData);
+        try (CsvReader reader = open(loadData)) {
+            String[] header = reader.readRecord();
+            if (header == null) {
+                return 0;
+            }
+            mapping.bind(header);
+            CopyIn copyIn = copyManager.copyIn("COPY " + tableName(loadData) + " ("
+                    + String.join(", ", mapping.getColumnNames()) + ") FROM STDIN");
+            try {
+                CopyBuffer buffer = new CopyBuffer(copyIn);
+                String[] record;
+                while ((record = reader.readRecord()) != null) {
+                    buffer.appendRow(mapping.values(record));
+                }
+                buffer.flush();
+                return copyIn.endCopy();
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the IMPORT INTO statement loading the CSV file of a load data change. Only the CSV header is read.
+     *
+     * @param loadData the load data change
+     * @param fileUri  the URI under which the cluster can read the file (for instance nodelocal://1/realm.csv)
+     * @return the IMPORT INTO statement
+     * @throws IOException thrown if there's a problem reading the CSV header
+     */
+    public String importInto(LoadData loadData, String fileUri) throws IOException {
+        if (!"\"".equals(loadData.getQuotchar())) {
+            throw new IllegalArgumentException("IMPORT only supports '\"' as quote character, not "
+                    + loadData.getQuotchar());
+        }
+        if (!StandardCharsets.UTF_8.name().equalsIgnoreCase(loadData.getEncoding())) {
+            throw new IllegalArgumentException("IMPORT only supports UTF-8 files, not " + loadData.getEncoding());
+        }
+        ColumnMapping mapping = ColumnMapping.of(loadData);
+        String[] header;
+        try (CsvReader reader = open(loadData)) {
+            header = reader.readRecord();
+        }
+        if (header == null) {
+            throw new IllegalArgumentException("The file " + loadData.getFile() + " has no header");
+        }
+        mapping.bind(header);
+        List<String> columns = mapping.getColumnNames();
+        if (columns.size() != header.length) {
+            throw new IllegalArgumentException("IMPORT cannot skip fields, but " + loadData.getFile()
+                    + " declares skipped columns");
+        }
+        return "IMPORT INTO " + tableName(loadData) + " (" + String.join(", ", columns) + ") CSV DATA ('"
+                + fileUri.replace("'", "''") + "') WITH delimiter = '" + loadData.getSeparator().replace("'", "''")
+                + "', skip = '1', nullif = 'NULL'";
+    }
+
+    private CsvReader open(LoadData loadData) throws IOException {
+        return new CsvReader(changeLogDirectory.resolve(loadData.getFile()), loadData.getEncoding(),
+                loadData.getSeparator(), loadData.getQuotchar());
+    }
+
+    private static String tableName(LoadData loadData) {
+        return loadData.getSchemaName() == null ? loadData.getTableName()
+                : loadData.getSchemaName() + "." + loadData.getTableName();
+    }
+
+    /**
+     * Encodes rows in the COPY text format into a reused buffer, which is handed to the driver when full
+     */
+    static class CopyBuffer {
+
+        private final CopyIn copyIn;
+        private final byte[] bytes = new byte[COPY_BUFFER_SIZE];
+        private final StringBuilder row = new StringBuilder();
+        private int length;
+
+        CopyBuffer(CopyIn copyIn) {
+            this.copyIn = copyIn;
+        }
+
+        void appendRow(String[] values) throws SQLException {
+            row.setLength(0);
+            encodeRow(values, row);
+            byte[] encoded = row.toString().getBytes(StandardCharsets.UTF_8);
+            if (length + encoded.length > bytes.length) {
+                flush();
+            }
+            if (encoded.length > bytes.length) {
+                copyIn.writeToCopy(encoded, 0, encoded.length);
+            } else {
+                System.arraycopy(encoded, 0, bytes, length, encoded.length);
+                length += encoded.length;
+            }
+        }
+
+        void flush() throws SQLException {
+            if (length > 0) {
+                copyIn.writeToCopy(bytes, 0, length);
+                length = 0;
+            }
+        }
+    }
+
+    /**
+     * Encodes a row in the COPY text format: tab separated values, \N for nulls and backslash escapes
+     *
+     * @param values the values of the row
+     * @param out    the builder to which the row (including its line terminator) is appended
+     */
+    static void encodeRow(String[] values, StringBuilder out) {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                out.append('\t');
+            }
+            String value = values[i];
+            if (value == null) {
+                out.append("\\N");
+                continue;
+            }
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                switch (c) {
+                    case '\\':
+                        out.append("\\\\");
+                        break;
+                    case '\t':
+                        out.append("\\t");
+                        break;
+                    case '\n':
+                        out.append("\\n");
+                        break;
+                    case '\r':
+                        out.append("\\r");
+                        break;
+                    default:
+                        out.append(c);
+                }
+            }
+        }
+        out.append('\n');
+    }
+}
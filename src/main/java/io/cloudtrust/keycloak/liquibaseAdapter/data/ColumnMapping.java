@@ -0,0 +1,165 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.data;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.LoadData;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.LoadUpdateData;
+
+import javax.xml.bind.JAXBElement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The mapping between the fields of a CSV file and the columns of a table, as declared by the column elements of a
+ * "load data" or "load update data" change.
+ * <p>
+ * As in liquibase, the first record of the file is a header. A declared column is matched to a field by its
+ * (zero based) index first, then by its header, then by its name. Fields without a declaration are loaded into the
+ * column named by their header, and fields declared with the "skip" type are ignored.
+ */
+public class ColumnMapping {
+
+    private static final String SKIP = "skip";
+
+    private final List<Declaration> declarations;
+    private int[] fieldIndexes;
+    private List<String> columnNames;
+    private List<String> columnTypes;
+
+    private ColumnMapping(List<Declaration> declarations) {
+        this.declarations = declarations;
+    }
+
+    /**
+     * Creates the mapping declared by a load data change
+     *
+     * @param loadData the load data change
+     * @return the (still unbound) column mapping
+     */
+    public static ColumnMapping of(LoadData loadData) {
+        List<Declaration> declarations = new ArrayList<>();
+        for (LoadData.Column c : columns(loadData.getContent(), LoadData.Column.class)) {
+            declarations.add(new Declaration(c.getIndex(), c.getHeader(), c.getName(), c.getType()));
+        }
+        return new ColumnMapping(declarations);
+    }
+
+    /**
+     * Creates the mapping declared by a load update data change
+     *
+     * @param loadUpdateData the load update data change
+     * @return the (still unbound) column mapping
+     */
+    public static ColumnMapping of(LoadUpdateData loadUpdateData) {
+        List<Declaration> declarations = new ArrayList<>();
+        for (LoadUpdateData.Column c : columns(loadUpdateData.getContent(), LoadUpdateData.Column.class)) {
+            declarations.add(new Declaration(c.getIndex(), c.getHeader(), c.getName(), c.getType()));
+        }
+        return new ColumnMapping(declarations);
+    }
+
+    private static <T> List<T> columns(List<?> content, Class<T> type) {
+        List<T> result = new ArrayList<>();
+        for (Object o : content) {
+            Object value = o instanceof JAXBElement ? ((JAXBElement<?>) o).getValue() : o;
+            if (type.isInstance(value)) {
+                result.add(type.cast(value));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Binds the mapping to the header record of the CSV file
+     *
+     * @param header the fields of the header record
+     */
+    public void bind(String[] header) {
+        List<Integer> indexes = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<String> types = new ArrayList<>();
+        for (int i = 0; i < header.length; i++) {
+            String headerName = header[i].trim();
+            Declaration declaration = find(i, headerName);
+            if (declaration != null && SKIP.equalsIgnoreCase(declaration.type)) {
+                continue;
+            }
+            indexes.add(i);
+            names.add(declaration != null && declaration.name != null ? declaration.name : headerName);
+            types.add(declaration != null ? declaration.type : null);
+        }
+        fieldIndexes = indexes.stream().mapToInt(Integer::intValue).toArray();
+        columnNames = Collections.unmodifiableList(names);
+        columnTypes = Collections.unmodifiableList(types);
+    }
+
+    private Declaration find(int index, String header) {
+        for (Declaration d : declarations) {
+            if (d.index != null && Integer.parseInt(d.index.trim()) == index) {
+                return d;
+            }
+        }
+        for (Declaration d : declarations) {
+            if (d.header != null && d.header.equalsIgnoreCase(header)) {
+                return d;
+            }
+        }
+        for (Declaration d : declarations) {
+            if (d.index == null && d.header == null && d.name != null && d.name.equalsIgnoreCase(header)) {
+                return d;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the names of the loaded columns, in load order
+     */
+    public List<String> getColumnNames() {
+        if (columnNames == null) {
+            throw new IllegalStateException("The column mapping has not been bound to a header");
+        }
+        return columnNames;
+    }
+
+    /**
+     * @return the declared liquibase types (NUMERIC, BOOLEAN, STRING...) of the loaded columns, in load order, null
+     * for the undeclared columns
+     */
+    public List<String> getColumnTypes() {
+        if (columnTypes == null) {
+            throw new IllegalStateException("The column mapping has not been bound to a header");
+        }
+        return columnTypes;
+    }
+
+    /**
+     * Extracts the loaded values of a record, in the order of {@link #getColumnNames()}. As in liquibase, the value
+     * NULL (in any case) stands for a null value.
+     *
+     * @param record the fields of a CSV record
+     * @return the values to load, possibly containing nulls
+     */
+    public String[] values(String[] record) {
+        String[] values = new String[fieldIndexes.length];
+        for (int i = 0; i < fieldIndexes.length; i++) {
+            int index = fieldIndexes[i];
+            String value = index < record.length ? record[index] : null;
+            values[i] = value == null || value.equalsIgnoreCase("NULL") ? null : value;
+        }
+        return values;
+    }
+
+    private static class Declaration {
+        private final String index;
+        private final String header;
+        private final String name;
+        private final String type;
+
+        private Declaration(String index, String header, String name, String type) {
+            this.index = index;
+            this.header = header;
+            this.name = name;
+            this.type = type;
+        }
+    }
+}
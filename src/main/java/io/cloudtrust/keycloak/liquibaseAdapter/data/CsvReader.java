@@ -0,0 +1,171 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.MalformedInputException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the CSV files referenced by liquibase "load data" changes. The file is memory-mapped window by window and
+ * decoded into a fixed size character buffer, so that arbitrarily large seed files can be streamed without being
+ * copied onto the heap.
+ * <p>
+ * The parsing rules follow the ones of liquibase (opencsv): fields are split on the separator, the quote character
+ * protects separators and line breaks, and a doubled quote character inside a quoted field stands for the quote
+ * character itself.
+ */
+public class CsvReader implements Closeable {
+
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
+    private static final int CHAR_BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final CharsetDecoder decoder;
+    private final char separator;
+    private final char quoteChar;
+    private final CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+    private final StringBuilder field = new StringBuilder();
+    private MappedByteBuffer window;
+    private long windowEnd;
+    private boolean endOfInput;
+
+    /**
+     * Opens a CSV file for reading
+     *
+     * @param path      the file to read
+     * @param encoding  the encoding of the file
+     * @param separator the field separator
+     * @param quoteChar the quote character, or {@code null} if fields are never quoted
+     * @throws IOException thrown if the file cannot be opened
+     */
+    public CsvReader(Path path, String encoding, String separator, String quoteChar) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.decoder = Charset.forName(encoding).newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT);
+        this.separator = separator.charAt(0);
+        this.quoteChar = quoteChar == null || quoteChar.isEmpty() ? '\0' : quoteChar.charAt(0);
+        chars.flip();
+    }
+
+    /**
+     * Reads the next record of the file
+     *
+     * @return the fields of the record, or null if the end of the file has been reached
+     * @throws IOException thrown if the file cannot be read or decoded
+     */
+    public String[] readRecord() throws IOException {
+        List<String> fields = new ArrayList<>();
+        field.setLength(0);
+        boolean quoted = false;
+        boolean sawAnything = false;
+        int c;
+        while ((c = nextChar()) >= 0) {
+            sawAnything = true;
+            if (quoted) {
+                if (c == quoteChar) {
+                    int next = peekChar();
+                    if (next == quoteChar) {
+                        nextChar();
+                        field.append(quoteChar);
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == quoteChar && quoteChar != '\0') {
+                quoted = true;
+            } else if (c == separator) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == '\r') {
+                if (c == '\r' && peekChar() == '\n') {
+                    nextChar();
+                }
+                if (fields.isEmpty() && field.length() == 0) {
+                    sawAnything = false;
+                    continue;
+                }
+                break;
+            } else {
+                field.append((char) c);
+            }
+        }
+        if (!sawAnything) {
+            return null;
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    private int nextChar() throws IOException {
+        if (!chars.hasRemaining() && !fill()) {
+            return -1;
+        }
+        return chars.get();
+    }
+
+    private int peekChar() throws IOException {
+        if (!chars.hasRemaining() && !fill()) {
+            return -1;
+        }
+        return chars.get(chars.position());
+    }
+
+    private boolean fill() throws IOException {
+        chars.clear();
+        while (chars.position() == 0) {
+            if (window == null || !window.hasRemaining()) {
+                if (!mapNextWindow()) {
+                    if (!endOfInput) {
+                        endOfInput = true;
+                        decoder.decode(ByteBuffer.allocate(0), chars, true);
+                        decoder.flush(chars);
+                    }
+                    break;
+                }
+            }
+            CoderResult result = decoder.decode(window, chars, false);
+            if (result.isError()) {
+                result.throwException();
+            }
+            if (result.isUnderflow() && window.hasRemaining()) {
+                if (windowEnd == channel.size()) {
+                    throw new MalformedInputException(window.remaining());
+                }
+                // a multi-byte character spans two windows: remap starting at the incomplete character
+                windowEnd -= window.remaining();
+                window = null;
+            }
+        }
+        chars.flip();
+        return chars.hasRemaining();
+    }
+
+    private boolean mapNextWindow() throws IOException {
+        long size = channel.size();
+        if (windowEnd >= size) {
+            return false;
+        }
+        long length = Math.min(MAP_WINDOW, size - windowEnd);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowEnd, length);
+        windowEnd += length;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,154 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.data;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.LoadUpdateData;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Generates batched UPSERT statements from the CSV file of a liquibase "load update data" change, replacing the
+ * select-then-insert-or-update that liquibase performs for every row.
+ * <p>
+ * When the primary key declared by the change is the primary key of the table, a plain UPSERT is generated, which
+ * cockroachdb executes as a blind write. Otherwise the declared key is used as the conflict target of an
+ * INSERT ... ON CONFLICT ... DO UPDATE statement.
+ * <p>
+ * The values are rendered according to the type declared by the column elements of the change, as liquibase binds
+ * them: NUMERIC values as numbers, BOOLEAN values as TRUE or FALSE, COMPUTED values as SQL expressions, and the other
+ * values as string literals.
+ */
+public class UpsertStatementGenerator {
+
+    private static final Pattern NUMBER = Pattern.compile("[-+]?(\\d+\\.?\\d*|\\.\\d+)([eE][-+]?\\d+)?");
+    private static final Set<String> TRUE_VALUES = new HashSet<>(Arrays.asList("true", "t", "yes", "y", "1"));
+
+    private final Path changeLogDirectory;
+    private final int batchSize;
+
+    /**
+     * Standard constructor
+     *
+     * @param changeLogDirectory the directory against which the file names of the changes are resolved
+     * @param batchSize          the maximum number of rows per generated statement
+     */
+    public UpsertStatementGenerator(Path changeLogDirectory, int batchSize) {
+        this.changeLogDirectory = changeLogDirectory;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Streams the CSV file of a load update data change and generates one statement per batch of rows
+     *
+     * @param loadUpdateData the load update data change
+     * @param tablePrimaryKey the primary key columns of the table, or null if unknown
+     * @param consumer        receives the generated statements, in file order
+     * @return the number of rows read from the file
+     * @throws IOException thrown if there's a problem reading the CSV file
+     */
+    public long generate(LoadUpdateData loadUpdateData, List<String> tablePrimaryKey, Consumer<String> consumer)
+            throws IOException {
+        ColumnMapping mapping = ColumnMapping.of(loadUpdateData);
+        List<String> primaryKey = Arrays.stream(loadUpdateData.getPrimaryKey().split(", *"))
+                .map(String::trim).collect(Collectors.toList());
+        long rows = 0;
+        try (CsvReader reader = new CsvReader(changeLogDirectory.resolve(loadUpdateData.getFile()),
+                loadUpdateData.getEncoding(), loadUpdateData.getSeparator(), loadUpdateData.getQuotchar())) {
+            String[] header = reader.readRecord();
+            if (header == null) {
+                return 0;
+            }
+            mapping.bind(header);
+            List<String> columns = mapping.getColumnNames();
+            List<String> types = mapping.getColumnTypes();
+            boolean blindWrite = tablePrimaryKey != null && equalsIgnoreCase(primaryKey, tablePrimaryKey);
+            String prefix = (blindWrite ? "UPSERT INTO " : "INSERT INTO ") + tableName(loadUpdateData)
+                    + " (" + String.join(", ", columns) + ") VALUES ";
+            String suffix = blindWrite ? "" : onConflict(primaryKey, columns);
+
+            StringBuilder statement = new StringBuilder(prefix);
+            int batched = 0;
+            String[] record;
+            while ((record = reader.readRecord()) != null) {
+                if (batched > 0) {
+                    statement.append(", ");
+                }
+                appendTuple(mapping.values(record), types, statement);
+                rows++;
+                if (++batched == batchSize) {
+                    consumer.accept(statement.append(suffix).toString());
+                    statement.setLength(prefix.length());
+                    batched = 0;
+                }
+            }
+            if (batched > 0) {
+                consumer.accept(statement.append(suffix).toString());
+            }
+        }
+        return rows;
+    }
+
+    private static String onConflict(List<String> primaryKey, List<String> columns) {
+        List<String> updated = columns.stream().filter(c -> primaryKey.stream().noneMatch(c::equalsIgnoreCase))
+                .map(c -> c + " = excluded." + c).collect(Collectors.toList());
+        return " ON CONFLICT (" + String.join(", ", primaryKey) + ") DO "
+                + (updated.isEmpty() ? "NOTHING" : "UPDATE SET " + String.join(", ", updated));
+    }
+
+    private static void appendTuple(String[] values, List<String> types, StringBuilder out) {
+        out.append('(');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                out.append(", ");
+            }
+            out.append(literal(values[i], types.get(i)));
+        }
+        out.append(')');
+    }
+
+    /**
+     * @param value a value of the CSV file, or null
+     * @param type  the declared liquibase type of its column, or null
+     * @return the SQL literal of the value
+     */
+    static String literal(String value, String type) {
+        if (value == null) {
+            return "NULL";
+        }
+        String trimmed = value.trim();
+        if ("NUMERIC".equalsIgnoreCase(type) && NUMBER.matcher(trimmed).matches()) {
+            return trimmed;
+        }
+        if ("BOOLEAN".equalsIgnoreCase(type)) {
+            return TRUE_VALUES.contains(trimmed.toLowerCase(Locale.ROOT)) ? "TRUE" : "FALSE";
+        }
+        if ("COMPUTED".equalsIgnoreCase(type)) {
+            return trimmed;
+        }
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    private static boolean equalsIgnoreCase(List<String> a, List<String> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!a.get(i).equalsIgnoreCase(b.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String tableName(LoadUpdateData loadUpdateData) {
+        return loadUpdateData.getSchemaName() == null ? loadUpdateData.getTableName()
+                : loadUpdateData.getSchemaName() + "." + loadUpdateData.getTableName();
+    }
+}
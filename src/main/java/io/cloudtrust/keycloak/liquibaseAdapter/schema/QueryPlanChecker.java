@@ -0,0 +1,612 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.schema;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.ChangeLogGraphLoader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks statically that the queries of Keycloak keep their index support once the changelogs are converted. Each
+ * query of a catalogue is parsed into the tables it reads, with the columns it compares to a value or to a column of
+ * another table, and the columns it orders by. For every table the checker picks the index, primary key included,
+ * whose leading columns are compared for equality over the longest prefix, possibly followed by a range comparison
+ * (a LIKE only being one when its pattern is a literal with a fixed prefix); failing that an index whose leading
+ * column is the first ordering column of a query with a LIMIT, and otherwise a full scan. A partial index is only
+ * considered when the conditions of the query imply its predicate: each conjunct of the predicate must be a condition
+ * of the query, or "column IS NOT NULL" with a condition of the query rejecting the NULL values of the column.
+ * <p>
+ * A query regresses when one of its tables is read through a shorter index prefix in the converted schema than in the
+ * original schema, or with a full scan where it was not. {@link #main(String[])} exits with a non zero status when a
+ * query regresses, which fails the build of the query-plan profile.
+ * <p>
+ * The catalogue is a SQL file: each statement ends with a semicolon and is named by the "--" comment preceding it.
+ */
+public class QueryPlanChecker {
+
+    /**
+     * The bundled catalogue of the frequent queries of Keycloak
+     */
+    public static final String DEFAULT_CATALOGUE = "/keycloak-queries.sql";
+
+    private static final Pattern KEYWORDS = Pattern.compile(
+            "\\b(WHERE|ORDER\\s+BY|GROUP\\s+BY|LIMIT|OFFSET|FOR\\s+UPDATE|SET)\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern JOIN = Pattern.compile("\\s*(?:,|(?:NATURAL\\s+|INNER\\s+|CROSS\\s+"
+            + "|(?:LEFT|RIGHT|FULL)(?:\\s+OUTER)?\\s+)?JOIN)\\s*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern TABLE = Pattern.compile("^(\\w+)(?:\\s+(?:AS\\s+)?(\\w+))?(?:\\s+ON\\s+(.*))?$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern CONDITION = Pattern.compile("^(?:(\\w+)\\.)?(\\w+)\\s*(=|<=|>=|<>|!=|<|>|\\bIN\\b"
+            + "|\\bBETWEEN\\b|\\bLIKE\\b|\\bIS\\b)\\s*(.*)$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern COLUMN_REFERENCE = Pattern.compile("^(?:(\\w+)\\.)?([A-Za-z_]\\w*)$");
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern LITERAL_PLACEHOLDER = Pattern.compile("\\?L(\\d+)");
+    private static final Pattern QUALIFIER = Pattern.compile("\\b\\w+\\.(?=[A-Za-z_\"])");
+    private static final Pattern IS_NOT_NULL = Pattern.compile("^(\\w+) IS NOT NULL$");
+    private static final Set<String> NOT_COLUMNS = new LinkedHashSet<>(Arrays.asList("NULL", "TRUE", "FALSE",
+            "NOT"));
+
+    /**
+     * How a table is read
+     */
+    public enum Access {
+        /**
+         * The rows are looked up by a prefix of the columns of an index
+         */
+        LOOKUP,
+        /**
+         * The rows are read in the order of an index, up to the limit of the query
+         */
+        ORDERED,
+        /**
+         * All the rows of the table are read
+         */
+        FULL_SCAN,
+        /**
+         * The table does not exist in the schema
+         */
+        UNKNOWN_TABLE
+    }
+
+    /**
+     * Plans the queries of a catalogue on the original and converted schemas
+     *
+     * @param before  the schema of the original changelogs
+     * @param after   the schema of the converted changelogs
+     * @param queries the queries, by name
+     * @return the comparison of the plans, one line per table read by a query
+     */
+    public static List<Result> check(SchemaModel before, SchemaModel after, Map<String, String> queries) {
+        List<Result> results = new ArrayList<>();
+        for (Map.Entry<String, String> query : queries.entrySet()) {
+            List<TablePlan> planBefore = plan(before, query.getValue());
+            List<TablePlan> planAfter = plan(after, query.getValue());
+            for (int i = 0; i < planAfter.size(); i++) {
+                results.add(new Result(query.getKey(), planBefore.get(i), planAfter.get(i)));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Reads a catalogue of queries
+     *
+     * @param reader the reader of the catalogue
+     * @return the queries, by name
+     * @throws IOException thrown if the catalogue cannot be read
+     */
+    public static Map<String, String> readCatalogue(Reader reader) throws IOException {
+        Map<String, String> queries = new LinkedHashMap<>();
+        BufferedReader in = new BufferedReader(reader);
+        String name = null;
+        StringBuilder statement = new StringBuilder();
+        String line;
+        while ((line = in.readLine()) != null) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("--")) {
+                if (statement.length() == 0) {
+                    name = trimmed.substring(2).trim();
+                }
+                continue;
+            }
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            statement.append(' ').append(trimmed);
+            if (trimmed.endsWith(";")) {
+                String sql = statement.toString().trim();
+                queries.put(name != null ? name : "query " + (queries.size() + 1), sql.substring(0, sql.length() - 1));
+                name = null;
+                statement.setLength(0);
+            }
+        }
+        if (statement.toString().trim().length() > 0) {
+            queries.put(name != null ? name : "query " + (queries.size() + 1), statement.toString().trim());
+        }
+        return queries;
+    }
+
+    /**
+     * Plans a query
+     *
+     * @param model the schema
+     * @param sql   the SELECT, UPDATE or DELETE statement, whose tables are read in the order of its FROM clause
+     * @return the plan of every table of the query
+     */
+    public static List<TablePlan> plan(SchemaModel model, String sql) {
+        // the literals are replaced by placeholders, so that they cannot be mistaken for keywords
+        List<String> literals = new ArrayList<>();
+        Matcher literal = STRING_LITERAL.matcher(sql);
+        StringBuffer replaced = new StringBuffer();
+        while (literal.find()) {
+            literal.appendReplacement(replaced, Matcher.quoteReplacement("?L" + literals.size()));
+            literals.add(literal.group());
+        }
+        literal.appendTail(replaced);
+        String text = replaced.toString().replaceAll("\\s+", " ").trim();
+        String upper = text.toUpperCase(Locale.ROOT);
+        String from;
+        int rest;
+        if (upper.startsWith("UPDATE ")) {
+            rest = clauseEnd(upper, 7);
+            from = text.substring(7, rest);
+        } else {
+            int start = upper.startsWith("DELETE FROM ") ? 12 : upper.indexOf(" FROM ") + 6;
+            rest = clauseEnd(upper, start);
+            from = text.substring(start, rest);
+        }
+        Map<String, String> aliases = new LinkedHashMap<>();
+        List<String> conditions = new ArrayList<>();
+        for (String item : JOIN.split(from)) {
+            Matcher m = TABLE.matcher(item.trim());
+            if (!m.find()) {
+                continue;
+            }
+            String table = SchemaModel.normalize(m.group(1));
+            String alias = m.group(2) != null ? m.group(2) : m.group(1);
+            aliases.put(alias.toUpperCase(Locale.ROOT), table);
+            aliases.putIfAbsent(table, table);
+            if (m.group(3) != null) {
+                conditions.addAll(conjuncts(m.group(3)));
+            }
+        }
+        String where = clause(text, upper, "WHERE", "ORDER BY", "GROUP BY", "LIMIT", "OFFSET", "FOR UPDATE");
+        if (where != null) {
+            conditions.addAll(conjuncts(where));
+        }
+        Map<String, Set<String>> equalities = new HashMap<>();
+        Map<String, Set<String>> ranges = new HashMap<>();
+        Map<String, Set<String>> tableConditions = new HashMap<>();
+        Map<String, Set<String>> nonNulls = new HashMap<>();
+        for (String condition : conditions) {
+            Matcher m = CONDITION.matcher(unwrap(condition.trim()).replace("\"", ""));
+            if (!m.find() || NOT_COLUMNS.contains(m.group(2).toUpperCase(Locale.ROOT))) {
+                continue;
+            }
+            String table = resolve(model, aliases, m.group(1), m.group(2));
+            String column = SchemaModel.normalize(m.group(2));
+            String operator = m.group(3).toUpperCase(Locale.ROOT);
+            String value = m.group(4).trim();
+            add(tableConditions, table, normalizeCondition(restore(condition, literals)));
+            if (!operator.equals("IS") || value.toUpperCase(Locale.ROOT).startsWith("NOT ")) {
+                add(nonNulls, table, column);
+            }
+            Matcher other = COLUMN_REFERENCE.matcher(value);
+            if (operator.equals("=") && other.find() && !NOT_COLUMNS.contains(value.toUpperCase(Locale.ROOT))) {
+                // a join: each side can be looked up by the other
+                String otherTable = resolve(model, aliases, other.group(1), other.group(2));
+                add(equalities, table, column);
+                add(equalities, otherTable, SchemaModel.normalize(other.group(2)));
+            } else if (operator.equals("=") || operator.equals("IN") || operator.equals("IS")) {
+                add(equalities, table, column);
+            } else if (operator.equals("LIKE") ? isPrefixPattern(value, literals)
+                    : !operator.equals("<>") && !operator.equals("!=")) {
+                add(ranges, table, column);
+            }
+        }
+        List<String> orderBy = new ArrayList<>();
+        String order = clause(text, upper, "ORDER BY", "LIMIT", "OFFSET", "FOR UPDATE");
+        if (order != null) {
+            for (String item : order.split(",")) {
+                orderBy.add(item.trim().split("\\s+")[0]);
+            }
+        }
+        boolean limited = upper.contains(" LIMIT ");
+        List<TablePlan> plans = new ArrayList<>();
+        for (String table : new LinkedHashSet<>(aliases.values())) {
+            List<String> ordering = new ArrayList<>();
+            for (String item : orderBy) {
+                String[] parts = item.split("\\.");
+                String column = parts[parts.length - 1];
+                if (table.equals(resolve(model, aliases, parts.length > 1 ? parts[0] : null, column))) {
+                    ordering.add(SchemaModel.normalize(column));
+                }
+            }
+            plans.add(plan(model.getTable(table), table,
+                    equalities.getOrDefault(table, Collections.emptySet()),
+                    ranges.getOrDefault(table, Collections.emptySet()), ordering, limited,
+                    tableConditions.getOrDefault(table, Collections.emptySet()),
+                    nonNulls.getOrDefault(table, Collections.emptySet())));
+        }
+        return plans;
+    }
+
+    private static TablePlan plan(SchemaModel.Table table, String name, Set<String> equalities, Set<String> ranges,
+                                  List<String> ordering, boolean limited, Set<String> conditions,
+                                  Set<String> nonNulls) {
+        if (table == null) {
+            return new TablePlan(name, Access.UNKNOWN_TABLE, null, 0);
+        }
+        Map<String, List<String>> indexes = new LinkedHashMap<>();
+        if (!table.getPrimaryKey().isEmpty()) {
+            indexes.put("primary", table.getPrimaryKey());
+        }
+        for (SchemaModel.Index index : table.getIndexes().values()) {
+            if (!index.isPartial() || implies(conditions, nonNulls, index.getPredicate())) {
+                indexes.put(index.getName(), index.getColumns());
+            }
+        }
+        String best = null;
+        int bestPrefix = 0;
+        for (Map.Entry<String, List<String>> index : indexes.entrySet()) {
+            int prefix = 0;
+            List<String> columns = index.getValue();
+            while (prefix < columns.size() && equalities.contains(columns.get(prefix))) {
+                prefix++;
+            }
+            if (prefix < columns.size() && ranges.contains(columns.get(prefix))) {
+                prefix++;
+            }
+            if (prefix > bestPrefix) {
+                best = index.getKey();
+                bestPrefix = prefix;
+            }
+        }
+        if (best != null) {
+            return new TablePlan(name, Access.LOOKUP, best, bestPrefix);
+        }
+        if (limited && !ordering.isEmpty()) {
+            for (Map.Entry<String, List<String>> index : indexes.entrySet()) {
+                if (index.getValue().get(0).equals(ordering.get(0))) {
+                    return new TablePlan(name, Access.ORDERED, index.getKey(), 0);
+                }
+            }
+        }
+        return new TablePlan(name, Access.FULL_SCAN, null, 0);
+    }
+
+    /**
+     * @param conditions the normalized conditions of the query on a table
+     * @param nonNulls   the columns of the table whose NULL values the conditions reject
+     * @param predicate  the predicate of a partial index of the table
+     * @return true if the conditions imply the predicate, so that the index holds all the rows of the query
+     */
+    static boolean implies(Set<String> conditions, Set<String> nonNulls, String predicate) {
+        List<String> parts = conjuncts(predicate);
+        if (parts.isEmpty()) {
+            // a disjunction is only implied by the same condition
+            parts = Collections.singletonList(predicate);
+        }
+        for (String part : parts) {
+            String conjunct = normalizeCondition(part);
+            if (conditions.contains(conjunct)) {
+                continue;
+            }
+            Matcher m = IS_NOT_NULL.matcher(conjunct);
+            if (m.find() && nonNulls.contains(m.group(1))) {
+                continue;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the condition without table qualifiers nor quoted identifiers, in upper case but for its literals,
+     * with single spaces
+     */
+    static String normalizeCondition(String condition) {
+        StringBuilder sb = new StringBuilder();
+        Matcher m = STRING_LITERAL.matcher(condition);
+        int last = 0;
+        while (m.find()) {
+            sb.append(normalizeCode(condition.substring(last, m.start()))).append(m.group());
+            last = m.end();
+        }
+        sb.append(normalizeCode(condition.substring(last)));
+        return unwrap(sb.toString().trim());
+    }
+
+    /**
+     * @return the condition without the parentheses enclosing it whole
+     */
+    private static String unwrap(String condition) {
+        while (condition.startsWith("(") && closingParenthesis(condition) == condition.length() - 1) {
+            condition = condition.substring(1, condition.length() - 1).trim();
+        }
+        return condition;
+    }
+
+    private static int closingParenthesis(String text) {
+        int depth = 0;
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (!quoted && c == '(') {
+                depth++;
+            } else if (!quoted && c == ')' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String normalizeCode(String code) {
+        return QUALIFIER.matcher(code.replaceAll("\\s*([=<>!]+)\\s*", " $1 ").replaceAll("\\s+", " ")).replaceAll("")
+                .replace("\"", "").toUpperCase(Locale.ROOT);
+    }
+
+    private static String restore(String text, List<String> literals) {
+        Matcher m = LITERAL_PLACEHOLDER.matcher(text);
+        StringBuffer sb = new StringBuffer();
+        while (m.find()) {
+            m.appendReplacement(sb, Matcher.quoteReplacement(literals.get(Integer.parseInt(m.group(1)))));
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    private static int clauseEnd(String upper, int start) {
+        Matcher m = KEYWORDS.matcher(upper);
+        return m.find(start) ? m.start() - 1 : upper.length();
+    }
+
+    private static String clause(String text, String upper, String keyword, String... ends) {
+        int start = upper.indexOf(" " + keyword + " ");
+        if (start < 0) {
+            return null;
+        }
+        start += keyword.length() + 2;
+        int end = text.length();
+        for (String e : ends) {
+            int i = upper.indexOf(" " + e + " ", start);
+            if (i < 0 && upper.endsWith(" " + e)) {
+                i = upper.length() - e.length() - 1;
+            }
+            if (i >= 0 && i < end) {
+                end = i;
+            }
+        }
+        return text.substring(start, end);
+    }
+
+    /**
+     * Splits a condition on its top level AND, the conditions in parentheses being left whole. A condition with a top
+     * level OR constrains no column.
+     */
+    private static List<String> conjuncts(String condition) {
+        List<String> result = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        String upper = condition.toUpperCase(Locale.ROOT);
+        boolean between = false;
+        for (int i = 0; i < condition.length(); i++) {
+            char c = condition.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (depth == 0 && upper.startsWith(" OR ", i)) {
+                return Collections.emptyList();
+            } else if (depth == 0 && upper.startsWith(" BETWEEN ", i)) {
+                between = true;
+            } else if (depth == 0 && upper.startsWith(" AND ", i)) {
+                if (between) {
+                    between = false;
+                } else {
+                    result.add(condition.substring(start, i).trim());
+                    start = i + 5;
+                }
+            }
+        }
+        result.add(condition.substring(start).trim());
+        return result;
+    }
+
+    private static String resolve(SchemaModel model, Map<String, String> aliases, String alias, String column) {
+        if (alias != null) {
+            String table = aliases.get(alias.toUpperCase(Locale.ROOT));
+            if (table != null) {
+                return table;
+            }
+        }
+        String name = SchemaModel.normalize(column);
+        for (String table : aliases.values()) {
+            SchemaModel.Table t = model.getTable(table);
+            if (t != null && t.getColumns().contains(name)) {
+                return table;
+            }
+        }
+        return aliases.values().iterator().next();
+    }
+
+    /**
+     * @return true if the LIKE pattern is a literal with a fixed prefix, which an index reads as a range
+     */
+    private static boolean isPrefixPattern(String value, List<String> literals) {
+        Matcher m = LITERAL_PLACEHOLDER.matcher(value);
+        if (!m.matches()) {
+            return false;
+        }
+        String literal = literals.get(Integer.parseInt(m.group(1)));
+        return literal.length() > 2 && literal.charAt(1) != '%' && literal.charAt(1) != '_';
+    }
+
+    private static void add(Map<String, Set<String>> columns, String table, String column) {
+        columns.computeIfAbsent(table, k -> new LinkedHashSet<>()).add(column);
+    }
+
+    /**
+     * Usage: {@code QueryPlanChecker <changelog root directory> <original master> <converted master> [catalogue]}.
+     * Prints the plans that changed and exits with status 1 if a query regressed.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: QueryPlanChecker <changelog root directory> <original master changelog> "
+                    + "<converted master changelog> [catalogue]");
+            System.exit(2);
+        }
+        ChangeLogGraphLoader loader = new ChangeLogGraphLoader(Paths.get(args[0]));
+        SchemaModel before = SchemaModel.of(loader.load(Paths.get(args[1])).getChangeSets());
+        SchemaModel after = SchemaModel.of(loader.load(Paths.get(args[2])).getChangeSets());
+        Map<String, String> queries;
+        if (args.length > 3) {
+            try (Reader reader = Files.newBufferedReader(Paths.get(args[3]), StandardCharsets.UTF_8)) {
+                queries = readCatalogue(reader);
+            }
+        } else {
+            try (InputStream in = QueryPlanChecker.class.getResourceAsStream(DEFAULT_CATALOGUE)) {
+                queries = readCatalogue(new InputStreamReader(in, StandardCharsets.UTF_8));
+            }
+        }
+        int regressions = 0;
+        for (Result result : check(before, after, queries)) {
+            if (result.isRegression()) {
+                regressions++;
+                System.err.println("REGRESSION " + result);
+            } else if (!result.before.equals(result.after)) {
+                System.out.println("changed    " + result);
+            }
+        }
+        System.out.println(queries.size() + " queries checked, " + regressions + " regressions");
+        if (regressions > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * The way a query reads one of its tables
+     */
+    public static class TablePlan {
+        private final String table;
+        private final Access access;
+        private final String index;
+        private final int prefix;
+
+        TablePlan(String table, Access access, String index, int prefix) {
+            this.table = table;
+            this.access = access;
+            this.index = index;
+            this.prefix = prefix;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public Access getAccess() {
+            return access;
+        }
+
+        /**
+         * @return the index used, "primary" for the primary key, or null for a full scan
+         */
+        public String getIndex() {
+            return index;
+        }
+
+        /**
+         * @return the number of leading index columns constrained by the query
+         */
+        public int getPrefix() {
+            return prefix;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TablePlan)) {
+                return false;
+            }
+            TablePlan other = (TablePlan) o;
+            return access == other.access && prefix == other.prefix && table.equals(other.table)
+                    && (index == null ? other.index == null : index.equals(other.index));
+        }
+
+        @Override
+        public int hashCode() {
+            return table.hashCode() * 31 + access.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return access == Access.LOOKUP ? index + "(" + prefix + ")" : access == Access.ORDERED ? index + "(ordered)"
+                    : access.name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * The plans of a table of a query on the original and converted schemas
+     */
+    public static class Result {
+        private final String query;
+        private final TablePlan before;
+        private final TablePlan after;
+
+        Result(String query, TablePlan before, TablePlan after) {
+            this.query = query;
+            this.before = before;
+            this.after = after;
+        }
+
+        public String getQuery() {
+            return query;
+        }
+
+        public TablePlan getBefore() {
+            return before;
+        }
+
+        public TablePlan getAfter() {
+            return after;
+        }
+
+        /**
+         * @return true if the table is read through a shorter index prefix, or scanned where it was not
+         */
+        public boolean isRegression() {
+            if (before.access == Access.UNKNOWN_TABLE) {
+                return false;
+            }
+            if (after.access == Access.UNKNOWN_TABLE) {
+                return true;
+            }
+            if (after.access == Access.FULL_SCAN) {
+                return before.access != Access.FULL_SCAN;
+            }
+            return after.prefix < before.prefix;
+        }
+
+        @Override
+        public String toString() {
+            return query + " " + before.table + ": " + before + " -> " + after;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.schema;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Compares the schemas created by the original and the converted changelogs, to quantify the write amplification of
+ * the transformations. For every table the report lists the number of secondary indexes, the foreign key checks of an
+ * INSERT and a DELETE, the number of column families and the estimated key-value writes of an INSERT, an UPDATE and a
+ * DELETE of one row, as "before>after" when they differ. The changed tables are marked with a star, and the next line
+ * sums the values over all the tables. The indexes whose predicate differs follow, as a partial index only serves the
+ * queries whose conditions imply its predicate.
+ */
+public class SchemaDiffReport {
+
+    private static final String ROW_FORMAT = "%-1s %-32s %9s %9s %9s %9s %9s %9s %9s%n";
+
+    private final SchemaModel before;
+    private final SchemaModel after;
+
+    /**
+     * Standard constructor
+     *
+     * @param before the schema of the original changelogs
+     * @param after  the schema of the converted changelogs
+     */
+    public SchemaDiffReport(SchemaModel before, SchemaModel after) {
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * @return the values of a table, in the order of the columns of the report, all 0 if the table does not exist
+     */
+    static int[] values(SchemaModel model, String table) {
+        SchemaModel.Table t = model.getTable(table);
+        if (t == null) {
+            return new int[7];
+        }
+        return new int[]{t.getIndexes().size(), model.getInsertForeignKeyChecks(table),
+                model.getDeleteForeignKeyChecks(table), t.getFamilyCount(), t.getInsertWrites(), t.getUpdateWrites(),
+                t.getDeleteWrites()};
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, ROW_FORMAT, "", "table", "indexes",
+                "fk ins", "fk del", "families", "kv ins", "kv upd", "kv del"));
+        Set<String> tables = new TreeSet<>(before.getTables().keySet());
+        tables.addAll(after.getTables().keySet());
+        int[] totalBefore = new int[7];
+        int[] totalAfter = new int[7];
+        int changed = 0;
+        List<String> predicates = new ArrayList<>();
+        for (String table : tables) {
+            int[] b = values(before, table);
+            int[] a = values(after, table);
+            List<String> tablePredicates = predicateChanges(before.getTable(table), after.getTable(table));
+            predicates.addAll(tablePredicates);
+            boolean differs = before.getTable(table) == null || after.getTable(table) == null
+                    || !tablePredicates.isEmpty();
+            for (int i = 0; i < b.length; i++) {
+                totalBefore[i] += b[i];
+                totalAfter[i] += a[i];
+                differs |= a[i] != b[i];
+            }
+            if (differs) {
+                changed++;
+            }
+            sb.append(row(differs ? "*" : "", table, b, a));
+        }
+        sb.append(row("", "total (" + changed + " of " + tables.size() + " tables changed)", totalBefore,
+                totalAfter));
+        for (String predicate : predicates) {
+            sb.append(predicate).append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return a line for each index of the table whose predicate differs, "full" standing for a full index and
+     * "none" for a missing one
+     */
+    static List<String> predicateChanges(SchemaModel.Table before, SchemaModel.Table after) {
+        List<String> lines = new ArrayList<>();
+        if (after == null) {
+            return lines;
+        }
+        Set<String> indexes = new LinkedHashSet<>(after.getIndexes().keySet());
+        if (before != null) {
+            indexes.addAll(before.getIndexes().keySet());
+        }
+        for (String name : indexes) {
+            SchemaModel.Index b = before != null ? before.getIndexes().get(name) : null;
+            SchemaModel.Index a = after.getIndexes().get(name);
+            if (a == null || (b == null ? !a.isPartial() : Objects.equals(a.getPredicate(), b.getPredicate()))) {
+                continue;
+            }
+            lines.add("  partial index " + after.getName() + "." + name + ": " + predicate(b) + " -> " + predicate(a));
+        }
+        return lines;
+    }
+
+    private static String predicate(SchemaModel.Index index) {
+        return index == null ? "none" : index.isPartial() ? "WHERE " + index.getPredicate() : "full";
+    }
+
+    private static String row(String marker, String name, int[] before, int[] after) {
+        Object[] cells = new Object[2 + before.length];
+        cells[0] = marker;
+        cells[1] = name;
+        for (int i = 0; i < before.length; i++) {
+            cells[2 + i] = before[i] == after[i] ? String.valueOf(after[i]) : before[i] + ">" + after[i];
+        }
+        return String.format(Locale.ROOT, ROW_FORMAT, cells);
+    }
+}
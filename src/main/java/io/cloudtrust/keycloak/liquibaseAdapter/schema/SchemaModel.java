@@ -0,0 +1,576 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.schema;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.ChangeLogState;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.AddColumn;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.AddForeignKeyConstraint;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.AddPrimaryKey;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.AddUniqueConstraint;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.Column;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.Constraints;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.CreateIndex;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.CreateTable;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DatabaseChangeLog;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DropAllForeignKeyConstraints;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DropColumn;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DropForeignKeyConstraint;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DropIndex;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DropPrimaryKey;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DropTable;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DropUniqueConstraint;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.RenameColumn;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.RenameTable;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.Sql;
+import io.cloudtrust.keycloak.liquibaseAdapter.sql.SqlRenderer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The schema a sequence of changeSets creates: the tables with their columns, primary key, secondary indexes, with
+ * the predicate of the partial ones, foreign keys and column families. The model is built by replaying the structural
+ * changes in order, including the index statements of the sql changes generated by the transformations, and ignoring
+ * the data changes.
+ * <p>
+ * Each table estimates the key-value writes cockroachdb performs for a row: one per column family of the primary
+ * index and one per secondary index on INSERT and DELETE, and on an UPDATE of all the non key columns one per column
+ * family and two per secondary index, whose entry is deleted and written again. The foreign key checks are the point
+ * lookups of the referenced tables on INSERT, and of the referencing tables on DELETE.
+ */
+public class SchemaModel {
+
+    private static final Pattern CREATE_INDEX = Pattern.compile("^\\s*CREATE\\s+(UNIQUE\\s+)?INDEX\\s+"
+            + "(?:IF\\s+NOT\\s+EXISTS\\s+)?(\\S+)\\s+ON\\s+(\\S+)\\s*\\(([^)]*)\\)(?:\\s*STORING\\s*\\(([^)]*)\\))?"
+            + "(?:\\s+WHERE\\s+(.*))?", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern DROP_INDEX = Pattern.compile("^\\s*DROP\\s+INDEX\\s+(?:IF\\s+EXISTS\\s+)?"
+            + "(?:(\\S+)@)?(\\S+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern REFERENCES = Pattern.compile("^\\s*([^\\s(]+)\\s*\\(([^)]*)\\)");
+    private static final Pattern TABLE_STATEMENT = Pattern.compile("^\\s*(?:CREATE|ALTER)\\s+TABLE\\s+"
+            + "(?:IF\\s+(?:NOT\\s+)?EXISTS\\s+)?(\\S+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern FAMILY_NAME = Pattern.compile("\\bFAMILY\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+
+    private final Map<String, Table> tables = new TreeMap<>();
+
+    /**
+     * Builds the schema created by changeSets
+     *
+     * @param changeSets the changeSets, in execution order
+     * @return the schema
+     */
+    public static SchemaModel of(List<DatabaseChangeLog.ChangeSet> changeSets) {
+        SchemaModel model = new SchemaModel();
+        for (DatabaseChangeLog.ChangeSet changeSet : changeSets) {
+            model.apply(changeSet);
+        }
+        return model;
+    }
+
+    /**
+     * Replays the changes of a changeSet, unless it is restricted to other databases
+     *
+     * @param changeSet the changeSet
+     */
+    public void apply(DatabaseChangeLog.ChangeSet changeSet) {
+        if (!ChangeLogState.appliesTo(changeSet.getDbms(), ChangeLogState.DEFAULT_DBMS)) {
+            return;
+        }
+        for (Object change : changeSet.getChangeSetChildren()) {
+            apply(change);
+        }
+    }
+
+    /**
+     * @return the tables, by upper case name
+     */
+    public Map<String, Table> getTables() {
+        return Collections.unmodifiableMap(tables);
+    }
+
+    /**
+     * @param name the name of a table
+     * @return the table, or null if it does not exist
+     */
+    public Table getTable(String name) {
+        return tables.get(normalize(name));
+    }
+
+    /**
+     * @param table the name of a table
+     * @return the foreign keys referencing the table
+     */
+    public List<ForeignKey> getReferencingForeignKeys(String table) {
+        String name = normalize(table);
+        List<ForeignKey> result = new ArrayList<>();
+        for (Table t : tables.values()) {
+            for (ForeignKey fk : t.foreignKeys.values()) {
+                if (fk.referencedTable.equals(name)) {
+                    result.add(fk);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param table the name of a table
+     * @return the foreign key lookups of an INSERT into the table
+     */
+    public int getInsertForeignKeyChecks(String table) {
+        return getTable(table).foreignKeys.size();
+    }
+
+    /**
+     * @param table the name of a table
+     * @return the foreign key lookups of a DELETE from the table
+     */
+    public int getDeleteForeignKeyChecks(String table) {
+        return getReferencingForeignKeys(table).size();
+    }
+
+    /**
+     * @return the foreign keys changing the referencing rows of a deleted row (ON DELETE CASCADE, SET NULL or SET
+     * DEFAULT) without an index of the referencing table starting with their columns, so that every delete of a
+     * referenced row scans the referencing table
+     */
+    public List<ForeignKey> getUnindexedCascades() {
+        List<ForeignKey> result = new ArrayList<>();
+        for (Table t : tables.values()) {
+            for (ForeignKey fk : t.foreignKeys.values()) {
+                if (fk.isDeleteCascading() && !t.hasIndexStartingWith(fk.columns)) {
+                    result.add(fk);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the foreign keys whose referenced table has no index starting with the referenced columns, so that
+     * every insert into the referencing table scans the referenced one
+     */
+    public List<ForeignKey> getUnindexedReferences() {
+        List<ForeignKey> result = new ArrayList<>();
+        for (Table t : tables.values()) {
+            for (ForeignKey fk : t.foreignKeys.values()) {
+                Table referenced = tables.get(fk.referencedTable);
+                if (referenced != null && !referenced.hasIndexStartingWith(fk.referencedColumns)) {
+                    result.add(fk);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void apply(Object change) {
+        if (change instanceof CreateTable) {
+            CreateTable c = (CreateTable) change;
+            Table table = new Table(normalize(c.getTableName()));
+            tables.put(table.name, table);
+            for (Column column : c.getColumn()) {
+                addColumn(table, column.getName(), column.getContent());
+            }
+        } else if (change instanceof AddColumn) {
+            AddColumn c = (AddColumn) change;
+            Table table = getTable(c.getTableName());
+            if (table != null) {
+                for (AddColumn.Column column : c.getColumn()) {
+                    addColumn(table, column.getName(), column.getContent());
+                }
+            }
+        } else if (change instanceof AddPrimaryKey) {
+            AddPrimaryKey c = (AddPrimaryKey) change;
+            Table table = getTable(c.getTableName());
+            if (table != null) {
+                table.primaryKey.clear();
+                table.primaryKey.addAll(names(c.getColumnNames()));
+            }
+        } else if (change instanceof DropPrimaryKey) {
+            Table table = getTable(((DropPrimaryKey) change).getTableName());
+            if (table != null) {
+                table.primaryKey.clear();
+            }
+        } else if (change instanceof AddUniqueConstraint) {
+            AddUniqueConstraint c = (AddUniqueConstraint) change;
+            addIndex(c.getTableName(), c.getConstraintName(), true, names(c.getColumnNames()),
+                    Collections.emptyList(), null);
+        } else if (change instanceof DropUniqueConstraint) {
+            DropUniqueConstraint c = (DropUniqueConstraint) change;
+            dropIndex(c.getTableName(), c.getConstraintName());
+        } else if (change instanceof CreateIndex) {
+            CreateIndex c = (CreateIndex) change;
+            List<String> columns = new ArrayList<>();
+            for (Column column : c.getColumn()) {
+                columns.add(normalize(column.getName()));
+            }
+            addIndex(c.getTableName(), c.getIndexName(), "true".equals(c.getUnique()), columns,
+                    Collections.emptyList(), null);
+        } else if (change instanceof DropIndex) {
+            DropIndex c = (DropIndex) change;
+            dropIndex(c.getTableName(), c.getIndexName());
+        } else if (change instanceof AddForeignKeyConstraint) {
+            AddForeignKeyConstraint c = (AddForeignKeyConstraint) change;
+            Table table = getTable(c.getBaseTableName());
+            if (table != null) {
+                String onDelete = c.getOnDelete() != null ? c.getOnDelete().value()
+                        : "true".equals(c.getDeleteCascade()) ? "CASCADE" : null;
+                ForeignKey fk = new ForeignKey(normalize(c.getConstraintName()), table.name,
+                        names(c.getBaseColumnNames()), normalize(c.getReferencedTableName()),
+                        names(c.getReferencedColumnNames()), onDelete);
+                table.foreignKeys.put(fk.name, fk);
+            }
+        } else if (change instanceof DropForeignKeyConstraint) {
+            DropForeignKeyConstraint c = (DropForeignKeyConstraint) change;
+            Table table = getTable(c.getBaseTableName());
+            if (table != null) {
+                table.foreignKeys.remove(normalize(c.getConstraintName()));
+            }
+        } else if (change instanceof DropAllForeignKeyConstraints) {
+            Table table = getTable(((DropAllForeignKeyConstraints) change).getBaseTableName());
+            if (table != null) {
+                table.foreignKeys.clear();
+            }
+        } else if (change instanceof DropColumn) {
+            DropColumn c = (DropColumn) change;
+            Table table = getTable(c.getTableName());
+            if (table != null) {
+                String column = normalize(c.getColumnName());
+                table.columns.remove(column);
+                // the indexes on the column are dropped with it
+                table.indexes.values().removeIf(index -> index.columns.contains(column));
+                table.foreignKeys.values().removeIf(fk -> fk.columns.contains(column));
+            }
+        } else if (change instanceof RenameColumn) {
+            RenameColumn c = (RenameColumn) change;
+            Table table = getTable(c.getTableName());
+            if (table != null) {
+                table.renameColumn(normalize(c.getOldColumnName()), normalize(c.getNewColumnName()));
+                for (ForeignKey fk : getReferencingForeignKeys(table.name)) {
+                    Collections.replaceAll(fk.referencedColumns, normalize(c.getOldColumnName()),
+                            normalize(c.getNewColumnName()));
+                }
+            }
+        } else if (change instanceof RenameTable) {
+            RenameTable c = (RenameTable) change;
+            Table table = tables.remove(normalize(c.getOldTableName()));
+            if (table != null) {
+                List<ForeignKey> referencing = getReferencingForeignKeys(table.name);
+                table.name = normalize(c.getNewTableName());
+                tables.put(table.name, table);
+                for (ForeignKey fk : referencing) {
+                    fk.referencedTable = table.name;
+                }
+                for (ForeignKey fk : table.foreignKeys.values()) {
+                    fk.table = table.name;
+                }
+            }
+        } else if (change instanceof DropTable) {
+            tables.remove(normalize(((DropTable) change).getTableName()));
+        } else if (change instanceof Sql) {
+            for (String statement : SqlRenderer.splitSql((Sql) change)) {
+                applySql(statement);
+            }
+        }
+    }
+
+    private void applySql(String statement) {
+        Matcher m = CREATE_INDEX.matcher(statement);
+        if (m.find()) {
+            addIndex(m.group(3), m.group(2), m.group(1) != null, names(m.group(4)),
+                    m.group(5) != null ? names(m.group(5)) : Collections.emptyList(),
+                    m.group(6) != null ? m.group(6).replaceAll("[\\s;]+$", "").trim() : null);
+            return;
+        }
+        m = DROP_INDEX.matcher(statement);
+        if (m.find()) {
+            String index = normalize(m.group(2));
+            for (Table table : tables.values()) {
+                if (m.group(1) == null || table.name.equals(normalize(m.group(1)))) {
+                    table.indexes.remove(index);
+                }
+            }
+            return;
+        }
+        m = TABLE_STATEMENT.matcher(statement);
+        if (m.find()) {
+            Table table = getTable(m.group(1));
+            Matcher family = FAMILY_NAME.matcher(statement);
+            while (table != null && family.find()) {
+                table.families.add(normalize(family.group(1)));
+            }
+        }
+    }
+
+    private void addColumn(Table table, String name, List<Object> content) {
+        String column = normalize(name);
+        table.columns.add(column);
+        for (Object item : content) {
+            if (!(item instanceof Constraints)) {
+                continue;
+            }
+            Constraints k = (Constraints) item;
+            if ("true".equals(k.getPrimaryKey())) {
+                table.primaryKey.add(column);
+            }
+            if ("true".equals(k.getUnique())) {
+                String index = k.getUniqueConstraintName() != null ? normalize(k.getUniqueConstraintName())
+                        : table.name + "_" + column + "_KEY";
+                table.indexes.put(index, new Index(index, true, Collections.singletonList(column),
+                        Collections.emptyList(), null));
+            }
+            String referencedTable = k.getReferencedTableName();
+            String referencedColumns = k.getReferencedColumnNames();
+            Matcher references = k.getReferences() != null ? REFERENCES.matcher(k.getReferences()) : null;
+            if (referencedTable == null && references != null && references.find()) {
+                referencedTable = references.group(1);
+                referencedColumns = references.group(2);
+            }
+            if (referencedTable != null) {
+                String fkName = k.getForeignKeyName() != null ? normalize(k.getForeignKeyName())
+                        : table.name + "_" + column + "_FKEY";
+                ForeignKey fk = new ForeignKey(fkName, table.name, Collections.singletonList(column),
+                        normalize(referencedTable), names(referencedColumns),
+                        "true".equals(k.getDeleteCascade()) ? "CASCADE" : null);
+                table.foreignKeys.put(fk.name, fk);
+            }
+        }
+    }
+
+    private void addIndex(String tableName, String name, boolean unique, List<String> columns, List<String> storing,
+                          String predicate) {
+        Table table = getTable(tableName);
+        if (table != null) {
+            table.indexes.put(normalize(name), new Index(normalize(name), unique, columns, storing, predicate));
+        }
+    }
+
+    private void dropIndex(String tableName, String name) {
+        Table table = getTable(tableName);
+        if (table != null) {
+            table.indexes.remove(normalize(name));
+        }
+    }
+
+    private static List<String> names(String commaSeparated) {
+        List<String> names = new ArrayList<>();
+        if (commaSeparated != null) {
+            for (String name : commaSeparated.split(",")) {
+                if (!name.trim().isEmpty()) {
+                    // the sort order of an index column is not part of its name
+                    names.add(normalize(name.trim().split("\\s+")[0]));
+                }
+            }
+        }
+        return names;
+    }
+
+    static String normalize(String name) {
+        return name == null ? null : name.replace("\"", "").trim().toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * A table of the schema
+     */
+    public static class Table {
+        private String name;
+        private final List<String> columns = new ArrayList<>();
+        private final List<String> primaryKey = new ArrayList<>();
+        private final Map<String, Index> indexes = new LinkedHashMap<>();
+        private final Map<String, ForeignKey> foreignKeys = new LinkedHashMap<>();
+        private final Set<String> families = new LinkedHashSet<>();
+
+        Table(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<String> getColumns() {
+            return Collections.unmodifiableList(columns);
+        }
+
+        public List<String> getPrimaryKey() {
+            return Collections.unmodifiableList(primaryKey);
+        }
+
+        /**
+         * @return the secondary indexes, unique constraints included, by upper case name
+         */
+        public Map<String, Index> getIndexes() {
+            return Collections.unmodifiableMap(indexes);
+        }
+
+        /**
+         * @return the foreign keys of the table, by upper case name
+         */
+        public Map<String, ForeignKey> getForeignKeys() {
+            return Collections.unmodifiableMap(foreignKeys);
+        }
+
+        /**
+         * @return the number of column families: the primary one, and those named by sql changes
+         */
+        public int getFamilyCount() {
+            return 1 + (int) families.stream().filter(family -> !family.equals("PRIMARY")).count();
+        }
+
+        public int getInsertWrites() {
+            return getFamilyCount() + indexes.size();
+        }
+
+        public int getUpdateWrites() {
+            return getFamilyCount() + 2 * indexes.size();
+        }
+
+        public int getDeleteWrites() {
+            return getFamilyCount() + indexes.size();
+        }
+
+        /**
+         * @param lookupColumns columns, in any order
+         * @return true if the primary key or a full secondary index starts with the columns, and can look any row up
+         * by them
+         */
+        public boolean hasIndexStartingWith(List<String> lookupColumns) {
+            if (startsWith(primaryKey, lookupColumns)) {
+                return true;
+            }
+            return indexes.values().stream().anyMatch(index -> !index.isPartial()
+                    && startsWith(index.columns, lookupColumns));
+        }
+
+        private static boolean startsWith(List<String> indexColumns, List<String> lookupColumns) {
+            return !lookupColumns.isEmpty() && indexColumns.size() >= lookupColumns.size()
+                    && new HashSet<>(indexColumns.subList(0, lookupColumns.size())).containsAll(lookupColumns);
+        }
+
+        private void renameColumn(String oldName, String newName) {
+            Collections.replaceAll(columns, oldName, newName);
+            Collections.replaceAll(primaryKey, oldName, newName);
+            for (Index index : indexes.values()) {
+                Collections.replaceAll(index.columns, oldName, newName);
+                Collections.replaceAll(index.storing, oldName, newName);
+                if (index.predicate != null) {
+                    index.predicate = Pattern.compile("(?<![\\w.])\"?" + Pattern.quote(oldName) + "\"?(?!\\w)",
+                            Pattern.CASE_INSENSITIVE).matcher(index.predicate)
+                            .replaceAll(Matcher.quoteReplacement(newName));
+                }
+            }
+            for (ForeignKey fk : foreignKeys.values()) {
+                Collections.replaceAll(fk.columns, oldName, newName);
+            }
+        }
+    }
+
+    /**
+     * A secondary index
+     */
+    public static class Index {
+        private final String name;
+        private final boolean unique;
+        private final List<String> columns;
+        private final List<String> storing;
+        private String predicate;
+
+        Index(String name, boolean unique, List<String> columns, List<String> storing, String predicate) {
+            this.name = name;
+            this.unique = unique;
+            this.columns = new ArrayList<>(columns);
+            this.storing = new ArrayList<>(storing);
+            this.predicate = predicate;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isUnique() {
+            return unique;
+        }
+
+        public List<String> getColumns() {
+            return Collections.unmodifiableList(columns);
+        }
+
+        public List<String> getStoring() {
+            return Collections.unmodifiableList(storing);
+        }
+
+        /**
+         * @return the WHERE predicate of a partial index, or null for a full index
+         */
+        public String getPredicate() {
+            return predicate;
+        }
+
+        public boolean isPartial() {
+            return predicate != null;
+        }
+    }
+
+    /**
+     * A foreign key
+     */
+    public static class ForeignKey {
+        private final String name;
+        private String table;
+        private final List<String> columns;
+        private String referencedTable;
+        private final List<String> referencedColumns;
+        private final String onDelete;
+
+        ForeignKey(String name, String table, List<String> columns, String referencedTable,
+                   List<String> referencedColumns, String onDelete) {
+            this.name = name;
+            this.table = table;
+            this.columns = new ArrayList<>(columns);
+            this.referencedTable = referencedTable;
+            this.referencedColumns = new ArrayList<>(referencedColumns);
+            this.onDelete = onDelete;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public List<String> getColumns() {
+            return Collections.unmodifiableList(columns);
+        }
+
+        public String getReferencedTable() {
+            return referencedTable;
+        }
+
+        public List<String> getReferencedColumns() {
+            return Collections.unmodifiableList(referencedColumns);
+        }
+
+        /**
+         * @return the ON DELETE action, or null if there is none
+         */
+        public String getOnDelete() {
+            return onDelete;
+        }
+
+        /**
+         * @return true if deleting a referenced row changes the referencing rows
+         */
+        public boolean isDeleteCascading() {
+            return "CASCADE".equals(onDelete) || "SET NULL".equals(onDelete) || "SET DEFAULT".equals(onDelete);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.sql;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the heavyweight parts of a migration against a live cluster without breaching the latency objective of the
+ * live traffic. Large updates walk the table with a keyset cursor on a key column: every round reads the next keys
+ * of the rows to update, splits them into consecutive ranges of at most {@code n} rows, and concurrent workers update
+ * one range each. The batch size and the number of workers follow an additive increase, multiplicative decrease
+ * policy: both grow slowly while the {@link LatencySignal} stays under the target, and are halved as soon as it
+ * exceeds it, the runner then pausing to let the cluster recover. As the cursor only moves forward, the update ends
+ * whatever the value written, even a non deterministic one.
+ * <p>
+ * The {@link SqlScriptExecutor} runs the single column updates of the changeSets through the runner when it is set as
+ * its runner. The runner also gates the statements that cannot be split, such as index creations:
+ * {@link #isOverloaded()} can be given as load signal to a {@link SchemaChangeJobMonitor}, which pauses the executor
+ * between changeSets.
+ */
+public class AdmissionControlledRunner {
+
+    private final LatencySignal signal;
+    private final long targetNanos;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final int maxConcurrency;
+    private final long pauseMillis;
+    private int batchSize;
+    private int concurrency = 1;
+
+    /**
+     * Standard constructor
+     *
+     * @param signal         the latency of the live traffic
+     * @param targetNanos    the latency above which the migration backs off
+     * @param minBatchSize   the smallest number of rows updated by a statement
+     * @param maxBatchSize   the largest number of rows updated by a statement
+     * @param maxConcurrency the largest number of concurrent workers
+     * @param pauseMillis    the time to wait after a backoff
+     */
+    public AdmissionControlledRunner(LatencySignal signal, long targetNanos, int minBatchSize, int maxBatchSize,
+                                     int maxConcurrency, long pauseMillis) {
+        this.signal = signal;
+        this.targetNanos = targetNanos;
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.maxConcurrency = maxConcurrency;
+        this.pauseMillis = pauseMillis;
+        this.batchSize = minBatchSize;
+    }
+
+    /**
+     * @return true if the latency of the live traffic exceeds the target
+     */
+    public boolean isOverloaded() {
+        return signal.getLatencyNanos() > targetNanos;
+    }
+
+    public synchronized int getBatchSize() {
+        return batchSize;
+    }
+
+    public synchronized int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Sets a column of the rows matching a condition in batches, walking the table in the order of a key column. The
+     * condition is evaluated again by every batch, so that an interrupted update can be run again with a condition
+     * excluding the rows already updated.
+     *
+     * @param dataSource the DataSource of the database
+     * @param table      the table
+     * @param column     the column to set
+     * @param value      the SQL expression of the value
+     * @param condition  the SQL condition of the rows to update, or null for all of them
+     * @param keyColumn  the unique column ordering the rows, usually the primary key
+     * @return the number of updated rows
+     * @throws SQLException thrown if a batch fails
+     */
+    public long update(DataSource dataSource, String table, String column, String value, String condition,
+                       String keyColumn) throws SQLException {
+        ExecutorService executor = Executors.newFixedThreadPool(maxConcurrency, r -> {
+            Thread thread = new Thread(r, "cockroach-admission-controlled-update");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            long total = 0;
+            Object cursor = null;
+            while (true) {
+                int workers = getConcurrency();
+                int limit = getBatchSize();
+                String select = "SELECT " + keyColumn + " FROM " + table
+                        + where(condition, keyColumn, cursor != null, false) + " ORDER BY " + keyColumn + " LIMIT ?";
+                List<Object> keys = keys(dataSource, select, cursor, workers * limit);
+                if (keys.isEmpty()) {
+                    return total;
+                }
+                List<Future<Integer>> futures = new ArrayList<>();
+                for (int i = 0; i < keys.size(); i += limit) {
+                    Object lower = cursor;
+                    Object upper = keys.get(Math.min(i + limit, keys.size()) - 1);
+                    String sql = "UPDATE " + table + " SET " + column + " = " + value
+                            + where(condition, keyColumn, lower != null, true);
+                    futures.add(executor.submit(() -> executeUpdate(dataSource, sql, lower, upper)));
+                    cursor = upper;
+                }
+                for (Future<Integer> future : futures) {
+                    total += join(future);
+                }
+                if (keys.size() < workers * limit) {
+                    return total;
+                }
+                adjust();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param after   true if the key must be greater than a parameter
+     * @param bounded true if the key must be at most a parameter
+     * @return the WHERE clause of the rows matching the condition in the key range
+     */
+    private static String where(String condition, String keyColumn, boolean after, boolean bounded) {
+        List<String> predicates = new ArrayList<>();
+        if (condition != null) {
+            predicates.add("(" + condition + ")");
+        }
+        if (after) {
+            predicates.add(keyColumn + " > ?");
+        }
+        if (bounded) {
+            predicates.add(keyColumn + " <= ?");
+        }
+        return predicates.isEmpty() ? "" : " WHERE " + String.join(" AND ", predicates);
+    }
+
+    /**
+     * Adapts the batch size and the concurrency to the latency signal, pausing if the cluster is overloaded
+     */
+    void adjust() {
+        boolean overloaded = isOverloaded();
+        synchronized (this) {
+            if (overloaded) {
+                batchSize = Math.max(minBatchSize, batchSize / 2);
+                concurrency = Math.max(1, concurrency / 2);
+            } else {
+                batchSize = Math.min(maxBatchSize, batchSize + minBatchSize);
+                concurrency = Math.min(maxConcurrency, concurrency + 1);
+            }
+        }
+        if (overloaded && pauseMillis > 0) {
+            try {
+                Thread.sleep(pauseMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static List<Object> keys(DataSource dataSource, String sql, Object cursor, int limit)
+            throws SQLException {
+        List<Object> keys = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            int index = 1;
+            if (cursor != null) {
+                statement.setObject(index++, cursor);
+            }
+            statement.setInt(index, limit);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    keys.add(rs.getObject(1));
+                }
+            }
+        }
+        return keys;
+    }
+
+    private static int executeUpdate(DataSource dataSource, String sql, Object lower, Object upper)
+            throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            int index = 1;
+            if (lower != null) {
+                statement.setObject(index++, lower);
+            }
+            statement.setObject(index, upper);
+            return statement.executeUpdate();
+        }
+    }
+
+    private static int join(Future<Integer> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while updating", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.sql;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the unfinished schema change jobs from crdb_internal.jobs, with the estimated row count of the table they
+ * change, which requires the VIEWJOB privilege. The paused jobs are left out: they only resume when an operator
+ * resumes them.
+ */
+public class CrdbJobSource implements JobSource {
+
+    private static final String QUERY = "SELECT j.job_id, j.description, j.status, "
+            + "COALESCE(j.fraction_completed, 0), COALESCE(s.estimated_row_count, 0), j.created "
+            + "FROM crdb_internal.jobs AS j "
+            + "LEFT JOIN crdb_internal.table_row_statistics AS s ON s.table_id = j.descriptor_ids[1] "
+            + "WHERE j.job_type IN ('SCHEMA CHANGE', 'NEW SCHEMA CHANGE') "
+            + "AND j.status IN ('pending', 'running', 'reverting')";
+
+    private final DataSource dataSource;
+
+    /**
+     * Standard constructor
+     *
+     * @param dataSource the DataSource used to read the jobs. It should not be the one of the migration, whose
+     *                   connection is blocked by the schema changes.
+     */
+    public CrdbJobSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public List<SchemaChangeJob> poll() throws SQLException {
+        List<SchemaChangeJob> jobs = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(QUERY)) {
+            while (rs.next()) {
+                jobs.add(new SchemaChangeJob(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getDouble(4),
+                        rs.getLong(5), rs.getTimestamp(6).getTime()));
+            }
+        }
+        return jobs;
+    }
+}
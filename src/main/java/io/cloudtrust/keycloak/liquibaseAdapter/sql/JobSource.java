@@ -0,0 +1,17 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.sql;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Provides the schema change jobs of the cluster. {@link CrdbJobSource} reads them from the crdb_internal tables; a
+ * stub returning fixed jobs can be used where no cluster is available.
+ */
+public interface JobSource {
+
+    /**
+     * @return the schema change jobs that are not finished
+     * @throws SQLException thrown if the jobs cannot be read
+     */
+    List<SchemaChangeJob> poll() throws SQLException;
+}
@@ -0,0 +1,15 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.sql;
+
+/**
+ * The latency of the live traffic, watched by the {@link AdmissionControlledRunner}. It is usually a percentile of a
+ * {@link io.cloudtrust.keycloak.jdbc.LatencyWindow} registered on the DataSource of the application, e.g.
+ * {@code () -> window.getValueAtPercentile(99)}; a stub can be used in tests.
+ */
+@FunctionalInterface
+public interface LatencySignal {
+
+    /**
+     * @return the current latency of the live traffic, in nanoseconds
+     */
+    long getLatencyNanos();
+}
@@ -0,0 +1,189 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.sql;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.LoadData;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The SQL statements of one changeSet, as rendered by the {@link SqlRenderer}
+ */
+public class RenderedChangeSet {
+
+    /**
+     * How liquibase records a changeSet in the changelog table
+     */
+    public enum ExecType {
+        /**
+         * The statements of the changeSet were executed
+         */
+        EXECUTED,
+        /**
+         * The changeSet was recorded without executing its statements, as its preconditions failed
+         */
+        MARK_RAN
+    }
+
+    private final String id;
+    private final String author;
+    private final String fileName;
+    private final String checkSum;
+    private final List<String> statements;
+    private final List<String> unsupported;
+    private final ExecType execType;
+    private final boolean runAlways;
+    private final List<DataLoad> dataLoads;
+
+    /**
+     * Creates an executed changeSet that is run once
+     *
+     * @param id          the id of the changeSet
+     * @param author      the author of the changeSet
+     * @param fileName    the file name liquibase records for the changeSet
+     * @param checkSum    the liquibase checksum of the changeSet
+     * @param statements  the SQL statements, in execution order, without trailing semicolon
+     * @param unsupported the names of the changes that could not be rendered
+     */
+    public RenderedChangeSet(String id, String author, String fileName, String checkSum, List<String> statements,
+                             List<String> unsupported) {
+        this(id, author, fileName, checkSum, statements, unsupported, ExecType.EXECUTED, false);
+    }
+
+    /**
+     * Creates a changeSet without data loads
+     *
+     * @param id          the id of the changeSet
+     * @param author      the author of the changeSet
+     * @param fileName    the file name liquibase records for the changeSet
+     * @param checkSum    the liquibase checksum of the changeSet
+     * @param statements  the SQL statements, in execution order, without trailing semicolon
+     * @param unsupported the names of the changes that could not be rendered
+     * @param execType    how the changeSet is recorded in the changelog table
+     * @param runAlways   true if the changeSet is run at every update
+     */
+    public RenderedChangeSet(String id, String author, String fileName, String checkSum, List<String> statements,
+                             List<String> unsupported, ExecType execType, boolean runAlways) {
+        this(id, author, fileName, checkSum, statements, unsupported, execType, runAlways, Collections.emptyList());
+    }
+
+    /**
+     * Standard constructor
+     *
+     * @param id          the id of the changeSet
+     * @param author      the author of the changeSet
+     * @param fileName    the file name liquibase records for the changeSet
+     * @param checkSum    the liquibase checksum of the changeSet
+     * @param statements  the SQL statements, in execution order, without trailing semicolon
+     * @param unsupported the names of the changes that could not be rendered
+     * @param execType    how the changeSet is recorded in the changelog table
+     * @param runAlways   true if the changeSet is run at every update
+     * @param dataLoads   the loadData changes, in execution order
+     */
+    public RenderedChangeSet(String id, String author, String fileName, String checkSum, List<String> statements,
+                             List<String> unsupported, ExecType execType, boolean runAlways,
+                             List<DataLoad> dataLoads) {
+        this.id = id;
+        this.author = author;
+        this.fileName = fileName;
+        this.checkSum = checkSum;
+        this.statements = Collections.unmodifiableList(statements);
+        this.unsupported = Collections.unmodifiableList(unsupported);
+        this.execType = execType;
+        this.runAlways = runAlways;
+        this.dataLoads = Collections.unmodifiableList(dataLoads);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getCheckSum() {
+        return checkSum;
+    }
+
+    public List<String> getStatements() {
+        return statements;
+    }
+
+    /**
+     * @return the names of the changes that could not be rendered, empty if the statements are the whole changeSet
+     */
+    public List<String> getUnsupported() {
+        return unsupported;
+    }
+
+    public ExecType getExecType() {
+        return execType;
+    }
+
+    public boolean isRunAlways() {
+        return runAlways;
+    }
+
+    /**
+     * @return the loadData changes of the changeSet, which are loaded in bulk rather than rendered to statements
+     */
+    public List<DataLoad> getDataLoads() {
+        return dataLoads;
+    }
+
+    /**
+     * @return true if every change of the changeSet has been rendered
+     */
+    public boolean isComplete() {
+        return unsupported.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return fileName + "::" + id + "::" + author;
+    }
+
+    /**
+     * A loadData change of a changeSet, whose CSV file is loaded between two of its statements
+     */
+    public static class DataLoad {
+        private final int position;
+        private final Path directory;
+        private final LoadData loadData;
+
+        /**
+         * Standard constructor
+         *
+         * @param position  the number of statements of the changeSet executed before the load
+         * @param directory the directory against which the file of the change is resolved
+         * @param loadData  the loadData change
+         */
+        public DataLoad(int position, Path directory, LoadData loadData) {
+            this.position = position;
+            this.directory = directory;
+            this.loadData = loadData;
+        }
+
+        public int getPosition() {
+            return position;
+        }
+
+        public Path getDirectory() {
+            return directory;
+        }
+
+        public LoadData getLoadData() {
+            return loadData;
+        }
+
+        @Override
+        public String toString() {
+            return "loadData " + loadData.getFile() + " into " + loadData.getTableName();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.sql;
+
+/**
+ * A schema change job of cockroachdb, as read from the jobs table
+ */
+public class SchemaChangeJob {
+
+    private final long id;
+    private final String description;
+    private final String status;
+    private final double fractionCompleted;
+    private final long estimatedRows;
+    private final long created;
+
+    /**
+     * Standard constructor
+     *
+     * @param id                the id of the job
+     * @param description       the description of the job, usually the statement that created it
+     * @param status            the status of the job (running, paused, succeeded, ...)
+     * @param fractionCompleted the fraction of the backfill completed, between 0 and 1
+     * @param estimatedRows     the estimated number of rows of the table, 0 if unknown
+     * @param created           the creation time of the job, in milliseconds since the epoch
+     */
+    public SchemaChangeJob(long id, String description, String status, double fractionCompleted, long estimatedRows,
+                           long created) {
+        this.id = id;
+        this.description = description;
+        this.status = status;
+        this.fractionCompleted = fractionCompleted;
+        this.estimatedRows = estimatedRows;
+        this.created = created;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public double getFractionCompleted() {
+        return fractionCompleted;
+    }
+
+    public long getEstimatedRows() {
+        return estimatedRows;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+}
@@ -0,0 +1,234 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.sql;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Follows the schema change jobs created by a migration. The index and column backfills of cockroachdb run as jobs
+ * that can take hours on big tables, while the statement that created them blocks: the monitor polls a
+ * {@link JobSource} in a background thread and reports, for every job, its completed fraction, its speed in rows per
+ * second (when the size of the table is known) and the estimated time to completion, computed from the progress
+ * made since the job was first seen.
+ * <p>
+ * The monitor also throttles the {@link SqlScriptExecutor}, which calls {@link #awaitLowLoad()} between changeSets:
+ * the next changeSet only starts once the load signal reports that the cluster load is acceptable. The executor also
+ * calls {@link #awaitJobs(long)} before recording a changeSet with schema changes, which only waits for the jobs
+ * created since the changeSet started: the jobs of other clients, such as a paused backfill or a schema change of
+ * another application, do not block the migration.
+ */
+public class SchemaChangeJobMonitor {
+
+    private static final long JOB_POLL_MILLIS = 1000;
+    /**
+     * The tolerated offset between the clocks of the application and of the cluster, which timestamps the jobs
+     */
+    private static final long CLOCK_OFFSET_MILLIS = 500;
+
+    private final JobSource source;
+    private final BooleanSupplier highLoad;
+    private final long pauseMillis;
+    private final Map<Long, double[]> firstSamples = new HashMap<>();
+    private volatile List<JobProgress> progress = Collections.emptyList();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a monitor that never pauses the migration
+     *
+     * @param source the source of the jobs
+     */
+    public SchemaChangeJobMonitor(JobSource source) {
+        this(source, () -> false, 0);
+    }
+
+    /**
+     * Standard constructor
+     *
+     * @param source      the source of the jobs
+     * @param highLoad    the load signal, true when the cluster is too loaded to start a changeSet
+     * @param pauseMillis the time to wait before checking the load signal again
+     */
+    public SchemaChangeJobMonitor(JobSource source, BooleanSupplier highLoad, long pauseMillis) {
+        this.source = source;
+        this.highLoad = highLoad;
+        this.pauseMillis = pauseMillis;
+    }
+
+    /**
+     * Starts polling the job source in a background thread, printing the progress of the running jobs
+     *
+     * @param period the polling period
+     * @param unit   the unit of the polling period
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cockroach-schema-change-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                poll();
+                if (!progress.isEmpty()) {
+                    System.out.print(report());
+                }
+            } catch (SQLException e) {
+                System.err.println("Unable to poll the schema change jobs: " + e.getMessage());
+            }
+        }, 0, period, unit);
+    }
+
+    /**
+     * Stops polling the job source
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Polls the job source once
+     *
+     * @throws SQLException thrown if the source cannot be read
+     */
+    public void poll() throws SQLException {
+        poll(System.nanoTime());
+    }
+
+    synchronized void poll(long nanoTime) throws SQLException {
+        List<JobProgress> polled = new ArrayList<>();
+        Map<Long, double[]> seen = new HashMap<>();
+        for (SchemaChangeJob job : source.poll()) {
+            double[] first = firstSamples.get(job.getId());
+            if (first == null) {
+                first = new double[]{nanoTime, job.getFractionCompleted()};
+            }
+            seen.put(job.getId(), first);
+            double seconds = (nanoTime - first[0]) / 1e9;
+            double fractionPerSecond = seconds > 0 ? (job.getFractionCompleted() - first[1]) / seconds : 0;
+            polled.add(new JobProgress(job, fractionPerSecond));
+        }
+        // the finished jobs are forgotten
+        firstSamples.clear();
+        firstSamples.putAll(seen);
+        progress = Collections.unmodifiableList(polled);
+    }
+
+    /**
+     * @return the progress of the jobs found by the last poll
+     */
+    public List<JobProgress> getProgress() {
+        return progress;
+    }
+
+    /**
+     * @return the progress of the jobs found by the last poll, one line per job
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (JobProgress p : progress) {
+            sb.append(String.format(Locale.ROOT, "job %d %s %.1f%%", p.job.getId(), p.job.getStatus(),
+                    p.job.getFractionCompleted() * 100));
+            if (p.getRowsPerSecond() > 0) {
+                sb.append(String.format(Locale.ROOT, " %.0f rows/s", p.getRowsPerSecond()));
+            }
+            long eta = p.getEtaSeconds();
+            if (eta >= 0) {
+                sb.append(String.format(Locale.ROOT, " ETA %d:%02d:%02d", eta / 3600, eta / 60 % 60, eta % 60));
+            }
+            sb.append(' ').append(p.job.getDescription()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Waits until the load signal reports an acceptable load, or the thread is interrupted
+     */
+    public void awaitLowLoad() {
+        boolean paused = false;
+        while (highLoad.getAsBoolean()) {
+            if (!paused) {
+                System.err.println("Cluster load is high, the migration is paused");
+                paused = true;
+            }
+            try {
+                Thread.sleep(pauseMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Waits until the job source reports no unfinished schema change job created since a time, polling it every
+     * second
+     *
+     * @param since the time, in milliseconds since the epoch, from which the jobs are awaited, less the tolerated
+     *              clock offset
+     * @throws SQLException thrown if the source cannot be read, or if the thread is interrupted while jobs are running
+     */
+    public void awaitJobs(long since) throws SQLException {
+        poll();
+        while (progress.stream().anyMatch(p -> p.job.getCreated() >= since - CLOCK_OFFSET_MILLIS)) {
+            try {
+                Thread.sleep(JOB_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for the schema change jobs", e);
+            }
+            poll();
+        }
+    }
+
+    /**
+     * The progress of one job
+     */
+    public static class JobProgress {
+        private final SchemaChangeJob job;
+        private final double fractionPerSecond;
+
+        JobProgress(SchemaChangeJob job, double fractionPerSecond) {
+            this.job = job;
+            this.fractionPerSecond = fractionPerSecond;
+        }
+
+        public SchemaChangeJob getJob() {
+            return job;
+        }
+
+        public double getFractionPerSecond() {
+            return fractionPerSecond;
+        }
+
+        /**
+         * @return the backfill speed, 0 if the size of the table or the speed is unknown
+         */
+        public double getRowsPerSecond() {
+            return fractionPerSecond * job.getEstimatedRows();
+        }
+
+        /**
+         * @return the estimated number of seconds before completion, -1 if no progress has been seen yet
+         */
+        public long getEtaSeconds() {
+            if (fractionPerSecond <= 0) {
+                return -1;
+            }
+            return (long) Math.ceil((1 - job.getFractionCompleted()) / fractionPerSecond);
+        }
+    }
+}
@@ -0,0 +1,709 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.sql;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.ChangeLogGraph;
+import io.cloudtrust.keycloak.liquibaseAdapter.ChangeLogState;
+import io.cloudtrust.keycloak.liquibaseAdapter.CheckSumCalculator;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.AddColumn;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.AddDefaultValue;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.AddForeignKeyConstraint;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.AddNotNullConstraint;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.AddPrimaryKey;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.AddUniqueConstraint;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.And;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.Column;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.ColumnType;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.Constraints;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.CreateIndex;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.CreateSequence;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.CreateTable;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DatabaseChangeLog;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.Dbms;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.Delete;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DropColumn;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DropDefaultValue;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DropForeignKeyConstraint;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DropIndex;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DropNotNullConstraint;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DropPrimaryKey;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DropSequence;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DropTable;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DropUniqueConstraint;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.Insert;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.LoadData;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.ModifyDataType;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.Not;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.OnChangeSetPreconditionErrorOrFail;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.Or;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.RenameColumn;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.RenameTable;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.Rollback;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.Sql;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.TagDatabase;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.Update;
+import org.w3c.dom.Node;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Renders the changeSets of converted changelogs to the SQL cockroachdb executes, without liquibase and without a
+ * database. The rendering is used to review the converted changelogs, and to execute them as batched
+ * scripts with the {@link SqlScriptExecutor}.
+ * <p>
+ * The data types are mapped as liquibase maps them for PostgreSQL, and the identifiers are left unquoted unless they
+ * are reserved words. The loadData changes are kept as data loads, which the {@link SqlScriptExecutor} streams with
+ * COPY, when the directory of their changelog is known. The changes that cannot be rendered (custom changes, views,
+ * ...) are reported by the rendered changeSet, which is then incomplete.
+ * <p>
+ * The changeSets, sql and insert changes restricted to other databases by their dbms attribute are skipped, and the
+ * dbms preconditions of a changeSet are evaluated, together with their and, or and not combinations. A changeSet
+ * failing them is skipped, rendered without statements or rejected according to its onFail attribute. The other
+ * preconditions need a database and are reported as unsupported changes.
+ */
+public class SqlRenderer {
+
+    private static final Set<String> RESERVED = new HashSet<>(Arrays.asList(
+            "ALL", "ANALYSE", "ANALYZE", "AND", "ANY", "ARRAY", "AS", "ASC", "ASYMMETRIC", "BOTH", "CASE", "CAST",
+            "CHECK", "COLLATE", "COLUMN", "CONSTRAINT", "CREATE", "CURRENT_CATALOG", "CURRENT_DATE", "CURRENT_ROLE",
+            "CURRENT_TIME", "CURRENT_TIMESTAMP", "CURRENT_USER", "DEFAULT", "DEFERRABLE", "DESC", "DISTINCT", "DO",
+            "ELSE", "END", "EXCEPT", "FALSE", "FAMILY", "FETCH", "FOR", "FOREIGN", "FROM", "GRANT", "GROUP", "HAVING",
+            "IN", "INDEX", "INITIALLY", "INTERSECT", "INTO", "LATERAL", "LEADING", "LIMIT", "LOCALTIME",
+            "LOCALTIMESTAMP", "NOT", "NOTHING", "NULL", "OFFSET", "ON", "ONLY", "OR", "ORDER", "PLACING", "PRIMARY",
+            "REFERENCES", "RETURNING", "SELECT", "SESSION_USER", "SOME", "SYMMETRIC", "TABLE", "THEN", "TO",
+            "TRAILING", "TRUE", "UNION", "UNIQUE", "USER", "USING", "VARIADIC", "WHEN", "WHERE", "WINDOW", "WITH"));
+
+    private static final Map<String, String> TYPES = new HashMap<>();
+
+    static {
+        TYPES.put("BOOLEAN", "BOOLEAN");
+        TYPES.put("BIT", "BOOLEAN");
+        TYPES.put("TINYINT", "SMALLINT");
+        TYPES.put("SMALLINT", "SMALLINT");
+        TYPES.put("INT", "INT");
+        TYPES.put("INTEGER", "INT");
+        TYPES.put("MEDIUMINT", "INT");
+        TYPES.put("BIGINT", "BIGINT");
+        TYPES.put("VARCHAR", "VARCHAR");
+        TYPES.put("NVARCHAR", "VARCHAR");
+        TYPES.put("VARCHAR2", "VARCHAR");
+        TYPES.put("CHAR", "CHAR");
+        TYPES.put("NCHAR", "CHAR");
+        TYPES.put("TEXT", "TEXT");
+        TYPES.put("CLOB", "TEXT");
+        TYPES.put("NCLOB", "TEXT");
+        TYPES.put("LONGTEXT", "TEXT");
+        TYPES.put("MEDIUMTEXT", "TEXT");
+        TYPES.put("BLOB", "BYTEA");
+        TYPES.put("LONGBLOB", "BYTEA");
+        TYPES.put("MEDIUMBLOB", "BYTEA");
+        TYPES.put("TINYBLOB", "BYTEA");
+        TYPES.put("BINARY", "BYTEA");
+        TYPES.put("VARBINARY", "BYTEA");
+        TYPES.put("IMAGE", "BYTEA");
+        TYPES.put("DATETIME", "TIMESTAMP");
+        TYPES.put("TIMESTAMP", "TIMESTAMP");
+        TYPES.put("DATE", "DATE");
+        TYPES.put("TIME", "TIME");
+        TYPES.put("DOUBLE", "DOUBLE PRECISION");
+        TYPES.put("FLOAT", "FLOAT");
+        TYPES.put("REAL", "REAL");
+        TYPES.put("DECIMAL", "DECIMAL");
+        TYPES.put("NUMERIC", "DECIMAL");
+        TYPES.put("NUMBER", "DECIMAL");
+        TYPES.put("UUID", "UUID");
+    }
+
+    private static final String GO_DELIMITER = "\n[gG][oO]\\s*\n|\n[gG][oO]\\s*$";
+    private static final String DEFAULT_DELIMITER = ";\\s*\n|;$|" + GO_DELIMITER;
+    private static final Pattern LINE_COMMENT = Pattern.compile("\\s*--.*\n");
+    private static final Pattern BLOCK_COMMENT = Pattern.compile("/\\*.*?\\*/", Pattern.DOTALL);
+
+    private static final Set<String> UNSIZED_TYPES = new HashSet<>(Arrays.asList("BYTEA", "TEXT", "BOOLEAN", "INT",
+            "BIGINT", "SMALLINT", "DOUBLE PRECISION"));
+
+    /**
+     * Renders the changeSets of a changelog graph that liquibase would run on cockroachdb
+     *
+     * @param graph         the graph of the converted changelogs
+     * @param rootDirectory the root of the classpath from which liquibase loads the changelogs
+     * @return the rendered changeSets, in execution order
+     * @throws IOException thrown if the CSV file of a loadData change cannot be checksummed
+     */
+    public List<RenderedChangeSet> render(ChangeLogGraph graph, Path rootDirectory) throws IOException {
+        List<RenderedChangeSet> result = new ArrayList<>();
+        Map<Path, CheckSumCalculator> calculators = new HashMap<>();
+        for (DatabaseChangeLog.ChangeSet changeSet : graph.getChangeSets()) {
+            if (!ChangeLogState.appliesTo(changeSet.getDbms(), ChangeLogState.DEFAULT_DBMS)) {
+                continue;
+            }
+            Path directory = graph.getOwner(changeSet).getPath().toAbsolutePath().getParent();
+            String checkSum = calculators.computeIfAbsent(directory, CheckSumCalculator::new).compute(changeSet);
+            RenderedChangeSet rendered = render(changeSet, ChangeLogState.fileName(graph, changeSet, rootDirectory),
+                    checkSum, directory);
+            if (rendered != null) {
+                result.add(rendered);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Renders one changeSet, its loadData changes being reported as unsupported
+     *
+     * @param changeSet the changeSet
+     * @param fileName  the file name liquibase records for the changeSet
+     * @param checkSum  the liquibase checksum of the changeSet
+     * @return the rendered changeSet, or null if liquibase skips it as its preconditions fail with onFail="CONTINUE"
+     * @throws IllegalStateException thrown if the preconditions of the changeSet fail with onFail="HALT", liquibase
+     *                               then stops the update
+     */
+    public RenderedChangeSet render(DatabaseChangeLog.ChangeSet changeSet, String fileName, String checkSum) {
+        return render(changeSet, fileName, checkSum, null);
+    }
+
+    /**
+     * Renders one changeSet
+     *
+     * @param changeSet the changeSet
+     * @param fileName  the file name liquibase records for the changeSet
+     * @param checkSum  the liquibase checksum of the changeSet
+     * @param directory the directory of the changelog of the changeSet, against which the CSV files of its loadData
+     *                  changes are resolved, or null if the loadData changes are unsupported
+     * @return the rendered changeSet, or null if liquibase skips it as its preconditions fail with onFail="CONTINUE"
+     * @throws IllegalStateException thrown if the preconditions of the changeSet fail with onFail="HALT", liquibase
+     *                               then stops the update
+     */
+    public RenderedChangeSet render(DatabaseChangeLog.ChangeSet changeSet, String fileName, String checkSum,
+                                    Path directory) {
+        List<String> statements = new ArrayList<>();
+        List<String> unsupported = new ArrayList<>();
+        List<RenderedChangeSet.DataLoad> dataLoads = new ArrayList<>();
+        DatabaseChangeLog.ChangeSet.PreConditions preConditions = changeSet.getPreConditions();
+        if (preConditions != null) {
+            Boolean passed = preconditions(preConditions.getPreConditionChildren(), true, unsupported);
+            OnChangeSetPreconditionErrorOrFail onFail = preConditions.getOnFail() != null ? preConditions.getOnFail()
+                    : OnChangeSetPreconditionErrorOrFail.HALT;
+            if (Boolean.FALSE.equals(passed) && onFail == OnChangeSetPreconditionErrorOrFail.HALT) {
+                throw new IllegalStateException("The preconditions of the changeSet " + changeSet.getId() + "::"
+                        + changeSet.getAuthor() + " fail on " + ChangeLogState.DEFAULT_DBMS
+                        + (preConditions.getOnFailMessage() != null ? ": " + preConditions.getOnFailMessage() : ""));
+            } else if (Boolean.FALSE.equals(passed) && onFail == OnChangeSetPreconditionErrorOrFail.CONTINUE) {
+                return null;
+            } else if (Boolean.FALSE.equals(passed) && onFail == OnChangeSetPreconditionErrorOrFail.MARK_RAN) {
+                return new RenderedChangeSet(changeSet.getId(), changeSet.getAuthor(), fileName, checkSum, statements,
+                        unsupported, RenderedChangeSet.ExecType.MARK_RAN, "true".equals(changeSet.getRunAlways()));
+            }
+        }
+        for (Object change : changeSet.getChangeSetChildren()) {
+            if (change instanceof JAXBElement || change instanceof Node || change instanceof Rollback) {
+                // comments and unknown elements
+                continue;
+            }
+            String dbms = change instanceof Sql ? ((Sql) change).getDbms()
+                    : change instanceof Insert ? ((Insert) change).getDbms() : null;
+            if (!ChangeLogState.appliesTo(dbms, ChangeLogState.DEFAULT_DBMS)) {
+                continue;
+            }
+            if (change instanceof LoadData && directory != null) {
+                dataLoads.add(new RenderedChangeSet.DataLoad(statements.size(), directory, (LoadData) change));
+            } else if (!renderChange(change, statements)) {
+                XmlRootElement root = change.getClass().getAnnotation(XmlRootElement.class);
+                unsupported.add(root != null ? root.name() : change.getClass().getSimpleName());
+            }
+        }
+        return new RenderedChangeSet(changeSet.getId(), changeSet.getAuthor(), fileName, checkSum, statements,
+                unsupported, RenderedChangeSet.ExecType.EXECUTED, "true".equals(changeSet.getRunAlways()), dataLoads);
+    }
+
+    /**
+     * Evaluates preconditions without a database
+     *
+     * @param preconditions the preconditions
+     * @param all           true if all the preconditions must pass, false if one is enough
+     * @param unsupported   receives the names of the preconditions that cannot be evaluated
+     * @return the result of the preconditions, or null if it depends on an unsupported one
+     */
+    private static Boolean preconditions(List<Object> preconditions, boolean all, List<String> unsupported) {
+        Boolean result = all;
+        for (Object precondition : preconditions) {
+            Boolean passed;
+            if (precondition instanceof Dbms) {
+                passed = ChangeLogState.appliesTo(((Dbms) precondition).getType(), ChangeLogState.DEFAULT_DBMS);
+            } else if (precondition instanceof And) {
+                passed = preconditions(((And) precondition).getPreConditionChildren(), true, unsupported);
+            } else if (precondition instanceof Or) {
+                passed = preconditions(((Or) precondition).getPreConditionChildren(), false, unsupported);
+            } else if (precondition instanceof Not) {
+                // liquibase fails a not precondition if any of its preconditions passes
+                passed = preconditions(((Not) precondition).getPreConditionChildren(), false, unsupported);
+                passed = passed != null ? !passed : null;
+            } else {
+                XmlRootElement root = precondition.getClass().getAnnotation(XmlRootElement.class);
+                unsupported.add("preConditions/" + (root != null ? root.name() : precondition.getClass()
+                        .getSimpleName()));
+                passed = null;
+            }
+            if (passed == null) {
+                result = null;
+            } else if (passed != all) {
+                // a failed and or a passed or is decided whatever the unsupported preconditions
+                return passed;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes rendered changeSets as a SQL script, each changeSet starting with a comment line identifying it. The data
+     * loads are written as comments, in place.
+     *
+     * @param changeSets the rendered changeSets
+     * @param writer     the writer of the script
+     * @throws IOException thrown if the script cannot be written
+     */
+    public static void writeScript(List<RenderedChangeSet> changeSets, Writer writer) throws IOException {
+        for (RenderedChangeSet changeSet : changeSets) {
+            writer.write("-- changeset " + changeSet + "\n");
+            for (String unsupported : changeSet.getUnsupported()) {
+                writer.write("-- unsupported change: " + unsupported + "\n");
+            }
+            List<String> statements = changeSet.getStatements();
+            int position = 0;
+            for (RenderedChangeSet.DataLoad dataLoad : changeSet.getDataLoads()) {
+                for (; position < dataLoad.getPosition(); position++) {
+                    writer.write(statements.get(position) + ";\n");
+                }
+                writer.write("-- " + dataLoad + " (COPY)\n");
+            }
+            for (; position < statements.size(); position++) {
+                writer.write(statements.get(position) + ";\n");
+            }
+            writer.write("\n");
+        }
+    }
+
+    private boolean renderChange(Object change, List<String> out) {
+        if (change instanceof CreateTable) {
+            out.add(createTable((CreateTable) change));
+        } else if (change instanceof AddColumn) {
+            AddColumn c = (AddColumn) change;
+            for (AddColumn.Column column : c.getColumn()) {
+                ColumnSpec spec = ColumnSpec.of(column);
+                out.add("ALTER TABLE " + table(c.getSchemaName(), c.getTableName()) + " ADD COLUMN "
+                        + columnDefinition(spec));
+                if (spec.value() != null) {
+                    out.add("UPDATE " + table(c.getSchemaName(), c.getTableName()) + " SET " + name(spec.name)
+                            + " = " + spec.value());
+                }
+            }
+        } else if (change instanceof CreateIndex) {
+            CreateIndex c = (CreateIndex) change;
+            out.add("CREATE " + ("true".equals(c.getUnique()) ? "UNIQUE " : "") + "INDEX " + name(c.getIndexName())
+                    + " ON " + table(c.getSchemaName(), c.getTableName()) + " (" + columnNames(c.getColumn()) + ")");
+        } else if (change instanceof AddForeignKeyConstraint) {
+            out.add(addForeignKey((AddForeignKeyConstraint) change));
+        } else if (change instanceof AddPrimaryKey) {
+            AddPrimaryKey c = (AddPrimaryKey) change;
+            out.add("ALTER TABLE " + table(c.getSchemaName(), c.getTableName()) + " ADD " + constraint(c.getConstraintName())
+                    + "PRIMARY KEY (" + names(c.getColumnNames()) + ")");
+        } else if (change instanceof AddUniqueConstraint) {
+            AddUniqueConstraint c = (AddUniqueConstraint) change;
+            out.add("ALTER TABLE " + table(c.getSchemaName(), c.getTableName()) + " ADD " + constraint(c.getConstraintName())
+                    + "UNIQUE (" + names(c.getColumnNames()) + ")");
+        } else if (change instanceof DropUniqueConstraint) {
+            // unique constraints are indexes in cockroachdb
+            DropUniqueConstraint c = (DropUniqueConstraint) change;
+            out.add("DROP INDEX " + table(c.getSchemaName(), c.getTableName()) + "@" + name(c.getConstraintName())
+                    + " CASCADE");
+        } else if (change instanceof DropIndex) {
+            DropIndex c = (DropIndex) change;
+            out.add("DROP INDEX " + table(c.getSchemaName(), c.getTableName()) + "@" + name(c.getIndexName()));
+        } else if (change instanceof DropForeignKeyConstraint) {
+            DropForeignKeyConstraint c = (DropForeignKeyConstraint) change;
+            out.add("ALTER TABLE " + table(c.getBaseTableSchemaName(), c.getBaseTableName()) + " DROP CONSTRAINT "
+                    + name(c.getConstraintName()));
+        } else if (change instanceof DropPrimaryKey) {
+            DropPrimaryKey c = (DropPrimaryKey) change;
+            out.add("ALTER TABLE " + table(c.getSchemaName(), c.getTableName()) + " DROP CONSTRAINT "
+                    + name(c.getConstraintName() != null ? c.getConstraintName() : "primary"));
+        } else if (change instanceof DropTable) {
+            DropTable c = (DropTable) change;
+            out.add("DROP TABLE " + table(c.getSchemaName(), c.getTableName())
+                    + ("true".equals(c.getCascadeConstraints()) ? " CASCADE" : ""));
+        } else if (change instanceof DropColumn) {
+            DropColumn c = (DropColumn) change;
+            out.add("ALTER TABLE " + table(c.getSchemaName(), c.getTableName()) + " DROP COLUMN "
+                    + name(c.getColumnName()));
+        } else if (change instanceof RenameColumn) {
+            RenameColumn c = (RenameColumn) change;
+            out.add("ALTER TABLE " + table(c.getSchemaName(), c.getTableName()) + " RENAME COLUMN "
+                    + name(c.getOldColumnName()) + " TO " + name(c.getNewColumnName()));
+        } else if (change instanceof RenameTable) {
+            RenameTable c = (RenameTable) change;
+            out.add("ALTER TABLE " + table(c.getSchemaName(), c.getOldTableName()) + " RENAME TO "
+                    + name(c.getNewTableName()));
+        } else if (change instanceof ModifyDataType) {
+            ModifyDataType c = (ModifyDataType) change;
+            out.add("ALTER TABLE " + table(c.getSchemaName(), c.getTableName()) + " ALTER COLUMN "
+                    + name(c.getColumnName()) + " TYPE " + type(c.getNewDataType()));
+        } else if (change instanceof AddNotNullConstraint) {
+            AddNotNullConstraint c = (AddNotNullConstraint) change;
+            if (c.getDefaultNullValue() != null) {
+                out.add("UPDATE " + table(c.getSchemaName(), c.getTableName()) + " SET " + name(c.getColumnName())
+                        + " = " + literal(c.getDefaultNullValue()) + " WHERE " + name(c.getColumnName()) + " IS NULL");
+            }
+            out.add("ALTER TABLE " + table(c.getSchemaName(), c.getTableName()) + " ALTER COLUMN "
+                    + name(c.getColumnName()) + " SET NOT NULL");
+        } else if (change instanceof DropNotNullConstraint) {
+            DropNotNullConstraint c = (DropNotNullConstraint) change;
+            out.add("ALTER TABLE " + table(c.getSchemaName(), c.getTableName()) + " ALTER COLUMN "
+                    + name(c.getColumnName()) + " DROP NOT NULL");
+        } else if (change instanceof AddDefaultValue) {
+            AddDefaultValue c = (AddDefaultValue) change;
+            String value = firstValue(c.getDefaultValue(), c.getDefaultValueNumeric(), c.getDefaultValueBoolean(),
+                    c.getDefaultValueDate(), c.getDefaultValueComputed(), c.getDefaultValueSequenceNext());
+            out.add("ALTER TABLE " + table(c.getSchemaName(), c.getTableName()) + " ALTER COLUMN "
+                    + name(c.getColumnName()) + " SET DEFAULT " + value);
+        } else if (change instanceof DropDefaultValue) {
+            DropDefaultValue c = (DropDefaultValue) change;
+            out.add("ALTER TABLE " + table(c.getSchemaName(), c.getTableName()) + " ALTER COLUMN "
+                    + name(c.getColumnName()) + " DROP DEFAULT");
+        } else if (change instanceof CreateSequence) {
+            CreateSequence c = (CreateSequence) change;
+            out.add("CREATE SEQUENCE " + table(c.getSchemaName(), c.getSequenceName())
+                    + (c.getIncrementBy() != null ? " INCREMENT " + c.getIncrementBy() : "")
+                    + (c.getMinValue() != null ? " MINVALUE " + c.getMinValue() : "")
+                    + (c.getMaxValue() != null ? " MAXVALUE " + c.getMaxValue() : "")
+                    + (c.getStartValue() != null ? " START " + c.getStartValue() : ""));
+        } else if (change instanceof DropSequence) {
+            DropSequence c = (DropSequence) change;
+            out.add("DROP SEQUENCE " + table(c.getSchemaName(), c.getSequenceName()));
+        } else if (change instanceof Insert) {
+            Insert c = (Insert) change;
+            List<String> names = new ArrayList<>();
+            List<String> values = new ArrayList<>();
+            for (Column column : c.getColumn()) {
+                ColumnSpec spec = ColumnSpec.of(column);
+                names.add(name(spec.name));
+                values.add(spec.value() != null ? spec.value() : "NULL");
+            }
+            out.add("INSERT INTO " + table(c.getSchemaName(), c.getTableName()) + " (" + String.join(", ", names)
+                    + ") VALUES (" + String.join(", ", values) + ")");
+        } else if (change instanceof Update) {
+            out.add(update((Update) change));
+        } else if (change instanceof Delete) {
+            Delete c = (Delete) change;
+            String where = where(c.getContent());
+            out.add("DELETE FROM " + table(c.getSchemaName(), c.getTableName()) + (where != null ? " WHERE " + where : ""));
+        } else if (change instanceof Sql) {
+            out.addAll(splitSql((Sql) change));
+        } else {
+            return change instanceof TagDatabase;
+        }
+        return true;
+    }
+
+    private String createTable(CreateTable c) {
+        List<String> definitions = new ArrayList<>();
+        List<String> primaryKey = new ArrayList<>();
+        String primaryKeyName = null;
+        for (Column column : c.getColumn()) {
+            ColumnSpec spec = ColumnSpec.of(column);
+            definitions.add(columnDefinition(spec));
+            if (spec.constraints != null && "true".equals(spec.constraints.getPrimaryKey())) {
+                primaryKey.add(name(spec.name));
+                primaryKeyName = primaryKeyName != null ? primaryKeyName : spec.constraints.getPrimaryKeyName();
+            }
+        }
+        if (!primaryKey.isEmpty()) {
+            definitions.add(constraint(primaryKeyName) + "PRIMARY KEY (" + String.join(", ", primaryKey) + ")");
+        }
+        for (Column column : c.getColumn()) {
+            ColumnSpec spec = ColumnSpec.of(column);
+            Constraints k = spec.constraints;
+            if (k != null && k.getReferences() != null || k != null && k.getReferencedTableName() != null) {
+                String references = k.getReferencedTableName() != null
+                        ? name(k.getReferencedTableName()) + " (" + names(k.getReferencedColumnNames()) + ")"
+                        : k.getReferences();
+                definitions.add(constraint(k.getForeignKeyName()) + "FOREIGN KEY (" + name(spec.name)
+                        + ") REFERENCES " + references + ("true".equals(k.getDeleteCascade()) ? " ON DELETE CASCADE" : ""));
+            }
+        }
+        return "CREATE TABLE " + table(c.getSchemaName(), c.getTableName()) + " (" + String.join(", ", definitions)
+                + ")";
+    }
+
+    private String columnDefinition(ColumnSpec spec) {
+        StringBuilder sb = new StringBuilder(name(spec.name)).append(' ');
+        if ("true".equals(spec.autoIncrement)) {
+            sb.append("BIGINT DEFAULT unique_rowid()");
+        } else {
+            sb.append(type(spec.type));
+            String defaultValue = spec.defaultValue();
+            if (defaultValue != null) {
+                sb.append(" DEFAULT ").append(defaultValue);
+            }
+        }
+        Constraints k = spec.constraints;
+        if (k != null && "false".equals(k.getNullable())) {
+            sb.append(" NOT NULL");
+        }
+        if (k != null && "true".equals(k.getUnique())) {
+            sb.append(' ').append(constraint(k.getUniqueConstraintName())).append("UNIQUE");
+        }
+        if (k != null && k.getCheckConstraint() != null) {
+            sb.append(" CHECK (").append(k.getCheckConstraint()).append(')');
+        }
+        return sb.toString();
+    }
+
+    private String addForeignKey(AddForeignKeyConstraint c) {
+        StringBuilder sb = new StringBuilder("ALTER TABLE ")
+                .append(table(c.getBaseTableSchemaName(), c.getBaseTableName())).append(" ADD ")
+                .append(constraint(c.getConstraintName())).append("FOREIGN KEY (").append(names(c.getBaseColumnNames()))
+                .append(") REFERENCES ").append(table(c.getReferencedTableSchemaName(), c.getReferencedTableName()))
+                .append(" (").append(names(c.getReferencedColumnNames())).append(')');
+        if (c.getOnDelete() != null) {
+            sb.append(" ON DELETE ").append(c.getOnDelete().value());
+        } else if ("true".equals(c.getDeleteCascade())) {
+            sb.append(" ON DELETE CASCADE");
+        }
+        if (c.getOnUpdate() != null) {
+            sb.append(" ON UPDATE ").append(c.getOnUpdate().value());
+        }
+        return sb.toString();
+    }
+
+    private String update(Update c) {
+        List<String> assignments = new ArrayList<>();
+        for (Object content : c.getContent()) {
+            Object value = content instanceof JAXBElement ? ((JAXBElement<?>) content).getValue() : content;
+            if (value instanceof Column) {
+                ColumnSpec spec = ColumnSpec.of((Column) value);
+                assignments.add(name(spec.name) + " = " + (spec.value() != null ? spec.value() : "NULL"));
+            }
+        }
+        String where = where(c.getContent());
+        return "UPDATE " + table(c.getSchemaName(), c.getTableName()) + " SET " + String.join(", ", assignments)
+                + (where != null ? " WHERE " + where : "");
+    }
+
+    private static String where(List<?> content) {
+        for (Object item : content) {
+            if (item instanceof JAXBElement && "where".equals(((JAXBElement<?>) item).getName().getLocalPart())) {
+                Object value = ((JAXBElement<?>) item).getValue();
+                String text = value instanceof Node ? ((Node) value).getTextContent() : String.valueOf(value);
+                return text.trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Splits the text of a sql change into statements as liquibase 3.5 does (StringUtils.processMutliLineSQL): on a
+     * ";" ending a line or the text, or on a line holding only "go", or on the end delimiter, a regular expression,
+     * unless splitStatements is false. An inline ";" does not end a statement.
+     */
+    public static List<String> splitSql(Sql sql) {
+        StringBuilder sb = new StringBuilder();
+        for (Object content : sql.getContent()) {
+            if (content instanceof String) {
+                sb.append((String) content);
+            }
+        }
+        String text = sb.toString();
+        if ("true".equals(sql.getStripComments())) {
+            text = BLOCK_COMMENT.matcher(LINE_COMMENT.matcher(text).replaceAll("\n")).replaceAll("").trim();
+        }
+        List<String> statements = new ArrayList<>();
+        if ("false".equals(sql.getSplitStatements())) {
+            addStatement(statements, text);
+            return statements;
+        }
+        String delimiter = sql.getEndDelimiter() == null ? DEFAULT_DELIMITER
+                : sql.getEndDelimiter().equalsIgnoreCase("go") ? GO_DELIMITER : sql.getEndDelimiter();
+        for (String statement : text.split(delimiter)) {
+            addStatement(statements, statement);
+        }
+        return statements;
+    }
+
+    private static void addStatement(List<String> statements, String statement) {
+        String trimmed = statement.trim();
+        if (!trimmed.isEmpty()) {
+            statements.add(trimmed);
+        }
+    }
+
+    /**
+     * Maps a liquibase data type to the cockroachdb type liquibase would create on PostgreSQL
+     *
+     * @param type the liquibase type, e.g. "VARCHAR(255)" or "java.sql.Types.CLOB"
+     * @return the cockroachdb type
+     */
+    static String type(String type) {
+        if (type == null) {
+            return "TEXT";
+        }
+        String t = type.trim();
+        if (t.startsWith("java.sql.Types.")) {
+            t = t.substring("java.sql.Types.".length());
+        }
+        int paren = t.indexOf('(');
+        String base = (paren < 0 ? t : t.substring(0, paren)).trim().toUpperCase(Locale.ROOT);
+        String size = paren < 0 ? "" : t.substring(paren).replace(" ", "");
+        String mapped = TYPES.get(base);
+        if (mapped == null) {
+            return t;
+        }
+        if (UNSIZED_TYPES.contains(mapped) || mapped.equals("TIMESTAMP") && size.isEmpty()) {
+            return mapped;
+        }
+        return mapped + size;
+    }
+
+    private static String table(String schema, String table) {
+        return (schema != null ? name(schema) + "." : "") + name(table);
+    }
+
+    private static String constraint(String name) {
+        return name != null ? "CONSTRAINT " + name(name) + " " : "";
+    }
+
+    private static String names(String commaSeparated) {
+        List<String> names = new ArrayList<>();
+        for (String name : commaSeparated.split(",")) {
+            names.add(name(name.trim()));
+        }
+        return String.join(", ", names);
+    }
+
+    private static String columnNames(List<Column> columns) {
+        List<String> names = new ArrayList<>();
+        for (Column column : columns) {
+            names.add(name(column.getName()));
+        }
+        return String.join(", ", names);
+    }
+
+    /**
+     * Quotes an identifier if it is a reserved word, in lower case as cockroachdb folds the unquoted identifiers
+     */
+    static String name(String identifier) {
+        if (RESERVED.contains(identifier.toUpperCase(Locale.ROOT))) {
+            return "\"" + identifier.toLowerCase(Locale.ROOT) + "\"";
+        }
+        return identifier;
+    }
+
+    static String literal(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    private static String firstValue(String text, String numeric, String bool, String date, String computed,
+                                     String sequenceNext) {
+        if (text != null) {
+            return literal(text);
+        }
+        if (numeric != null) {
+            return numeric;
+        }
+        if (bool != null) {
+            return bool.toLowerCase(Locale.ROOT);
+        }
+        if (date != null) {
+            return literal(date);
+        }
+        if (computed != null) {
+            return computed;
+        }
+        if (sequenceNext != null) {
+            return "nextval('" + sequenceNext + "')";
+        }
+        return null;
+    }
+
+    /**
+     * The attributes of the column elements that matter for the rendering, which the generated classes do not share
+     */
+    private static class ColumnSpec {
+        private String name;
+        private String type;
+        private String autoIncrement;
+        private String[] values;
+        private String[] defaultValues;
+        private Constraints constraints;
+
+        private static ColumnSpec of(Column c) {
+            ColumnSpec spec = new ColumnSpec();
+            spec.name = c.getName();
+            spec.type = c.getType();
+            spec.autoIncrement = c.getAutoIncrement();
+            spec.values = new String[]{c.getValue(), c.getValueNumeric(), c.getValueBoolean(), c.getValueDate(),
+                    c.getValueComputed(), c.getValueSequenceNext()};
+            spec.defaultValues = new String[]{c.getDefaultValue(), c.getDefaultValueNumeric(),
+                    c.getDefaultValueBoolean(), c.getDefaultValueDate(), c.getDefaultValueComputed(),
+                    c.getDefaultValueSequenceNext()};
+            spec.constraints = constraints(c.getContent());
+            if (spec.values[0] == null) {
+                spec.values[0] = text(c.getContent());
+            }
+            return spec;
+        }
+
+        private static ColumnSpec of(ColumnType c) {
+            ColumnSpec spec = new ColumnSpec();
+            spec.name = c.getName();
+            spec.type = c.getType();
+            spec.autoIncrement = c.getAutoIncrement();
+            spec.values = new String[]{c.getValue(), c.getValueNumeric(), c.getValueBoolean(), c.getValueDate(),
+                    c.getValueComputed(), c.getValueSequenceNext()};
+            spec.defaultValues = new String[]{c.getDefaultValue(), c.getDefaultValueNumeric(),
+                    c.getDefaultValueBoolean(), c.getDefaultValueDate(), c.getDefaultValueComputed(),
+                    c.getDefaultValueSequenceNext()};
+            spec.constraints = constraints(c.getContent());
+            return spec;
+        }
+
+        private static Constraints constraints(List<?> content) {
+            for (Object item : content) {
+                if (item instanceof Constraints) {
+                    return (Constraints) item;
+                }
+            }
+            return null;
+        }
+
+        private static String text(List<?> content) {
+            StringBuilder sb = new StringBuilder();
+            for (Object item : content) {
+                if (item instanceof String) {
+                    sb.append((String) item);
+                }
+            }
+            String text = sb.toString().trim();
+            return text.isEmpty() ? null : text;
+        }
+
+        private String value() {
+            return firstValue(values[0], values[1], values[2], values[3], values[4], values[5]);
+        }
+
+        private String defaultValue() {
+            return firstValue(defaultValues[0], defaultValues[1], defaultValues[2], defaultValues[3],
+                    defaultValues[4], defaultValues[5]);
+        }
+    }
+}
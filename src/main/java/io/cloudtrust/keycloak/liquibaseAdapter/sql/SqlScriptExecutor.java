@@ -0,0 +1,451 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.sql;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.ChangeLogState;
+import io.cloudtrust.keycloak.liquibaseAdapter.ChangeLogStateChecker;
+import io.cloudtrust.keycloak.liquibaseAdapter.data.BulkDataLoader;
+import io.cloudtrust.keycloak.liquibaseAdapter.schema.SchemaModel;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Executes rendered changeSets without liquibase, sending the statements of each changeSet to the database in
+ * batches: the PostgreSQL driver pipelines the statements of a batch, so that a changeSet costs one round trip per
+ * batch instead of one per statement and commit.
+ * <p>
+ * Cockroachdb does not support mixing schema changes with writes in a transaction, so the statements of a changeSet
+ * are split into runs of schema changes and runs of data changes. A run of schema changes is sent in auto-commit mode,
+ * where cockroachdb executes it as one implicit transaction, and a run of data changes is sent in an explicit
+ * transaction. The DATABASECHANGELOG row of the changeSet is written by a statement of its own once all its batches
+ * succeeded and, with a {@link SchemaChangeJobMonitor}, once the schema change jobs they started are finished: in a
+ * batch, it would be part of the implicit transaction of the schema changes.
+ * <p>
+ * As liquibase, the executor holds the DATABASECHANGELOGLOCK lock while it reads the changelog table and applies the
+ * changeSets, so that the nodes of a cluster starting together do not apply them twice, and fails if another process
+ * holds it. It refuses the incomplete changeSets, which liquibase has to run, and can be paused between changeSets by
+ * a {@link SchemaChangeJobMonitor}.
+ * <p>
+ * The CSV files of the loadData changes are streamed with COPY by a {@link BulkDataLoader}, in auto-commit mode,
+ * between the runs of the statements rendered before and after them.
+ * <p>
+ * In runner mode, a changeSet made of a single update of a single column of a table with a single column primary key
+ * is run by an {@link AdmissionControlledRunner}, in batches sized by the latency of the live traffic, instead of in
+ * one transaction. The other changeSets keep their transactions whole.
+ */
+public class SqlScriptExecutor {
+
+    /**
+     * The version of liquibase recorded in the changelog table, the one whose checksums are computed
+     */
+    public static final String LIQUIBASE_VERSION = "3.5.3";
+
+    private static final Pattern DDL = Pattern.compile(
+            "^\\s*(CREATE|ALTER|DROP|RENAME|COMMENT|TRUNCATE|GRANT|REVOKE)\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern UPDATE = Pattern.compile("^(?!.*\\b(?:FROM|LIMIT|RETURNING|ORDER\\s+BY)\\b)"
+            + "\\s*UPDATE\\s+(\\S+)\\s+SET\\s+(\\w+)\\s*=\\s*(.+?)(?:\\s+WHERE\\s+(.+?))?\\s*$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private final String table;
+    private final String lockTable;
+    private SchemaChangeJobMonitor monitor;
+    private AdmissionControlledRunner runner;
+    private DataSource runnerDataSource;
+    private SchemaModel schema;
+
+    /**
+     * Creates an executor recording the changeSets in the default changelog table
+     */
+    public SqlScriptExecutor() {
+        this(ChangeLogStateChecker.DEFAULT_TABLE);
+    }
+
+    /**
+     * Standard constructor
+     *
+     * @param table the (possibly schema qualified) name of the changelog table, the name of the lock table being the
+     *              same followed by LOCK
+     */
+    public SqlScriptExecutor(String table) {
+        this.table = table;
+        this.lockTable = table + "LOCK";
+    }
+
+    /**
+     * Sets the monitor whose load signal is checked before every changeSet but the first one, and which is waited
+     * for the end of the schema change jobs before a changeSet is recorded
+     *
+     * @param monitor the monitor, or null to execute the changeSets without pause
+     */
+    public void setMonitor(SchemaChangeJobMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    /**
+     * Sets the runner mode, in which the runner executes the changeSets made of a single column update
+     *
+     * @param runner     the runner, or null to execute the updates in one transaction
+     * @param dataSource the DataSource on which the workers of the runner open their connections
+     * @param schema     the schema of the converted changelogs, giving the key column of the updated tables
+     */
+    public void setRunner(AdmissionControlledRunner runner, DataSource dataSource, SchemaModel schema) {
+        this.runner = runner;
+        this.runnerDataSource = dataSource;
+        this.schema = schema;
+    }
+
+    /**
+     * Executes the changeSets missing from the changelog table in order, stopping at the first failure. The changeSets
+     * run at every update are executed again and their row updated, and the changeSets whose checksum was cleared get
+     * their checksum back without being executed, as liquibase does.
+     *
+     * @param connection the connection to the database, whose auto-commit mode is restored on return
+     * @param changeSets the rendered changeSets
+     * @return the number of executed changeSets
+     * @throws SQLException             thrown if the lock is held by another process, or if a statement fails, the
+     *                                  changeSets after it are not executed
+     * @throws IllegalArgumentException thrown if a changeSet is incomplete, before anything is executed
+     */
+    public int execute(Connection connection, List<RenderedChangeSet> changeSets) throws SQLException {
+        return execute(connection, changeSets, (changeSet, recorded, checkSum) -> {
+            if (!recorded || changeSet.isRunAlways()) {
+                return Action.EXECUTE;
+            }
+            return checkSum == null ? Action.STORE_CHECKSUM : Action.SKIP;
+        });
+    }
+
+    /**
+     * Creates a migration executing the pending changeSets. As the checker finds them with a follower read, they are
+     * checked again against the changelog table once the lock is held, and the changeSets applied meanwhile by another
+     * node are skipped. As liquibase, the migration stores the checksum of the changeSets whose checksum was cleared
+     * without executing them, executes again the changed ones run on change, and fails before executing anything if
+     * another changeSet changed since it was applied.
+     *
+     * @param dataSource the DataSource of the database
+     * @param changeSets the rendered changeSets of the changelog
+     * @return a migration for {@link ChangeLogStateChecker#migrateIfPending(DataSource, ChangeLogStateChecker.Migration)}
+     */
+    public ChangeLogStateChecker.Migration migration(DataSource dataSource, List<RenderedChangeSet> changeSets) {
+        return pending -> {
+            Map<String, ChangeLogState.ExpectedChangeSet> expected = new HashMap<>();
+            for (ChangeLogState.ExpectedChangeSet changeSet : pending) {
+                expected.put(key(changeSet.getId(), changeSet.getAuthor(), changeSet.getFileName()), changeSet);
+            }
+            List<RenderedChangeSet> selected = new ArrayList<>();
+            for (RenderedChangeSet changeSet : changeSets) {
+                if (expected.containsKey(key(changeSet.getId(), changeSet.getAuthor(), changeSet.getFileName()))) {
+                    selected.add(changeSet);
+                }
+            }
+            try (Connection connection = dataSource.getConnection()) {
+                execute(connection, selected, (changeSet, recorded, checkSum) -> {
+                    ChangeLogState.ExpectedChangeSet e = expected.get(key(changeSet.getId(), changeSet.getAuthor(),
+                            changeSet.getFileName()));
+                    if (!recorded || e.isRunAlways()) {
+                        return Action.EXECUTE;
+                    } else if (checkSum == null) {
+                        return Action.STORE_CHECKSUM;
+                    } else if (e.accepts(checkSum)) {
+                        return Action.SKIP;
+                    } else if (e.isRunOnChange()) {
+                        return Action.EXECUTE;
+                    }
+                    throw new IllegalStateException("The changeSet " + changeSet + " has changed since it was "
+                            + "applied: its checksum was " + checkSum + ", it is now " + changeSet.getCheckSum());
+                });
+            }
+        };
+    }
+
+    /**
+     * @param decision tells what to do with each changeSet, all of them being decided before anything is executed
+     */
+    private int execute(Connection connection, List<RenderedChangeSet> changeSets, Decision decision)
+            throws SQLException {
+        for (RenderedChangeSet changeSet : changeSets) {
+            if (!changeSet.isComplete()) {
+                throw new IllegalArgumentException("The changeSet " + changeSet + " cannot be executed as SQL: "
+                        + String.join(", ", changeSet.getUnsupported()));
+            }
+        }
+        boolean autoCommit = connection.getAutoCommit();
+        try {
+            acquireLock(connection);
+            try {
+                Map<String, String> applied = new HashMap<>();
+                int order = readChangeLog(connection, applied);
+                List<Action> actions = new ArrayList<>();
+                for (RenderedChangeSet changeSet : changeSets) {
+                    String key = key(changeSet.getId(), changeSet.getAuthor(), changeSet.getFileName());
+                    actions.add(decision.decide(changeSet, applied.containsKey(key), applied.get(key)));
+                }
+                String deploymentId = String.valueOf(System.currentTimeMillis() % 10000000000L);
+                int executed = 0;
+                for (int i = 0; i < changeSets.size(); i++) {
+                    RenderedChangeSet changeSet = changeSets.get(i);
+                    String key = key(changeSet.getId(), changeSet.getAuthor(), changeSet.getFileName());
+                    if (actions.get(i) == Action.STORE_CHECKSUM) {
+                        connection.setAutoCommit(true);
+                        try (Statement statement = connection.createStatement()) {
+                            statement.executeUpdate(storeCheckSum(changeSet));
+                        }
+                    }
+                    if (actions.get(i) != Action.EXECUTE) {
+                        continue;
+                    }
+                    if (monitor != null && executed > 0) {
+                        monitor.awaitLowLoad();
+                    }
+                    long started = System.currentTimeMillis();
+                    boolean ddl = changeSet.getExecType() == RenderedChangeSet.ExecType.EXECUTED
+                            && executeChangeSet(connection, changeSet);
+                    if (ddl && monitor != null) {
+                        monitor.awaitJobs(started);
+                    }
+                    connection.setAutoCommit(true);
+                    try (Statement statement = connection.createStatement()) {
+                        statement.executeUpdate(applied.containsKey(key) ? updateRow(changeSet)
+                                : insertRow(changeSet, ++order, deploymentId));
+                    }
+                    executed++;
+                }
+                return executed;
+            } finally {
+                releaseLock(connection);
+            }
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Executes the statements and the data loads of a changeSet
+     *
+     * @return true if the changeSet made schema changes
+     */
+    private boolean executeChangeSet(Connection connection, RenderedChangeSet changeSet) throws SQLException {
+        List<String> statements = changeSet.getStatements();
+        if (statements.size() == 1 && changeSet.getDataLoads().isEmpty() && executeRun(statements.get(0))) {
+            return false;
+        }
+        boolean ddl = false;
+        int position = 0;
+        for (RenderedChangeSet.DataLoad dataLoad : changeSet.getDataLoads()) {
+            ddl |= executeStatements(connection, statements.subList(position, dataLoad.getPosition()));
+            position = dataLoad.getPosition();
+            connection.setAutoCommit(true);
+            try {
+                new BulkDataLoader(dataLoad.getDirectory()).copy(connection, dataLoad.getLoadData());
+            } catch (IOException e) {
+                throw new SQLException("Cannot read the file of the " + dataLoad + " of " + changeSet, e);
+            }
+        }
+        return executeStatements(connection, statements.subList(position, statements.size())) | ddl;
+    }
+
+    /**
+     * @return true if the statements contained schema changes
+     */
+    private boolean executeStatements(Connection connection, List<String> statements) throws SQLException {
+        boolean ddl = false;
+        for (List<String> batch : batches(statements)) {
+            if (!batch.isEmpty()) {
+                ddl |= executeBatch(connection, batch);
+            }
+        }
+        return ddl;
+    }
+
+    /**
+     * Splits the statements of a changeSet into batches that are either only schema changes or only data changes
+     *
+     * @param statements the statements of the changeSet
+     * @return the batches, at least one
+     */
+    static List<List<String>> batches(List<String> statements) {
+        List<List<String>> batches = new ArrayList<>();
+        List<String> current = new ArrayList<>();
+        boolean currentDdl = false;
+        for (String statement : statements) {
+            boolean ddl = isDdl(statement);
+            if (!current.isEmpty() && ddl != currentDdl) {
+                batches.add(current);
+                current = new ArrayList<>();
+            }
+            current.add(statement);
+            currentDdl = ddl;
+        }
+        batches.add(current);
+        return batches;
+    }
+
+    static boolean isDdl(String statement) {
+        return DDL.matcher(statement).find();
+    }
+
+    /**
+     * Runs the update with the runner in runner mode, if the runner can split it. The statements with a literal are
+     * kept out of the runner, as the parsing of the update does not skip the literals.
+     *
+     * @return true if the runner executed the update
+     */
+    private boolean executeRun(String sql) throws SQLException {
+        if (runner == null || sql.indexOf('\'') >= 0) {
+            return false;
+        }
+        Matcher m = UPDATE.matcher(sql);
+        SchemaModel.Table t = m.find() ? schema.getTable(m.group(1)) : null;
+        if (t == null || t.getPrimaryKey().size() != 1) {
+            return false;
+        }
+        runner.update(runnerDataSource, m.group(1), m.group(2), m.group(3), m.group(4), t.getPrimaryKey().get(0));
+        return true;
+    }
+
+    /**
+     * @return true if the batch was made of schema changes
+     */
+    private boolean executeBatch(Connection connection, List<String> batch) throws SQLException {
+        boolean ddl = isDdl(batch.get(0));
+        connection.setAutoCommit(ddl);
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : batch) {
+                statement.addBatch(sql);
+            }
+            statement.executeBatch();
+            if (!ddl) {
+                connection.commit();
+            }
+        } catch (SQLException e) {
+            if (!ddl) {
+                connection.rollback();
+            }
+            throw e.getNextException() != null ? e.getNextException() : e;
+        }
+        return ddl;
+    }
+
+    private void acquireLock(Connection connection) throws SQLException {
+        connection.setAutoCommit(true);
+        try (Statement statement = connection.createStatement()) {
+            // the table and row liquibase creates on a new database
+            statement.execute("CREATE TABLE IF NOT EXISTS " + lockTable + " (ID INT NOT NULL PRIMARY KEY, "
+                    + "LOCKED BOOLEAN NOT NULL, LOCKGRANTED TIMESTAMP, LOCKEDBY VARCHAR(255))");
+            statement.execute("INSERT INTO " + lockTable + " (ID, LOCKED) VALUES (1, false) "
+                    + "ON CONFLICT (ID) DO NOTHING");
+        }
+        try (PreparedStatement statement = connection.prepareStatement("UPDATE " + lockTable
+                + " SET LOCKED = true, LOCKGRANTED = now(), LOCKEDBY = ? WHERE ID = 1 AND LOCKED = false")) {
+            statement.setString(1, lockedBy());
+            if (statement.executeUpdate() != 1) {
+                throw new SQLException("The lock " + lockTable + " is held by another process");
+            }
+        }
+    }
+
+    private void releaseLock(Connection connection) throws SQLException {
+        connection.setAutoCommit(true);
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("UPDATE " + lockTable + " SET LOCKED = false, LOCKGRANTED = NULL, LOCKEDBY = NULL "
+                    + "WHERE ID = 1");
+        }
+    }
+
+    /**
+     * @return the host name and address, as liquibase records them in the lock table
+     */
+    private static String lockedBy() {
+        try {
+            InetAddress host = InetAddress.getLocalHost();
+            return host.getHostName() + " (" + host.getHostAddress() + ")";
+        } catch (UnknownHostException e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * @param applied receives the checksums of the changeSets of the changelog table
+     * @return the highest execution order of the table
+     */
+    private int readChangeLog(Connection connection, Map<String, String> applied) throws SQLException {
+        int order = 0;
+        try (Statement statement = connection.createStatement()) {
+            // the table liquibase creates on a new database
+            statement.execute("CREATE TABLE IF NOT EXISTS " + table + " (ID VARCHAR(255) NOT NULL, "
+                    + "AUTHOR VARCHAR(255) NOT NULL, FILENAME VARCHAR(255) NOT NULL, DATEEXECUTED TIMESTAMP NOT NULL, "
+                    + "ORDEREXECUTED INT NOT NULL, EXECTYPE VARCHAR(10) NOT NULL, MD5SUM VARCHAR(35), "
+                    + "DESCRIPTION VARCHAR(255), COMMENTS VARCHAR(255), TAG VARCHAR(255), LIQUIBASE VARCHAR(20), "
+                    + "CONTEXTS VARCHAR(255), LABELS VARCHAR(255), DEPLOYMENT_ID VARCHAR(10))");
+            statement.execute(ChangeLogStateChecker.indexStatement(table));
+            try (ResultSet rs = statement.executeQuery("SELECT ID, AUTHOR, FILENAME, ORDEREXECUTED, MD5SUM FROM "
+                    + table)) {
+                while (rs.next()) {
+                    applied.put(key(rs.getString(1), rs.getString(2), rs.getString(3)), rs.getString(5));
+                    order = Math.max(order, rs.getInt(4));
+                }
+            }
+        }
+        return order;
+    }
+
+    private String insertRow(RenderedChangeSet changeSet, int order, String deploymentId) {
+        return "INSERT INTO " + table + " (ID, AUTHOR, FILENAME, DATEEXECUTED, ORDEREXECUTED, EXECTYPE, MD5SUM, "
+                + "DESCRIPTION, COMMENTS, LIQUIBASE, DEPLOYMENT_ID) VALUES (" + SqlRenderer.literal(changeSet.getId())
+                + ", " + SqlRenderer.literal(changeSet.getAuthor()) + ", " + SqlRenderer.literal(changeSet.getFileName())
+                + ", now(), " + order + ", '" + changeSet.getExecType() + "', "
+                + SqlRenderer.literal(changeSet.getCheckSum()) + ", 'sql', '', "
+                + SqlRenderer.literal(LIQUIBASE_VERSION) + ", " + SqlRenderer.literal(deploymentId) + ")";
+    }
+
+    private String updateRow(RenderedChangeSet changeSet) {
+        String execType = changeSet.getExecType() == RenderedChangeSet.ExecType.MARK_RAN ? "MARK_RAN" : "RERAN";
+        return "UPDATE " + table + " SET DATEEXECUTED = now(), EXECTYPE = '" + execType + "', MD5SUM = "
+                + SqlRenderer.literal(changeSet.getCheckSum()) + where(changeSet);
+    }
+
+    private String storeCheckSum(RenderedChangeSet changeSet) {
+        return "UPDATE " + table + " SET MD5SUM = " + SqlRenderer.literal(changeSet.getCheckSum()) + where(changeSet);
+    }
+
+    private static String where(RenderedChangeSet changeSet) {
+        return " WHERE ID = " + SqlRenderer.literal(changeSet.getId()) + " AND AUTHOR = "
+                + SqlRenderer.literal(changeSet.getAuthor()) + " AND FILENAME = "
+                + SqlRenderer.literal(changeSet.getFileName());
+    }
+
+    private static String key(String id, String author, String fileName) {
+        return id + '\u0000' + author + '\u0000' + fileName;
+    }
+
+    /**
+     * What the executor does with a changeSet
+     */
+    private enum Action {
+        EXECUTE, STORE_CHECKSUM, SKIP
+    }
+
+    @FunctionalInterface
+    private interface Decision {
+        /**
+         * @param changeSet a changeSet to execute
+         * @param recorded  true if the changeSet is in the changelog table
+         * @param checkSum  the checksum of the changeSet in the changelog table, null if it is not there or cleared
+         * @return what to do with the changeSet
+         * @throws IllegalStateException thrown if the changeSet cannot be applied
+         */
+        Action decide(RenderedChangeSet changeSet, boolean recorded, String checkSum);
+    }
+}
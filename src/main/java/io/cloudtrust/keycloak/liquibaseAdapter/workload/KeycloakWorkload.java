@@ -0,0 +1,334 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.workload;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.ChangeLogGraphLoader;
+import io.cloudtrust.keycloak.liquibaseAdapter.sql.RenderedChangeSet;
+import io.cloudtrust.keycloak.liquibaseAdapter.sql.SqlRenderer;
+import io.cloudtrust.keycloak.liquibaseAdapter.sql.SqlScriptExecutor;
+import org.postgresql.ds.PGSimpleDataSource;
+
+import javax.sql.DataSource;
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Measures the effect of the schema conversions on the query mix of Keycloak. The benchmark applies converted
+ * changelogs to an empty database, loads a realm with generated users, clients and offline sessions, and replays the
+ * hot query shapes of Keycloak with a {@link WorkloadRunner}:
+ * <ul>
+ * <li>login: the user by user name, its credentials, role mappings and attributes</li>
+ * <li>refresh: the offline session and its client sessions, the client, and the update of the session</li>
+ * <li>search: the users whose user name, email or name contains a string</li>
+ * <li>admin: a page of users and the count of users of the realm, and the clients of the realm</li>
+ * </ul>
+ * Run it against a local cockroachdb single node or PostgreSQL database once per transformation option:
+ * {@code KeycloakWorkload <jdbc url> <changelog root directory> <master changelog> [users] [threads] [seconds]}.
+ */
+public class KeycloakWorkload {
+
+    private static final String REALM_ID = "workload-realm";
+    private static final int BATCH_SIZE = 1000;
+
+    private final int users;
+    private final int clients;
+    private final int sessions;
+
+    /**
+     * Standard constructor
+     *
+     * @param users    the number of users
+     * @param clients  the number of clients
+     * @param sessions the number of offline sessions, each one with a client session
+     */
+    public KeycloakWorkload(int users, int clients, int sessions) {
+        this.users = users;
+        this.clients = clients;
+        this.sessions = sessions;
+    }
+
+    /**
+     * Applies converted changelogs to a database with the {@link SqlScriptExecutor}. The changes that cannot be
+     * rendered as SQL, the data migrations and custom changes, are skipped: they have nothing to migrate on an empty
+     * database.
+     *
+     * @param dataSource    the DataSource of the empty database
+     * @param rootDirectory the root of the classpath from which liquibase loads the changelogs
+     * @param master        the converted master changelog
+     * @return the number of executed changeSets
+     * @throws JAXBException thrown if a changelog cannot be unmarshalled
+     * @throws IOException   thrown if a changelog cannot be read
+     * @throws SQLException  thrown if a statement fails
+     */
+    public static int apply(DataSource dataSource, Path rootDirectory, Path master)
+            throws JAXBException, IOException, SQLException {
+        List<RenderedChangeSet> changeSets = new ArrayList<>();
+        for (RenderedChangeSet changeSet : new SqlRenderer().render(new ChangeLogGraphLoader(rootDirectory)
+                .load(master), rootDirectory)) {
+            if (!changeSet.isComplete()) {
+                System.err.println("Changes skipped in " + changeSet + ": " + String.join(", ",
+                        changeSet.getUnsupported()));
+                changeSet = new RenderedChangeSet(changeSet.getId(), changeSet.getAuthor(), changeSet.getFileName(),
+                        changeSet.getCheckSum(), changeSet.getStatements(), Collections.emptyList(),
+                        changeSet.getExecType(), changeSet.isRunAlways(), changeSet.getDataLoads());
+            }
+            if (!changeSet.getStatements().isEmpty() || !changeSet.getDataLoads().isEmpty()) {
+                changeSets.add(changeSet);
+            }
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            return new SqlScriptExecutor().execute(connection, changeSets);
+        }
+    }
+
+    /**
+     * Loads the realm, its users with a password credential, its clients and the offline sessions. Only the columns
+     * that exist in the schema are set, the other mandatory columns without default value being set to a placeholder
+     * of their type.
+     *
+     * @param dataSource the DataSource of the database
+     * @throws SQLException thrown if an insert fails
+     */
+    public void load(DataSource dataSource) throws SQLException {
+        long now = System.currentTimeMillis();
+        try (Connection connection = dataSource.getConnection()) {
+            insert(connection, "REALM", 1, i -> row("ID", REALM_ID, "NAME", "workload", "ENABLED", true));
+            insert(connection, "CLIENT", clients, i -> row("ID", clientId(i), "CLIENT_ID", "app-" + i,
+                    "REALM_ID", REALM_ID, "ENABLED", true, "PROTOCOL", "openid-connect"));
+            insert(connection, "USER_ENTITY", users, i -> row("ID", userId(i), "USERNAME", "user" + i,
+                    "EMAIL", "user" + i + "@example.com", "EMAIL_CONSTRAINT", "user" + i + "@example.com",
+                    "FIRST_NAME", "First" + i, "LAST_NAME", "Last" + i, "REALM_ID", REALM_ID, "ENABLED", true,
+                    "CREATED_TIMESTAMP", now));
+            insert(connection, "CREDENTIAL", users, i -> row("ID", "credential-" + i, "USER_ID", userId(i),
+                    "TYPE", "password", "VALUE", "hash" + i, "SECRET_DATA", "{\"value\":\"hash" + i + "\"}",
+                    "CREATED_DATE", now));
+            insert(connection, "OFFLINE_USER_SESSION", sessions, i -> row("USER_SESSION_ID", sessionId(i),
+                    "USER_ID", userId(i % users), "REALM_ID", REALM_ID, "OFFLINE_FLAG", "1", "DATA", "{}",
+                    "CREATED_ON", (int) (now / 1000), "LAST_SESSION_REFRESH", (int) (now / 1000)));
+            insert(connection, "OFFLINE_CLIENT_SESSION", sessions, i -> row("USER_SESSION_ID", sessionId(i),
+                    "CLIENT_ID", clientId(i % clients), "OFFLINE_FLAG", "1", "DATA", "{}",
+                    "TIMESTAMP", (int) (now / 1000)));
+        }
+    }
+
+    /**
+     * Adds the hot query shapes of Keycloak to a runner, in the proportions of a login-heavy deployment
+     *
+     * @param runner the runner
+     */
+    public void register(WorkloadRunner runner) {
+        runner.add("login", 40, (connection, random) -> {
+            int user = random.nextInt(users);
+            query(connection, "SELECT * FROM USER_ENTITY WHERE USERNAME = ? AND REALM_ID = ?", "user" + user,
+                    REALM_ID);
+            query(connection, "SELECT * FROM CREDENTIAL WHERE USER_ID = ?", userId(user));
+            query(connection, "SELECT * FROM USER_ROLE_MAPPING WHERE USER_ID = ?", userId(user));
+            query(connection, "SELECT * FROM USER_ATTRIBUTE WHERE USER_ID = ?", userId(user));
+        });
+        runner.add("refresh", 40, (connection, random) -> {
+            int session = random.nextInt(sessions);
+            query(connection, "SELECT * FROM OFFLINE_USER_SESSION WHERE USER_SESSION_ID = ? AND OFFLINE_FLAG = ?",
+                    sessionId(session), "1");
+            query(connection, "SELECT * FROM OFFLINE_CLIENT_SESSION WHERE USER_SESSION_ID = ? AND OFFLINE_FLAG = ?",
+                    sessionId(session), "1");
+            query(connection, "SELECT * FROM CLIENT WHERE ID = ?", clientId(session % clients));
+            update(connection, "UPDATE OFFLINE_USER_SESSION SET DATA = ? WHERE USER_SESSION_ID = ? "
+                    + "AND OFFLINE_FLAG = ?", "{\"refreshed\":" + System.currentTimeMillis() + "}", sessionId(session),
+                    "1");
+        });
+        runner.add("search", 10, (connection, random) -> {
+            String search = "%" + random.nextInt(users) + "%";
+            query(connection, "SELECT * FROM USER_ENTITY WHERE REALM_ID = ? AND (lower(USERNAME) LIKE ? "
+                    + "OR lower(EMAIL) LIKE ? OR lower(FIRST_NAME) LIKE ? OR lower(LAST_NAME) LIKE ?) "
+                    + "ORDER BY USERNAME LIMIT 20", REALM_ID, search, search, search, search);
+        });
+        runner.add("admin", 10, (connection, random) -> {
+            query(connection, "SELECT * FROM USER_ENTITY WHERE REALM_ID = ? AND SERVICE_ACCOUNT_CLIENT_LINK IS NULL "
+                    + "ORDER BY USERNAME LIMIT 20 OFFSET ?", REALM_ID, random.nextInt(Math.max(1, users / 20)) * 20);
+            query(connection, "SELECT count(*) FROM USER_ENTITY WHERE REALM_ID = ?", REALM_ID);
+            query(connection, "SELECT ID, CLIENT_ID FROM CLIENT WHERE REALM_ID = ? ORDER BY CLIENT_ID", REALM_ID);
+        });
+    }
+
+    private static String userId(int i) {
+        return "user-" + i;
+    }
+
+    private static String clientId(int i) {
+        return "client-" + i;
+    }
+
+    private static String sessionId(int i) {
+        return "session-" + i;
+    }
+
+    private static Map<String, Object> row(Object... namesAndValues) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            row.put((String) namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return row;
+    }
+
+    private static void query(Connection connection, String sql, Object... parameters) throws SQLException {
+        try (PreparedStatement statement = prepare(connection, sql, parameters);
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                // the rows are read as Hibernate reads them
+                rs.getObject(1);
+            }
+        }
+    }
+
+    private static void update(Connection connection, String sql, Object... parameters) throws SQLException {
+        try (PreparedStatement statement = prepare(connection, sql, parameters)) {
+            statement.executeUpdate();
+        }
+    }
+
+    private static PreparedStatement prepare(Connection connection, String sql, Object... parameters)
+            throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        for (int i = 0; i < parameters.length; i++) {
+            statement.setObject(i + 1, parameters[i]);
+        }
+        return statement;
+    }
+
+    /**
+     * Inserts generated rows in batches, setting the columns of the rows that exist in the table and placeholders in
+     * the other mandatory columns
+     */
+    private static void insert(Connection connection, String table, int count, IntFunction<Map<String, Object>> rows)
+            throws SQLException {
+        Map<String, Integer> mandatory = new LinkedHashMap<>();
+        Map<String, Integer> existing = columns(connection.getMetaData(), table, mandatory);
+        if (existing.isEmpty()) {
+            System.err.println("Table " + table + " not found, no row loaded");
+            return;
+        }
+        List<String> names = new ArrayList<>();
+        for (String name : rows.apply(0).keySet()) {
+            if (existing.containsKey(name)) {
+                names.add(name);
+            }
+        }
+        List<String> placeholders = new ArrayList<>(mandatory.keySet());
+        placeholders.removeAll(names);
+        List<String> all = new ArrayList<>(names);
+        all.addAll(placeholders);
+        String sql = "INSERT INTO " + table + " (" + String.join(", ", all) + ") VALUES ("
+                + String.join(", ", Collections.nCopies(all.size(), "?")) + ")";
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < count; i++) {
+                Map<String, Object> row = rows.apply(i);
+                int index = 1;
+                for (String name : names) {
+                    statement.setObject(index++, row.get(name));
+                }
+                for (String name : placeholders) {
+                    statement.setObject(index++, placeholder(mandatory.get(name), table + "-" + i));
+                }
+                statement.addBatch();
+                if ((i + 1) % BATCH_SIZE == 0 || i == count - 1) {
+                    statement.executeBatch();
+                    connection.commit();
+                }
+            }
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e.getNextException() != null ? e.getNextException() : e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Reads the columns of a table, by upper case name, and its mandatory columns without default value
+     */
+    private static Map<String, Integer> columns(DatabaseMetaData metaData, String table, Map<String, Integer> mandatory)
+            throws SQLException {
+        Map<String, Integer> columns = new LinkedHashMap<>();
+        // unquoted identifiers are stored in lower case by PostgreSQL and cockroachdb
+        for (String name : new String[]{table.toLowerCase(Locale.ROOT), table}) {
+            try (ResultSet rs = metaData.getColumns(null, null, name, null)) {
+                while (rs.next()) {
+                    String column = rs.getString("COLUMN_NAME").toUpperCase(Locale.ROOT);
+                    int type = rs.getInt("DATA_TYPE");
+                    columns.put(column, type);
+                    if ("NO".equals(rs.getString("IS_NULLABLE")) && rs.getString("COLUMN_DEF") == null) {
+                        mandatory.put(column, type);
+                    }
+                }
+            }
+            if (!columns.isEmpty()) {
+                break;
+            }
+        }
+        return columns;
+    }
+
+    private static Object placeholder(int type, String unique) {
+        switch (type) {
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return false;
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return 0;
+            case Types.DATE:
+            case Types.TIME:
+            case Types.TIMESTAMP:
+                return new Timestamp(0);
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+                return new byte[0];
+            default:
+                return unique;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: KeycloakWorkload <jdbc url> <changelog root directory> <master changelog> "
+                    + "[users] [threads] [seconds]");
+            System.exit(1);
+        }
+        int users = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : 8;
+        int seconds = args.length > 5 ? Integer.parseInt(args[5]) : 60;
+        PGSimpleDataSource dataSource = new PGSimpleDataSource();
+        dataSource.setUrl(args[0]);
+        System.out.println(apply(dataSource, Paths.get(args[1]), Paths.get(args[2])) + " changeSets applied");
+        KeycloakWorkload workload = new KeycloakWorkload(users, Math.max(1, users / 100), users);
+        workload.load(dataSource);
+        WorkloadRunner runner = new WorkloadRunner(threads, 1);
+        workload.register(runner);
+        runner.run(dataSource, Math.min(10, seconds / 5) * 1000L, seconds * 1000L);
+        System.out.print(runner.report());
+    }
+}
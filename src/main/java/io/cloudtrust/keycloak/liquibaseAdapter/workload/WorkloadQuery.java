@@ -0,0 +1,21 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.workload;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Random;
+
+/**
+ * A query shape of a workload, the statements of one user-facing operation
+ */
+@FunctionalInterface
+public interface WorkloadQuery {
+
+    /**
+     * Executes the operation once
+     *
+     * @param connection the connection of the worker, in auto-commit mode
+     * @param random     the random source of the worker, to pick the parameters
+     * @throws SQLException thrown if a statement fails
+     */
+    void execute(Connection connection, Random random) throws SQLException;
+}
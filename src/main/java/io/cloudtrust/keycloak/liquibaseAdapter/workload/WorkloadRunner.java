@@ -0,0 +1,187 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.workload;
+
+import io.cloudtrust.keycloak.jdbc.LatencyHistogram;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replays a weighted mix of query shapes with concurrent workers for a fixed time, and records the latency of every
+ * execution in a {@link LatencyHistogram} per query shape. Each worker holds its own connection and its own seeded
+ * random source, and picks the next query shape in proportion to the weights. The executions of the warmup period
+ * are not recorded.
+ */
+public class WorkloadRunner {
+
+    private final Map<String, Shape> shapes = new LinkedHashMap<>();
+    private final int threads;
+    private final long seed;
+    private int totalWeight;
+    private double measuredSeconds;
+
+    /**
+     * Standard constructor
+     *
+     * @param threads the number of concurrent workers
+     * @param seed    the seed of the random sources of the workers
+     */
+    public WorkloadRunner(int threads, long seed) {
+        this.threads = threads;
+        this.seed = seed;
+    }
+
+    /**
+     * Adds a query shape to the mix
+     *
+     * @param name   the name of the shape in the report
+     * @param weight the relative frequency of the shape
+     * @param query  the query shape
+     */
+    public void add(String name, int weight, WorkloadQuery query) {
+        shapes.put(name, new Shape(weight, query));
+        totalWeight += weight;
+    }
+
+    /**
+     * Runs the workload
+     *
+     * @param dataSource     the DataSource of the database
+     * @param warmupMillis   the duration of the warmup
+     * @param durationMillis the duration of the measurement
+     * @throws SQLException thrown if a worker cannot get a connection
+     */
+    public void run(DataSource dataSource, long warmupMillis, long durationMillis) throws SQLException {
+        List<Shape> mix = new ArrayList<>(shapes.values());
+        for (Shape shape : mix) {
+            shape.histogram.reset();
+            shape.errors.reset();
+        }
+        long start = System.nanoTime();
+        long measureStart = start + warmupMillis * 1_000_000;
+        long end = measureStart + durationMillis * 1_000_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                Random random = new Random(seed + i);
+                workers.add(executor.submit(() -> {
+                    work(dataSource, mix, random, measureStart, end);
+                    return null;
+                }));
+            }
+            for (Future<Void> worker : workers) {
+                join(worker);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        measuredSeconds = (System.nanoTime() - measureStart) / 1e9;
+    }
+
+    private void work(DataSource dataSource, List<Shape> mix, Random random, long measureStart, long end)
+            throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            long now = System.nanoTime();
+            while (now < end) {
+                Shape shape = pick(mix, random);
+                boolean failed = false;
+                try {
+                    shape.query.execute(connection, random);
+                } catch (SQLException e) {
+                    failed = true;
+                }
+                long executed = System.nanoTime();
+                if (now >= measureStart) {
+                    if (failed) {
+                        shape.errors.increment();
+                    } else {
+                        shape.histogram.record(executed - now);
+                    }
+                }
+                now = executed;
+            }
+        }
+    }
+
+    private Shape pick(List<Shape> mix, Random random) {
+        int pick = random.nextInt(totalWeight);
+        for (Shape shape : mix) {
+            if ((pick -= shape.weight) < 0) {
+                return shape;
+            }
+        }
+        return mix.get(mix.size() - 1);
+    }
+
+    /**
+     * @param name the name of a query shape
+     * @return the latencies of the successful executions of the shape during the last measurement, in nanoseconds
+     */
+    public LatencyHistogram getHistogram(String name) {
+        return shapes.get(name).histogram;
+    }
+
+    /**
+     * @param name the name of a query shape
+     * @return the number of failed executions of the shape during the last measurement
+     */
+    public long getErrors(String name) {
+        return shapes.get(name).errors.sum();
+    }
+
+    /**
+     * @return the throughput, latencies and errors of every query shape during the last measurement
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "%-16s %10s %10s %10s %10s %10s%n",
+                "query", "count", "ops/s", "p50(ms)", "p99(ms)", "errors"));
+        long total = 0;
+        for (Map.Entry<String, Shape> e : shapes.entrySet()) {
+            LatencyHistogram h = e.getValue().histogram;
+            total += h.getCount();
+            sb.append(String.format(Locale.ROOT, "%-16s %10d %10.1f %10.3f %10.3f %10d%n", e.getKey(), h.getCount(),
+                    h.getCount() / measuredSeconds, h.getValueAtPercentile(50) / 1e6,
+                    h.getValueAtPercentile(99) / 1e6, e.getValue().errors.sum()));
+        }
+        sb.append(String.format(Locale.ROOT, "%-16s %10d %10.1f%n", "total", total, total / measuredSeconds));
+        return sb.toString();
+    }
+
+    private static void join(Future<Void> worker) throws SQLException {
+        try {
+            worker.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while running the workload", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException(e.getCause());
+        }
+    }
+
+    private static class Shape {
+        private final int weight;
+        private final WorkloadQuery query;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+
+        Shape(int weight, WorkloadQuery query) {
+            this.weight = weight;
+            this.query = query;
+        }
+    }
+}
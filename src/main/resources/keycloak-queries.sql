@@ -0,0 +1,65 @@
+-- The frequent queries of Keycloak, as Hibernate sends them, checked by QueryPlanChecker.
+-- Each statement is named by the comment preceding it.
+
+-- login: user by user name
+SELECT * FROM USER_ENTITY u WHERE u.USERNAME = ? AND u.REALM_ID = ?;
+-- login: user by email
+SELECT * FROM USER_ENTITY u WHERE u.EMAIL = ? AND u.REALM_ID = ?;
+-- login: credentials of the user
+SELECT * FROM CREDENTIAL c WHERE c.USER_ID = ?;
+-- login: role mappings of the user
+SELECT * FROM USER_ROLE_MAPPING m WHERE m.USER_ID = ?;
+-- login: attributes of the user
+SELECT * FROM USER_ATTRIBUTE a WHERE a.USER_ID = ?;
+-- login: group memberships of the user
+SELECT * FROM USER_GROUP_MEMBERSHIP m WHERE m.USER_ID = ?;
+-- login: required actions of the user
+SELECT * FROM USER_REQUIRED_ACTION r WHERE r.USER_ID = ?;
+-- login: federated identities of the user
+SELECT * FROM FEDERATED_IDENTITY f WHERE f.USER_ID = ?;
+-- broker login: user by federated identity
+SELECT u.* FROM FEDERATED_IDENTITY f JOIN USER_ENTITY u ON u.ID = f.USER_ID
+    WHERE f.REALM_ID = ? AND f.IDENTITY_PROVIDER = ? AND f.FEDERATED_USER_ID = ?;
+-- token: client by client id
+SELECT * FROM CLIENT c WHERE c.CLIENT_ID = ? AND c.REALM_ID = ?;
+-- token: attributes of the client
+SELECT * FROM CLIENT_ATTRIBUTES a WHERE a.CLIENT_ID = ?;
+-- token: protocol mappers of the client
+SELECT * FROM PROTOCOL_MAPPER p WHERE p.CLIENT_ID = ?;
+-- token: redirect uris of the client
+SELECT * FROM REDIRECT_URIS r WHERE r.CLIENT_ID = ?;
+-- token: realm role by name
+SELECT * FROM KEYCLOAK_ROLE r WHERE r.CLIENT_ROLE = false AND r.NAME = ? AND r.REALM = ?;
+-- token: client role by name
+SELECT * FROM KEYCLOAK_ROLE r WHERE r.NAME = ? AND r.CLIENT = ?;
+-- token: composite roles
+SELECT * FROM COMPOSITE_ROLE c WHERE c.COMPOSITE = ?;
+-- refresh: offline user session
+SELECT * FROM OFFLINE_USER_SESSION s WHERE s.USER_SESSION_ID = ? AND s.OFFLINE_FLAG = ?;
+-- refresh: offline client sessions
+SELECT * FROM OFFLINE_CLIENT_SESSION s WHERE s.USER_SESSION_ID = ? AND s.OFFLINE_FLAG = ?;
+-- refresh: offline sessions of the user
+SELECT * FROM OFFLINE_USER_SESSION s WHERE s.USER_ID = ? AND s.REALM_ID = ? AND s.OFFLINE_FLAG = ?;
+-- admin: users of the realm
+SELECT * FROM USER_ENTITY u WHERE u.REALM_ID = ? AND u.SERVICE_ACCOUNT_CLIENT_LINK IS NULL
+    ORDER BY u.USERNAME LIMIT 20 OFFSET 0;
+-- admin: clients of the realm
+SELECT c.ID FROM CLIENT c WHERE c.REALM_ID = ? ORDER BY c.CLIENT_ID;
+-- admin: groups of the realm
+SELECT * FROM KEYCLOAK_GROUP g WHERE g.REALM_ID = ? AND g.PARENT_GROUP = ?;
+-- admin: components of the realm
+SELECT * FROM COMPONENT c WHERE c.REALM_ID = ? AND c.PARENT_ID = ? AND c.PROVIDER_TYPE = ?;
+-- admin: members of a group
+SELECT u.* FROM USER_GROUP_MEMBERSHIP m JOIN USER_ENTITY u ON u.ID = m.USER_ID WHERE m.GROUP_ID = ?
+    ORDER BY u.USERNAME LIMIT 100;
+-- admin: users with a role
+SELECT u.* FROM USER_ROLE_MAPPING m JOIN USER_ENTITY u ON u.ID = m.USER_ID WHERE m.ROLE_ID = ?
+    ORDER BY u.USERNAME LIMIT 100;
+-- events: events of the realm
+SELECT * FROM EVENT_ENTITY e WHERE e.REALM_ID = ? ORDER BY e.EVENT_TIME DESC LIMIT 100;
+-- events: admin events of the realm
+SELECT * FROM ADMIN_EVENT_ENTITY e WHERE e.REALM_ID = ? ORDER BY e.ADMIN_EVENT_TIME DESC LIMIT 100;
+-- delete user: consents of the user
+DELETE FROM USER_CONSENT WHERE USER_ID = ?;
+-- delete realm: users of the realm
+DELETE FROM USER_ENTITY WHERE REALM_ID = ?;
@@ -0,0 +1,61 @@
+package io.cloudtrust.keycloak.jdbc;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class CockroachDataSourceTest {
+    private FakeDataSource fake = new FakeDataSource();
+
+    private static TuningProfile profile(String name, String setting, String value) {
+        Map<String, String> settings = new LinkedHashMap<>();
+        settings.put(setting, value);
+        return new TuningProfile(name, 1, settings);
+    }
+
+    @Test
+    public void testProfileFromProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("name", "histograms");
+        properties.setProperty("version", "3");
+        properties.setProperty("set.reorder_joins_limit", "6");
+        properties.setProperty("set.optimizer_use_histograms", "on");
+        properties.setProperty("set.application_name", "keycloak node");
+        TuningProfile profile = TuningProfile.fromProperties(properties);
+        assertEquals("histograms@3", profile.toString());
+        assertEquals("SET application_name = 'keycloak node'; SET optimizer_use_histograms = on; "
+                + "SET reorder_joins_limit = 6", profile.getSql());
+    }
+
+    @Test
+    public void testProfilesAppliedInTurn() throws SQLException {
+        CockroachDataSource dataSource = new CockroachDataSource(fake.dataSource(), Arrays.asList(
+                profile("a", "reorder_joins_limit", "4"), profile("b", "reorder_joins_limit", "8")));
+        Connection first = dataSource.getConnection();
+        Connection second = dataSource.getConnection();
+        dataSource.getConnection();
+
+        assertEquals(Arrays.asList("SET reorder_joins_limit = 4", "SET reorder_joins_limit = 8",
+                "SET reorder_joins_limit = 4"), fake.executed);
+        assertEquals("a", first.unwrap(ProfiledConnection.class).getTuningProfile().getName());
+        assertEquals("b", second.unwrap(ProfiledConnection.class).getTuningProfile().getName());
+        assertEquals(Long.valueOf(2), dataSource.getConnectionCounts().get("a@1"));
+        assertEquals(Long.valueOf(1), dataSource.getConnectionCounts().get("b@1"));
+    }
+
+    @Test(expected = SQLException.class)
+    public void testProfileFailure() throws SQLException {
+        fake.failure = sql -> new SQLException("unrecognized configuration parameter", "42704");
+        new CockroachDataSource(fake.dataSource(), Arrays.asList(profile("a", "unknown_var", "1"))).getConnection();
+    }
+}
@@ -0,0 +1,58 @@
+package io.cloudtrust.keycloak.jdbc;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ContentionDetectorTest {
+    private FakeDataSource fake = new FakeDataSource();
+
+    @Test
+    public void testFingerprint() {
+        assertEquals("UPDATE CLIENT SET NOT_BEFORE = ? WHERE ID = ?",
+                SqlFingerprint.of("UPDATE CLIENT  SET NOT_BEFORE = 12\n WHERE ID = 'a''b'").getText());
+        assertEquals("CLIENT", SqlFingerprint.of("update client set NOT_BEFORE=? where ID=?").getTable());
+        assertEquals("USER_ENTITY", SqlFingerprint.of("select u.ID from USER_ENTITY u where u.REALM_ID=?").getTable());
+    }
+
+    @Test
+    public void testHotRowReport() throws SQLException {
+        ContentionDetector detector = new ContentionDetector(() -> Arrays.asList(
+                new ContentionEvent("REALM", "primary", "/1/\"master\"", 4, 5_000_000),
+                new ContentionEvent("CLIENT", "primary", "/1/\"abc\"", 10, 40_000_000)));
+        CockroachDataSource dataSource = new CockroachDataSource(fake.dataSource());
+        dataSource.addStatementListener(detector);
+        String update = "UPDATE CLIENT SET NOT_BEFORE = ? WHERE ID = ?";
+        fake.failure = sql -> sql.equals(update) && fake.executed.size() == 1
+                ? new SQLException("restart transaction", StatementExecution.RETRY_SQL_STATE) : null;
+
+        Connection connection = dataSource.getConnection();
+        PreparedStatement statement = connection.prepareStatement(update);
+        try {
+            statement.executeUpdate();
+            fail("the first execution must be restarted");
+        } catch (SQLException e) {
+            assertEquals(StatementExecution.RETRY_SQL_STATE, e.getSQLState());
+        }
+        connection.prepareStatement(update).executeUpdate();
+        detector.poll();
+
+        List<ContentionDetector.TableContention> report = detector.getReport();
+        assertEquals("CLIENT", report.get(0).getTable());
+        assertEquals("REALM", report.get(1).getTable());
+        ContentionDetector.StatementContention contention = report.get(0).getStatements().get(0);
+        assertEquals(update, contention.getFingerprint());
+        assertEquals(1, contention.getRestarts());
+        assertEquals(1, contention.getRetries());
+        assertTrue(detector.formatReport(5).contains("1. CLIENT"));
+    }
+}
@@ -0,0 +1,86 @@
+package io.cloudtrust.keycloak.jdbc;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A DataSource whose connections record the SQL they are asked to execute instead of executing it, and the proxies
+ * from which the tests build their own JDBC fakes
+ */
+public class FakeDataSource {
+
+    public final List<String> executed = Collections.synchronizedList(new ArrayList<>());
+    public Function<String, SQLException> failure = sql -> null;
+
+    public DataSource dataSource() {
+        return dataSource(this::connection);
+    }
+
+    /**
+     * @param connections gives the connection returned by each call to getConnection
+     * @return a DataSource handing out the connections
+     */
+    public static DataSource dataSource(Supplier<Connection> connections) {
+        return proxy(DataSource.class, (proxy, method, args) -> {
+            if (method.getName().equals("getConnection")) {
+                return connections.get();
+            }
+            return null;
+        });
+    }
+
+    private Connection connection() {
+        return proxy(Connection.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "createStatement":
+                    return statement(Statement.class, null);
+                case "prepareStatement":
+                    return statement(PreparedStatement.class, (String) args[0]);
+                case "getAutoCommit":
+                    return true;
+                case "isClosed":
+                    return false;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private <T extends Statement> T statement(Class<T> type, String preparedSql) {
+        return proxy(type, (proxy, method, args) -> {
+            if (method.getName().startsWith("execute")) {
+                String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql;
+                executed.add(sql);
+                SQLException e = failure.apply(sql);
+                if (e != null) {
+                    throw e;
+                }
+                if (method.getName().equals("executeBatch")) {
+                    return new int[0];
+                }
+                return method.getReturnType() == int.class ? 1 : method.getReturnType() == boolean.class ? false : null;
+            }
+            return method.getReturnType() == boolean.class ? false : method.getReturnType() == int.class ? 0 : null;
+        });
+    }
+
+    /**
+     * @param type    the interface to implement
+     * @param handler handles the calls to the methods of the interface
+     * @return a proxy implementing the interface
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(FakeDataSource.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
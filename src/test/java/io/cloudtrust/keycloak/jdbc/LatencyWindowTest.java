@@ -0,0 +1,50 @@
+package io.cloudtrust.keycloak.jdbc;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class LatencyWindowTest {
+
+    @Test
+    public void testWindow() throws SQLException {
+        LatencyWindow window = new LatencyWindow(3_600_000);
+        CockroachDataSource dataSource = new CockroachDataSource(new FakeDataSource().dataSource());
+        dataSource.addStatementListener(window);
+        Connection connection = dataSource.getConnection();
+        connection.createStatement().execute("SELECT * FROM REALM WHERE ID = 'a'");
+        connection.createStatement().execute("SELECT * FROM REALM WHERE ID = 'b'");
+        assertEquals(2, window.getCount());
+        assertTrue(window.getValueAtPercentile(99) > 0);
+
+        long hour = 3_600_000_000_000L;
+        window.rotate(System.nanoTime() + hour);
+        assertEquals(2, window.getCount());
+        window.rotate(System.nanoTime() + 4 * hour);
+        assertEquals(0, window.getCount());
+        assertEquals(0, window.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testPercentileOverBothPeriods() {
+        LatencyWindow window = new LatencyWindow(3_600_000);
+        long start = System.nanoTime();
+        // a degradation in the previous period still shows in the p99 of the window
+        for (int i = 0; i < 10; i++) {
+            window.executed(new StatementExecution("SELECT 1", 1_000_000_000L, null, false, null));
+        }
+        window.rotate(start + 3_600_000_000_000L);
+        for (int i = 0; i < 20; i++) {
+            window.executed(new StatementExecution("SELECT 1", 1_000, null, false, null));
+        }
+        assertEquals(30, window.getCount());
+        assertTrue(window.getValueAtPercentile(99) >= 900_000_000L);
+        assertTrue(window.getValueAtPercentile(50) < 1_100);
+    }
+}
@@ -0,0 +1,62 @@
+package io.cloudtrust.keycloak.jdbc;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class LikeRewriterTest {
+
+    private final LikeRewriter rewriter = new LikeRewriter(Arrays.asList("USERNAME", "EMAIL", "FIRST_NAME"));
+
+    @Test
+    public void testRewrite() {
+        assertEquals("select u.ID from USER_ENTITY u where lower(u.USERNAME) LIKE lower(?) or "
+                        + "lower(u.EMAIL) LIKE lower(?) or lower(u.FIRST_NAME) NOT LIKE lower('%o''neil%')",
+                rewriter.rewrite("select u.ID from USER_ENTITY u where u.USERNAME ilike ? or "
+                        + "upper(u.EMAIL) like upper(?) or LOWER(u.FIRST_NAME) not like LOWER('%o''neil%')"));
+        assertEquals("select * from USER_ENTITY where lower(EMAIL) LIKE lower(?) and "
+                        + "lower(USERNAME) LIKE lower('Ab%')",
+                rewriter.rewrite("select * from USER_ENTITY where lower(EMAIL) ilike ? and "
+                        + "upper(USERNAME) ilike 'Ab%'"));
+        assertEquals("SELECT * FROM USER_ENTITY WHERE lower(\"USERNAME\") LIKE lower(?) ESCAPE '!'",
+                rewriter.rewrite("SELECT * FROM USER_ENTITY WHERE \"USERNAME\" ILIKE ? ESCAPE '!'"));
+        // case sensitive predicates and other columns are left alone
+        String sql = "select * from USER_ENTITY where USERNAME like ? and lower(LAST_NAME) like ? and "
+                + "MY_EMAIL ilike ?";
+        assertSame(sql, rewriter.rewrite(sql));
+        sql = "select * from USER_ENTITY where USERNAME = ?";
+        assertSame(sql, rewriter.rewrite(sql));
+        // an operand not wrapped in the same function would match other rows once rewritten
+        sql = "select * from USER_ENTITY where upper(USERNAME) like 'abc%' or lower(EMAIL) like 'ABC%' or "
+                + "upper(FIRST_NAME) like lower(?) or lower(EMAIL) like ?";
+        assertSame(sql, rewriter.rewrite(sql));
+        assertEquals("select * from USER_ENTITY where upper(USERNAME) like 'abc%' or lower(EMAIL) LIKE lower(?)",
+                rewriter.rewrite("select * from USER_ENTITY where upper(USERNAME) like 'abc%' or "
+                        + "lower(EMAIL) like lower(?)"));
+    }
+
+    @Test
+    public void testDataSource() throws SQLException {
+        FakeDataSource fake = new FakeDataSource();
+        CockroachDataSource dataSource = new CockroachDataSource(fake.dataSource());
+        dataSource.addStatementListener(execution -> {
+        });
+        dataSource.setLikeRewriter(new LikeRewriter(Collections.singletonList("EMAIL")));
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "select * from USER_ENTITY where EMAIL ilike ?")) {
+            statement.executeQuery();
+        }
+        assertEquals(Collections.singletonList("select * from USER_ENTITY where lower(EMAIL) LIKE lower(?)"),
+                fake.executed);
+    }
+}
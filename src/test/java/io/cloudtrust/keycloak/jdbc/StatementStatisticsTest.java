@@ -0,0 +1,59 @@
+package io.cloudtrust.keycloak.jdbc;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class StatementStatisticsTest {
+
+    @Test
+    public void testFingerprint() {
+        SqlFingerprint fingerprint = SqlFingerprint.compute("select u.ID from USER_ENTITY u /* hint */ where "
+                + "u.REALM_ID='master' and u.ID in (?, ?,?) and u.CREATED_TIMESTAMP > 1500 -- comment\n limit $1");
+        assertEquals("select u.ID from USER_ENTITY u where u.REALM_ID=? and u.ID in (?) and u.CREATED_TIMESTAMP > ? "
+                + "limit ?", fingerprint.getText());
+        assertEquals("USER_ENTITY", fingerprint.getTable());
+        assertEquals("INSERT INTO ROLE(ID, NAME) VALUES (?, ?)",
+                SqlFingerprint.compute("INSERT INTO ROLE(ID,NAME) VALUES ('a', 'b')").getText());
+        assertEquals("select * from T where A IN (?) and B in (select C from D)",
+                SqlFingerprint.compute("select * from T where A IN(1, 2) and B in (select C from D)").getText());
+        assertSame(SqlFingerprint.of("select 1"), SqlFingerprint.of("select 1"));
+    }
+
+    @Test
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(500_000, histogram.getValueAtPercentile(50), 500_000 * 0.04);
+        assertEquals(990_000, histogram.getValueAtPercentile(99), 990_000 * 0.04);
+        for (long v = 0; v < 1L << 40; v = v * 3 + 1) {
+            long low = LatencyHistogram.lowestValueAt(LatencyHistogram.indexOf(v));
+            assertTrue(low <= v && v - low <= v / 32);
+        }
+    }
+
+    @Test
+    public void testStatisticsPerFingerprint() throws SQLException {
+        StatementStatistics statistics = new StatementStatistics();
+        CockroachDataSource dataSource = new CockroachDataSource(new FakeDataSource().dataSource());
+        dataSource.addStatementListener(statistics);
+        Connection connection = dataSource.getConnection();
+        connection.createStatement().execute("SELECT * FROM REALM WHERE ID = 'a'");
+        connection.createStatement().execute("SELECT * FROM REALM WHERE ID = 'b'");
+        connection.prepareStatement("DELETE FROM CLIENT WHERE ID = ?").executeUpdate();
+
+        assertEquals(2, statistics.getFingerprintCount());
+        assertEquals(2, statistics.getHistogram("SELECT * FROM REALM WHERE ID = ?").getCount());
+        assertTrue(statistics.dump().contains("DELETE FROM CLIENT WHERE ID = ?"));
+    }
+}
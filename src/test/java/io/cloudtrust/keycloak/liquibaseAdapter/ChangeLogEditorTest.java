@@ -3,12 +3,27 @@ package io.cloudtrust.keycloak.liquibaseAdapter;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.CreateIndex;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.CreateTable;
 import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DatabaseChangeLog;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DropIndex;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.Sql;
 
+import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
@@ -68,4 +83,288 @@ public class ChangeLogEditorTest {
         logEditor.printToFile();
         assertTrue(new File("/home/add/CloudTrust/keycloak-stable/model/jpa/src/main/resources/META-INF/jpa-changelog-1.0.0.Final-cockroachdb.xml").exists());
     }
+
+    @Test
+    public void testChangeAddUniqueConstraintToUniqueIndex() throws JAXBException {
+        String changeLog = "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n"
+                + "    <changeSet author=\"test\" id=\"1\">\n"
+                + "        <createTable tableName=\"USER_ENTITY\">\n"
+                + "            <column name=\"ID\" type=\"VARCHAR(36)\"><constraints primaryKey=\"true\"/></column>\n"
+                + "            <column name=\"REALM_ID\" type=\"VARCHAR(36)\"/>\n"
+                + "            <column name=\"USERNAME\" type=\"VARCHAR(255)\"/>\n"
+                + "            <column name=\"EMAIL\" type=\"VARCHAR(255)\"/>\n"
+                + "        </createTable>\n"
+                + "        <addUniqueConstraint columnNames=\"EMAIL\" constraintName=\"UK_EMAIL\" "
+                + "tableName=\"USER_ENTITY\"/>\n"
+                + "    </changeSet>\n"
+                + "    <changeSet author=\"test\" id=\"2\">\n"
+                + "        <addUniqueConstraint columnNames=\"REALM_ID, USERNAME\" constraintName=\"UK_RU_USERNAME\" "
+                + "tableName=\"USER_ENTITY\"/>\n"
+                + "        <addUniqueConstraint columnNames=\"REALM_ID\" constraintName=\"UK_REALM\" "
+                + "tableName=\"USER_ENTITY\"/>\n"
+                + "    </changeSet>\n"
+                + "</databaseChangeLog>\n";
+        logEditor.setDcl((DatabaseChangeLog) JAXBContext.newInstance(DatabaseChangeLog.class).createUnmarshaller()
+                .unmarshal(new StringReader(changeLog)));
+        logEditor.setUniqueIndexStoring(Collections.singletonMap("UK_RU_USERNAME",
+                Arrays.asList("ID", "USERNAME", "EMAIL", "FIRST_NAME")));
+        logEditor.changeAddUniqueConstraintToUniqueIndex();
+        String output = logEditor.toString();
+
+        assertFalse(output.contains("addUniqueConstraint"));
+        assertTrue(output.contains("uniqueConstraintName=\"UK_EMAIL\""));
+        assertTrue(output.contains(
+                "CREATE UNIQUE INDEX UK_RU_USERNAME ON USER_ENTITY (REALM_ID, USERNAME) STORING (EMAIL)"));
+        assertTrue(output.contains("indexName=\"UK_REALM\""));
+        assertTrue(output.contains("unique=\"true\""));
+    }
+
+    @Test
+    public void testCreateIndexesForCascades() throws JAXBException {
+        String changeLog = "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n"
+                + "    <changeSet author=\"test\" id=\"1\">\n"
+                + "        <createTable tableName=\"USER_ENTITY\">\n"
+                + "            <column name=\"ID\" type=\"VARCHAR(36)\"><constraints primaryKey=\"true\"/></column>\n"
+                + "            <column name=\"REALM_ID\" type=\"VARCHAR(36)\"><constraints deleteCascade=\"true\" "
+                + "foreignKeyName=\"FK_USER_REALM\" references=\"REALM(ID)\"/></column>\n"
+                + "        </createTable>\n"
+                + "        <createTable tableName=\"USER_ROLE_MAPPING\">\n"
+                + "            <column name=\"USER_ID\" type=\"VARCHAR(36)\"/>\n"
+                + "            <column name=\"ROLE_ID\" type=\"VARCHAR(36)\"/>\n"
+                + "        </createTable>\n"
+                + "        <createTable tableName=\"CREDENTIAL\">\n"
+                + "            <column name=\"ID\" type=\"VARCHAR(36)\"><constraints primaryKey=\"true\"/></column>\n"
+                + "            <column name=\"USER_ID\" type=\"VARCHAR(36)\"/>\n"
+                + "        </createTable>\n"
+                + "        <addPrimaryKey columnNames=\"ROLE_ID, USER_ID\" tableName=\"USER_ROLE_MAPPING\"/>\n"
+                + "    </changeSet>\n"
+                + "    <changeSet author=\"test\" id=\"2\">\n"
+                + "        <addForeignKeyConstraint baseColumnNames=\"ROLE_ID\" baseTableName=\"USER_ROLE_MAPPING\" "
+                + "constraintName=\"FK_MAPPING\" referencedColumnNames=\"ID\" referencedTableName=\"KEYCLOAK_ROLE\" "
+                + "onDelete=\"CASCADE\"/>\n"
+                + "        <addForeignKeyConstraint baseColumnNames=\"USER_ID\" baseTableName=\"CREDENTIAL\" "
+                + "constraintName=\"FK_CREDENTIAL\" referencedColumnNames=\"ID\" referencedTableName=\"USER_ENTITY\" "
+                + "onDelete=\"SET NULL\"/>\n"
+                + "    </changeSet>\n"
+                + "</databaseChangeLog>\n";
+        logEditor.setDcl((DatabaseChangeLog) JAXBContext.newInstance(DatabaseChangeLog.class).createUnmarshaller()
+                .unmarshal(new StringReader(changeLog)));
+        logEditor.createIndexesForCascades();
+        List<String> ids = logEditor.getDcl().getChangeSetOrIncludeOrIncludeAll().stream()
+                .map(c -> ((DatabaseChangeLog.ChangeSet) c).getId()).collect(Collectors.toList());
+        assertEquals(Arrays.asList("1", "1_cascade_index", "2", "2_cascade_index"), ids);
+        String output = logEditor.toString();
+        assertTrue(output.contains("indexName=\"IDX_FK_USER_REALM\""));
+        assertTrue(output.contains("indexName=\"IDX_FK_CREDENTIAL\""));
+        assertFalse(output.contains("IDX_FK_MAPPING"));
+
+        // the indexes created for the foreign keys are enough
+        logEditor.setDcl((DatabaseChangeLog) JAXBContext.newInstance(DatabaseChangeLog.class).createUnmarshaller()
+                .unmarshal(new StringReader(changeLog)));
+        logEditor.createIndexesForForeignKeys();
+        logEditor.createIndexesForCascades();
+        output = logEditor.toString();
+        assertTrue(output.contains("IDX_FK_USER_REALM"));
+        assertFalse(output.contains("IDX_FK_CREDENTIAL"));
+    }
+
+    @Test
+    public void testReplaceDeleteCascades() throws JAXBException {
+        String changeLog = "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n"
+                + "    <changeSet author=\"test\" id=\"1\">\n"
+                + "        <createTable tableName=\"USER_ENTITY\">\n"
+                + "            <column name=\"ID\" type=\"VARCHAR(36)\"><constraints primaryKey=\"true\"/></column>\n"
+                + "            <column name=\"REALM_ID\" type=\"VARCHAR(36)\"><constraints deleteCascade=\"true\" "
+                + "foreignKeyName=\"FK_USER_REALM\" references=\"REALM(ID)\"/></column>\n"
+                + "        </createTable>\n"
+                + "        <addForeignKeyConstraint baseColumnNames=\"USER_ID\" baseTableName=\"CREDENTIAL\" "
+                + "constraintName=\"FK_CREDENTIAL\" referencedColumnNames=\"ID\" referencedTableName=\"USER_ENTITY\" "
+                + "onDelete=\"CASCADE\"/>\n"
+                + "        <addForeignKeyConstraint baseColumnNames=\"USER_ID\" baseTableName=\"USER_ATTRIBUTE\" "
+                + "constraintName=\"FK_ATTRIBUTE\" referencedColumnNames=\"ID\" referencedTableName=\"USER_ENTITY\" "
+                + "onDelete=\"CASCADE\"/>\n"
+                + "    </changeSet>\n"
+                + "</databaseChangeLog>\n";
+        logEditor.setDcl((DatabaseChangeLog) JAXBContext.newInstance(DatabaseChangeLog.class).createUnmarshaller()
+                .unmarshal(new StringReader(changeLog)));
+        logEditor.replaceDeleteCascades();
+        assertEquals(2, logEditor.toString().split("onDelete=\"CASCADE\"").length - 1);
+
+        logEditor.setReplacedDeleteCascades(new HashSet<>(Arrays.asList("fk_user_realm", "FK_CREDENTIAL")));
+        logEditor.replaceDeleteCascades();
+        String output = logEditor.toString();
+        assertFalse(output.contains("deleteCascade"));
+        assertEquals(1, output.split("onDelete=\"CASCADE\"").length - 1);
+        assertTrue(output.indexOf("onDelete") > output.indexOf("FK_ATTRIBUTE"));
+    }
+
+    @Test
+    public void testAddRowLevelTtl() throws JAXBException, IOException {
+        Path file = Files.createTempFile("ttl", ".properties");
+        Files.write(file, Arrays.asList(
+                "EVENT_ENTITY=to_timestamp(EVENT_TIME / 1000) + INTERVAL '30 days'",
+                "EVENT_ENTITY.ttl_delete_batch_size=100",
+                "EVENT_ENTITY.ttl_job_cron=@hourly",
+                "OFFLINE_USER_SESSION=now()",
+                "ADMIN_EVENT_ENTITY.ttl_delete_batch_size=100"));
+        Map<String, Map<String, String>> ttl = ChangeLogEditor.loadRowLevelTtl(file);
+        Files.delete(file);
+        assertEquals(Arrays.asList("EVENT_ENTITY", "OFFLINE_USER_SESSION"), new ArrayList<>(ttl.keySet()));
+        assertEquals(Arrays.asList("ttl_expiration_expression", "ttl_delete_batch_size", "ttl_job_cron"),
+                new ArrayList<>(ttl.get("EVENT_ENTITY").keySet()));
+
+        // the column of the expiration expression is renamed by a later changeSet
+        String changeLog = "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n"
+                + "    <changeSet author=\"test\" id=\"1\">\n"
+                + "        <createTable tableName=\"EVENT_ENTITY\">\n"
+                + "            <column name=\"ID\" type=\"VARCHAR(36)\"><constraints primaryKey=\"true\"/></column>\n"
+                + "            <column name=\"TIME\" type=\"BIGINT\"/>\n"
+                + "        </createTable>\n"
+                + "        <createTable tableName=\"REALM\">\n"
+                + "            <column name=\"ID\" type=\"VARCHAR(36)\"><constraints primaryKey=\"true\"/></column>\n"
+                + "        </createTable>\n"
+                + "    </changeSet>\n"
+                + "    <changeSet author=\"test\" id=\"2\">\n"
+                + "        <renameColumn tableName=\"EVENT_ENTITY\" oldColumnName=\"TIME\" "
+                + "newColumnName=\"EVENT_TIME\"/>\n"
+                + "        <createTable tableName=\"OFFLINE_USER_SESSION\">\n"
+                + "            <column name=\"USER_SESSION_ID\" type=\"VARCHAR(36)\"/>\n"
+                + "        </createTable>\n"
+                + "    </changeSet>\n"
+                + "    <changeSet author=\"test\" id=\"3\">\n"
+                + "        <dropTable tableName=\"OFFLINE_USER_SESSION\"/>\n"
+                + "    </changeSet>\n"
+                + "</databaseChangeLog>\n";
+        logEditor.setDcl((DatabaseChangeLog) JAXBContext.newInstance(DatabaseChangeLog.class).createUnmarshaller()
+                .unmarshal(new StringReader(changeLog)));
+        logEditor.setRowLevelTtl(ttl);
+        logEditor.addRowLevelTtl();
+        List<Object> entries = logEditor.getDcl().getChangeSetOrIncludeOrIncludeAll();
+        // the table created by an already executed changeSet gets a new one, after the rename
+        assertEquals(4, entries.size());
+        assertEquals(2, ((DatabaseChangeLog.ChangeSet) entries.get(0)).getChangeSetChildren().size());
+        DatabaseChangeLog.ChangeSet ttlChangeSet = (DatabaseChangeLog.ChangeSet) entries.get(3);
+        assertEquals("1_ttl", ttlChangeSet.getId());
+        assertEquals("test", ttlChangeSet.getAuthor());
+        assertEquals("true", ttlChangeSet.getRunOnChange());
+        assertEquals("ALTER TABLE EVENT_ENTITY SET (ttl_expiration_expression = 'to_timestamp(EVENT_TIME / 1000) + "
+                + "INTERVAL ''30 days''', ttl_delete_batch_size = 100, ttl_job_cron = '@hourly')",
+                ((Sql) ttlChangeSet.getChangeSetChildren().get(0)).getContent().get(0));
+    }
+
+    @Test
+    public void testChangeCreateIndexToPartialIndex() throws JAXBException {
+        String changeLog = "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n"
+                + "    <changeSet author=\"test\" id=\"1\">\n"
+                + "        <createIndex indexName=\"IDX_USER_SERVICE_ACCOUNT\" tableName=\"USER_ENTITY\">\n"
+                + "            <column name=\"REALM_ID\"/>\n"
+                + "            <column name=\"SERVICE_ACCOUNT_CLIENT_LINK\"/>\n"
+                + "        </createIndex>\n"
+                + "        <createIndex indexName=\"IDX_USER_EMAIL\" tableName=\"USER_ENTITY\">\n"
+                + "            <column name=\"EMAIL\"/>\n"
+                + "        </createIndex>\n"
+                + "        <sql>CREATE UNIQUE INDEX UK_FED_LINK ON USER_ENTITY (FEDERATION_LINK, USERNAME)</sql>\n"
+                + "    </changeSet>\n"
+                + "</databaseChangeLog>\n";
+        logEditor.setDcl((DatabaseChangeLog) JAXBContext.newInstance(DatabaseChangeLog.class).createUnmarshaller()
+                .unmarshal(new StringReader(changeLog)));
+        Map<String, String> predicates = new HashMap<>();
+        predicates.put("idx_user_service_account", "SERVICE_ACCOUNT_CLIENT_LINK IS NOT NULL");
+        predicates.put("UK_FED_LINK", "FEDERATION_LINK IS NOT NULL");
+        predicates.put("IDX_MISSING", "OFFLINE_FLAG = '1'");
+        logEditor.setPartialIndexes(predicates);
+        logEditor.changeCreateIndexToPartialIndex();
+        List<Object> entries = logEditor.getDcl().getChangeSetOrIncludeOrIncludeAll();
+        assertEquals(Arrays.asList("1", "1_partial_index"), entries.stream()
+                .map(e -> ((DatabaseChangeLog.ChangeSet) e).getId()).collect(Collectors.toList()));
+        // the changeSet already executed by the existing databases is left unchanged
+        List<Object> original = ((DatabaseChangeLog.ChangeSet) entries.get(0)).getChangeSetChildren();
+        assertEquals(3, original.size());
+        assertTrue(original.get(0) instanceof CreateIndex);
+        assertEquals("CREATE UNIQUE INDEX UK_FED_LINK ON USER_ENTITY (FEDERATION_LINK, USERNAME)",
+                ((Sql) original.get(2)).getContent().get(0).toString().trim());
+
+        List<Object> children = ((DatabaseChangeLog.ChangeSet) entries.get(1)).getChangeSetChildren();
+        assertEquals(4, children.size());
+        assertEquals("IDX_USER_SERVICE_ACCOUNT", ((DropIndex) children.get(0)).getIndexName());
+        assertEquals("USER_ENTITY", ((DropIndex) children.get(0)).getTableName());
+        assertEquals("CREATE INDEX IDX_USER_SERVICE_ACCOUNT ON USER_ENTITY (REALM_ID, SERVICE_ACCOUNT_CLIENT_LINK) "
+                + "WHERE SERVICE_ACCOUNT_CLIENT_LINK IS NOT NULL", ((Sql) children.get(1)).getContent().get(0));
+        assertEquals("UK_FED_LINK", ((DropIndex) children.get(2)).getIndexName());
+        assertEquals("USER_ENTITY", ((DropIndex) children.get(2)).getTableName());
+        assertEquals("CREATE UNIQUE INDEX UK_FED_LINK ON USER_ENTITY (FEDERATION_LINK, USERNAME) "
+                + "WHERE FEDERATION_LINK IS NOT NULL", ((Sql) children.get(3)).getContent().get(0));
+    }
+
+    @Test
+    public void testAddTrigramIndexes() throws JAXBException {
+        String changeLog = "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n"
+                + "    <changeSet author=\"test\" id=\"1\">\n"
+                + "        <createTable tableName=\"USER_ENTITY\">\n"
+                + "            <column name=\"ID\" type=\"VARCHAR(36)\"><constraints primaryKey=\"true\"/></column>\n"
+                + "            <column name=\"USERNAME\" type=\"VARCHAR(255)\"/>\n"
+                + "            <column name=\"EMAIL\" type=\"VARCHAR(255)\"/>\n"
+                + "        </createTable>\n"
+                + "    </changeSet>\n"
+                + "    <changeSet author=\"test\" id=\"2\">\n"
+                + "        <addColumn tableName=\"USER_ENTITY\">\n"
+                + "            <column name=\"FIRST_NAME\" type=\"VARCHAR(255)\"/>\n"
+                + "        </addColumn>\n"
+                + "    </changeSet>\n"
+                + "</databaseChangeLog>\n";
+        logEditor.setDcl((DatabaseChangeLog) JAXBContext.newInstance(DatabaseChangeLog.class).createUnmarshaller()
+                .unmarshal(new StringReader(changeLog)));
+        logEditor.setTrigramColumns(Arrays.asList("user_entity.username", "USER_ENTITY.FIRST_NAME",
+                "USER_ENTITY.LAST_NAME"));
+        logEditor.addTrigramIndexes();
+        List<Object> entries = logEditor.getDcl().getChangeSetOrIncludeOrIncludeAll();
+        assertEquals(Arrays.asList("1", "1_trigram_index", "2", "2_trigram_index"), entries.stream()
+                .map(e -> ((DatabaseChangeLog.ChangeSet) e).getId()).collect(Collectors.toList()));
+        // the changeSets already executed by the existing databases are left unchanged
+        assertEquals(1, ((DatabaseChangeLog.ChangeSet) entries.get(0)).getChangeSetChildren().size());
+        assertEquals(1, ((DatabaseChangeLog.ChangeSet) entries.get(2)).getChangeSetChildren().size());
+        List<Object> first = ((DatabaseChangeLog.ChangeSet) entries.get(1)).getChangeSetChildren();
+        assertEquals(1, first.size());
+        assertEquals("CREATE INVERTED INDEX IDX_USER_ENTITY_USERNAME_TRGM ON USER_ENTITY "
+                + "(lower(USERNAME) gin_trgm_ops)", ((Sql) first.get(0)).getContent().get(0));
+        List<Object> second = ((DatabaseChangeLog.ChangeSet) entries.get(3)).getChangeSetChildren();
+        assertEquals("CREATE INVERTED INDEX IDX_USER_ENTITY_FIRST_NAME_TRGM ON USER_ENTITY "
+                + "(lower(FIRST_NAME) gin_trgm_ops)", ((Sql) second.get(0)).getContent().get(0));
+    }
+
+    @Test
+    public void testChangeLoadUpdateDataToUpsert() throws JAXBException, IOException {
+        Path directory = Files.createTempDirectory("upsert");
+        Files.write(directory.resolve("realm.csv"), Arrays.asList("ID,ENABLED,TOKEN_LIFESPAN,NAME",
+                "master,true,300,Master", "test,0,NULL,o'test"));
+        Path master = directory.resolve("changelog.xml");
+        Files.write(master, Arrays.asList("<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">",
+                "    <changeSet author=\"test\" id=\"1\">",
+                "        <createTable tableName=\"REALM\">",
+                "            <column name=\"ID\" type=\"VARCHAR(36)\"><constraints primaryKey=\"true\"/></column>",
+                "            <column name=\"ENABLED\" type=\"BOOLEAN\"/>",
+                "            <column name=\"TOKEN_LIFESPAN\" type=\"INT\"/>",
+                "            <column name=\"NAME\" type=\"VARCHAR(255)\"/>",
+                "        </createTable>",
+                "    </changeSet>",
+                "    <changeSet author=\"test\" id=\"2\">",
+                "        <loadUpdateData file=\"realm.csv\" tableName=\"REALM\" primaryKey=\"ID\">",
+                "            <column name=\"ENABLED\" type=\"BOOLEAN\"/>",
+                "            <column name=\"TOKEN_LIFESPAN\" type=\"NUMERIC\"/>",
+                "        </loadUpdateData>",
+                "    </changeSet>",
+                "</databaseChangeLog>"));
+        logEditor.loadChangeLogGraph(master.toString(), directory.toString());
+        logEditor.changeLoadUpdateDataToUpsert();
+        List<Object> children = logEditor.getChangeSetList().get(1).getChangeSetChildren();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+        assertEquals(1, children.size());
+        assertEquals("UPSERT INTO REALM (ID, ENABLED, TOKEN_LIFESPAN, NAME) VALUES ('master', TRUE, 300, 'Master'), "
+                + "('test', FALSE, NULL, 'o''test')", ((Sql) children.get(0)).getContent().get(0));
+    }
 }
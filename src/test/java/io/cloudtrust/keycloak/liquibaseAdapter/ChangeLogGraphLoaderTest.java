@@ -0,0 +1,121 @@
+package io.cloudtrust.keycloak.liquibaseAdapter;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DatabaseChangeLog;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.xml.bind.JAXBException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ChangeLogGraphLoaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n";
+
+    private Path write(String name, String body) throws IOException {
+        Path path = folder.getRoot().toPath().resolve(name);
+        Files.createDirectories(path.getParent());
+        Files.write(path, (HEADER + body + "</databaseChangeLog>\n").getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    private static String changeSet(String id) {
+        return "<changeSet author=\"test\" id=\"" + id + "\"><createTable tableName=\"T_" + id + "\">"
+                + "<column name=\"ID\" type=\"VARCHAR(36)\"/></createTable></changeSet>\n";
+    }
+
+    private Path writeGraph() throws IOException {
+        write("META-INF/a.xml", changeSet("a1"));
+        write("META-INF/more/b.xml", changeSet("b1") + "<include file=\"META-INF/a.xml\"/>\n");
+        write("META-INF/more/c.xml", changeSet("c1"));
+        return write("META-INF/master.xml", changeSet("m1")
+                + "<include file=\"a.xml\" relativeToChangelogFile=\"true\"/>\n"
+                + "<includeAll path=\"META-INF/more\"/>\n" + changeSet("m2"));
+    }
+
+    @Test
+    public void testLoadGraph() throws JAXBException, IOException {
+        Path master = writeGraph();
+        ChangeLogGraph graph = new ChangeLogGraphLoader(folder.getRoot().toPath()).load(master);
+
+        List<String> ids = graph.getChangeSets().stream().map(DatabaseChangeLog.ChangeSet::getId)
+                .collect(Collectors.toList());
+        assertEquals(Arrays.asList("m1", "a1", "b1", "c1", "m2"), ids);
+        assertEquals(4, graph.getNodes().size());
+        assertSame(graph.getNodes().get(1), graph.getNodes().get(2).getIncludes().get(0).get(0));
+        assertEquals("c.xml", graph.getOwner(graph.getChangeSets().get(3)).getPath().getFileName().toString());
+    }
+
+    @Test
+    public void testIncludeAllSubdirectories() throws JAXBException, IOException {
+        Path master = writeGraph();
+        write("META-INF/more/a/z.xml", changeSet("z1"));
+        write("META-INF/more/b/d.xml", changeSet("d1"));
+        ChangeLogGraph graph = new ChangeLogGraphLoader(folder.getRoot().toPath()).load(master);
+
+        // sorted on the path, as liquibase does: b.xml comes before b/d.xml
+        assertEquals(Arrays.asList("m1", "a1", "z1", "b1", "d1", "c1", "m2"), graph.getChangeSets().stream()
+                .map(DatabaseChangeLog.ChangeSet::getId).collect(Collectors.toList()));
+
+        ChangeLogEditor editor = new ChangeLogEditor();
+        editor.loadChangeLogGraph(master.toString(), folder.getRoot().toString());
+        editor.printToFile();
+        String content = new String(Files.readAllBytes(Paths.get(ChangeLogEditor.outputFileName(master.toString()))),
+                StandardCharsets.UTF_8);
+        assertTrue(content.contains("file=\"META-INF/more/a/z-cockroachdb.xml\""));
+        assertTrue(content.contains("file=\"META-INF/more/b/d-cockroachdb.xml\""));
+    }
+
+    @Test
+    public void testMemoisedByContentHash() throws JAXBException, IOException {
+        Path master = writeGraph();
+        ChangeLogGraphLoader loader = new ChangeLogGraphLoader(folder.getRoot().toPath());
+        ChangeLogGraph first = loader.load(master);
+        write("META-INF/more/c.xml", changeSet("c2"));
+        ChangeLogGraph second = loader.load(master);
+
+        assertSame(first.getRoot().getChangeLog(), second.getRoot().getChangeLog());
+        assertEquals("c2", second.getChangeSets().get(3).getId());
+
+        loader.evict(second.getRoot());
+        assertNotSame(second.getRoot().getChangeLog(), loader.load(master).getRoot().getChangeLog());
+    }
+
+    @Test
+    public void testPrintGraph() throws JAXBException, IOException {
+        Path master = writeGraph();
+        ChangeLogEditor editor = new ChangeLogEditor();
+        editor.loadChangeLogGraph(master.toString(), folder.getRoot().toString());
+        editor.printToFile();
+
+        File output = new File(ChangeLogEditor.outputFileName(master.toString()));
+        assertTrue(output.exists());
+        String content = new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8);
+        assertTrue(content.contains("file=\"a-cockroachdb.xml\""));
+        assertFalse(content.contains("includeAll"));
+        assertTrue(content.contains("file=\"META-INF/more/b-cockroachdb.xml\""));
+        assertTrue(new File(ChangeLogEditor.outputFileName(folder.getRoot() + "/META-INF/more/c.xml")).exists());
+
+        ChangeLogGraph converted = new ChangeLogGraphLoader(folder.getRoot().toPath()).load(output.toPath());
+        assertEquals(Arrays.asList("m1", "a1", "b1", "c1", "m2"), converted.getChangeSets().stream()
+                .map(DatabaseChangeLog.ChangeSet::getId).collect(Collectors.toList()));
+        assertTrue(converted.getNodes().stream()
+                .allMatch(n -> n.getPath().toString().endsWith(ChangeLogEditor.OUTPUT_SUFFIX)));
+    }
+}
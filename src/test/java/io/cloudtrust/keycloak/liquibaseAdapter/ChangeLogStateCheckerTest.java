@@ -0,0 +1,125 @@
+package io.cloudtrust.keycloak.liquibaseAdapter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static io.cloudtrust.keycloak.jdbc.FakeDataSource.proxy;
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ChangeLogStateCheckerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n";
+
+    private final List<String[]> rows = new ArrayList<>();
+    private final List<String> queries = new ArrayList<>();
+
+    private Path write(String name, String body) throws IOException {
+        Path path = folder.getRoot().toPath().resolve(name);
+        Files.createDirectories(path.getParent());
+        Files.write(path, (HEADER + body + "</databaseChangeLog>\n").getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    private ChangeLogState state() throws IOException, JAXBException {
+        write("META-INF/a.xml", "<changeSet author=\"test\" id=\"a1\"><dropTable tableName=\"A\"/></changeSet>\n"
+                + "<changeSet author=\"test\" id=\"a2\" dbms=\"mssql\"><dropTable tableName=\"B\"/></changeSet>\n");
+        Path master = write("META-INF/master.xml", "<include file=\"META-INF/a.xml\"/>\n"
+                + "<changeSet author=\"test\" id=\"m1\"><validCheckSum>7:old</validCheckSum>"
+                + "<dropTable tableName=\"C\"/></changeSet>\n");
+        Path root = folder.getRoot().toPath();
+        return ChangeLogState.of(new ChangeLogGraphLoader(root).load(master), root, ChangeLogState.DEFAULT_DBMS);
+    }
+
+    private Connection connection() {
+        return proxy(Connection.class, (p, method, args) -> method.getName().equals("createStatement")
+                ? proxy(Statement.class, (s, m, a) -> {
+                    if (m.getName().equals("executeQuery")) {
+                        queries.add((String) a[0]);
+                        return resultSet();
+                    }
+                    return null;
+                }) : null);
+    }
+
+    private ResultSet resultSet() {
+        Iterator<String[]> it = rows.iterator();
+        String[][] current = new String[1][];
+        return proxy(ResultSet.class, (p, method, args) -> {
+            switch (method.getName()) {
+                case "next":
+                    current[0] = it.hasNext() ? it.next() : null;
+                    return current[0] != null;
+                case "getString":
+                    return current[0][(Integer) args[0] - 1];
+                default:
+                    return null;
+            }
+        });
+    }
+
+    @Test
+    public void testExpectedState() throws IOException, JAXBException {
+        ChangeLogState state = state();
+        Path file = folder.getRoot().toPath().resolve("master.state");
+        state.write(file);
+        List<ChangeLogState.ExpectedChangeSet> changeSets = ChangeLogState.read(file).getChangeSets();
+
+        assertEquals(2, changeSets.size());
+        assertEquals("META-INF/a.xml::a1::test", changeSets.get(0).toString());
+        assertEquals("META-INF/master.xml", changeSets.get(1).getFileName());
+        assertEquals(2, changeSets.get(1).getCheckSums().size());
+        assertTrue(changeSets.get(1).getCheckSums().contains("7:old"));
+        assertFalse(ChangeLogState.appliesTo("mssql, oracle", "postgresql"));
+        assertTrue(ChangeLogState.appliesTo("!mssql", "postgresql"));
+    }
+
+    @Test
+    public void testCheck() throws Exception {
+        ChangeLogState state = state();
+        ChangeLogStateChecker checker = new ChangeLogStateChecker(state);
+        String a1 = state.getChangeSets().get(0).getCheckSums().iterator().next();
+        rows.add(new String[]{"a1", "test", "META-INF/a.xml", a1});
+
+        List<ChangeLogState.ExpectedChangeSet> pending = checker.getPendingChangeSets(connection());
+        assertEquals(1, pending.size());
+        assertEquals("m1", pending.get(0).getId());
+        assertTrue(queries.get(0).endsWith("AS OF SYSTEM TIME follower_read_timestamp() WHERE (ID, AUTHOR, FILENAME) "
+                + "IN (('a1', 'test', 'META-INF/a.xml'), ('m1', 'test', 'META-INF/master.xml'))"));
+
+        rows.add(new String[]{"m1", "test", "META-INF/master.xml", "7:old"});
+        assertTrue(checker.isSchemaCurrent(connection()));
+
+        rows.set(1, new String[]{"m1", "test", "META-INF/master.xml", "7:other"});
+        assertFalse(checker.isSchemaCurrent(connection()));
+    }
+
+    @Test
+    public void testNewDatabase() throws Exception {
+        ChangeLogStateChecker checker = new ChangeLogStateChecker(state());
+        Connection connection = proxy(Connection.class, (p, method, args) -> {
+            throw new SQLException("relation \"databasechangelog\" does not exist", "42P01");
+        });
+
+        assertEquals(2, checker.getPendingChangeSets(connection).size());
+    }
+}
@@ -0,0 +1,110 @@
+package io.cloudtrust.keycloak.liquibaseAdapter;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DatabaseChangeLog;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * The expected checksums have been computed by liquibase 3.5.3 on the same changeSets
+ */
+@RunWith(JUnit4.class)
+public class CheckSumCalculatorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String CHANGELOG = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n"
+            + "    <changeSet author=\"test\" id=\"1\">\n"
+            + "        <createTable tableName=\"REALM\">\n"
+            + "            <column name=\"ID\" type=\"VARCHAR(36)\">\n"
+            + "                <constraints nullable=\"false\" primaryKey=\"true\" primaryKeyName=\"PK_REALM\"/>\n"
+            + "            </column>\n"
+            + "            <column name=\"NAME\" type=\"VARCHAR(255)\"/>\n"
+            + "            <column name=\"ENABLED\" type=\"BOOLEAN\" defaultValueBoolean=\"false\"/>\n"
+            + "        </createTable>\n"
+            + "        <addUniqueConstraint columnNames=\"NAME\" constraintName=\"UK_REALM\" tableName=\"REALM\"/>\n"
+            + "    </changeSet>\n"
+            + "    <changeSet author=\"test\" id=\"2\">\n"
+            + "        <addForeignKeyConstraint baseColumnNames=\"REALM_ID\" baseTableName=\"CLIENT\" "
+            + "constraintName=\"FK_1\" referencedColumnNames=\"ID\" referencedTableName=\"REALM\" onDelete=\"CASCADE\"/>\n"
+            + "        <createIndex indexName=\"IDX_1\" tableName=\"CLIENT\">\n"
+            + "            <column name=\"REALM_ID\" type=\"VARCHAR(36)\"/>\n"
+            + "        </createIndex>\n"
+            + "        <dropUniqueConstraint constraintName=\"UK_1\" tableName=\"CLIENT\"/>\n"
+            + "        <addColumn tableName=\"CLIENT\">\n"
+            + "            <column name=\"X\" type=\"INT\"/>\n"
+            + "        </addColumn>\n"
+            + "    </changeSet>\n"
+            + "    <changeSet author=\"test\" id=\"3\">\n"
+            + "        <sql>UPSERT INTO T (A, B)\n"
+            + "            VALUES ('a', 'b');  </sql>\n"
+            + "        <update tableName=\"CLIENT\">\n"
+            + "            <column name=\"X\" valueNumeric=\"3\"/>\n"
+            + "            <where>ID = 'a'</where>\n"
+            + "        </update>\n"
+            + "        <delete tableName=\"CLIENT\"><where>ID = 'b'</where></delete>\n"
+            + "        <addPrimaryKey columnNames=\"ID, NAME\" constraintName=\"PK_X\" tableName=\"X\"/>\n"
+            + "        <dropIndex indexName=\"IDX_1\" tableName=\"CLIENT\"/>\n"
+            + "    </changeSet>\n"
+            + "    <changeSet author=\"test\" id=\"4\">\n"
+            + "        <loadData file=\"seed.csv\" tableName=\"SEED\">\n"
+            + "            <column name=\"ID\" type=\"STRING\"/>\n"
+            + "        </loadData>\n"
+            + "    </changeSet>\n"
+            + "</databaseChangeLog>\n";
+
+    private List<Object> load() throws JAXBException {
+        DatabaseChangeLog dcl = (DatabaseChangeLog) JAXBContext.newInstance(DatabaseChangeLog.class)
+                .createUnmarshaller().unmarshal(new StringReader(CHANGELOG));
+        return dcl.getChangeSetOrIncludeOrIncludeAll();
+    }
+
+    @Test
+    public void testChangeSetCheckSums() throws JAXBException, IOException {
+        Files.write(folder.getRoot().toPath().resolve("seed.csv"),
+                "ID,NAME\r\n# comment\r\n\r\na,\"b c\"\r\nd,e\n".getBytes(StandardCharsets.UTF_8));
+        List<Object> changeSets = load();
+        CheckSumCalculator calculator = new CheckSumCalculator(folder.getRoot().toPath());
+
+        assertEquals("7:80534806210cda5cc011e80499101d6b",
+                calculator.compute((DatabaseChangeLog.ChangeSet) changeSets.get(0)));
+        assertEquals("7:fec1e0110ff0f6bf6856dc951f36a817",
+                calculator.compute((DatabaseChangeLog.ChangeSet) changeSets.get(1)));
+        assertEquals("7:8b39e852d5d79fbff1979098bfb795f5",
+                calculator.compute((DatabaseChangeLog.ChangeSet) changeSets.get(2)));
+        assertEquals("7:4a7ec3aaabbeb05d4925dcbca3e18d23",
+                calculator.compute((DatabaseChangeLog.ChangeSet) changeSets.get(3)));
+    }
+
+    @Test
+    public void testChangeCheckSums() throws JAXBException, IOException {
+        List<Object> changes = ((DatabaseChangeLog.ChangeSet) load().get(2)).getChangeSetChildren();
+        CheckSumCalculator calculator = new CheckSumCalculator();
+
+        assertEquals("7:d5564008401ca94cdaac42680d28e004", calculator.compute(changes.get(0)));
+        assertEquals("7:43c494cc48f16f629f03d1e6e9cbceab", calculator.compute(changes.get(1)));
+    }
+
+    @Test
+    public void testAddValidCheckSum() throws JAXBException {
+        DatabaseChangeLog.ChangeSet changeSet = (DatabaseChangeLog.ChangeSet) load().get(0);
+        CheckSumCalculator.addValidCheckSum(changeSet, "7:0123");
+        CheckSumCalculator.addValidCheckSum(changeSet, "7:0123");
+
+        assertEquals(1, changeSet.getValidCheckSum().size());
+        assertEquals("7:0123", changeSet.getValidCheckSum().get(0).getContent().get(0));
+    }
+}
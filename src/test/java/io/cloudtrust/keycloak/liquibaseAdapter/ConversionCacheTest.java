@@ -0,0 +1,82 @@
+package io.cloudtrust.keycloak.liquibaseAdapter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ConversionCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n";
+
+    private Path write(String name, String body) throws IOException {
+        Path path = folder.getRoot().toPath().resolve(name);
+        Files.write(path, (HEADER + body + "</databaseChangeLog>\n").getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    private static String changeSet(String id) {
+        return "<changeSet author=\"test\" id=\"" + id + "\"><createTable tableName=\"T_" + id + "\">"
+                + "<column name=\"ID\" type=\"VARCHAR(36)\"/></createTable>"
+                + "<addPrimaryKey tableName=\"T_" + id + "\" columnNames=\"ID\"/></changeSet>\n";
+    }
+
+    private ChangeLogEditor convert(Path master, ConversionCache cache) throws JAXBException, IOException {
+        ChangeLogEditor editor = new ChangeLogEditor();
+        editor.setConversionCache(cache, "test");
+        editor.loadChangeLogGraph(master.toString(), folder.getRoot().toString());
+        editor.convert();
+        return editor;
+    }
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        ConversionCache cache = new ConversionCache(folder.getRoot().toPath().resolve("cache"));
+        String key = ConversionCache.key("a", "b");
+
+        assertNull(cache.get(key));
+        cache.put(key, new byte[]{1, 2, 3});
+        assertArrayEquals(new byte[]{1, 2, 3}, cache.get(key));
+        assertNotEquals(key, ConversionCache.key("a\nb", ""));
+    }
+
+    @Test
+    public void testUnchangedFilesAreNotConvertedAgain() throws JAXBException, IOException {
+        write("a.xml", changeSet("a1"));
+        write("b.xml", changeSet("b1"));
+        Path master = write("master.xml", "<include file=\"a.xml\"/>\n<include file=\"b.xml\"/>\n");
+        ConversionCache cache = new ConversionCache(folder.getRoot().toPath().resolve("cache"));
+        convert(master, cache);
+        Path outputA = folder.getRoot().toPath().resolve("a-cockroachdb.xml");
+        Path outputB = folder.getRoot().toPath().resolve("b-cockroachdb.xml");
+        String convertedB = new String(Files.readAllBytes(outputB), StandardCharsets.UTF_8);
+        FileTime old = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(outputA, old);
+        Files.setLastModifiedTime(outputB, old);
+
+        write("b.xml", changeSet("b2"));
+        ChangeLogEditor editor = convert(master, cache);
+
+        // only the changed file went through the transformations, and only its output was rewritten
+        assertEquals(1, editor.getChangeSetList().size());
+        assertEquals("b2", editor.getChangeSetList().get(0).getId());
+        assertEquals(old, Files.getLastModifiedTime(outputA));
+        assertNotEquals(old, Files.getLastModifiedTime(outputB));
+        assertNotEquals(convertedB, new String(Files.readAllBytes(outputB), StandardCharsets.UTF_8));
+        assertFalse(new String(Files.readAllBytes(outputA), StandardCharsets.UTF_8).contains("addPrimaryKey"));
+    }
+}
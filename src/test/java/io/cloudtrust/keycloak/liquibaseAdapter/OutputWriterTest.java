@@ -0,0 +1,74 @@
+package io.cloudtrust.keycloak.liquibaseAdapter;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DatabaseChangeLog;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class OutputWriterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static OutputWriter newWriter() throws JAXBException {
+        return new OutputWriter(JAXBContext.newInstance(DatabaseChangeLog.class).createMarshaller());
+    }
+
+    @Test
+    public void testSkipsIdenticalContent() throws IOException, JAXBException {
+        Path target = folder.getRoot().toPath().resolve("out.xml");
+        OutputWriter writer = newWriter();
+        byte[] content = new byte[200_000];
+        content[150_000] = 1;
+
+        assertTrue(writer.write(target, content));
+        FileTime old = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(target, old);
+        assertFalse(writer.write(target, content.clone()));
+        assertEquals(old, Files.getLastModifiedTime(target));
+
+        content[150_000] = 2;
+        assertTrue(writer.write(target, content));
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testMarshal() throws IOException, JAXBException {
+        Path target = folder.getRoot().toPath().resolve("out.xml");
+        Files.write(target, "a longer previous content".getBytes(StandardCharsets.UTF_8));
+        OutputWriter writer = newWriter();
+        DatabaseChangeLog dcl = new DatabaseChangeLog();
+
+        assertTrue(writer.write(target, dcl));
+        assertArrayEquals(writer.getContent(), Files.readAllBytes(target));
+        assertTrue(new String(writer.getContent(), StandardCharsets.UTF_8).contains("databaseChangeLog"));
+        assertFalse(writer.write(target, dcl));
+    }
+
+    @Test
+    public void testPermissions() throws IOException {
+        Assume.assumeTrue(folder.getRoot().toPath().getFileSystem().supportedFileAttributeViews().contains("posix"));
+        Path target = folder.getRoot().toPath().resolve("out.sql");
+        OutputWriter.replace(target, new byte[]{1}, 1);
+        assertEquals("rw-r--r--", PosixFilePermissions.toString(Files.getPosixFilePermissions(target)));
+
+        Files.setPosixFilePermissions(target, PosixFilePermissions.fromString("rw-rw----"));
+        OutputWriter.replace(target, new byte[]{2}, 1);
+        assertEquals("rw-rw----", PosixFilePermissions.toString(Files.getPosixFilePermissions(target)));
+    }
+}
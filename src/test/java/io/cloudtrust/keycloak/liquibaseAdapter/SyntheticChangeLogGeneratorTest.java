@@ -0,0 +1,67 @@
+package io.cloudtrust.keycloak.liquibaseAdapter;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.AddForeignKeyConstraint;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.CreateIndex;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.CreateTable;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DatabaseChangeLog;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.LoadData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class SyntheticChangeLogGeneratorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path generate(String directory, long seed) throws IOException, JAXBException {
+        Path file = folder.newFolder(directory).toPath().resolve("changelog.xml");
+        SyntheticChangeLogGenerator generator = new SyntheticChangeLogGenerator();
+        generator.setSeed(seed);
+        generator.setTables(20);
+        generator.setForeignKeys(20);
+        generator.setIndexes(10);
+        generator.setRenames(3);
+        generator.setDrops(3);
+        generator.setDataLoads(2, 5);
+        assertTrue(generator.generate(file) > 20);
+        return file;
+    }
+
+    private static long count(List<DatabaseChangeLog.ChangeSet> changeSets, Class<?> type) {
+        return changeSets.stream().flatMap(cs -> cs.getChangeSetChildren().stream()).filter(type::isInstance).count();
+    }
+
+    @Test
+    public void testGenerateLoadableChangeLog() throws JAXBException, IOException {
+        Path file = generate("a", 42);
+        List<DatabaseChangeLog.ChangeSet> changeSets = new ChangeLogGraphLoader(file.getParent()).load(file)
+                .getChangeSets();
+
+        assertEquals(20, count(changeSets, CreateTable.class));
+        assertEquals(10, count(changeSets, CreateIndex.class));
+        assertEquals(2, count(changeSets, LoadData.class));
+        assertTrue(count(changeSets, AddForeignKeyConstraint.class) > 0);
+        LoadData loadData = changeSets.stream().flatMap(cs -> cs.getChangeSetChildren().stream())
+                .filter(LoadData.class::isInstance).map(LoadData.class::cast).findFirst().get();
+        assertEquals(6, Files.readAllLines(file.resolveSibling(loadData.getFile())).size());
+    }
+
+    @Test
+    public void testGenerateIsReproducible() throws JAXBException, IOException {
+        byte[] first = Files.readAllBytes(generate("a", 42));
+        assertTrue(Arrays.equals(first, Files.readAllBytes(generate("b", 42))));
+        assertFalse(Arrays.equals(first, Files.readAllBytes(generate("c", 43))));
+    }
+}
@@ -0,0 +1,175 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.data;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DatabaseChangeLog;
+import io.cloudtrust.keycloak.liquibaseAdapter.schema.SchemaModel;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static io.cloudtrust.keycloak.jdbc.FakeDataSource.proxy;
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class BatchedDeleteRoutineTest {
+
+    private static final String CHANGELOG = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n"
+            + "<changeSet author=\"test\" id=\"1\">\n"
+            + "<createTable tableName=\"REALM\">\n"
+            + "<column name=\"ID\" type=\"VARCHAR(36)\"><constraints primaryKey=\"true\"/></column>\n"
+            + "</createTable>\n"
+            + "<createTable tableName=\"CLIENT\">\n"
+            + "<column name=\"ID\" type=\"VARCHAR(36)\"><constraints primaryKey=\"true\"/></column>\n"
+            + "<column name=\"REALM_ID\" type=\"VARCHAR(36)\"/>\n"
+            + "</createTable>\n"
+            + "<createTable tableName=\"PROTOCOL_MAPPER\">\n"
+            + "<column name=\"ID\" type=\"VARCHAR(36)\"><constraints primaryKey=\"true\"/></column>\n"
+            + "<column name=\"CLIENT_ID\" type=\"VARCHAR(36)\"><constraints foreignKeyName=\"FK_PCM\" "
+            + "references=\"CLIENT(ID)\"/></column>\n"
+            + "</createTable>\n"
+            + "<createTable tableName=\"KEYCLOAK_GROUP\">\n"
+            + "<column name=\"ID\" type=\"VARCHAR(36)\"><constraints primaryKey=\"true\"/></column>\n"
+            + "<column name=\"REALM_ID\" type=\"VARCHAR(36)\"><constraints foreignKeyName=\"FK_GROUP_REALM\" "
+            + "references=\"REALM(ID)\"/></column>\n"
+            + "<column name=\"PARENT_GROUP\" type=\"VARCHAR(36)\"><constraints foreignKeyName=\"FK_GROUP_PARENT\" "
+            + "references=\"KEYCLOAK_GROUP(ID)\"/></column>\n"
+            + "</createTable>\n"
+            + "<createTable tableName=\"EVENT_ENTITY\">\n"
+            + "<column name=\"ID\" type=\"VARCHAR(36)\"><constraints primaryKey=\"true\"/></column>\n"
+            + "<column name=\"REALM_ID\" type=\"VARCHAR(36)\"/>\n"
+            + "</createTable>\n"
+            + "<createTable tableName=\"USER_ENTITY\">\n"
+            + "<column name=\"ID\" type=\"VARCHAR(36)\"><constraints primaryKey=\"true\"/></column>\n"
+            + "<column name=\"REALM_ID\" type=\"VARCHAR(36)\"/>\n"
+            + "</createTable>\n"
+            + "<createTable tableName=\"USER_ROLE_MAPPING\">\n"
+            + "<column name=\"ROLE_ID\" type=\"VARCHAR(36)\"/>\n"
+            + "<column name=\"USER_ID\" type=\"VARCHAR(36)\"/>\n"
+            + "</createTable>\n"
+            + "<addForeignKeyConstraint baseTableName=\"CLIENT\" baseColumnNames=\"REALM_ID\" "
+            + "constraintName=\"FK_CLIENT_REALM\" referencedTableName=\"REALM\" referencedColumnNames=\"ID\" "
+            + "onDelete=\"CASCADE\"/>\n"
+            + "<addForeignKeyConstraint baseTableName=\"EVENT_ENTITY\" baseColumnNames=\"REALM_ID\" "
+            + "constraintName=\"FK_EVENT_REALM\" referencedTableName=\"REALM\" referencedColumnNames=\"ID\" "
+            + "onDelete=\"SET NULL\"/>\n"
+            + "<addForeignKeyConstraint baseTableName=\"USER_ENTITY\" baseColumnNames=\"REALM_ID\" "
+            + "constraintName=\"FK_USER_REALM\" referencedTableName=\"REALM\" referencedColumnNames=\"ID\"/>\n"
+            + "<addForeignKeyConstraint baseTableName=\"USER_ROLE_MAPPING\" baseColumnNames=\"USER_ID\" "
+            + "constraintName=\"FK_MAPPING_USER\" referencedTableName=\"USER_ENTITY\" referencedColumnNames=\"ID\"/>\n"
+            + "</changeSet>\n"
+            + "</databaseChangeLog>\n";
+
+    private static SchemaModel model() throws JAXBException {
+        DatabaseChangeLog dcl = (DatabaseChangeLog) JAXBContext.newInstance(DatabaseChangeLog.class)
+                .createUnmarshaller().unmarshal(new StringReader(CHANGELOG));
+        return SchemaModel.of(dcl.getChangeSetOrIncludeOrIncludeAll().stream()
+                .map(DatabaseChangeLog.ChangeSet.class::cast).collect(Collectors.toList()));
+    }
+
+    private static final Set<String> REPLACED = new HashSet<>(Arrays.asList("fk_pcm", "FK_USER_REALM",
+            "FK_MAPPING_USER"));
+
+    @Test
+    public void testStatements() throws JAXBException, IOException {
+        assertEquals(Arrays.asList("DELETE FROM CLIENT WHERE REALM_ID = ? LIMIT 100", "DELETE FROM REALM WHERE ID = ?"),
+                new BatchedDeleteRoutine(model(), 100).statements("REALM"));
+
+        BatchedDeleteRoutine routine = new BatchedDeleteRoutine(model(), 100, REPLACED);
+        assertEquals(Arrays.asList(
+                "DELETE FROM PROTOCOL_MAPPER WHERE CLIENT_ID IN (SELECT ID FROM CLIENT WHERE REALM_ID = ?) LIMIT 100",
+                "DELETE FROM CLIENT WHERE REALM_ID = ? LIMIT 100",
+                "DELETE FROM USER_ROLE_MAPPING WHERE USER_ID IN (SELECT ID FROM USER_ENTITY WHERE REALM_ID = ?) "
+                        + "LIMIT 100",
+                "DELETE FROM USER_ENTITY WHERE REALM_ID = ? LIMIT 100",
+                "DELETE FROM REALM WHERE ID = ?"), routine.statements("realm"));
+
+        StringWriter script = new StringWriter();
+        routine.writeScript(Collections.singletonList("CLIENT"), script);
+        assertEquals("-- Deletes a row of CLIENT, the parameters being its primary key [ID].\n"
+                + "-- Repeat each statement until it deletes less than 100 rows.\n"
+                + "DELETE FROM PROTOCOL_MAPPER WHERE CLIENT_ID = ? LIMIT 100;\n"
+                + "DELETE FROM CLIENT WHERE ID = ?;\n\n", script.toString());
+    }
+
+    @Test
+    public void testSiblingReference() throws JAXBException {
+        // ROLE references CLIENT without cascading, so its rows must be deleted before the ones of CLIENT
+        DatabaseChangeLog dcl = (DatabaseChangeLog) JAXBContext.newInstance(DatabaseChangeLog.class)
+                .createUnmarshaller().unmarshal(new StringReader(CHANGELOG.replace("</changeSet>",
+                        "<createTable tableName=\"ROLE\">\n"
+                                + "<column name=\"ID\" type=\"VARCHAR(36)\">"
+                                + "<constraints primaryKey=\"true\"/></column>\n"
+                                + "<column name=\"REALM_ID\" type=\"VARCHAR(36)\"/>\n"
+                                + "<column name=\"CLIENT_ID\" type=\"VARCHAR(36)\"/>\n"
+                                + "</createTable>\n"
+                                + "<addForeignKeyConstraint baseTableName=\"ROLE\" baseColumnNames=\"REALM_ID\" "
+                                + "constraintName=\"FK_ROLE_REALM\" referencedTableName=\"REALM\" "
+                                + "referencedColumnNames=\"ID\" onDelete=\"CASCADE\"/>\n"
+                                + "<addForeignKeyConstraint baseTableName=\"ROLE\" baseColumnNames=\"CLIENT_ID\" "
+                                + "constraintName=\"FK_ROLE_CLIENT\" referencedTableName=\"CLIENT\" "
+                                + "referencedColumnNames=\"ID\"/>\n</changeSet>")));
+        SchemaModel model = SchemaModel.of(dcl.getChangeSetOrIncludeOrIncludeAll().stream()
+                .map(DatabaseChangeLog.ChangeSet.class::cast).collect(Collectors.toList()));
+
+        assertEquals(Arrays.asList("DELETE FROM ROLE WHERE REALM_ID = ? LIMIT 100",
+                "DELETE FROM CLIENT WHERE REALM_ID = ? LIMIT 100", "DELETE FROM REALM WHERE ID = ?"),
+                new BatchedDeleteRoutine(model, 100).statements("REALM"));
+    }
+
+    @Test
+    public void testDelete() throws JAXBException, SQLException {
+        Map<String, Integer> rows = new HashMap<>();
+        rows.put("DELETE FROM CLIENT WHERE REALM_ID = ? LIMIT 100", 250);
+        rows.put("DELETE FROM REALM WHERE ID = ?", 1);
+        List<String> executed = new ArrayList<>();
+        List<Object> autoCommit = new ArrayList<>();
+        Connection connection = proxy(Connection.class, (p, method, args) -> {
+            switch (method.getName()) {
+                case "getAutoCommit":
+                    return false;
+                case "setAutoCommit":
+                    autoCommit.add(args[0]);
+                    return null;
+                case "prepareStatement":
+                    String sql = (String) args[0];
+                    return proxy(PreparedStatement.class, (s, m, a) -> {
+                        if (m.getName().equals("setObject")) {
+                            assertEquals(Arrays.asList(1, "realm-1"), Arrays.asList(a));
+                        } else if (m.getName().equals("executeUpdate")) {
+                            executed.add(sql);
+                            int left = rows.getOrDefault(sql, 0);
+                            rows.put(sql, Math.max(0, left - 100));
+                            return Math.min(100, left);
+                        }
+                        return null;
+                    });
+                default:
+                    return null;
+            }
+        });
+
+        assertEquals(251, new BatchedDeleteRoutine(model(), 100, REPLACED).delete(connection, "REALM", "realm-1"));
+        assertEquals(7, executed.size());
+        assertEquals(Collections.nCopies(3, "DELETE FROM CLIENT WHERE REALM_ID = ? LIMIT 100"),
+                executed.subList(1, 4));
+        assertEquals(Arrays.asList(true, false), autoCommit);
+    }
+}
@@ -0,0 +1,77 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.data;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.LoadData;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.ObjectFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class BulkDataLoaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File csv(String content) throws IOException {
+        File file = folder.newFile("seed.csv");
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void testReadRecords() throws IOException {
+        File file = csv("ID;NAME;DESCRIPTION\r\n1;\"a;b\";\"say \"\"hi\"\"\"\n\n2;\u00e9;\"two\nlines\"\n");
+        try (CsvReader reader = new CsvReader(file.toPath(), "UTF-8", ";", "\"")) {
+            assertArrayEquals(new String[]{"ID", "NAME", "DESCRIPTION"}, reader.readRecord());
+            assertArrayEquals(new String[]{"1", "a;b", "say \"hi\""}, reader.readRecord());
+            assertArrayEquals(new String[]{"2", "\u00e9", "two\nlines"}, reader.readRecord());
+            assertNull(reader.readRecord());
+        }
+    }
+
+    @Test
+    public void testColumnMapping() {
+        ObjectFactory factory = new ObjectFactory();
+        LoadData loadData = factory.createLoadData();
+        LoadData.Column skipped = factory.createLoadDataColumn();
+        skipped.setHeader("COMMENT");
+        skipped.setType("skip");
+        LoadData.Column renamed = factory.createLoadDataColumn();
+        renamed.setIndex("1");
+        renamed.setName("REALM_NAME");
+        loadData.getContent().add(factory.createLoadDataColumn(skipped));
+        loadData.getContent().add(factory.createLoadDataColumn(renamed));
+
+        ColumnMapping mapping = ColumnMapping.of(loadData);
+        mapping.bind(new String[]{"ID", "NAME", "COMMENT"});
+        assertEquals(Arrays.asList("ID", "REALM_NAME"), mapping.getColumnNames());
+        assertArrayEquals(new String[]{"1", null}, mapping.values(new String[]{"1", "null", "x"}));
+    }
+
+    @Test
+    public void testEncodeRow() {
+        StringBuilder out = new StringBuilder();
+        BulkDataLoader.encodeRow(new String[]{"a\tb", null, "c\\d\ne"}, out);
+        assertEquals("a\\tb\t\\N\tc\\\\d\\ne\n", out.toString());
+    }
+
+    @Test
+    public void testImportInto() throws IOException {
+        File file = csv("ID,NAME\n1,master\n");
+        LoadData loadData = new LoadData();
+        loadData.setFile(file.getName());
+        loadData.setTableName("REALM");
+        String statement = new BulkDataLoader(folder.getRoot().toPath()).importInto(loadData, "nodelocal://1/seed.csv");
+        assertEquals("IMPORT INTO REALM (ID, NAME) CSV DATA ('nodelocal://1/seed.csv') WITH delimiter = ',', "
+                + "skip = '1', nullif = 'NULL'", statement);
+    }
+}
@@ -0,0 +1,85 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.data;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.LoadUpdateData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.namespace.QName;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class UpsertStatementGeneratorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LoadUpdateData loadUpdateData() throws IOException {
+        Files.write(folder.newFile("roles.csv").toPath(),
+                "ID,NAME\n1,admin\n2,o'brien\n3,NULL\n".getBytes(StandardCharsets.UTF_8));
+        LoadUpdateData loadUpdateData = new LoadUpdateData();
+        loadUpdateData.setFile("roles.csv");
+        loadUpdateData.setTableName("KEYCLOAK_ROLE");
+        loadUpdateData.setPrimaryKey("ID");
+        return loadUpdateData;
+    }
+
+    @Test
+    public void testUpsertOnTablePrimaryKey() throws IOException {
+        List<String> statements = new ArrayList<>();
+        long rows = new UpsertStatementGenerator(folder.getRoot().toPath(), 2)
+                .generate(loadUpdateData(), Collections.singletonList("ID"), statements::add);
+        assertEquals(3, rows);
+        assertEquals(2, statements.size());
+        assertEquals("UPSERT INTO KEYCLOAK_ROLE (ID, NAME) VALUES ('1', 'admin'), ('2', 'o''brien')", statements.get(0));
+        assertEquals("UPSERT INTO KEYCLOAK_ROLE (ID, NAME) VALUES ('3', NULL)", statements.get(1));
+    }
+
+    @Test
+    public void testInsertOnConflictOnOtherKey() throws IOException {
+        List<String> statements = new ArrayList<>();
+        new UpsertStatementGenerator(folder.getRoot().toPath(), 10)
+                .generate(loadUpdateData(), null, statements::add);
+        assertEquals(1, statements.size());
+        assertTrue(statements.get(0).startsWith("INSERT INTO KEYCLOAK_ROLE (ID, NAME) VALUES ('1', 'admin')"));
+        assertTrue(statements.get(0).endsWith(" ON CONFLICT (ID) DO UPDATE SET NAME = excluded.NAME"));
+    }
+
+    @Test
+    public void testTypedValues() throws IOException {
+        Files.write(folder.newFile("flags.csv").toPath(),
+                "ID,ENABLED,PRIORITY,NAME,CREATED\n1,true,10,007,now()\n2,0,-1.5,NULL,now()\n"
+                        .getBytes(StandardCharsets.UTF_8));
+        LoadUpdateData loadUpdateData = new LoadUpdateData();
+        loadUpdateData.setFile("flags.csv");
+        loadUpdateData.setTableName("FLAGS");
+        loadUpdateData.setPrimaryKey("ID");
+        loadUpdateData.getContent().add(column("ID", "NUMERIC"));
+        loadUpdateData.getContent().add(column("ENABLED", "BOOLEAN"));
+        loadUpdateData.getContent().add(column("PRIORITY", "numeric"));
+        loadUpdateData.getContent().add(column("NAME", "STRING"));
+        loadUpdateData.getContent().add(column("CREATED", "COMPUTED"));
+        List<String> statements = new ArrayList<>();
+        new UpsertStatementGenerator(folder.getRoot().toPath(), 10)
+                .generate(loadUpdateData, Collections.singletonList("ID"), statements::add);
+        assertEquals(Collections.singletonList("UPSERT INTO FLAGS (ID, ENABLED, PRIORITY, NAME, CREATED) VALUES "
+                + "(1, TRUE, 10, '007', now()), (2, FALSE, -1.5, NULL, now())"), statements);
+    }
+
+    private static JAXBElement<LoadUpdateData.Column> column(String name, String type) {
+        LoadUpdateData.Column column = new LoadUpdateData.Column();
+        column.setName(name);
+        column.setType(type);
+        return new JAXBElement<>(new QName("http://www.liquibase.org/xml/ns/dbchangelog", "column"),
+                LoadUpdateData.Column.class, column);
+    }
+}
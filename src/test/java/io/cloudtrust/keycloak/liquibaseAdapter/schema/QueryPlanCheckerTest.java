@@ -0,0 +1,135 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.schema;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DatabaseChangeLog;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class QueryPlanCheckerTest {
+
+    private static final String TABLES = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n"
+            + "<changeSet author=\"test\" id=\"1\">\n"
+            + "<createTable tableName=\"USER_ENTITY\">\n"
+            + "<column name=\"ID\" type=\"VARCHAR(36)\"><constraints primaryKey=\"true\"/></column>\n"
+            + "<column name=\"USERNAME\" type=\"VARCHAR(255)\"/>\n"
+            + "<column name=\"REALM_ID\" type=\"VARCHAR(36)\"/>\n"
+            + "<column name=\"EMAIL\" type=\"VARCHAR(255)\"/>\n"
+            + "</createTable>\n"
+            + "<createTable tableName=\"USER_ROLE_MAPPING\">\n"
+            + "<column name=\"ROLE_ID\" type=\"VARCHAR(36)\"/>\n"
+            + "<column name=\"USER_ID\" type=\"VARCHAR(36)\"/>\n"
+            + "</createTable>\n"
+            + "<addPrimaryKey tableName=\"USER_ROLE_MAPPING\" columnNames=\"ROLE_ID, USER_ID\"/>\n"
+            + "<addUniqueConstraint tableName=\"USER_ENTITY\" columnNames=\"REALM_ID, USERNAME\" "
+            + "constraintName=\"UK_RU_USERNAME\"/>\n"
+            + "<createIndex tableName=\"USER_ENTITY\" indexName=\"IDX_EMAIL\"><column name=\"EMAIL\"/></createIndex>\n"
+            + "</changeSet>\n";
+
+    private static final String DROPS = "<changeSet author=\"test\" id=\"2\">\n"
+            + "<dropIndex tableName=\"USER_ENTITY\" indexName=\"IDX_EMAIL\"/>\n"
+            + "</changeSet>\n";
+
+    private static SchemaModel model(String changeSets) throws JAXBException {
+        DatabaseChangeLog dcl = (DatabaseChangeLog) JAXBContext.newInstance(DatabaseChangeLog.class)
+                .createUnmarshaller().unmarshal(new StringReader(TABLES + changeSets + "</databaseChangeLog>\n"));
+        return SchemaModel.of(dcl.getChangeSetOrIncludeOrIncludeAll().stream()
+                .map(DatabaseChangeLog.ChangeSet.class::cast).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testPlan() throws JAXBException {
+        SchemaModel model = model("");
+        List<QueryPlanChecker.TablePlan> plans = QueryPlanChecker.plan(model,
+                "SELECT * FROM USER_ENTITY u WHERE u.USERNAME = ? AND u.REALM_ID = 'r'");
+        assertEquals(1, plans.size());
+        assertEquals(QueryPlanChecker.Access.LOOKUP, plans.get(0).getAccess());
+        assertEquals("UK_RU_USERNAME", plans.get(0).getIndex());
+        assertEquals(2, plans.get(0).getPrefix());
+
+        plans = QueryPlanChecker.plan(model, "SELECT u.* FROM USER_ROLE_MAPPING m JOIN USER_ENTITY u "
+                + "ON u.ID = m.USER_ID WHERE m.ROLE_ID = ? ORDER BY u.USERNAME LIMIT 100");
+        assertEquals("USER_ROLE_MAPPING", plans.get(0).getTable());
+        assertEquals("primary(2)", plans.get(0).toString());
+        assertEquals("primary(1)", plans.get(1).toString());
+
+        assertEquals(QueryPlanChecker.Access.FULL_SCAN, QueryPlanChecker.plan(model,
+                "SELECT * FROM USER_ENTITY WHERE USERNAME = ? OR EMAIL = ?").get(0).getAccess());
+        assertEquals(QueryPlanChecker.Access.ORDERED, QueryPlanChecker.plan(model,
+                "SELECT * FROM USER_ENTITY WHERE USERNAME LIKE ? ORDER BY REALM_ID LIMIT 20").get(0).getAccess());
+        assertEquals("IDX_EMAIL(1)", QueryPlanChecker.plan(model,
+                "DELETE FROM USER_ENTITY WHERE EMAIL = ?").get(0).toString());
+        // only a pattern with a fixed prefix reads a range of the index
+        assertEquals("IDX_EMAIL(1)", QueryPlanChecker.plan(model,
+                "SELECT * FROM USER_ENTITY WHERE EMAIL LIKE 'john%'").get(0).toString());
+        assertEquals(QueryPlanChecker.Access.FULL_SCAN, QueryPlanChecker.plan(model,
+                "SELECT * FROM USER_ENTITY WHERE EMAIL LIKE '%john%'").get(0).getAccess());
+        assertEquals(QueryPlanChecker.Access.FULL_SCAN, QueryPlanChecker.plan(model,
+                "SELECT * FROM USER_ENTITY WHERE EMAIL LIKE ?").get(0).getAccess());
+        assertEquals(QueryPlanChecker.Access.UNKNOWN_TABLE, QueryPlanChecker.plan(model,
+                "UPDATE CLIENT SET NAME = ? WHERE ID = ?").get(0).getAccess());
+    }
+
+    @Test
+    public void testRegression() throws JAXBException, IOException {
+        Map<String, String> queries = QueryPlanChecker.readCatalogue(new StringReader(
+                "-- by email\nSELECT * FROM USER_ENTITY\n  WHERE EMAIL = ?;\n"
+                        + "-- by user name\nSELECT * FROM USER_ENTITY WHERE USERNAME = ? AND REALM_ID = ?;\n"));
+        assertEquals("SELECT * FROM USER_ENTITY WHERE EMAIL = ?", queries.get("by email"));
+
+        List<QueryPlanChecker.Result> results = QueryPlanChecker.check(model(""), model(DROPS), queries);
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).isRegression());
+        assertEquals("by email USER_ENTITY: IDX_EMAIL(1) -> full_scan", results.get(0).toString());
+        assertFalse(results.get(1).isRegression());
+    }
+
+    @Test
+    public void testPartialIndex() throws JAXBException, IOException {
+        String partial = "<changeSet author=\"test\" id=\"2\">\n"
+                + "<sql>DROP INDEX USER_ENTITY@IDX_EMAIL;\n"
+                + "CREATE INDEX IDX_EMAIL ON USER_ENTITY (EMAIL) WHERE EMAIL IS NOT NULL AND USERNAME &lt;&gt; 'admin'"
+                + "</sql>\n"
+                + "</changeSet>\n";
+        SchemaModel model = model(partial);
+        assertEquals("IDX_EMAIL(1)", QueryPlanChecker.plan(model,
+                "SELECT * FROM USER_ENTITY u WHERE u.EMAIL = ? AND (u.USERNAME <> 'admin')").get(0).toString());
+        assertEquals("IDX_EMAIL(1)", QueryPlanChecker.plan(model,
+                "SELECT * FROM USER_ENTITY WHERE EMAIL LIKE 'a%' AND \"USERNAME\"<>'admin'").get(0).toString());
+        assertEquals("full_scan", QueryPlanChecker.plan(model,
+                "SELECT * FROM USER_ENTITY WHERE EMAIL = ? AND USERNAME <> 'Admin'").get(0).toString());
+        assertEquals("full_scan", QueryPlanChecker.plan(model,
+                "SELECT * FROM USER_ENTITY WHERE EMAIL IS NULL AND USERNAME <> 'admin'").get(0).toString());
+
+        Map<String, String> queries = QueryPlanChecker.readCatalogue(new StringReader(
+                "-- by email\nSELECT * FROM USER_ENTITY WHERE EMAIL = ?;\n"));
+        List<QueryPlanChecker.Result> results = QueryPlanChecker.check(model(""), model, queries);
+        assertEquals("by email USER_ENTITY: IDX_EMAIL(1) -> full_scan", results.get(0).toString());
+        assertTrue(results.get(0).isRegression());
+    }
+
+    @Test
+    public void testDefaultCatalogue() throws IOException {
+        Map<String, String> queries = QueryPlanChecker.readCatalogue(new InputStreamReader(
+                QueryPlanChecker.class.getResourceAsStream(QueryPlanChecker.DEFAULT_CATALOGUE),
+                StandardCharsets.UTF_8));
+        assertTrue(queries.size() > 20);
+        assertTrue(queries.containsKey("login: user by user name"));
+        for (String sql : queries.values()) {
+            assertFalse(QueryPlanChecker.plan(new SchemaModel(), sql).isEmpty());
+        }
+    }
+}
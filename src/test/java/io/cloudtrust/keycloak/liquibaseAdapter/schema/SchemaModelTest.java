@@ -0,0 +1,131 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.schema;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DatabaseChangeLog;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class SchemaModelTest {
+
+    private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n";
+
+    private static final String TABLES = "<changeSet author=\"test\" id=\"1\">\n"
+            + "<createTable tableName=\"REALM\">\n"
+            + "<column name=\"ID\" type=\"VARCHAR(36)\"><constraints primaryKey=\"true\"/></column>\n"
+            + "<column name=\"NAME\" type=\"VARCHAR(255)\"><constraints unique=\"true\" "
+            + "uniqueConstraintName=\"UK_REALM_NAME\"/></column>\n"
+            + "</createTable>\n"
+            + "<createTable tableName=\"CLIENT\">\n"
+            + "<column name=\"ID\" type=\"VARCHAR(36)\"/>\n"
+            + "<column name=\"CLIENT_ID\" type=\"VARCHAR(255)\"/>\n"
+            + "<column name=\"REALM_ID\" type=\"VARCHAR(36)\"/>\n"
+            + "<column name=\"SECRET\" type=\"VARCHAR(255)\"/>\n"
+            + "</createTable>\n"
+            + "<addPrimaryKey tableName=\"CLIENT\" columnNames=\"ID\" constraintName=\"PK_CLIENT\"/>\n"
+            + "</changeSet>\n";
+
+    private static final String BEFORE = HEADER + TABLES
+            + "<changeSet author=\"test\" id=\"2\">\n"
+            + "<addUniqueConstraint tableName=\"CLIENT\" columnNames=\"REALM_ID, CLIENT_ID\" "
+            + "constraintName=\"UK_CLIENT\"/>\n"
+            + "<addForeignKeyConstraint baseTableName=\"CLIENT\" baseColumnNames=\"REALM_ID\" constraintName=\"FK_REALM\" "
+            + "referencedTableName=\"REALM\" referencedColumnNames=\"ID\"/>\n"
+            + "<renameColumn tableName=\"CLIENT\" oldColumnName=\"SECRET\" newColumnName=\"CLIENT_SECRET\"/>\n"
+            + "</changeSet>\n"
+            + "</databaseChangeLog>\n";
+
+    private static final String AFTER = HEADER + TABLES
+            + "<changeSet author=\"test\" id=\"2\">\n"
+            + "<sql>CREATE UNIQUE INDEX UK_CLIENT ON CLIENT (REALM_ID, CLIENT_ID) STORING (SECRET)</sql>\n"
+            + "<renameColumn tableName=\"CLIENT\" oldColumnName=\"SECRET\" newColumnName=\"CLIENT_SECRET\"/>\n"
+            + "<sql>ALTER TABLE CLIENT ADD COLUMN DESCRIPTION STRING CREATE FAMILY descriptions</sql>\n"
+            + "</changeSet>\n"
+            + "<changeSet author=\"test\" id=\"2_index\">\n"
+            + "<createIndex tableName=\"CLIENT\" indexName=\"FK_REALM\"><column name=\"REALM_ID\"/></createIndex>\n"
+            + "</changeSet>\n"
+            + "<changeSet author=\"test\" id=\"2_foreign\">\n"
+            + "<addForeignKeyConstraint baseTableName=\"CLIENT\" baseColumnNames=\"REALM_ID\" constraintName=\"FK_REALM\" "
+            + "referencedTableName=\"REALM\" referencedColumnNames=\"ID\"/>\n"
+            + "</changeSet>\n"
+            + "<changeSet author=\"test\" id=\"3\" dbms=\"oracle\">\n"
+            + "<createIndex tableName=\"CLIENT\" indexName=\"IDX_ORACLE\"><column name=\"SECRET\"/></createIndex>\n"
+            + "</changeSet>\n"
+            + "</databaseChangeLog>\n";
+
+    private static SchemaModel model(String changeLog) throws JAXBException {
+        DatabaseChangeLog dcl = (DatabaseChangeLog) JAXBContext.newInstance(DatabaseChangeLog.class)
+                .createUnmarshaller().unmarshal(new StringReader(changeLog));
+        return SchemaModel.of(dcl.getChangeSetOrIncludeOrIncludeAll().stream()
+                .map(DatabaseChangeLog.ChangeSet.class::cast).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testModel() throws JAXBException {
+        SchemaModel model = model(AFTER);
+        SchemaModel.Table client = model.getTable("client");
+        assertEquals(Arrays.asList("ID", "CLIENT_ID", "REALM_ID", "CLIENT_SECRET"), client.getColumns());
+        assertEquals(Arrays.asList("ID"), client.getPrimaryKey());
+        assertEquals(Arrays.asList("UK_CLIENT", "FK_REALM"), Arrays.asList(client.getIndexes().keySet().toArray()));
+        SchemaModel.Index unique = client.getIndexes().get("UK_CLIENT");
+        assertTrue(unique.isUnique());
+        assertEquals(Arrays.asList("REALM_ID", "CLIENT_ID"), unique.getColumns());
+        assertEquals(Arrays.asList("CLIENT_SECRET"), unique.getStoring());
+        assertEquals(2, client.getFamilyCount());
+
+        List<SchemaModel.ForeignKey> referencing = model.getReferencingForeignKeys("REALM");
+        assertEquals(1, referencing.size());
+        assertEquals("CLIENT", referencing.get(0).getTable());
+        assertEquals(Arrays.asList("UK_REALM_NAME"), Arrays.asList(model.getTable("REALM").getIndexes().keySet()
+                .toArray()));
+
+        assertEquals(4, client.getInsertWrites());
+        assertEquals(6, client.getUpdateWrites());
+        assertEquals(1, model.getInsertForeignKeyChecks("CLIENT"));
+        assertEquals(1, model.getDeleteForeignKeyChecks("REALM"));
+    }
+
+    @Test
+    public void testDiffReport() throws JAXBException {
+        String report = new SchemaDiffReport(model(BEFORE), model(AFTER)).toString();
+        String[] lines = report.split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[1].startsWith("* CLIENT "));
+        assertEquals(Arrays.asList("*", "CLIENT", "1>2", "1", "0", "1>2", "2>4", "3>6", "2>4"),
+                Arrays.asList(lines[1].split("\\s+")));
+        assertTrue(lines[2].startsWith("  REALM "));
+        assertTrue(lines[3].contains("total (1 of 2 tables changed)"));
+    }
+
+    @Test
+    public void testPartialIndex() throws JAXBException {
+        String partial = HEADER + TABLES
+                + "<changeSet author=\"test\" id=\"2\">\n"
+                + "<sql>CREATE INDEX IDX_SECRET ON CLIENT (CLIENT_ID) WHERE SECRET IS NOT NULL;</sql>\n"
+                + "<renameColumn tableName=\"CLIENT\" oldColumnName=\"SECRET\" newColumnName=\"CLIENT_SECRET\"/>\n"
+                + "</changeSet>\n"
+                + "</databaseChangeLog>\n";
+        SchemaModel model = model(partial);
+        SchemaModel.Index index = model.getTable("CLIENT").getIndexes().get("IDX_SECRET");
+        assertTrue(index.isPartial());
+        assertEquals("CLIENT_SECRET IS NOT NULL", index.getPredicate());
+        assertFalse(model.getTable("CLIENT").hasIndexStartingWith(Collections.singletonList("CLIENT_ID")));
+
+        String full = partial.replace(" WHERE SECRET IS NOT NULL", "");
+        String[] lines = new SchemaDiffReport(model(full), model).toString().split("\n");
+        assertTrue(lines[1].startsWith("* CLIENT "));
+        assertEquals("  partial index CLIENT.IDX_SECRET: full -> WHERE CLIENT_SECRET IS NOT NULL",
+                lines[lines.length - 1]);
+    }
+}
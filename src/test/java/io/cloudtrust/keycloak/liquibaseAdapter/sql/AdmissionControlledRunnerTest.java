@@ -0,0 +1,130 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.sql;
+
+import io.cloudtrust.keycloak.jdbc.FakeDataSource;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.cloudtrust.keycloak.jdbc.FakeDataSource.proxy;
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class AdmissionControlledRunnerTest {
+
+    private final List<String> statements = new CopyOnWriteArrayList<>();
+    private final NavigableSet<Integer> rows = new ConcurrentSkipListSet<>();
+
+    private DataSource dataSource() {
+        Connection connection = proxy(Connection.class, (p, method, args) ->
+                method.getName().equals("prepareStatement") ? statement((String) args[0]) : null);
+        return FakeDataSource.dataSource(() -> connection);
+    }
+
+    /**
+     * A statement on the keys of the rows matching the condition
+     */
+    private PreparedStatement statement(String sql) {
+        List<Object> parameters = new ArrayList<>();
+        return proxy(PreparedStatement.class, (p, method, args) -> {
+            switch (method.getName()) {
+                case "setObject":
+                case "setInt":
+                    parameters.add(args[1]);
+                    return null;
+                case "executeQuery":
+                    statements.add(sql + " " + parameters);
+                    NavigableSet<Integer> after = sql.contains(" > ?")
+                            ? rows.tailSet((Integer) parameters.get(0), false) : rows;
+                    Iterator<Integer> keys = after.stream().limit((Integer) parameters.get(parameters.size() - 1))
+                            .iterator();
+                    Integer[] current = {null};
+                    return proxy(ResultSet.class, (r, m, a) -> {
+                        if (m.getName().equals("next")) {
+                            current[0] = keys.hasNext() ? keys.next() : null;
+                            return current[0] != null;
+                        }
+                        return m.getName().equals("getObject") ? current[0] : null;
+                    });
+                case "executeUpdate":
+                    statements.add(sql + " " + parameters);
+                    Integer upper = (Integer) parameters.get(parameters.size() - 1);
+                    NavigableSet<Integer> range = parameters.size() > 1
+                            ? rows.subSet((Integer) parameters.get(0), false, upper, true) : rows.headSet(upper, true);
+                    return range.size();
+                default:
+                    return null;
+            }
+        });
+    }
+
+    @Test
+    public void testAimd() {
+        AtomicLong latency = new AtomicLong(1_000_000);
+        AdmissionControlledRunner runner = new AdmissionControlledRunner(latency::get, 5_000_000, 100, 1000, 4, 0);
+        for (int i = 0; i < 20; i++) {
+            runner.adjust();
+        }
+        assertEquals(1000, runner.getBatchSize());
+        assertEquals(4, runner.getConcurrency());
+        assertFalse(runner.isOverloaded());
+
+        latency.set(10_000_000);
+        assertTrue(runner.isOverloaded());
+        runner.adjust();
+        assertEquals(500, runner.getBatchSize());
+        assertEquals(2, runner.getConcurrency());
+        for (int i = 0; i < 10; i++) {
+            runner.adjust();
+        }
+        assertEquals(100, runner.getBatchSize());
+        assertEquals(1, runner.getConcurrency());
+    }
+
+    @Test
+    public void testBatchedUpdate() throws SQLException {
+        for (int i = 1; i <= 1000; i++) {
+            rows.add(i);
+        }
+        AdmissionControlledRunner runner = new AdmissionControlledRunner(() -> 0, 5_000_000, 100, 400, 2, 0);
+        long updated = runner.update(dataSource(), "USER_ENTITY", "NOT_BEFORE", "0", "NOT_BEFORE IS NULL", "ID");
+
+        assertEquals(1000, updated);
+        assertEquals("SELECT ID FROM USER_ENTITY WHERE (NOT_BEFORE IS NULL) ORDER BY ID LIMIT ? [100]",
+                statements.get(0));
+        assertEquals("UPDATE USER_ENTITY SET NOT_BEFORE = 0 WHERE (NOT_BEFORE IS NULL) AND ID <= ? [100]",
+                statements.get(1));
+        assertEquals("SELECT ID FROM USER_ENTITY WHERE (NOT_BEFORE IS NULL) AND ID > ? ORDER BY ID LIMIT ? [100, 400]",
+                statements.get(2));
+        // two workers on consecutive ranges
+        assertTrue(statements.contains("UPDATE USER_ENTITY SET NOT_BEFORE = 0 WHERE (NOT_BEFORE IS NULL) AND ID > ? "
+                + "AND ID <= ? [100, 300]"));
+        assertTrue(statements.contains("UPDATE USER_ENTITY SET NOT_BEFORE = 0 WHERE (NOT_BEFORE IS NULL) AND ID > ? "
+                + "AND ID <= ? [300, 500]"));
+    }
+
+    @Test
+    public void testNonDeterministicValue() throws SQLException {
+        // the rows keep matching the condition once updated, the cursor still reaches the end of the table
+        for (int i = 1; i <= 250; i++) {
+            rows.add(i);
+        }
+        AdmissionControlledRunner runner = new AdmissionControlledRunner(() -> 0, 5_000_000, 100, 100, 1, 0);
+        assertEquals(250, runner.update(dataSource(), "CLIENT", "SECRET", "gen_random_uuid()::STRING", null, "ID"));
+        assertEquals(6, statements.size());
+        assertEquals("UPDATE CLIENT SET SECRET = gen_random_uuid()::STRING WHERE ID > ? AND ID <= ? [200, 250]",
+                statements.get(5));
+    }
+}
@@ -0,0 +1,77 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.sql;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class SchemaChangeJobMonitorTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private final List<SchemaChangeJob> jobs = new ArrayList<>();
+
+    @Test
+    public void testProgress() throws SQLException {
+        SchemaChangeJobMonitor monitor = new SchemaChangeJobMonitor(() -> jobs);
+        jobs.add(new SchemaChangeJob(1, "CREATE INDEX IDX ON EVENT_ENTITY (REALM_ID)", "running", 0.1, 1_000_000, 0));
+        jobs.add(new SchemaChangeJob(2, "ALTER TABLE CLIENT ADD COLUMN X INT", "running", 0, 0, 0));
+        monitor.poll(0);
+        assertEquals(-1, monitor.getProgress().get(0).getEtaSeconds());
+
+        jobs.set(0, new SchemaChangeJob(1, "CREATE INDEX IDX ON EVENT_ENTITY (REALM_ID)", "running", 0.3, 1_000_000,
+                0));
+        jobs.set(1, new SchemaChangeJob(2, "ALTER TABLE CLIENT ADD COLUMN X INT", "running", 0.5, 0, 0));
+        monitor.poll(10 * SECOND);
+        SchemaChangeJobMonitor.JobProgress index = monitor.getProgress().get(0);
+        assertEquals(0.02, index.getFractionPerSecond(), 1e-9);
+        assertEquals(20000, index.getRowsPerSecond(), 1e-6);
+        assertEquals(35, index.getEtaSeconds());
+        assertEquals(0, monitor.getProgress().get(1).getRowsPerSecond(), 0);
+        assertEquals("job 1 running 30.0% 20000 rows/s ETA 0:00:35 CREATE INDEX IDX ON EVENT_ENTITY (REALM_ID)\n"
+                        + "job 2 running 50.0% ETA 0:00:10 ALTER TABLE CLIENT ADD COLUMN X INT\n",
+                monitor.report());
+
+        // a finished job is forgotten, the rates are computed again if it shows up
+        jobs.remove(1);
+        monitor.poll(20 * SECOND);
+        assertEquals(1, monitor.getProgress().size());
+        jobs.add(new SchemaChangeJob(2, "ALTER TABLE CLIENT ADD COLUMN X INT", "running", 0.6, 0, 0));
+        monitor.poll(30 * SECOND);
+        assertEquals(-1, monitor.getProgress().get(1).getEtaSeconds());
+    }
+
+    @Test
+    public void testAwaitJobs() throws SQLException {
+        AtomicInteger polls = new AtomicInteger();
+        long now = System.currentTimeMillis();
+        SchemaChangeJobMonitor monitor = new SchemaChangeJobMonitor(() -> {
+            // a job created before the changeSet never finishes, the job of the changeSet finishes at the 2nd poll
+            List<SchemaChangeJob> polled = new ArrayList<>();
+            polled.add(new SchemaChangeJob(1, "CREATE INDEX A ON B (C)", "running", 0.5, 0, now - 60_000));
+            if (polls.incrementAndGet() < 2) {
+                polled.add(new SchemaChangeJob(2, "CREATE INDEX D ON E (F)", "running", 0.5, 0, now));
+            }
+            return polled;
+        });
+        monitor.awaitJobs(now);
+        assertEquals(2, polls.get());
+    }
+
+    @Test
+    public void testPauseBetweenChangeSets() {
+        AtomicInteger checks = new AtomicInteger();
+        SchemaChangeJobMonitor monitor = new SchemaChangeJobMonitor(Collections::emptyList,
+                () -> checks.incrementAndGet() < 3, 1);
+        monitor.awaitLowLoad();
+        assertEquals(3, checks.get());
+    }
+}
@@ -0,0 +1,232 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.sql;
+
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DatabaseChangeLog;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.Sql;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class SqlRendererTest {
+
+    private static final String CHANGELOG = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n"
+            + "    <changeSet author=\"test\" id=\"1\">\n"
+            + "        <createTable tableName=\"REALM\">\n"
+            + "            <column name=\"ID\" type=\"VARCHAR(36)\">\n"
+            + "                <constraints nullable=\"false\" primaryKey=\"true\" primaryKeyName=\"PK_REALM\"/>\n"
+            + "            </column>\n"
+            + "            <column name=\"NAME\" type=\"NVARCHAR(255)\"/>\n"
+            + "            <column name=\"ENABLED\" type=\"BOOLEAN\" defaultValueBoolean=\"false\"/>\n"
+            + "            <column name=\"USER\" type=\"CLOB\"/>\n"
+            + "            <column name=\"CREATED\" type=\"DATETIME\"/>\n"
+            + "        </createTable>\n"
+            + "        <addUniqueConstraint columnNames=\"NAME\" constraintName=\"UK_REALM\" tableName=\"REALM\"/>\n"
+            + "        <createIndex indexName=\"IDX_1\" tableName=\"REALM\">\n"
+            + "            <column name=\"NAME\" type=\"VARCHAR(255)\"/>\n"
+            + "        </createIndex>\n"
+            + "    </changeSet>\n"
+            + "    <changeSet author=\"test\" id=\"2\">\n"
+            + "        <addForeignKeyConstraint baseColumnNames=\"REALM_ID\" baseTableName=\"CLIENT\" "
+            + "constraintName=\"FK_1\" referencedColumnNames=\"ID\" referencedTableName=\"REALM\" onDelete=\"CASCADE\"/>\n"
+            + "        <addColumn tableName=\"CLIENT\">\n"
+            + "            <column name=\"X\" type=\"INT\" valueNumeric=\"0\"/>\n"
+            + "        </addColumn>\n"
+            + "        <addNotNullConstraint tableName=\"CLIENT\" columnName=\"X\" defaultNullValue=\"0\"/>\n"
+            + "        <dropUniqueConstraint constraintName=\"UK_1\" tableName=\"CLIENT\"/>\n"
+            + "        <renameColumn tableName=\"CLIENT\" oldColumnName=\"A\" newColumnName=\"B\"/>\n"
+            + "    </changeSet>\n"
+            + "    <changeSet author=\"test\" id=\"3\">\n"
+            + "        <insert tableName=\"REALM\">\n"
+            + "            <column name=\"ID\" value=\"it's\"/>\n"
+            + "            <column name=\"ENABLED\" valueBoolean=\"true\"/>\n"
+            + "        </insert>\n"
+            + "        <update tableName=\"CLIENT\">\n"
+            + "            <column name=\"X\" valueNumeric=\"3\"/>\n"
+            + "            <where>ID = 'a'</where>\n"
+            + "        </update>\n"
+            + "        <delete tableName=\"CLIENT\"><where>ID = 'b'</where></delete>\n"
+            + "        <sql>UPDATE T SET A = 'x;y'; -- a comment; still a comment\n"
+            + "            DELETE FROM T;</sql>\n"
+            + "        <tagDatabase tag=\"v1\"/>\n"
+            + "    </changeSet>\n"
+            + "    <changeSet author=\"test\" id=\"4\">\n"
+            + "        <loadData file=\"seed.csv\" tableName=\"SEED\"/>\n"
+            + "    </changeSet>\n"
+            + "</databaseChangeLog>\n";
+
+    private List<Object> load() throws JAXBException {
+        DatabaseChangeLog dcl = (DatabaseChangeLog) JAXBContext.newInstance(DatabaseChangeLog.class)
+                .createUnmarshaller().unmarshal(new StringReader(CHANGELOG));
+        return dcl.getChangeSetOrIncludeOrIncludeAll();
+    }
+
+    private RenderedChangeSet render(int index) throws JAXBException {
+        return new SqlRenderer().render((DatabaseChangeLog.ChangeSet) load().get(index), "master.xml", "7:0");
+    }
+
+    @Test
+    public void testSchemaChanges() throws JAXBException {
+        RenderedChangeSet rendered = render(0);
+        assertTrue(rendered.isComplete());
+        assertEquals(Arrays.asList(
+                "CREATE TABLE REALM (ID VARCHAR(36) NOT NULL, NAME VARCHAR(255), ENABLED BOOLEAN DEFAULT false, "
+                        + "\"user\" TEXT, CREATED TIMESTAMP, CONSTRAINT PK_REALM PRIMARY KEY (ID))",
+                "ALTER TABLE REALM ADD CONSTRAINT UK_REALM UNIQUE (NAME)",
+                "CREATE INDEX IDX_1 ON REALM (NAME)"), rendered.getStatements());
+
+        rendered = render(1);
+        assertEquals(Arrays.asList(
+                "ALTER TABLE CLIENT ADD CONSTRAINT FK_1 FOREIGN KEY (REALM_ID) REFERENCES REALM (ID) ON DELETE CASCADE",
+                "ALTER TABLE CLIENT ADD COLUMN X INT",
+                "UPDATE CLIENT SET X = 0",
+                "UPDATE CLIENT SET X = '0' WHERE X IS NULL",
+                "ALTER TABLE CLIENT ALTER COLUMN X SET NOT NULL",
+                "DROP INDEX CLIENT@UK_1 CASCADE",
+                "ALTER TABLE CLIENT RENAME COLUMN A TO B"), rendered.getStatements());
+    }
+
+    @Test
+    public void testDataChanges() throws JAXBException {
+        RenderedChangeSet rendered = render(2);
+        assertTrue(rendered.isComplete());
+        assertEquals(Arrays.asList(
+                "INSERT INTO REALM (ID, ENABLED) VALUES ('it''s', true)",
+                "UPDATE CLIENT SET X = 3 WHERE ID = 'a'",
+                "DELETE FROM CLIENT WHERE ID = 'b'",
+                "UPDATE T SET A = 'x;y'; -- a comment; still a comment\n            DELETE FROM T"),
+                rendered.getStatements());
+    }
+
+    @Test
+    public void testSplitSql() {
+        Sql sql = new Sql();
+        sql.getContent().add("UPDATE A SET B = 1;\nUPDATE A SET C = 'x;y'; UPDATE A SET D = 2\ngo\n"
+                + "/* done; */ DELETE FROM A -- all;\n;");
+        // an inline ";" does not end a statement
+        assertEquals(Arrays.asList("UPDATE A SET B = 1", "UPDATE A SET C = 'x;y'; UPDATE A SET D = 2",
+                "/* done; */ DELETE FROM A -- all"), split(sql));
+
+        sql.setStripComments("true");
+        assertEquals(Arrays.asList("UPDATE A SET B = 1", "UPDATE A SET C = 'x;y'; UPDATE A SET D = 2",
+                "DELETE FROM A"), split(sql));
+
+        sql.setEndDelimiter("\\n/\\s*\\n");
+        sql.setStripComments(null);
+        sql.getContent().set(0, "BEGIN X; END;\n/\nDELETE FROM A;");
+        assertEquals(Arrays.asList("BEGIN X; END;", "DELETE FROM A;"), split(sql));
+
+        sql.setSplitStatements("false");
+        assertEquals(Collections.singletonList("BEGIN X; END;\n/\nDELETE FROM A;"), split(sql));
+    }
+
+    private static List<String> split(Sql sql) {
+        return SqlRenderer.splitSql(sql);
+    }
+
+    @Test
+    public void testUnsupportedChanges() throws JAXBException, IOException {
+        RenderedChangeSet rendered = render(3);
+        assertFalse(rendered.isComplete());
+        assertEquals(Collections.singletonList("loadData"), rendered.getUnsupported());
+        assertTrue(rendered.getStatements().isEmpty());
+
+        StringWriter script = new StringWriter();
+        SqlRenderer.writeScript(Collections.singletonList(rendered), script);
+        assertEquals("-- changeset master.xml::4::test\n-- unsupported change: loadData\n\n", script.toString());
+    }
+
+    @Test
+    public void testDataLoads() throws JAXBException, IOException {
+        RenderedChangeSet rendered = new SqlRenderer().render((DatabaseChangeLog.ChangeSet) load().get(3),
+                "master.xml", "7:0", Paths.get("changelogs"));
+        assertTrue(rendered.isComplete());
+        assertEquals(1, rendered.getDataLoads().size());
+        assertEquals(0, rendered.getDataLoads().get(0).getPosition());
+        assertEquals(Paths.get("changelogs"), rendered.getDataLoads().get(0).getDirectory());
+
+        StringWriter script = new StringWriter();
+        SqlRenderer.writeScript(Collections.singletonList(rendered), script);
+        assertEquals("-- changeset master.xml::4::test\n-- loadData seed.csv into SEED (COPY)\n\n", script.toString());
+    }
+
+    private static final String PRECONDITIONS = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n"
+            + "    <changeSet author=\"test\" id=\"1\">\n"
+            + "        <preConditions onFail=\"MARK_RAN\"><not><dbms type=\"postgresql\"/></not></preConditions>\n"
+            + "        <sql>UPDATE T SET A = 1</sql>\n"
+            + "    </changeSet>\n"
+            + "    <changeSet author=\"test\" id=\"2\">\n"
+            + "        <preConditions onFail=\"CONTINUE\"><dbms type=\"oracle, mssql\"/></preConditions>\n"
+            + "        <sql>UPDATE T SET A = 2</sql>\n"
+            + "    </changeSet>\n"
+            + "    <changeSet author=\"test\" id=\"3\">\n"
+            + "        <preConditions><or><dbms type=\"oracle\"/><dbms type=\"postgresql\"/></or></preConditions>\n"
+            + "        <sql dbms=\"oracle\">UPDATE T SET A = 3</sql>\n"
+            + "        <sql dbms=\"postgresql,h2\">UPDATE T SET A = 4</sql>\n"
+            + "        <insert tableName=\"T\" dbms=\"!postgresql\"><column name=\"A\" valueNumeric=\"5\"/></insert>\n"
+            + "        <insert tableName=\"T\" dbms=\"postgresql\"><column name=\"A\" valueNumeric=\"6\"/></insert>\n"
+            + "    </changeSet>\n"
+            + "    <changeSet author=\"test\" id=\"4\">\n"
+            + "        <preConditions onFail=\"MARK_RAN\"><and><dbms type=\"postgresql\"/>"
+            + "<tableExists tableName=\"T\"/></and></preConditions>\n"
+            + "        <sql>UPDATE T SET A = 7</sql>\n"
+            + "    </changeSet>\n"
+            + "    <changeSet author=\"test\" id=\"5\">\n"
+            + "        <preConditions onFailMessage=\"oracle only\"><dbms type=\"oracle\"/></preConditions>\n"
+            + "        <sql>UPDATE T SET A = 8</sql>\n"
+            + "    </changeSet>\n"
+            + "</databaseChangeLog>\n";
+
+    @Test
+    public void testPreconditions() throws JAXBException {
+        List<Object> changeSets = ((DatabaseChangeLog) JAXBContext.newInstance(DatabaseChangeLog.class)
+                .createUnmarshaller().unmarshal(new StringReader(PRECONDITIONS))).getChangeSetOrIncludeOrIncludeAll();
+        SqlRenderer renderer = new SqlRenderer();
+
+        RenderedChangeSet markRan = renderer.render((DatabaseChangeLog.ChangeSet) changeSets.get(0), "m.xml", "7:0");
+        assertTrue(markRan.isComplete());
+        assertTrue(markRan.getStatements().isEmpty());
+
+        assertNull(renderer.render((DatabaseChangeLog.ChangeSet) changeSets.get(1), "m.xml", "7:0"));
+
+        RenderedChangeSet filtered = renderer.render((DatabaseChangeLog.ChangeSet) changeSets.get(2), "m.xml", "7:0");
+        assertTrue(filtered.isComplete());
+        assertEquals(Arrays.asList("UPDATE T SET A = 4", "INSERT INTO T (A) VALUES (6)"), filtered.getStatements());
+
+        RenderedChangeSet unsupported = renderer.render((DatabaseChangeLog.ChangeSet) changeSets.get(3), "m.xml",
+                "7:0");
+        assertFalse(unsupported.isComplete());
+        assertEquals(Collections.singletonList("preConditions/tableExists"), unsupported.getUnsupported());
+
+        try {
+            renderer.render((DatabaseChangeLog.ChangeSet) changeSets.get(4), "m.xml", "7:0");
+            fail("The failed preconditions must halt the rendering");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().endsWith(": oracle only"));
+        }
+    }
+
+    @Test
+    public void testTypes() {
+        assertEquals("BYTEA", SqlRenderer.type("BLOB"));
+        assertEquals("TEXT", SqlRenderer.type("java.sql.Types.CLOB"));
+        assertEquals("VARCHAR(255)", SqlRenderer.type("java.sql.Types.VARCHAR(255)"));
+        assertEquals("DOUBLE PRECISION", SqlRenderer.type("DOUBLE"));
+        assertEquals("SMALLINT", SqlRenderer.type("TINYINT"));
+        assertEquals("DECIMAL(19,2)", SqlRenderer.type("NUMBER(19, 2)"));
+        assertEquals("STRING", SqlRenderer.type("STRING"));
+    }
+}
@@ -0,0 +1,377 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.sql;
+
+import io.cloudtrust.keycloak.jdbc.FakeDataSource;
+import io.cloudtrust.keycloak.liquibaseAdapter.ChangeLogState;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.DatabaseChangeLog;
+import io.cloudtrust.keycloak.liquibaseAdapter.pojo.liquibase.LoadData;
+import io.cloudtrust.keycloak.liquibaseAdapter.schema.SchemaModel;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.core.BaseConnection;
+import org.postgresql.core.QueryExecutor;
+
+import javax.sql.DataSource;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static io.cloudtrust.keycloak.jdbc.FakeDataSource.proxy;
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class SqlScriptExecutorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> log = new ArrayList<>();
+    private final List<String[]> rows = new ArrayList<>();
+    private String failing;
+    private boolean locked;
+
+    private Connection connection() {
+        return proxy(BaseConnection.class, (p, method, args) -> {
+            switch (method.getName()) {
+                case "unwrap":
+                    return p;
+                case "getCopyAPI":
+                    return new CopyManager((BaseConnection) p);
+                case "getQueryExecutor":
+                    return proxy(QueryExecutor.class, (e, m, a) -> m.getName().equals("startCopy") ? copyIn(a[0])
+                            : null);
+                case "getAutoCommit":
+                    return true;
+                case "setAutoCommit":
+                    log.add("autoCommit " + args[0]);
+                    return null;
+                case "commit":
+                case "rollback":
+                    log.add(method.getName());
+                    return null;
+                case "createStatement":
+                    return statement();
+                case "prepareStatement":
+                    return proxy(PreparedStatement.class, (s, m, a) -> {
+                        if (m.getName().equals("executeUpdate")) {
+                            log.add("update " + args[0]);
+                            return locked ? 0 : 1;
+                        } else if (m.getName().equals("executeQuery")) {
+                            log.add("query " + args[0]);
+                            return resultSet();
+                        }
+                        return null;
+                    });
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private CopyIn copyIn(Object sql) {
+        StringBuilder data = new StringBuilder();
+        return proxy(CopyIn.class, (p, method, args) -> {
+            switch (method.getName()) {
+                case "writeToCopy":
+                    data.append(new String((byte[]) args[0], (Integer) args[1], (Integer) args[2],
+                            StandardCharsets.UTF_8));
+                    return null;
+                case "endCopy":
+                    log.add("copy " + sql + " " + data);
+                    return (long) data.toString().split("\n").length;
+                default:
+                    return false;
+            }
+        });
+    }
+
+    private Statement statement() {
+        List<String> batch = new ArrayList<>();
+        return proxy(Statement.class, (p, method, args) -> {
+            switch (method.getName()) {
+                case "addBatch":
+                    batch.add((String) args[0]);
+                    return null;
+                case "executeBatch":
+                    log.add("batch " + batch);
+                    if (failing != null && batch.contains(failing)) {
+                        BatchUpdateException e = new BatchUpdateException("batch failed", new int[0]);
+                        e.setNextException(new SQLException("statement failed"));
+                        throw e;
+                    }
+                    return new int[batch.size()];
+                case "executeQuery":
+                    return resultSet();
+                case "execute":
+                    log.add("execute " + args[0]);
+                    return false;
+                case "executeUpdate":
+                    log.add("update " + args[0]);
+                    return 1;
+                default:
+                    return false;
+            }
+        });
+    }
+
+    private ResultSet resultSet() {
+        int[] index = {-1};
+        return proxy(ResultSet.class, (p, method, args) -> {
+            switch (method.getName()) {
+                case "next":
+                    return ++index[0] < rows.size();
+                case "getString":
+                    return rows.get(index[0])[(Integer) args[0] - 1];
+                case "getInt":
+                    return Integer.parseInt(rows.get(index[0])[(Integer) args[0] - 1]);
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private static RenderedChangeSet changeSet(String id, String... statements) {
+        return new RenderedChangeSet(id, "test", "master.xml", "7:" + id, Arrays.asList(statements),
+                Collections.emptyList());
+    }
+
+    private static RenderedChangeSet changeSet(String id, RenderedChangeSet.ExecType execType, boolean runAlways,
+                                               String... statements) {
+        return new RenderedChangeSet(id, "test", "master.xml", "7:" + id, Arrays.asList(statements),
+                Collections.emptyList(), execType, runAlways);
+    }
+
+    @Test
+    public void testBatches() {
+        List<List<String>> batches = SqlScriptExecutor.batches(Arrays.asList("CREATE TABLE A (ID INT)",
+                "create index I on A (ID)", "INSERT INTO A VALUES (1)", "UPDATE A SET ID = 2", "ALTER TABLE A ADD B INT"));
+        assertEquals(3, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals(2, batches.get(1).size());
+        assertEquals(1, batches.get(2).size());
+        assertEquals(1, SqlScriptExecutor.batches(Collections.emptyList()).size());
+    }
+
+    @Test
+    public void testExecute() throws SQLException {
+        rows.add(new String[]{"0", "test", "other.xml", "4", "7:0"});
+        rows.add(new String[]{"2", "test", "master.xml", "5", "7:2"});
+        int executed = new SqlScriptExecutor().execute(connection(), Arrays.asList(
+                changeSet("1", "CREATE TABLE A (ID INT)", "INSERT INTO A VALUES (1)"),
+                changeSet("2", RenderedChangeSet.ExecType.EXECUTED, true, "CREATE INDEX I ON A (ID)")));
+
+        assertEquals(2, executed);
+        assertEquals("autoCommit true", log.get(0));
+        assertTrue(log.get(1).startsWith("execute CREATE TABLE IF NOT EXISTS DATABASECHANGELOGLOCK "));
+        assertTrue(log.get(3).startsWith("update UPDATE DATABASECHANGELOGLOCK SET LOCKED = true, "));
+        assertTrue(log.get(4).startsWith("execute CREATE TABLE IF NOT EXISTS DATABASECHANGELOG "));
+        assertEquals("execute CREATE INDEX IF NOT EXISTS DATABASECHANGELOG_KEY ON DATABASECHANGELOG "
+                + "(ID, AUTHOR, FILENAME) STORING (MD5SUM)", log.get(5));
+        assertEquals("batch [CREATE TABLE A (ID INT)]", log.get(7));
+        assertEquals("autoCommit false", log.get(8));
+        assertEquals("batch [INSERT INTO A VALUES (1)]", log.get(9));
+        assertEquals("commit", log.get(10));
+        // the changeSets are recorded by a statement of their own, after their batches
+        assertEquals("autoCommit true", log.get(11));
+        assertTrue(log.get(12).startsWith("update INSERT INTO DATABASECHANGELOG "));
+        assertTrue(log.get(12).contains("VALUES ('1', 'test', 'master.xml', now(), 6, 'EXECUTED', '7:1', "));
+        assertEquals("batch [CREATE INDEX I ON A (ID)]", log.get(14));
+        assertTrue(log.get(16).startsWith("update UPDATE DATABASECHANGELOG SET DATEEXECUTED = now(), "
+                + "EXECTYPE = 'RERAN'"));
+        assertTrue(log.get(16).endsWith("WHERE ID = '2' AND AUTHOR = 'test' AND FILENAME = 'master.xml'"));
+        assertTrue(log.get(18).startsWith("update UPDATE DATABASECHANGELOGLOCK SET LOCKED = false, "));
+        assertEquals("autoCommit true", log.get(19));
+        assertEquals(20, log.size());
+    }
+
+    @Test
+    public void testExecuteRecorded() throws SQLException {
+        // changeSet 2 had its checksum cleared by liquibase clearCheckSums
+        rows.add(new String[]{"1", "test", "master.xml", "1", "7:0"});
+        rows.add(new String[]{"2", "test", "master.xml", "2", null});
+        int executed = new SqlScriptExecutor().execute(connection(), Arrays.asList(
+                changeSet("1", "DELETE FROM A"), changeSet("2", "DELETE FROM B")));
+
+        assertEquals(0, executed);
+        assertFalse(log.toString().contains("DELETE FROM"));
+        assertTrue(log.contains("update UPDATE DATABASECHANGELOG SET MD5SUM = '7:2' WHERE ID = '2' AND AUTHOR = 'test' "
+                + "AND FILENAME = 'master.xml'"));
+        assertFalse(log.toString().contains("WHERE ID = '1'"));
+    }
+
+    @Test
+    public void testMarkRan() throws SQLException {
+        int executed = new SqlScriptExecutor().execute(connection(), Collections.singletonList(
+                changeSet("1", RenderedChangeSet.ExecType.MARK_RAN, false)));
+
+        assertEquals(1, executed);
+        assertFalse(log.toString().contains("batch"));
+        assertTrue(log.toString().contains("VALUES ('1', 'test', 'master.xml', now(), 1, 'MARK_RAN', '7:1', "));
+    }
+
+    @Test
+    public void testDataLoad() throws SQLException, IOException {
+        Files.write(folder.getRoot().toPath().resolve("seed.csv"), "ID,NAME\n1,master\n2,\"a,b\"\n"
+                .getBytes(StandardCharsets.UTF_8));
+        LoadData loadData = new LoadData();
+        loadData.setFile("seed.csv");
+        loadData.setTableName("SEED");
+        int executed = new SqlScriptExecutor().execute(connection(), Collections.singletonList(new RenderedChangeSet(
+                "1", "test", "master.xml", "7:1", Arrays.asList("CREATE TABLE SEED (ID INT, NAME STRING)",
+                "UPDATE SEED SET NAME = upper(NAME)"), Collections.emptyList(), RenderedChangeSet.ExecType.EXECUTED,
+                false, Collections.singletonList(new RenderedChangeSet.DataLoad(1, folder.getRoot().toPath(),
+                loadData)))));
+
+        assertEquals(1, executed);
+        int copy = log.indexOf("copy COPY SEED (ID, NAME) FROM STDIN 1\tmaster\n2\ta,b\n");
+        assertEquals("batch [CREATE TABLE SEED (ID INT, NAME STRING)]", log.get(copy - 2));
+        assertEquals("autoCommit true", log.get(copy - 1));
+        assertEquals("batch [UPDATE SEED SET NAME = upper(NAME)]", log.get(copy + 2));
+        assertTrue(log.get(copy + 5).startsWith("update INSERT INTO DATABASECHANGELOG "));
+    }
+
+    @Test
+    public void testAwaitJobs() throws SQLException {
+        SqlScriptExecutor executor = new SqlScriptExecutor();
+        executor.setMonitor(new SchemaChangeJobMonitor(() -> {
+            log.add("jobs");
+            return Collections.emptyList();
+        }));
+        executor.execute(connection(), Arrays.asList(changeSet("1", "CREATE INDEX I ON A (ID)"),
+                changeSet("2", "UPDATE A SET ID = 2")));
+
+        int jobs = log.indexOf("jobs");
+        assertEquals("batch [CREATE INDEX I ON A (ID)]", log.get(jobs - 1));
+        assertTrue(log.get(jobs + 2).startsWith("update INSERT INTO DATABASECHANGELOG "));
+        assertEquals(jobs, log.lastIndexOf("jobs"));
+    }
+
+    @Test
+    public void testRunner() throws SQLException, JAXBException {
+        DatabaseChangeLog dcl = (DatabaseChangeLog) JAXBContext.newInstance(DatabaseChangeLog.class)
+                .createUnmarshaller().unmarshal(new StringReader("<databaseChangeLog "
+                        + "xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\"><changeSet author=\"test\" id=\"1\">"
+                        + "<createTable tableName=\"A\"><column name=\"ID\" type=\"INT\">"
+                        + "<constraints primaryKey=\"true\"/></column><column name=\"B\" type=\"INT\"/></createTable>"
+                        + "</changeSet></databaseChangeLog>"));
+        SchemaModel schema = SchemaModel.of(Collections.singletonList(
+                (DatabaseChangeLog.ChangeSet) dcl.getChangeSetOrIncludeOrIncludeAll().get(0)));
+        DataSource dataSource = FakeDataSource.dataSource(this::connection);
+        SqlScriptExecutor executor = new SqlScriptExecutor();
+        executor.setRunner(new AdmissionControlledRunner(() -> 0, 1_000_000, 100, 1000, 2, 0), dataSource, schema);
+        executor.execute(connection(), Arrays.asList(
+                changeSet("1", "INSERT INTO A VALUES (1)", "UPDATE A SET B = 0 WHERE B IS NULL"),
+                changeSet("2", "UPDATE A SET B = 0 WHERE B IS NULL"),
+                changeSet("3", "UPDATE A SET B = 1 WHERE B = ' WHERE '"),
+                changeSet("4", "UPDATE A SET B = 1 RETURNING ID")));
+
+        // the update of changeSet 1 stays in the transaction of the insert
+        assertTrue(log.contains("batch [INSERT INTO A VALUES (1), UPDATE A SET B = 0 WHERE B IS NULL]"));
+        assertEquals(1, log.stream().filter(l -> l.startsWith("query SELECT ID FROM A WHERE (B IS NULL)")).count());
+        assertTrue(log.contains("batch [UPDATE A SET B = 1 WHERE B = ' WHERE ']"));
+        assertTrue(log.contains("batch [UPDATE A SET B = 1 RETURNING ID]"));
+    }
+
+    @Test
+    public void testLockHeld() {
+        locked = true;
+        try {
+            new SqlScriptExecutor().execute(connection(), Collections.singletonList(changeSet("1", "DELETE FROM A")));
+            fail("The lock should not have been acquired");
+        } catch (SQLException e) {
+            assertEquals("The lock DATABASECHANGELOGLOCK is held by another process", e.getMessage());
+        }
+        assertFalse(log.toString().contains("DELETE FROM A"));
+        assertFalse(log.toString().contains("SET LOCKED = false"));
+    }
+
+    @Test
+    public void testMigration() throws Exception {
+        // changeSet 1 was applied by another node since the follower read of the checker
+        rows.add(new String[]{"1", "test", "master.xml", "4", "7:1"});
+        DataSource dataSource = FakeDataSource.dataSource(this::connection);
+        List<ChangeLogState.ExpectedChangeSet> pending = Arrays.asList(
+                new ChangeLogState.ExpectedChangeSet("1", "test", "master.xml", false, Collections.singleton("7:1")),
+                new ChangeLogState.ExpectedChangeSet("2", "test", "master.xml", false, Collections.singleton("7:2")));
+        new SqlScriptExecutor().migration(dataSource, Arrays.asList(changeSet("1", "DELETE FROM A"),
+                changeSet("2", "DELETE FROM B"), changeSet("3", "DELETE FROM C"))).run(pending);
+
+        assertFalse(log.toString().contains("DELETE FROM A"));
+        assertTrue(log.contains("batch [DELETE FROM B]"));
+        assertFalse(log.toString().contains("DELETE FROM C"));
+    }
+
+    @Test
+    public void testMigrationChecksums() throws Exception {
+        rows.add(new String[]{"1", "test", "master.xml", "1", null});
+        rows.add(new String[]{"2", "test", "master.xml", "2", "7:0"});
+        DataSource dataSource = FakeDataSource.dataSource(this::connection);
+        List<ChangeLogState.ExpectedChangeSet> pending = Arrays.asList(
+                new ChangeLogState.ExpectedChangeSet("1", "test", "master.xml", false, Collections.singleton("7:1")),
+                new ChangeLogState.ExpectedChangeSet("2", "test", "master.xml", false, true,
+                        Collections.singleton("7:2")));
+        new SqlScriptExecutor().migration(dataSource, Arrays.asList(changeSet("1", "DELETE FROM A"),
+                changeSet("2", "DELETE FROM B"))).run(pending);
+
+        assertFalse(log.toString().contains("DELETE FROM A"));
+        assertTrue(log.contains("update UPDATE DATABASECHANGELOG SET MD5SUM = '7:1' WHERE ID = '1' AND AUTHOR = 'test' "
+                + "AND FILENAME = 'master.xml'"));
+        // changeSet 2 is run on change
+        assertTrue(log.contains("batch [DELETE FROM B]"));
+    }
+
+    @Test
+    public void testMigrationChanged() throws Exception {
+        rows.add(new String[]{"2", "test", "master.xml", "1", "7:0"});
+        DataSource dataSource = FakeDataSource.dataSource(this::connection);
+        List<ChangeLogState.ExpectedChangeSet> pending = Arrays.asList(
+                new ChangeLogState.ExpectedChangeSet("1", "test", "master.xml", false, Collections.singleton("7:1")),
+                new ChangeLogState.ExpectedChangeSet("2", "test", "master.xml", false, Collections.singleton("7:2")));
+        try {
+            new SqlScriptExecutor().migration(dataSource, Arrays.asList(changeSet("1", "DELETE FROM A"),
+                    changeSet("2", "DELETE FROM B"))).run(pending);
+            fail("The changed changeSet should have been refused");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("7:0"));
+        }
+        // nothing is executed, and the lock is released
+        assertFalse(log.toString().contains("DELETE FROM"));
+        assertTrue(log.toString().contains("SET LOCKED = false"));
+    }
+
+    @Test
+    public void testFailure() {
+        failing = "INSERT INTO A VALUES (1)";
+        try {
+            new SqlScriptExecutor().execute(connection(), Arrays.asList(
+                    changeSet("1", "INSERT INTO A VALUES (1)"), changeSet("2", "DELETE FROM A")));
+            fail("The batch should have failed");
+        } catch (SQLException e) {
+            assertEquals("statement failed", e.getMessage());
+        }
+        assertTrue(log.contains("rollback"));
+        assertFalse(log.toString().contains("DELETE FROM A"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIncompleteChangeSet() throws SQLException {
+        new SqlScriptExecutor().execute(connection(), Collections.singletonList(new RenderedChangeSet("1", "test",
+                "master.xml", "7:1", Collections.emptyList(), Collections.singletonList("loadData"))));
+    }
+}
@@ -0,0 +1,54 @@
+package io.cloudtrust.keycloak.liquibaseAdapter.workload;
+
+import io.cloudtrust.keycloak.jdbc.FakeDataSource;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static io.cloudtrust.keycloak.jdbc.FakeDataSource.proxy;
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class WorkloadRunnerTest {
+
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private DataSource dataSource() {
+        Connection connection = proxy(Connection.class, (p, method, args) -> null);
+        return FakeDataSource.dataSource(() -> {
+            connections.incrementAndGet();
+            return connection;
+        });
+    }
+
+    @Test
+    public void testRun() throws SQLException {
+        WorkloadRunner runner = new WorkloadRunner(4, 1);
+        runner.add("fast", 3, (connection, random) -> LockSupport.parkNanos(100_000));
+        runner.add("slow", 1, (connection, random) -> LockSupport.parkNanos(2_000_000));
+        runner.add("failing", 1, (connection, random) -> {
+            throw new SQLException("failed");
+        });
+        runner.run(dataSource(), 100, 500);
+
+        assertEquals(4, connections.get());
+        long fast = runner.getHistogram("fast").getCount();
+        long slow = runner.getHistogram("slow").getCount();
+        assertTrue(fast > 2 * slow);
+        assertTrue(slow > 0);
+        assertTrue(runner.getHistogram("slow").getValueAtPercentile(50) >= 2_000_000);
+        assertTrue(runner.getHistogram("fast").getValueAtPercentile(50) < 2_000_000);
+        assertEquals(0, runner.getHistogram("failing").getCount());
+        assertTrue(runner.getErrors("failing") > 0);
+        String report = runner.report();
+        assertTrue(report.contains("p99(ms)"));
+        assertTrue(report.startsWith("query"));
+        assertTrue(report.contains("\nfailing "));
+    }
+}